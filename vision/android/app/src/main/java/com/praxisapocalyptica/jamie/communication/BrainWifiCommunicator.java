@@ -1,12 +1,25 @@
 package com/praxisapocalyptica/jamie.communication;
 
-import java.io.BufferedReader;
+import com/praxisapocalyptica/jamie.perception.DetectedObject;
+import com/praxisapocalyptica/jamie.perception.OccupancyGrid;
+import com/praxisapocalyptica/jamie.perception.PoseBuffer;
+import com/praxisapocalyptica/jamie.perception.VoxelCloud;
+
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 // Import JSON libraries if needed (e.g., org.json or com.google.gson)
 // import org.json.JSONObject;
@@ -17,12 +30,92 @@ public class BrainWifiCommunicator {
 
     private String piAddress;
     private int piPort;
-    private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
-    private boolean isConnected = false;
+    // One non-blocking channel per connection, driven by one selector on the connection thread: it writes the
+    // outbound queue, reads the brain's messages and notices a lost link, with no second thread per connection
+    private SocketChannel channel;
+    private Selector selector; // Guarded by this; closed by the connection thread once its loop ends
+    private volatile boolean isConnected = false;
     private CommunicationListener listener;
 
+    // Wire format negotiated at connect time (see BrainWireProtocol): length-prefixed binary frames if the
+    // brain accepts binary-v1, otherwise the original newline-delimited JSON strings
+    private volatile boolean binaryMode = false;
+    private final BrainWireProtocol.Encoder encoder = new BrainWireProtocol.Encoder(); // Writer thread only
+    private final DetectionDelta.Sender detectionDiff = new DetectionDelta.Sender();   // Writer thread only
+    private static final int MAX_VOXELS_PER_MESSAGE = 4096; // 45 KB binary frame
+    private final VoxelCloud.Batch voxelBatch = new VoxelCloud.Batch(MAX_VOXELS_PER_MESSAGE); // Writer thread only
+    private volatile VoxelCloud pointCloud; // Last cloud streamed, sent again in full after a reconnect
+    private static final int MAX_TILES_PER_MESSAGE = 8; // At most 32 KB of cells per frame (keyframes)
+    private final OccupancyGrid.TileBatch tileBatch = new OccupancyGrid.TileBatch(MAX_TILES_PER_MESSAGE); // Writer thread only
+    private volatile OccupancyGrid occupancyGrid; // Last grid streamed, sent again in full after a reconnect
+    private volatile boolean detectionDiffs = false; // Brain accepted FEATURE_DETECTION_DIFF on this connection
+    private volatile boolean voxelFrames = false; // Brain accepted FEATURE_VOXELS on this connection
+    private volatile boolean gridFrames = false; // Brain accepted FEATURE_OCCUPANCY_GRID on this connection
+    private volatile PoseBuffer poseHistory; // Answers the brain's pose_query messages, see setPoseHistory()
+    private final float[] queryPose = new float[7]; // Scratch for answerPoseQuery (connection thread)
+    private static final int NEGOTIATION_TIMEOUT_MS = 500;
+
+    // Optional binary-mode features accepted in the hello_ack: deflate for large frames (detections, long JSON)
+    // and delta-coded polygons. Compressors are per connection (writer side / receive side).
+    private volatile PayloadCompressor outboundCompressor;
+    private volatile PayloadCompressor inboundCompressor;
+
+    // Outbound messages wait here for the writer loop (see OutboundQueue): prioritised, bounded, and
+    // slam_update / vision_update coalesced so a Wi-Fi stall can't build up seconds of stale poses
+    private static final int OUTBOUND_CAPACITY = 64;
+    private static final long WRITER_POLL_MS = 100;
+    private final OutboundQueue outboundQueue = new OutboundQueue(OUTBOUND_CAPACITY);
+    private final List<OutboundQueue.Message> unflushed = new ArrayList<>();
+
+    // Write aggregation (Nagle-style): written messages are held in the staging buffers and flushed together
+    // once maxBatchMessages are pending or the oldest has waited maxBatchDelayMicros. Control-priority
+    // messages (speech, commands) flush immediately, taking any pending batch with them.
+    // maxBatchDelayMicros = 0 flushes as soon as the queue runs dry.
+    private volatile int maxBatchMessages = 16;
+    private volatile long maxBatchDelayMicros = 2000;
+    private long batchStartNanos = 0;
+    private volatile long flushCount = 0;
+    private volatile long flushedMessageCount = 0;
+
+    // Outbound bytes are staged in reusable direct segments and handed to the channel with one gathering
+    // write per flush (no copy into a heap stream buffer, no write call per message). A batch larger than
+    // the retained segments borrows more for that flush only. While a flush waits for room in the socket
+    // buffer nothing more is taken from the queue, so a Wi-Fi stall coalesces there instead of piling up here.
+    // All connection thread only.
+    private static final int SEGMENT_BYTES = 16 * 1024;
+    private static final int RETAINED_SEGMENTS = 4; // 64 KB: a whole default batch fits in one write
+    private ByteBuffer[] segments = new ByteBuffer[RETAINED_SEGMENTS];
+    private int segmentsUsed = 0;    // Segments holding staged bytes, the last one still being filled
+    private int segmentsWritten = 0; // Of those, the ones already on the wire during a flush
+    private boolean flushing = false; // Segments flipped and partly written: waiting for OP_WRITE
+
+    // Inbound bytes land in one reusable direct buffer (write mode between reads) and are parsed in place,
+    // as frames or JSON lines; it grows for a frame or line that doesn't fit
+    private ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private byte[] lineBytes = new byte[1024];
+
+    // Connection supervisor: after connect() the link is kept up (reconnecting with jittered exponential
+    // backoff) until disconnect(). The outbound queue survives reconnects. There is never more than one
+    // supervisor: connect() while the previous one is still winding down hands it the new session
+    // (connectGeneration) instead of starting a second one.
+    private volatile boolean keepConnected = false;
+    private final Object supervisorLock = new Object();
+    private boolean supervisorRunning = false; // Guarded by supervisorLock
+    private int connectGeneration = 0;         // Guarded by supervisorLock, bumped by every connect()
+    private final ReconnectBackoff backoff = new ReconnectBackoff(250, 10000);
+    private long connectionLostNanos = 0;          // Supervisor thread only
+    private volatile long lastRecoveryMillis = -1; // Connection lost -> reconnected
+    private volatile int reconnectCount = 0;
+
+    // Session resume (see BrainWireProtocol): control-priority messages get a sequence number and are kept
+    // until the brain acknowledges them, then replayed after a reconnect if they were never acknowledged.
+    // Only active with a brain that answers the hello with "received_seq".
+    private static final int MAX_UNACKED = 256;
+    private final String sessionId = Long.toHexString(new Random().nextLong());
+    private long nextSeq = 1; // Supervisor/writer thread only
+    private volatile boolean resumeSupported = false;
+    private final ArrayDeque<OutboundQueue.Message> unacked = new ArrayDeque<>(); // Guarded by itself
+
     // Using an ExecutorService to manage background threads
     private ExecutorService executorService;
 
@@ -36,137 +129,682 @@ public class BrainWifiCommunicator {
         this.piAddress = piAddress;
         this.piPort = piPort;
         this.listener = listener;
-        // Create a fixed-size thread pool for communication tasks
-        executorService = Executors.newFixedThreadPool(2); // One for connecting/sending, one for receiving
+        // The connection thread: supervises the link and does all of its I/O through one selector
+        executorService = Executors.newSingleThreadExecutor();
     }
 
     public boolean is_connected() { // Renamed from is_connected to follow Java conventions
-        return isConnected && (socket != null && !socket.isClosed());
+        final SocketChannel ch = channel;
+        return isConnected && ch != null && ch.isOpen();
     }
 
-    // Connect to the Raspberry Pi server (Call this from UI/Service logic)
+    // Connect to the Raspberry Pi server (Call this from UI/Service logic).
+    // Keeps reconnecting after connection loss until disconnect() is called.
     public void connect() {
-        if (is_connected()) {
-            System.out.println("Already connected to Brain.");
-            return;
+        synchronized (supervisorLock) {
+            if (keepConnected) {
+                System.out.println("Already connected (or reconnecting) to Brain.");
+                return;
+            }
+            keepConnected = true;
+            connectGeneration++;
+            if (supervisorRunning) {
+                supervisorLock.notifyAll(); // The previous supervisor is still winding down: it carries on
+                return;
+            }
+            supervisorRunning = true;
         }
         // Submit the connection task to the executor service
-        executorService.submit(this::runConnection);
+        try {
+            executorService.submit(this::superviseConnection);
+        } catch (RejectedExecutionException e) {
+            synchronized (supervisorLock) {
+                keepConnected = false;
+                supervisorRunning = false;
+            }
+            if (listener != null) listener.onError("Connection failed: communicator was shut down.");
+        }
+    }
+
+    // Supervisor loop: connect, run the writer until the connection drops, back off, repeat.
+    // Exits only once keepConnected is false; a failure of any kind is one more reconnect attempt.
+    private void superviseConnection() {
+        int generation = -1;
+        boolean stopped = false;
+        try {
+            while (true) {
+                synchronized (supervisorLock) {
+                    if (!keepConnected) {
+                        supervisorRunning = false; // Same lock hold as the check, so connect() can't slip in between
+                        stopped = true;
+                        break;
+                    }
+                    if (generation != connectGeneration) { // New connect() session: start over
+                        generation = connectGeneration;
+                        backoff.reset();
+                        connectionLostNanos = 0;
+                    }
+                }
+                try {
+                    runConnection();
+                } catch (IOException e) {
+                    if (listener != null) listener.onConnectionStatusChanged(false);
+                    if (listener != null) listener.onError("Connection failed: " + e.getMessage());
+                    System.err.println("Connection to Brain failed: " + e.getMessage());
+                } catch (RuntimeException e) {
+                    if (listener != null) listener.onError("Connection error: " + e);
+                    System.err.println("Connection to Brain failed: " + e);
+                }
+                closeConnection();
+
+                if (connectionLostNanos == 0) connectionLostNanos = System.nanoTime();
+                final long delayMs = backoff.nextDelayMs();
+                synchronized (supervisorLock) {
+                    if (!keepConnected || generation != connectGeneration) continue;
+                    System.out.println("Reconnecting to Brain in " + delayMs + " ms (attempt " + backoff.getAttempt() + ").");
+                    supervisorLock.wait(delayMs);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // shutdownExecutor()
+        } finally {
+            if (!stopped) {
+                synchronized (supervisorLock) {
+                    supervisorRunning = false;
+                    keepConnected = false; // Nothing is reconnecting any more
+                }
+            }
+        }
+        System.out.println("Brain connection supervisor stopped.");
     }
 
-    private void runConnection() {
+    // One connection: connect, negotiate, replay, then read and write until it drops. Returns when the connection
+    // is gone.
+    private void runConnection() throws IOException {
+        System.out.println("Attempting to connect to Brain at " + piAddress + ":" + piPort);
+        final SocketChannel ch = SocketChannel.open(new InetSocketAddress(piAddress, piPort)); // Blocking connect
+        final Selector sel;
         try {
-            System.out.println("Attempting to connect to Brain at " + piAddress + ":" + piPort);
-            socket = new Socket(piAddress, piPort);
-            out = new PrintWriter(socket.getOutputStream(), true); // AutoFlush
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            ch.configureBlocking(false);
+            sel = Selector.open();
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+        synchronized (this) {
+            if (!keepConnected) { // disconnect() while connecting
+                ch.close();
+                sel.close();
+                return;
+            }
+            channel = ch;
+            selector = sel;
+        }
+        try {
+            final SelectionKey key = ch.register(sel, SelectionKey.OP_READ);
+            negotiateProtocol(ch, sel, key);
             isConnected = true;
+            backoff.reset();
+            if (connectionLostNanos != 0) {
+                lastRecoveryMillis = (System.nanoTime() - connectionLostNanos) / 1000000L;
+                reconnectCount++;
+                connectionLostNanos = 0;
+                System.out.println("Reconnected to Brain after " + lastRecoveryMillis + " ms.");
+            }
             if (listener != null) listener.onConnectionStatusChanged(true);
-            System.out.println("Connected to Brain.");
+            System.out.println("Connected to Brain (" + (binaryMode ? BrainWireProtocol.PROTOCOL_BINARY : BrainWireProtocol.PROTOCOL_JSON_LINES)
+                    + (resumeSupported ? ", resume" : "") + ").");
+
+            // Senders wake the selector; this thread reads and writes for the lifetime of the connection
+            outboundQueue.setWakeup(sel::wakeup);
+            connectionLoop(ch, sel, key);
+        } finally {
+            outboundQueue.setWakeup(null);
+            synchronized (this) {
+                if (selector == sel) selector = null; // closeConnection() no longer wakes it
+            }
+            sel.close();
+            resetBuffers();
+        }
+    }
 
-            // Start the receiving task after successful connection
-            executorService.submit(this::receiveData);
+    // Offers the binary protocol and session resume, and waits briefly for the brain's answer. A brain that
+    // doesn't know the handshake never answers (or answers with something else), so we stay in JSON-lines
+    // mode without resume. Unacknowledged critical messages from the previous connection are queued again.
+    // Whatever follows the answer stays in readBuffer for connectionLoop().
+    private void negotiateProtocol(SocketChannel ch, Selector sel, SelectionKey key) throws IOException {
+        binaryMode = false;
+        resumeSupported = false;
+        boolean deflate = false;
+        boolean polygonDeltas = false;
+        boolean diffs = false;
+        boolean voxels = false;
+        boolean voxelRemovals = false;
+        boolean grid = false;
+        writeLine(BrainWireProtocol.helloLine(sessionId, nextSeq - 1));
+        if (!writeStaged(ch)) key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        final long deadline = System.nanoTime() + NEGOTIATION_TIMEOUT_MS * 1000000L;
+        String reply = null;
+        boolean ended = false;
+        while (reply == null && !ended) {
+            final long waitMs = (deadline - System.nanoTime()) / 1000000L;
+            if (waitMs <= 0) break; // No answer: brain only speaks JSON lines
+            sel.select(waitMs);
+            if (sel.selectedKeys().isEmpty()) continue;
+            sel.selectedKeys().clear();
+            if (key.isWritable() && writeStaged(ch)) key.interestOps(SelectionKey.OP_READ);
+            if (key.isReadable()) {
+                ended = ch.read(readBuffer) < 0; // Left to connectionLoop(), which reads the end again
+                readBuffer.flip();
+                reply = pollLine();
+                readBuffer.compact();
+            }
+        }
+        if (BrainWireProtocol.isHelloAck(reply)) {
+            binaryMode = BrainWireProtocol.isBinaryAck(reply);
+            deflate = BrainWireProtocol.acceptsFeature(reply, BrainWireProtocol.FEATURE_DEFLATE);
+            polygonDeltas = BrainWireProtocol.acceptsFeature(reply, BrainWireProtocol.FEATURE_POLYGON_DELTA);
+            diffs = BrainWireProtocol.acceptsFeature(reply, BrainWireProtocol.FEATURE_DETECTION_DIFF);
+            voxels = BrainWireProtocol.acceptsFeature(reply, BrainWireProtocol.FEATURE_VOXELS);
+            voxelRemovals = BrainWireProtocol.acceptsFeature(reply, BrainWireProtocol.FEATURE_VOXEL_REMOVALS);
+            grid = BrainWireProtocol.acceptsFeature(reply, BrainWireProtocol.FEATURE_OCCUPANCY_GRID);
+            final long receivedSeq = BrainWireProtocol.parseLongField(reply, "received_seq");
+            if (receivedSeq >= 0) {
+                resumeSupported = true;
+                onAck(receivedSeq);
+            }
+        } else if (reply != null && listener != null) {
+            listener.onDataReceived(reply); // Not a handshake answer, just early data
+        }
+        encoder.setPolygonDeltas(polygonDeltas);
+        detectionDiffs = diffs;
+        detectionDiff.reset(); // The brain has nothing to apply diffs to yet: start with a keyframe
+        voxelFrames = voxels;
+        encoder.setVoxelRemovals(voxelRemovals);
+        final VoxelCloud cloud = pointCloud;
+        if (cloud != null) cloud.markAllChanged(); // Voxel messages in flight when the link dropped are gone
+        gridFrames = grid;
+        final OccupancyGrid map = occupancyGrid;
+        if (map != null) map.markAllDirty(); // Same for tile deltas: start over from keyframes
+        outboundCompressor = deflate ? new PayloadCompressor(PayloadCompressor.DEFAULT_THRESHOLD_BYTES) : null;
+        inboundCompressor = deflate ? new PayloadCompressor(PayloadCompressor.DEFAULT_THRESHOLD_BYTES) : null;
+        replayUnacked();
+    }
 
-        } catch (IOException e) {
-            isConnected = false;
-            if (listener != null) listener.onConnectionStatusChanged(false);
-            if (listener != null) listener.onError("Connection failed: " + e.getMessage());
-            System.err.println("Connection to Brain failed: " + e.getMessage());
-            // TODO: Implement reconnection logic here or in the calling code
+    // Brain acknowledged every critical message up to and including seq
+    private void onAck(long seq) {
+        synchronized (unacked) {
+            while (!unacked.isEmpty() && unacked.peekFirst().seq <= seq) unacked.pollFirst();
+        }
+    }
+
+    private void replayUnacked() {
+        final List<OutboundQueue.Message> replay;
+        synchronized (unacked) {
+            if (unacked.isEmpty()) return;
+            replay = new ArrayList<>(unacked);
+            unacked.clear();
         }
+        System.out.println("Replaying " + replay.size() + " unacknowledged message(s) to Brain.");
+        outboundQueue.requeueFront(replay); // Same sequence numbers, so the brain can drop duplicates
     }
 
+    // Takes one newline-terminated UTF-8 line from readBuffer (read mode), or returns null and leaves the
+    // buffer as it was. Bytes after the line (binary frames following the handshake answer) stay put.
+    private String pollLine() {
+        final int start = readBuffer.position();
+        for (int i = start; i < readBuffer.limit(); i++) {
+            if (readBuffer.get(i) != '\n') continue;
+            int length = i - start;
+            if (length > 0 && readBuffer.get(i - 1) == '\r') length--;
+            if (lineBytes.length < length) lineBytes = new byte[Math.max(length, lineBytes.length * 2)];
+            readBuffer.get(lineBytes, 0, length);
+            readBuffer.position(i + 1);
+            return new String(lineBytes, 0, length, StandardCharsets.UTF_8);
+        }
+        return null;
+    }
 
-    // Task method to receive data continuously
-    private void receiveData() {
-        System.out.println("Brain data receive thread started.");
-        try {
-            String line;
-            // Read lines terminated by newline while connected
-            while (isConnected() && in != null && (line = in.readLine()) != null) { // Check if in is not null
-                System.out.println("Received from Brain: " + line);
-                // Process the received data string (assumed to be a JSON string)
-                if (listener != null) {
-                     // TODO: Add JSON parsing here if always expecting JSON
-                     // try {
-                     //     JSONObject jsonData = new JSONObject(line);
-                     //     listener.onJsonDataReceived(jsonData); // If listener has this method
-                     // } catch (JSONException e) {
-                     //     System.err.println("Received non-JSON data or invalid JSON: " + line);
-                     //     listener.onDataReceived(line); // Pass raw string if parsing fails
-                     // }
-                     listener.onDataReceived(line); // Pass raw string
-                }
+    private void writeLine(String data) {
+        stage(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)));
+        if (!data.endsWith("\n")) stage(ByteBuffer.wrap(NEWLINE)); // Ensure newline terminator
+    }
+
+    private static final byte[] NEWLINE = {'\n'};
+
+    private void writeFrame(ByteBuffer frame) {
+        stage(frame);
+    }
+
+    // Copies bytes into the staging segments, starting a new segment whenever the last one is full
+    private void stage(ByteBuffer src) {
+        while (src.hasRemaining()) {
+            ByteBuffer segment = segmentsUsed == 0 ? null : segments[segmentsUsed - 1];
+            if (segment == null || !segment.hasRemaining()) {
+                if (segmentsUsed == segments.length) segments = Arrays.copyOf(segments, segmentsUsed * 2);
+                if (segments[segmentsUsed] == null) segments[segmentsUsed] = ByteBuffer.allocateDirect(SEGMENT_BYTES);
+                segment = segments[segmentsUsed++];
             }
-        } catch (IOException e) {
-             if (isConnected()) { // Only report error if connection was supposedly active
-                 if (listener != null) listener.onError("Receive error: " + e.getMessage());
-                 System.err.println("Receive error from Brain: " + e.getMessage());
-             }
-        } finally {
-            // Ensure disconnection on error or stream end
-            disconnect();
+            final int n = Math.min(src.remaining(), segment.remaining());
+            final int limit = src.limit();
+            src.limit(src.position() + n);
+            segment.put(src);
+            src.limit(limit);
+        }
+    }
+
+    // Writes the staged segments with gathering writes until they are all out (true) or the socket buffer is
+    // full (false: call again once the channel is writable). Segments are recycled once written.
+    private boolean writeStaged(SocketChannel ch) throws IOException {
+        if (!flushing) {
+            for (int i = 0; i < segmentsUsed; i++) segments[i].flip();
+            segmentsWritten = 0;
+            flushing = true;
+        }
+        while (segmentsWritten < segmentsUsed) {
+            if (ch.write(segments, segmentsWritten, segmentsUsed - segmentsWritten) == 0) return false;
+            while (segmentsWritten < segmentsUsed && !segments[segmentsWritten].hasRemaining()) segmentsWritten++;
         }
-        System.out.println("Brain data receive thread stopped.");
+        resetStaging();
+        return true;
     }
 
+    private void resetStaging() {
+        for (int i = 0; i < segmentsUsed; i++) segments[i].clear();
+        if (segments.length > RETAINED_SEGMENTS) segments = Arrays.copyOf(segments, RETAINED_SEGMENTS);
+        segmentsUsed = 0;
+        segmentsWritten = 0;
+        flushing = false;
+    }
+
+    // A connection's leftovers must not leak into the next one
+    private void resetBuffers() {
+        resetStaging();
+        readBuffer.clear();
+    }
 
-    // Send a command string (assumed to be a JSON string) to the Raspberry Pi
+    // Reads what the brain sent and handles every complete message. Returns false at end of stream.
+    private boolean receive(SocketChannel ch) throws IOException {
+        if (ch.read(readBuffer) < 0) return false;
+        handleInput();
+        if (!readBuffer.hasRemaining()) { // A single frame or line larger than the buffer: grow it
+            final ByteBuffer bigger = ByteBuffer.allocateDirect(readBuffer.capacity() * 2);
+            readBuffer.flip();
+            bigger.put(readBuffer);
+            readBuffer = bigger;
+        }
+        return true;
+    }
+
+    // Binary mode: length-prefixed frames, the brain's JSON messages arrive as TYPE_JSON frames.
+    // Otherwise newline-terminated JSON strings. A partial frame or line stays in readBuffer.
+    private void handleInput() {
+        readBuffer.flip();
+        if (binaryMode) {
+            BrainWireProtocol.decodeFrames(readBuffer, this::onFrame); // Compacts readBuffer
+            return;
+        }
+        String line;
+        while (isConnected && (line = pollLine()) != null) {
+            System.out.println("Received from Brain: " + line);
+            onMessage(line);
+        }
+        readBuffer.compact();
+    }
+
+    private void onFrame(byte type, ByteBuffer payload) {
+        final PayloadCompressor decompressor = inboundCompressor;
+        if (type == BrainWireProtocol.TYPE_COMPRESSED && decompressor != null) {
+            payload = decompressor.decompress(payload);
+            type = decompressor.getLastInnerType();
+        }
+        if (type == BrainWireProtocol.TYPE_JSON) {
+            onMessage(BrainWireProtocol.decodeJson(payload));
+        } else {
+            System.err.println("Ignoring frame type " + type + " from Brain.");
+        }
+    }
+
+    // TODO: Add JSON parsing here if always expecting JSON
+    // try {
+    //     JSONObject jsonData = new JSONObject(data);
+    //     listener.onJsonDataReceived(jsonData); // If listener has this method
+    // } catch (JSONException e) {
+    //     System.err.println("Received non-JSON data or invalid JSON: " + data);
+    //     listener.onDataReceived(data); // Pass raw string if parsing fails
+    // }
+    private void onMessage(String data) {
+        if (BrainWireProtocol.isAck(data)) onAck(BrainWireProtocol.parseLongField(data, "seq"));
+        else if (BrainWireProtocol.isPoseQuery(data) && poseHistory != null) answerPoseQuery(data);
+        else if (BrainWireProtocol.isClockSync(data) && poseHistory != null) answerClockSync(data);
+        else if (listener != null) listener.onDataReceived(data); // Pass raw string
+    }
+
+    // Pose history (SlamManager.getPoseHistory()) used to answer the brain's pose_query and clock_sync messages
+    // on the connection thread; null passes them to the listener like any other message
+    public void setPoseHistory(PoseBuffer history) {
+        poseHistory = history;
+    }
+
+    // Pose priority but not coalesced with slam_update: each query gets its own answer
+    private void answerPoseQuery(String query) {
+        final long timestampNs = BrainWireProtocol.parseLongField(query, "timestamp_ns");
+        final PoseBuffer history = poseHistory;
+        final String answer;
+        synchronized (queryPose) {
+            final boolean found = timestampNs >= 0 && history != null && history.getPose(timestampNs, queryPose);
+            answer = BrainWireProtocol.formatPoseAtJson(timestampNs, found ? queryPose : null);
+        }
+        sendData(answer, OutboundQueue.PRIORITY_POSE, null);
+    }
+
+    // The phone's frame-clock time for the brain's clock_sync, sent at pose priority so it isn't held up
+    // behind bulk frames (queueing time widens the brain's error bound, see BrainWireProtocol)
+    private void answerClockSync(String query) {
+        final PoseBuffer history = poseHistory;
+        final long phoneNs = history != null ? history.getFrameClockNanos() : -1;
+        sendData(BrainWireProtocol.formatClockSyncJson(BrainWireProtocol.parseLongField(query, "brain_ns"), phoneNs),
+                OutboundQueue.PRIORITY_POSE, null);
+    }
+
+    // Send a command string (assumed to be a JSON string) to the Raspberry Pi.
+    // slam_update / vision_update strings are recognised and coalesced like sendPose / sendDetections;
+    // anything else (speech, commands) goes out at control priority.
     public void sendData(String data) {
-         if (!is_connected()) {
+        final String key = coalesceKeyOf(data);
+        final int priority = OutboundQueue.KEY_POSE.equals(key) ? OutboundQueue.PRIORITY_POSE
+                : OutboundQueue.KEY_VISION.equals(key) ? OutboundQueue.PRIORITY_VISION
+                : OutboundQueue.PRIORITY_CONTROL;
+        sendData(data, priority, key);
+    }
+
+    // Send with an explicit priority class (OutboundQueue.PRIORITY_*) and optional coalesce key:
+    // a queued message with the same key is replaced instead of queueing another one.
+    // While reconnecting, messages are queued and go out once the link is back.
+    public void sendData(String data, int priority, String coalesceKey) {
+         if (!is_connected() && !keepConnected) {
              System.err.println("Not connected to Brain. Cannot send data: " + data);
              if (listener != null) listener.onError("Send error: Not connected.");
              return;
          }
-         if (out == null) {
-              System.err.println("Output stream is null. Cannot send data: " + data);
-              if (listener != null) listener.onError("Send error: Output stream null.");
-              disconnect(); // Treat as a connection issue
-              return;
+         if (!outboundQueue.offerJson(data, priority, coalesceKey)) {
+             System.err.println("Outbound queue full, dropped: " + data.trim());
          }
+    }
 
-        // Submit the sending task to the executor service
-        executorService.submit(() -> { // Use lambda for simple task
-            try {
-                // Ensure newline terminator
-                if (!data.endsWith("\n")) {
-                    data += "\n";
+    // Send a camera/robot pose (slam_update). Uses the fixed 41-byte binary frame when negotiated,
+    // otherwise the equivalent JSON line. Only the newest queued pose is kept.
+    public void sendPose(long timestampNs, float tx, float ty, float tz, float qx, float qy, float qz, float qw) {
+        if (!is_connected() && !keepConnected) return;
+        outboundQueue.offerPose(timestampNs, tx, ty, tz, qx, qy, qz, qw);
+    }
+
+    // Send a detection list (vision_update), binary frame or JSON line depending on the negotiated protocol.
+    // Only the newest queued list is kept.
+    public void sendDetections(long timestampNs, List<DetectedObject> objects) {
+        if (!is_connected() && !keepConnected) return;
+        outboundQueue.offerDetections(timestampNs, objects);
+    }
+
+    // Send the changed voxels of a point cloud (point_cloud_update); call at the rate the map should update.
+    // Voxels are taken from the cloud when the message is written, binary TYPE_VOXELS if negotiated,
+    // otherwise JSON, with the voxels evicted since (removals, and a reset when the brain's copy must be
+    // dropped; binary frames only carry them with FEATURE_VOXEL_REMOVALS). A backlog (e.g. the whole map after
+    // a reconnect) goes out in follow-up messages.
+    public void sendPointCloud(long timestampNs, VoxelCloud cloud) {
+        if (!is_connected() && !keepConnected) return;
+        pointCloud = cloud;
+        outboundQueue.offerPointCloud(timestampNs, cloud);
+    }
+
+    // Send the dirty tiles of an occupancy grid (occupancy_grid_update); call at the rate the map should
+    // update. Tiles are taken from the grid when the message is written: binary TYPE_GRID deltas if
+    // negotiated, otherwise whole tiles as JSON. A backlog goes out in follow-up messages.
+    public void sendOccupancyGrid(long timestampNs, OccupancyGrid grid) {
+        if (!is_connected() && !keepConnected) return;
+        occupancyGrid = grid;
+        outboundQueue.offerGrid(timestampNs, grid);
+    }
+
+    // Cheap check for the superseding message types in a JSON string (no full parse)
+    private static String coalesceKeyOf(String data) {
+        if (data.contains("\"" + OutboundQueue.KEY_POSE + "\"")) return OutboundQueue.KEY_POSE;
+        if (data.contains("\"" + OutboundQueue.KEY_VISION + "\"")) return OutboundQueue.KEY_VISION;
+        return null;
+    }
+
+    // Connection loop, runs on the connection thread while connected. Messages are written back to back into the
+    // staging segments and flushed per the aggregation window, so a burst goes out in one write / few TCP
+    // segments; in between the selector waits for the brain's messages, room in the socket buffer, a new
+    // message (OutboundQueue's wakeup) or the end of the window.
+    private void connectionLoop(SocketChannel ch, Selector sel, SelectionKey key) {
+        System.out.println("Brain connection loop started.");
+        try {
+            handleInput(); // Anything that came in right behind the handshake answer
+            // A closed queue (shutdownExecutor()) ends the loop rather than leaving it to spin
+            while (isConnected && !outboundQueue.isClosed() && !Thread.currentThread().isInterrupted()) {
+                final long windowNanos = maxBatchDelayMicros * 1000L;
+                if (!flushing) {
+                    boolean flushNow = false;
+                    OutboundQueue.Message m;
+                    while (!flushNow && (m = outboundQueue.pollNanos(0)) != null) {
+                        writeMessage(m);
+                        if (unflushed.isEmpty()) batchStartNanos = System.nanoTime();
+                        unflushed.add(m);
+                        flushNow = m.getPriority() == OutboundQueue.PRIORITY_CONTROL
+                                || unflushed.size() >= maxBatchMessages;
+                    }
+                    if (!unflushed.isEmpty() && (flushNow
+                            || System.nanoTime() - batchStartNanos >= windowNanos
+                            || (windowNanos == 0 && outboundQueue.isEmpty()))
+                            && !flushBatch(ch)) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                }
+                // Never waits longer than WRITER_POLL_MS, so a closed queue or an interrupt is noticed; doesn't wait
+                // at all if a full batch was flushed with more messages behind it (their wakeup is already spent)
+                final long timeoutNanos = flushing ? WRITER_POLL_MS * 1000000L
+                        : !outboundQueue.isEmpty() ? 0
+                        : unflushed.isEmpty() ? WRITER_POLL_MS * 1000000L
+                        : Math.max(0, Math.min(WRITER_POLL_MS * 1000000L, batchStartNanos + windowNanos - System.nanoTime()));
+                if (timeoutNanos == 0) sel.selectNow();
+                else sel.select((timeoutNanos + 999999L) / 1000000L);
+                if (sel.selectedKeys().isEmpty()) continue;
+                sel.selectedKeys().clear();
+                if (!key.isValid()) break; // Closed by closeConnection()
+                if (key.isReadable() && !receive(ch)) {
+                    System.out.println("Brain closed the connection.");
+                    break;
                 }
-                out.println(data); // Send the string followed by a newline
-                System.out.println("Sent to Brain: " + data.trim()); // Trim for logging
+                if (key.isValid() && key.isWritable() && flushBatch(ch)) key.interestOps(SelectionKey.OP_READ);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (is_connected()) {
+                if (listener != null) listener.onError("Connection error: " + e.getMessage());
+                System.err.println("Error talking to Brain: " + e);
+            }
+            // Assume connection lost on any I/O or protocol error; the supervisor reconnects
+            closeConnection();
+        } finally {
+            requeueUnflushed();
+        }
+        System.out.println("Brain connection loop stopped.");
+    }
 
-            } catch (Exception e) {
-                if (listener != null) listener.onError("Send error: " + e.getMessage());
-                System.err.println("Error sending to Brain: " + e.getMessage());
-                // Assume connection lost on send error
-                disconnect();
+    // Messages staged but never completely written didn't reach the brain: queue them again for the next
+    // connection (unless disconnect() dropped the queue on purpose). Control messages tracked for
+    // session resume are left to replayUnacked(), which sends them with their sequence numbers.
+    private void requeueUnflushed() {
+        if (unflushed.isEmpty()) return;
+        if (keepConnected) {
+            final List<OutboundQueue.Message> requeue = new ArrayList<>(unflushed.size());
+            for (OutboundQueue.Message m : unflushed) {
+                if (m.seq == 0) requeue.add(m);
             }
-        });
+            outboundQueue.requeueUnsent(requeue);
+        }
+        unflushed.clear();
     }
 
-    // Disconnect
+    // Starts or continues writing the staged batch; true once all of it is on the wire
+    private boolean flushBatch(SocketChannel ch) throws IOException {
+        if (!writeStaged(ch)) return false;
+        for (OutboundQueue.Message sent : unflushed) outboundQueue.markSent(sent);
+        flushCount++;
+        flushedMessageCount += unflushed.size();
+        unflushed.clear();
+        return true;
+    }
+
+    // Aggregation window: flush after maxMessages pending messages or maxDelayMicros, whichever comes first
+    public void setAggregationWindow(int maxMessages, long maxDelayMicros) {
+        if (maxMessages < 1 || maxDelayMicros < 0) {
+            throw new IllegalArgumentException("Invalid aggregation window: " + maxMessages + " messages, " + maxDelayMicros + " us");
+        }
+        maxBatchMessages = maxMessages;
+        maxBatchDelayMicros = maxDelayMicros;
+    }
+
+    private void writeMessage(OutboundQueue.Message m) {
+        switch (m.kind) {
+            case OutboundQueue.KIND_POSE: {
+                final float[] p = m.pose;
+                if (binaryMode) writeFrame(encoder.encodePose(m.timestampNs, p[0], p[1], p[2], p[3], p[4], p[5], p[6]));
+                else writeLine(BrainWireProtocol.formatPoseJson(m.timestampNs, p[0], p[1], p[2], p[3], p[4], p[5], p[6]));
+                break;
+            }
+            case OutboundQueue.KIND_DETECTIONS:
+                if (binaryMode && detectionDiffs) {
+                    writeFrame(compress(detectionDiff.encode(encoder, m.timestampNs, m.objects)));
+                } else if (binaryMode) {
+                    writeFrame(compress(encoder.encodeDetections(m.timestampNs, m.objects)));
+                } else {
+                    writeLine(BrainWireProtocol.formatDetectionsJson(m.timestampNs, m.objects));
+                }
+                break;
+            case OutboundQueue.KIND_POINT_CLOUD:
+                m.cloud.drainChanges(voxelBatch);
+                if (voxelBatch.isEmpty()) break;
+                if (binaryMode && voxelFrames) {
+                    writeFrame(compress(encoder.encodeVoxels(m.timestampNs, voxelBatch)));
+                } else if (binaryMode) {
+                    writeFrame(compress(encoder.encodeJson(BrainWireProtocol.formatVoxelsJson(m.timestampNs, voxelBatch))));
+                } else {
+                    writeLine(BrainWireProtocol.formatVoxelsJson(m.timestampNs, voxelBatch));
+                }
+                // More than one message's worth changed: queue the rest behind whatever is waiting now
+                if (m.cloud.hasPendingChanges()) outboundQueue.offerPointCloud(m.timestampNs, m.cloud);
+                break;
+            case OutboundQueue.KIND_GRID:
+                if (m.grid.drainDirty(tileBatch) == 0) break;
+                if (binaryMode && gridFrames) {
+                    writeFrame(compress(encoder.encodeGrid(m.timestampNs, tileBatch)));
+                } else if (binaryMode) {
+                    writeFrame(compress(encoder.encodeJson(BrainWireProtocol.formatGridJson(m.timestampNs, tileBatch))));
+                } else {
+                    writeLine(BrainWireProtocol.formatGridJson(m.timestampNs, tileBatch));
+                }
+                if (m.grid.getDirtyTileCount() > 0) outboundQueue.offerGrid(m.timestampNs, m.grid);
+                break;
+            default: {
+                String json = m.json.trim();
+                if (resumeSupported && m.getPriority() == OutboundQueue.PRIORITY_CONTROL) {
+                    if (m.seq == 0) m.seq = nextSeq++;
+                    json = BrainWireProtocol.withSeq(json, m.seq);
+                    trackUnacked(m);
+                }
+                if (binaryMode) writeFrame(compress(encoder.encodeJson(json)));
+                else writeLine(json); // Send the string followed by a newline
+                System.out.println("Sent to Brain: " + json);
+                break;
+            }
+        }
+    }
+
+    // Deflates large frames when negotiated; poses are never large enough to bother
+    private ByteBuffer compress(ByteBuffer frame) {
+        final PayloadCompressor compressor = outboundCompressor;
+        return compressor != null ? compressor.compressFrame(frame) : frame;
+    }
+
+    // Compressed / raw size of compressed outbound frames on this connection (1.0 if compression is off)
+    public float getCompressionRatio() {
+        final PayloadCompressor compressor = outboundCompressor;
+        return compressor != null ? compressor.getCompressionRatio() : 1f;
+    }
+
+    // Fraction of detections sent in full while diff coding is on (the rest were unchanged)
+    public float getDetectionSentFraction() {
+        return detectionDiff.getSentFraction();
+    }
+
+    private void trackUnacked(OutboundQueue.Message m) {
+        synchronized (unacked) {
+            unacked.addLast(m);
+            if (unacked.size() > MAX_UNACKED) {
+                OutboundQueue.Message lost = unacked.pollFirst();
+                System.err.println("Too many unacknowledged messages, giving up on seq " + lost.seq);
+            }
+        }
+    }
+
+    // --- Outbound queue statistics ---
+    public int getOutboundQueueDepth() { return outboundQueue.getDepth(); }
+    public long getOutboundDroppedCount() { return outboundQueue.getDroppedCount(); }
+    public long getOutboundCoalescedCount() { return outboundQueue.getCoalescedCount(); }
+    public long getOutboundAverageLatencyNanos() { return outboundQueue.getAverageLatencyNanos(); }
+    public long getOutboundMaxLatencyNanos() { return outboundQueue.getMaxLatencyNanos(); }
+    public OutboundQueue getOutboundQueue() { return outboundQueue; }
+    // Flushes to the socket (gathering writes, more only if the socket buffer filled up) and messages they carried
+    public long getFlushCount() { return flushCount; }
+    public long getFlushedMessageCount() { return flushedMessageCount; }
+
+    public boolean isBinaryProtocol() {
+        return binaryMode;
+    }
+
+    // --- Reconnection statistics ---
+    public boolean isReconnecting() { return keepConnected && !isConnected; }
+    public int getReconnectCount() { return reconnectCount; }
+    // Time from losing the connection to the next successful connect, or -1 before the first recovery
+    public long getLastRecoveryMillis() { return lastRecoveryMillis; }
+    public boolean isResumeSupported() { return resumeSupported; }
+    public int getUnackedCount() {
+        synchronized (unacked) {
+            return unacked.size();
+        }
+    }
+
+    // Disconnect (user request): stops reconnecting and drops whatever is still queued
     public void disconnect() {
-        boolean wasConnected = isConnected(); // Check state before setting flag
+        synchronized (supervisorLock) {
+            keepConnected = false;
+            supervisorLock.notifyAll();
+        }
+        closeConnection();
+        outboundQueue.clear(); // Don't deliver stale poses/detections on the next connection
+        synchronized (unacked) {
+            unacked.clear();
+        }
+    }
+
+    // Closes the current connection; the connection thread notices and ends its loop
+    private synchronized void closeConnection() {
+        boolean wasConnected = is_connected(); // Check state before setting flag
         isConnected = false; // Set flag first
 
         try {
-            if (socket != null && !socket.isClosed()) {
-                // Attempt graceful shutdown first
-                 try {
-                    socket.shutdownInput();
-                    socket.shutdownOutput();
-                 } catch (IOException e) {
-                     // Ignore error if streams are already closed
-                 }
-                socket.close();
+            if (channel != null && channel.isOpen()) {
+                channel.close(); // The socket itself goes once the selector drops it
                 System.out.println("Disconnected from Brain.");
             }
         } catch (IOException e) {
             System.err.println("Error closing socket: " + e.getMessage());
         } finally {
-            socket = null;
-            out = null;
-            in = null;
+            if (selector != null) selector.wakeup(); // It may be waiting in select()
+            channel = null;
              if (wasConnected) { // Only report disconnection if it was active
                 if (listener != null) listener.onConnectionStatusChanged(false);
              }
@@ -176,6 +814,12 @@ public class BrainWifiCommunicator {
 
     // Shutdown the executor service when the app/component is destroyed
     public void shutdownExecutor() {
+        synchronized (supervisorLock) {
+            keepConnected = false;
+            supervisorLock.notifyAll();
+        }
+        outboundQueue.close();
+        closeConnection(); // Ends the connection loop, whatever the brain does
         if (executorService != null && !executorService.isShutdown()) {
             executorService.shutdownNow(); // Attempt to stop all tasks immediately
             System.out.println("Executor service shut down.");
@@ -0,0 +1,718 @@
+package com/praxisapocalyptica/jamie.communication;
+
+// Pure Java (no Android imports) so encoder/decoder round trips can be checked on a plain JVM.
+
+import com/praxisapocalyptica/jamie.perception.DetectedObject;
+import com/praxisapocalyptica/jamie.perception.OccupancyGrid;
+import com/praxisapocalyptica/jamie.perception.RelocalizationReport;
+import com/praxisapocalyptica/jamie.perception.VoxelCloud;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// Binary framed wire protocol between the phone and the brain ("binary-v1").
+//
+// Every message is one frame, big-endian:
+//   u32 length   - number of bytes that follow (type + payload)
+//   u8  type     - one of the TYPE_* constants
+//   ...payload   - fixed layout per type (see the encode* methods)
+//
+// Negotiation: right after connecting the phone sends HELLO_LINE as a normal JSON line. A brain that speaks
+// binary-v1 answers with a line containing "hello_ack" and "binary-v1"; both sides then switch to frames.
+// Any other answer (or none within the timeout) keeps the original newline-delimited JSON mode.
+public class BrainWireProtocol {
+
+    public static final String PROTOCOL_BINARY = "binary-v1";
+    public static final String PROTOCOL_JSON_LINES = "json-lines";
+    public static final String HELLO_LINE =
+            "{\"type\": \"hello\", \"protocols\": [\"" + PROTOCOL_BINARY + "\", \"" + PROTOCOL_JSON_LINES + "\"]}";
+
+    public static final byte TYPE_JSON = 1;       // UTF-8 JSON text (anything without a dedicated layout)
+    public static final byte TYPE_POSE = 2;       // slam_update
+    public static final byte TYPE_DETECTIONS = 3; // vision_update
+    // 4 was a per-detection RLE mask frame; never sent (polygons carry the outline). Don't reuse it.
+    public static final byte TYPE_DETECTIONS_DELTA = 5; // vision_update with delta-coded polygons
+    public static final byte TYPE_COMPRESSED = 6; // Another frame's payload, compressed (see PayloadCompressor)
+    public static final byte TYPE_DETECTION_DIFF = 7; // vision_update as a diff by track id (see DetectionDelta)
+    public static final byte TYPE_VOXELS = 8;     // point_cloud_update: changed voxels (see VoxelCloud)
+    public static final byte TYPE_GRID = 9;       // occupancy_grid_update: changed cells of dirty tiles (see OccupancyGrid)
+
+    public static final int HEADER_BYTES = 5;     // u32 length + u8 type
+    public static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+    public static final int POSE_PAYLOAD_BYTES = 8 + 7 * 4;
+
+    // Optional features offered in the hello ("features": [...]); enabled if the hello_ack lists them too
+    public static final String FEATURE_DEFLATE = "deflate";             // TYPE_COMPRESSED frames
+    public static final String FEATURE_POLYGON_DELTA = "polygon-delta"; // TYPE_DETECTIONS_DELTA frames
+    public static final String FEATURE_DETECTION_DIFF = "detection-diff"; // TYPE_DETECTION_DIFF frames
+    public static final String FEATURE_VOXELS = "voxels";               // TYPE_VOXELS frames
+    public static final String FEATURE_VOXEL_REMOVALS = "voxel-removals"; // TYPE_VOXELS removal trailer
+    public static final String FEATURE_OCCUPANCY_GRID = "occupancy-grid"; // TYPE_GRID frames
+    public static final float POLYGON_QUANTUM = 0.25f;                  // Polygon delta resolution, pixels
+
+    // TYPE_DETECTION_DIFF flags
+    public static final int DIFF_KEYFRAME = 1;
+    public static final int DIFF_POLYGON_DELTAS = 2;
+
+    // TYPE_VOXELS trailer flags
+    public static final int VOXELS_RESET = 1; // Receiver drops every voxel before applying the frame
+
+    // TYPE_GRID tile flags
+    public static final int GRID_KEYFRAME = 1; // Receiver clears the tile before applying the runs
+    private static final int GRID_MIN_GAP = 3; // Unchanged stretches shorter than this stay inside a run
+
+    // Smallest encodings, for checking counts against the bytes left before allocating for them
+    private static final int MIN_DETECTION_BYTES = 1 + 12 * 4 + 2; // Empty class, no polygon
+    private static final int MIN_GRID_TILE_BYTES = 4 + 4 + 1 + 2;  // No runs
+    private static final int MIN_GRID_RUN_BYTES = 2;               // Two one-byte varints, no cells
+
+    // True if a line received during negotiation accepts the binary protocol
+    public static boolean isBinaryAck(String line) {
+        return line != null && line.contains("hello_ack") && line.contains(PROTOCOL_BINARY);
+    }
+
+    // --- Session resume ---
+    // The phone's hello may also carry its session id and the highest critical sequence number it has sent.
+    // A brain that supports resume answers with a hello_ack containing "received_seq" (highest sequence number
+    // it has processed for that session, 0 for a session it doesn't know) and later acknowledges critical
+    // messages cumulatively with {"type": "ack", "seq": N}. Critical messages carry "seq" as their first field.
+    // A brain without resume support ignores the extra fields and never acks.
+
+    public static String helloLine(String sessionId, long lastSeq) {
+        return "{\"type\": \"hello\", \"protocols\": [\"" + PROTOCOL_BINARY + "\", \"" + PROTOCOL_JSON_LINES
+                + "\"], \"features\": [\"" + FEATURE_DEFLATE + "\", \"" + FEATURE_POLYGON_DELTA
+                + "\", \"" + FEATURE_DETECTION_DIFF + "\", \"" + FEATURE_VOXELS + "\", \"" + FEATURE_VOXEL_REMOVALS
+                + "\", \"" + FEATURE_OCCUPANCY_GRID
+                + "\"], \"session\": \"" + escapeJson(sessionId)
+                + "\", \"last_seq\": " + lastSeq + "}";
+    }
+
+    // True if the brain's hello_ack accepts an optional feature (binary mode only)
+    public static boolean acceptsFeature(String ack, String feature) {
+        return isBinaryAck(ack) && ack.contains("\"" + feature + "\"");
+    }
+
+    public static boolean isHelloAck(String line) {
+        return line != null && line.contains("\"hello_ack\"");
+    }
+
+    public static boolean isAck(String line) {
+        return line != null && (line.contains("\"type\": \"ack\"") || line.contains("\"type\":\"ack\""));
+    }
+
+    // Value of a top-level integer field (e.g. "seq") found by a plain text scan, or -1 if absent
+    public static long parseLongField(String json, String field) {
+        final String key = "\"" + field + "\"";
+        int i = json.indexOf(key);
+        if (i < 0) return -1;
+        i = json.indexOf(':', i + key.length());
+        if (i < 0) return -1;
+        i++;
+        while (i < json.length() && json.charAt(i) == ' ') i++;
+        long value = 0;
+        int digits = 0;
+        for (; i < json.length() && Character.isDigit(json.charAt(i)); i++, digits++) {
+            value = value * 10 + (json.charAt(i) - '0');
+        }
+        return digits == 0 ? -1 : value;
+    }
+
+    // Inserts "seq": N as the first field of a JSON object
+    public static String withSeq(String json, long seq) {
+        final int brace = json.indexOf('{');
+        if (brace < 0) return json;
+        final String rest = json.substring(brace + 1).trim();
+        return json.substring(0, brace + 1) + "\"seq\": " + seq + (rest.startsWith("}") ? " " : ", ") + rest;
+    }
+
+    // --- Pose queries ---
+    // The brain can ask for the phone's pose at any time in the ARCore frame clock (the timestamps of
+    // slam_update), e.g. when its encoder readings arrive: {"type": "pose_query", "timestamp_ns": N}.
+    // The phone answers with {"type": "pose_at", "timestamp_ns": N, "found": true, "pose": {...}}, the pose
+    // interpolated from its recent history, or "found": false when the history doesn't cover N.
+    //
+    // The frame clock is the phone camera's, not the brain's, so the brain has to map its own times into it
+    // first. It sends {"type": "clock_sync", "brain_ns": B} and the phone answers straight away with
+    // {"type": "clock_sync", "brain_ns": B, "phone_ns": P}, P being the phone's frame-clock time when it
+    // answered (PoseBuffer.getFrameClockNanos()), or "found": false before the first pose. With R the brain's
+    // time when the answer arrived, offset = P - (B + R) / 2 to within (R - B) / 2; the brain keeps the
+    // offset of the sample with the smallest R - B out of several, repeats now and then for drift, and
+    // queries with timestamp_ns = its time + offset.
+
+    public static boolean isPoseQuery(String line) {
+        return line != null && line.contains("\"pose_query\"");
+    }
+
+    public static boolean isClockSync(String line) {
+        return line != null && line.contains("\"clock_sync\"");
+    }
+
+    // phoneNs is -1 when the phone has no pose yet to tell the time from
+    public static String formatClockSyncJson(long brainNs, long phoneNs) {
+        if (phoneNs < 0) {
+            return "{\"type\": \"clock_sync\", \"brain_ns\": " + brainNs + ", \"found\": false}";
+        }
+        return "{\"type\": \"clock_sync\", \"brain_ns\": " + brainNs + ", \"phone_ns\": " + phoneNs + "}";
+    }
+
+    // pose is tx, ty, tz, qx, qy, qz, qw, or null when not found
+    public static String formatPoseAtJson(long timestampNs, float[] pose) {
+        if (pose == null) {
+            return "{\"type\": \"pose_at\", \"timestamp_ns\": " + timestampNs + ", \"found\": false}";
+        }
+        return "{\"type\": \"pose_at\", \"timestamp_ns\": " + timestampNs + ", \"found\": true"
+                + ", \"pose\": {\"x\": " + pose[0] + ", \"y\": " + pose[1] + ", \"z\": " + pose[2]
+                + ", \"qx\": " + pose[3] + ", \"qy\": " + pose[4] + ", \"qz\": " + pose[5] + ", \"qw\": " + pose[6] + "}}";
+    }
+
+    // --- Encoding ---
+    // Writes frames into one reusable buffer. Each encode* call returns that buffer flipped and holding
+    // exactly one frame; it is only valid until the next call. Not thread safe.
+    public static class Encoder {
+        private ByteBuffer buffer = ByteBuffer.allocate(4096).order(ByteOrder.BIG_ENDIAN);
+        private boolean polygonDeltas = false;
+        private boolean voxelRemovals = false;
+
+        // Use TYPE_DETECTIONS_DELTA (only once the brain accepted FEATURE_POLYGON_DELTA)
+        public void setPolygonDeltas(boolean polygonDeltas) {
+            this.polygonDeltas = polygonDeltas;
+        }
+
+        // Append the removal trailer to TYPE_VOXELS (only once the brain accepted FEATURE_VOXEL_REMOVALS)
+        public void setVoxelRemovals(boolean voxelRemovals) {
+            this.voxelRemovals = voxelRemovals;
+        }
+
+        public ByteBuffer encodeJson(String json) {
+            byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+            begin(TYPE_JSON, bytes.length);
+            buffer.put(bytes);
+            return finish();
+        }
+
+        // Payload: i64 timestampNs, f32 tx, ty, tz, qx, qy, qz, qw
+        public ByteBuffer encodePose(long timestampNs, float tx, float ty, float tz,
+                                     float qx, float qy, float qz, float qw) {
+            begin(TYPE_POSE, POSE_PAYLOAD_BYTES);
+            buffer.putLong(timestampNs);
+            buffer.putFloat(tx).putFloat(ty).putFloat(tz);
+            buffer.putFloat(qx).putFloat(qy).putFloat(qz).putFloat(qw);
+            return finish();
+        }
+
+        // Payload: i64 timestampNs, u16 count, then per detection:
+        //   u8 classLength, class UTF-8, f32 confidence, f32 left, top, right, bottom,
+        //   f32 x, y, z, qx, qy, qz, qw, u16 polygonVertices, f32 x/y pairs
+        // TYPE_DETECTIONS_DELTA is identical except for the vertices: each x and y is quantised to
+        // POLYGON_QUANTUM and written as a zigzag varint delta from the previous vertex (the first from 0,0).
+        // Neighbouring contour vertices are a few to a few tens of pixels apart, so each coordinate takes
+        // one or two bytes instead of four.
+        public ByteBuffer encodeDetections(long timestampNs, List<DetectedObject> objects) {
+            begin(polygonDeltas ? TYPE_DETECTIONS_DELTA : TYPE_DETECTIONS, 10 + objects.size() * 64);
+            buffer.putLong(timestampNs);
+            buffer.putShort((short) objects.size());
+            for (DetectedObject obj : objects) putDetection(obj);
+            return finish();
+        }
+
+        // Payload: i64 timestampNs, u8 flags (DIFF_KEYFRAME, DIFF_POLYGON_DELTAS), u16 removedCount,
+        // u32 removed track ids, u16 upsertCount, then per upsert: u32 trackId + one detection in the
+        // TYPE_DETECTIONS layout (polygon delta-coded if DIFF_POLYGON_DELTAS is set).
+        // A keyframe replaces the receiver's whole list; otherwise removals and upserts apply to it.
+        public ByteBuffer encodeDetectionDiff(long timestampNs, boolean keyframe, int[] removedIds, int removedCount,
+                                              List<DetectedObject> upserts, int[] upsertIds) {
+            begin(TYPE_DETECTION_DIFF, 13 + removedCount * 4 + upserts.size() * 68);
+            buffer.putLong(timestampNs);
+            buffer.put((byte) ((keyframe ? DIFF_KEYFRAME : 0) | (polygonDeltas ? DIFF_POLYGON_DELTAS : 0)));
+            buffer.putShort((short) removedCount);
+            for (int i = 0; i < removedCount; i++) buffer.putInt(removedIds[i]);
+            buffer.putShort((short) upserts.size());
+            for (int i = 0; i < upserts.size(); i++) {
+                ensure(4);
+                buffer.putInt(upsertIds[i]);
+                putDetection(upserts.get(i));
+            }
+            return finish();
+        }
+
+        private void putDetection(DetectedObject obj) {
+            byte[] cls = obj.objectClass != null ? obj.objectClass.getBytes(StandardCharsets.UTF_8) : new byte[0];
+            int vertices = obj.polygon != null ? Math.min(obj.polygon.length / 2, 0xFFFF) : 0;
+            ensure(1 + Math.min(cls.length, 255) + 12 * 4 + 2 + vertices * 8);
+            buffer.put((byte) Math.min(cls.length, 255));
+            buffer.put(cls, 0, Math.min(cls.length, 255));
+            buffer.putFloat(obj.confidence);
+            buffer.putFloat(obj.boundingBoxLeft).putFloat(obj.boundingBoxTop);
+            buffer.putFloat(obj.boundingBoxRight).putFloat(obj.boundingBoxBottom);
+            buffer.putFloat(obj.poseX).putFloat(obj.poseY).putFloat(obj.poseZ);
+            buffer.putFloat(obj.poseQx).putFloat(obj.poseQy).putFloat(obj.poseQz).putFloat(obj.poseQw);
+            buffer.putShort((short) vertices);
+            if (polygonDeltas) {
+                int prevX = 0, prevY = 0;
+                for (int i = 0; i < vertices; i++) {
+                    final int qx = Math.round(obj.polygon[2 * i] / POLYGON_QUANTUM);
+                    final int qy = Math.round(obj.polygon[2 * i + 1] / POLYGON_QUANTUM);
+                    ensure(10);
+                    putVarint(buffer, zigzag(qx - prevX));
+                    putVarint(buffer, zigzag(qy - prevY));
+                    prevX = qx;
+                    prevY = qy;
+                }
+            } else {
+                for (int i = 0; i < vertices * 2; i++) buffer.putFloat(obj.polygon[i]);
+            }
+        }
+
+        // Payload: i64 timestampNs, f32 voxelSize, u32 count, then per voxel: i16 x, y, z voxel index,
+        // u8 x, y, z centroid offset inside the voxel (1/256), u8 confidence (1/255), u8 hits (11 bytes).
+        // With FEATURE_VOXEL_REMOVALS a trailer follows: u8 flags (VOXELS_RESET), u32 removedCount, then
+        // i16 x, y, z per evicted voxel. The receiver applies the reset, then the removals, then the voxels.
+        public ByteBuffer encodeVoxels(long timestampNs, VoxelCloud.Batch batch) {
+            begin(TYPE_VOXELS, 16 + batch.count * 11 + (voxelRemovals ? 5 + batch.removedCount * 6 : 0));
+            buffer.putLong(timestampNs);
+            buffer.putFloat(batch.voxelSize);
+            buffer.putInt(batch.count);
+            for (int i = 0; i < batch.count; i++) {
+                buffer.putShort(batch.coords[i * 3]).putShort(batch.coords[i * 3 + 1]).putShort(batch.coords[i * 3 + 2]);
+                buffer.put(batch.offsets, i * 3, 3);
+                buffer.put(batch.confidence[i]);
+                buffer.put(batch.hits[i]);
+            }
+            if (voxelRemovals) {
+                buffer.put((byte) (batch.reset ? VOXELS_RESET : 0));
+                buffer.putInt(batch.removedCount);
+                for (int i = 0; i < batch.removedCount * 3; i++) buffer.putShort(batch.removedCoords[i]);
+            }
+            return finish();
+        }
+
+        // Payload: i64 timestampNs, f32 resolution, u8 tileShift, u16 tileCount, then per tile: i32 tileX, tileZ,
+        // u8 flags (GRID_KEYFRAME), u16 runCount, runs of varint skip (unchanged cells), varint length, then
+        // length i8 log-odds cells (row-major by z then x). Only cells that differ from what was last sent
+        // are written; a keyframe is coded against an all-unknown tile.
+        public ByteBuffer encodeGrid(long timestampNs, OccupancyGrid.TileBatch batch) {
+            final int cellsPerTile = OccupancyGrid.TILE_SIZE * OccupancyGrid.TILE_SIZE;
+            begin(TYPE_GRID, 15 + batch.count * 64);
+            buffer.putLong(timestampNs);
+            buffer.putFloat(batch.resolution);
+            buffer.put((byte) OccupancyGrid.TILE_SHIFT);
+            buffer.putShort((short) batch.count);
+            for (int t = 0; t < batch.count; t++) {
+                final byte[] cells = batch.cells[t], previous = batch.previous[t];
+                // Worst case (single changed cells between minimal gaps) stays under two bytes per cell
+                ensure(11 + 2 * cellsPerTile);
+                buffer.putInt(batch.tileX[t]).putInt(batch.tileZ[t]);
+                buffer.put((byte) (batch.keyframe[t] ? GRID_KEYFRAME : 0));
+                final int runCountAt = buffer.position();
+                buffer.putShort((short) 0);
+                int runs = 0;
+                int done = 0; // Cells before this index are coded
+                int i = 0;
+                while (true) {
+                    while (i < cellsPerTile && cells[i] == previous[i]) i++;
+                    if (i == cellsPerTile) break;
+                    final int start = i;
+                    int end = i + 1; // Exclusive end of the run so far
+                    for (int j = end; j < cellsPerTile && j - end < GRID_MIN_GAP; j++) {
+                        if (cells[j] != previous[j]) end = j + 1;
+                    }
+                    putVarint(buffer, start - done);
+                    putVarint(buffer, end - start);
+                    buffer.put(cells, start, end - start);
+                    runs++;
+                    done = end;
+                    i = end;
+                }
+                buffer.putShort(runCountAt, (short) runs);
+            }
+            return finish();
+        }
+
+        private void begin(byte type, int payloadHint) {
+            buffer.clear();
+            ensure(HEADER_BYTES + payloadHint);
+            buffer.putInt(0); // Length, patched in finish()
+            buffer.put(type);
+        }
+
+        private ByteBuffer finish() {
+            buffer.putInt(0, buffer.position() - 4);
+            buffer.flip();
+            return buffer;
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() >= bytes) return;
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes))
+                    .order(ByteOrder.BIG_ENDIAN);
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+    }
+
+    // --- Decoding ---
+
+    // Receives each complete frame; payload is positioned at the first payload byte and limited to the frame
+    public interface FrameHandler {
+        void onFrame(byte type, ByteBuffer payload);
+    }
+
+    // Incremental frame parser: feed it whatever bytes arrived (possibly partial frames), it calls the handler
+    // for every complete frame and leaves the rest in the buffer for next time.
+    // Returns the number of frames delivered. The input buffer must be in read mode (flipped); on return it is
+    // compacted back into write mode, ready for the next read.
+    public static int decodeFrames(ByteBuffer in, FrameHandler handler) {
+        in.order(ByteOrder.BIG_ENDIAN);
+        int frames = 0;
+        while (in.remaining() >= HEADER_BYTES) {
+            final int start = in.position();
+            final int length = in.getInt(start);
+            if (length < 1 || length > MAX_FRAME_BYTES) {
+                throw new IllegalStateException("Invalid frame length: " + length);
+            }
+            if (in.remaining() < 4 + length) break; // Partial frame, wait for more bytes
+            final byte type = in.get(start + 4);
+            final int limit = in.limit();
+            in.position(start + HEADER_BYTES);
+            in.limit(start + 4 + length);
+            handler.onFrame(type, in);
+            in.limit(limit);
+            in.position(start + 4 + length);
+            frames++;
+        }
+        in.compact();
+        return frames;
+    }
+
+    public static String decodeJson(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Returns the timestamp; the pose is written to poseOut as tx, ty, tz, qx, qy, qz, qw
+    public static long decodePose(ByteBuffer payload, float[] poseOut) {
+        if (payload.remaining() < POSE_PAYLOAD_BYTES) {
+            throw new IllegalStateException("Truncated pose frame: " + payload.remaining() + " bytes.");
+        }
+        long timestampNs = payload.getLong();
+        for (int i = 0; i < 7; i++) poseOut[i] = payload.getFloat();
+        return timestampNs;
+    }
+
+    public static List<DetectedObject> decodeDetections(ByteBuffer payload) {
+        return decodeDetections(payload, TYPE_DETECTIONS);
+    }
+
+    // type is TYPE_DETECTIONS or TYPE_DETECTIONS_DELTA
+    public static List<DetectedObject> decodeDetections(ByteBuffer payload, byte type) {
+        final boolean deltas = type == TYPE_DETECTIONS_DELTA;
+        try {
+            payload.getLong(); // timestampNs
+            int count = payload.getShort() & 0xFFFF;
+            if (count > payload.remaining() / MIN_DETECTION_BYTES) {
+                throw new IllegalStateException("Detection frame with " + count + " detections in "
+                        + payload.remaining() + " bytes.");
+            }
+            List<DetectedObject> objects = new ArrayList<>(count);
+            for (int n = 0; n < count; n++) objects.add(getDetection(payload, deltas));
+            return objects;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalStateException("Truncated detection frame.", e);
+        }
+    }
+
+    // One detection in the TYPE_DETECTIONS / TYPE_DETECTIONS_DELTA layout
+    static DetectedObject getDetection(ByteBuffer payload, boolean deltas) {
+        DetectedObject obj = new DetectedObject();
+        byte[] cls = new byte[payload.get() & 0xFF];
+        payload.get(cls);
+        obj.objectClass = new String(cls, StandardCharsets.UTF_8);
+        obj.confidence = payload.getFloat();
+        obj.boundingBoxLeft = payload.getFloat();
+        obj.boundingBoxTop = payload.getFloat();
+        obj.boundingBoxRight = payload.getFloat();
+        obj.boundingBoxBottom = payload.getFloat();
+        obj.poseX = payload.getFloat();
+        obj.poseY = payload.getFloat();
+        obj.poseZ = payload.getFloat();
+        obj.poseQx = payload.getFloat();
+        obj.poseQy = payload.getFloat();
+        obj.poseQz = payload.getFloat();
+        obj.poseQw = payload.getFloat();
+        int vertices = payload.getShort() & 0xFFFF;
+        if (vertices > payload.remaining() / (deltas ? 2 : 8)) {
+            throw new IllegalStateException("Detection with " + vertices + " polygon vertices in "
+                    + payload.remaining() + " bytes.");
+        }
+        if (vertices > 0) {
+            obj.polygon = new float[vertices * 2];
+            if (deltas) {
+                int x = 0, y = 0;
+                for (int i = 0; i < vertices; i++) {
+                    x += unzigzag(getVarint(payload));
+                    y += unzigzag(getVarint(payload));
+                    obj.polygon[2 * i] = x * POLYGON_QUANTUM;
+                    obj.polygon[2 * i + 1] = y * POLYGON_QUANTUM;
+                }
+            } else {
+                for (int i = 0; i < vertices * 2; i++) obj.polygon[i] = payload.getFloat();
+            }
+        }
+        return obj;
+    }
+
+    // --- Varints (LEB128, unsigned) with zigzag mapping for signed deltas ---
+
+    static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    static int unzigzag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    static void putVarint(ByteBuffer out, int v) {
+        while ((v & ~0x7F) != 0) {
+            out.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+    }
+
+    static int getVarint(ByteBuffer in) {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final byte b = in.get();
+            v |= (b & 0x7F) << shift;
+            if (b >= 0) return v;
+        }
+        throw new IllegalStateException("Malformed varint.");
+    }
+
+    // Fills out (up to its capacity) and returns the timestamp; a frame without the removal trailer decodes as
+    // no reset and no removals
+    public static long decodeVoxels(ByteBuffer payload, VoxelCloud.Batch out) {
+        try {
+            final long timestampNs = payload.getLong();
+            out.voxelSize = payload.getFloat();
+            final int count = payload.getInt();
+            if (count < 0 || count > out.getCapacity()) {
+                throw new IllegalStateException("Voxel frame with " + count + " voxels, batch holds " + out.getCapacity());
+            }
+            for (int i = 0; i < count; i++) {
+                out.coords[i * 3] = payload.getShort();
+                out.coords[i * 3 + 1] = payload.getShort();
+                out.coords[i * 3 + 2] = payload.getShort();
+                payload.get(out.offsets, i * 3, 3);
+                out.confidence[i] = payload.get();
+                out.hits[i] = payload.get();
+            }
+            out.count = count;
+            out.reset = false;
+            out.removedCount = 0;
+            if (payload.hasRemaining()) {
+                out.reset = (payload.get() & VOXELS_RESET) != 0;
+                final int removed = payload.getInt();
+                if (removed < 0 || removed > out.getCapacity()) {
+                    throw new IllegalStateException("Voxel frame with " + removed + " removals, batch holds " + out.getCapacity());
+                }
+                for (int i = 0; i < removed * 3; i++) out.removedCoords[i] = payload.getShort();
+                out.removedCount = removed;
+            }
+            return timestampNs;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalStateException("Truncated voxel frame.", e);
+        }
+    }
+
+    // Applies a TYPE_GRID frame to tiles (OccupancyGrid.tileKey -> TILE_SIZE^2 log-odds cells, created on
+    // first sight) and returns the timestamp
+    public static long decodeGrid(ByteBuffer payload, Map<Long, byte[]> tiles) {
+        try {
+            final long timestampNs = payload.getLong();
+            payload.getFloat(); // Resolution, fixed for a grid
+            final int tileShift = payload.get();
+            if (tileShift != OccupancyGrid.TILE_SHIFT) {
+                throw new IllegalStateException("Grid frame with tile shift " + tileShift + ", expected " + OccupancyGrid.TILE_SHIFT);
+            }
+            final int cellsPerTile = 1 << (2 * tileShift);
+            final int count = payload.getShort() & 0xFFFF;
+            if (count > payload.remaining() / MIN_GRID_TILE_BYTES) {
+                throw new IllegalStateException("Grid frame with " + count + " tiles in " + payload.remaining()
+                        + " bytes.");
+            }
+            for (int t = 0; t < count; t++) {
+                final long key = OccupancyGrid.tileKey(payload.getInt(), payload.getInt());
+                final int flags = payload.get();
+                final int runs = payload.getShort() & 0xFFFF;
+                if (runs > cellsPerTile || runs > payload.remaining() / MIN_GRID_RUN_BYTES) {
+                    throw new IllegalStateException("Grid tile with " + runs + " runs in " + payload.remaining()
+                            + " bytes.");
+                }
+                byte[] cells = tiles.get(key);
+                if (cells == null) {
+                    cells = new byte[cellsPerTile];
+                    tiles.put(key, cells);
+                } else if ((flags & GRID_KEYFRAME) != 0) {
+                    Arrays.fill(cells, (byte) 0);
+                }
+                int i = 0;
+                for (int r = 0; r < runs; r++) {
+                    // Checked one at a time: a corrupt varint can be anything up to 2^32 - 1, and i + length
+                    // would overflow past the check
+                    final int skip = getVarint(payload);
+                    if (skip < 0 || skip > cellsPerTile - i) {
+                        throw new IllegalStateException("Grid run outside the tile: " + i + "+" + skip);
+                    }
+                    i += skip;
+                    final int length = getVarint(payload);
+                    if (length < 0 || length > cellsPerTile - i) {
+                        throw new IllegalStateException("Grid run outside the tile: " + i + "+" + length);
+                    }
+                    payload.get(cells, i, length);
+                    i += length;
+                }
+            }
+            return timestampNs;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalStateException("Truncated grid frame.", e);
+        }
+    }
+
+    // --- JSON-lines fallback (same message shapes the brain already parses) ---
+
+    public static String formatPoseJson(long timestampNs, float tx, float ty, float tz,
+                                        float qx, float qy, float qz, float qw) {
+        return "{\"type\": \"slam_update\", \"timestamp_ns\": " + timestampNs
+                + ", \"pose\": {\"x\": " + tx + ", \"y\": " + ty + ", \"z\": " + tz
+                + ", \"qx\": " + qx + ", \"qy\": " + qy + ", \"qz\": " + qz + ", \"qw\": " + qw + "}}";
+    }
+
+    public static String formatDetectionsJson(long timestampNs, List<DetectedObject> objects) {
+        StringBuilder sb = new StringBuilder(64 + objects.size() * 256);
+        sb.append("{\"type\": \"vision_update\", \"timestamp_ns\": ").append(timestampNs).append(", \"objects\": [");
+        for (int n = 0; n < objects.size(); n++) {
+            DetectedObject obj = objects.get(n);
+            if (n > 0) sb.append(", ");
+            sb.append("{\"class\": \"").append(escapeJson(obj.objectClass)).append('"');
+            sb.append(", \"confidence\": ").append(obj.confidence);
+            sb.append(", \"bbox\": [").append(obj.boundingBoxLeft).append(", ").append(obj.boundingBoxTop)
+                    .append(", ").append(obj.boundingBoxRight).append(", ").append(obj.boundingBoxBottom).append(']');
+            sb.append(", \"pose\": {\"x\": ").append(obj.poseX).append(", \"y\": ").append(obj.poseY)
+                    .append(", \"z\": ").append(obj.poseZ).append(", \"qx\": ").append(obj.poseQx)
+                    .append(", \"qy\": ").append(obj.poseQy).append(", \"qz\": ").append(obj.poseQz)
+                    .append(", \"qw\": ").append(obj.poseQw).append('}');
+            if (obj.polygon != null) {
+                sb.append(", \"polygon\": [");
+                for (int i = 0; i < obj.polygon.length; i++) {
+                    if (i > 0) sb.append(", ");
+                    sb.append(obj.polygon[i]);
+                }
+                sb.append(']');
+            }
+            sb.append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    // Voxel centroids in world metres: "points": [[x, y, z, confidence], ...]. Evicted voxels as their centres,
+    // "removed": [[x, y, z], ...], and "reset": true when the brain should drop every voxel first; both only
+    // when there is something to say.
+    public static String formatVoxelsJson(long timestampNs, VoxelCloud.Batch batch) {
+        StringBuilder sb = new StringBuilder(96 + batch.count * 48 + batch.removedCount * 36);
+        sb.append("{\"type\": \"point_cloud_update\", \"timestamp_ns\": ").append(timestampNs)
+                .append(", \"voxel_size\": ").append(batch.voxelSize);
+        if (batch.reset) sb.append(", \"reset\": true");
+        final float[] position = new float[3];
+        if (batch.removedCount > 0) {
+            sb.append(", \"removed\": [");
+            for (int i = 0; i < batch.removedCount; i++) {
+                if (i > 0) sb.append(", ");
+                batch.getRemovedPosition(i, position);
+                sb.append('[').append(position[0]).append(", ").append(position[1]).append(", ").append(position[2]).append(']');
+            }
+            sb.append(']');
+        }
+        sb.append(", \"points\": [");
+        for (int i = 0; i < batch.count; i++) {
+            if (i > 0) sb.append(", ");
+            batch.getPosition(i, position);
+            sb.append('[').append(position[0]).append(", ").append(position[1]).append(", ").append(position[2])
+                    .append(", ").append((batch.confidence[i] & 0xFF) / 255f).append(']');
+        }
+        return sb.append("]}").toString();
+    }
+
+    // Whole dirty tiles, cells as log-odds * OccupancyGrid.LOG_ODDS_SCALE (0 = unknown), row-major by z then x
+    public static String formatGridJson(long timestampNs, OccupancyGrid.TileBatch batch) {
+        final int cellsPerTile = OccupancyGrid.TILE_SIZE * OccupancyGrid.TILE_SIZE;
+        StringBuilder sb = new StringBuilder(128 + batch.count * cellsPerTile * 3);
+        sb.append("{\"type\": \"occupancy_grid_update\", \"timestamp_ns\": ").append(timestampNs)
+                .append(", \"resolution\": ").append(batch.resolution)
+                .append(", \"tile_size\": ").append(OccupancyGrid.TILE_SIZE)
+                .append(", \"log_odds_scale\": ").append(OccupancyGrid.LOG_ODDS_SCALE).append(", \"tiles\": [");
+        for (int t = 0; t < batch.count; t++) {
+            if (t > 0) sb.append(", ");
+            sb.append("{\"x\": ").append(batch.tileX[t]).append(", \"z\": ").append(batch.tileZ[t]).append(", \"cells\": [");
+            final byte[] cells = batch.cells[t];
+            for (int i = 0; i < cellsPerTile; i++) {
+                if (i > 0) sb.append(',');
+                sb.append(cells[i]);
+            }
+            sb.append("]}");
+        }
+        return sb.append("]}").toString();
+    }
+
+    // Tracking recovered after a loss: pose jump, and the stored keyframe the camera matched (if any)
+    public static String formatRelocalizationJson(RelocalizationReport report) {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("{\"type\": \"relocalization\", \"lost_timestamp_ns\": ").append(report.lostTimestampNs)
+                .append(", \"recovered_timestamp_ns\": ").append(report.recoveredTimestampNs)
+                .append(", \"pose_before\": ");
+        appendPose(sb, report.poseBeforeLoss);
+        sb.append(", \"pose_after\": ");
+        appendPose(sb, report.poseAfterRecovery);
+        sb.append(", \"jump\": {\"translation\": ").append(report.getTranslationJump())
+                .append(", \"rotation_rad\": ").append(report.getRotationJumpRad()).append('}');
+        if (report.matched) {
+            sb.append(", \"keyframe\": {\"id\": ").append(report.match.keyframeId)
+                    .append(", \"timestamp_ns\": ").append(report.match.timestampNs)
+                    .append(", \"matches\": ").append(report.match.matches)
+                    .append(", \"features\": ").append(report.match.queryFeatures)
+                    .append(", \"similarity\": ").append(report.match.similarity)
+                    .append(", \"pose\": ");
+            appendPose(sb, report.match.pose);
+            sb.append('}');
+        } else {
+            sb.append(", \"keyframe\": null");
+        }
+        return sb.append('}').toString();
+    }
+
+    private static void appendPose(StringBuilder sb, float[] p) {
+        sb.append("{\"x\": ").append(p[0]).append(", \"y\": ").append(p[1]).append(", \"z\": ").append(p[2])
+                .append(", \"qx\": ").append(p[3]).append(", \"qy\": ").append(p[4])
+                .append(", \"qz\": ").append(p[5]).append(", \"qw\": ").append(p[6]).append('}');
+    }
+
+    static String escapeJson(String s) {
+        if (s == null) return "";
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.toString();
+    }
+}
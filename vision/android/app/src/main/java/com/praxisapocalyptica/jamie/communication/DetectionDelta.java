@@ -0,0 +1,228 @@
+package com/praxisapocalyptica/jamie.communication;
+
+// Pure Java (no Android imports) so a recorded detection stream can be replayed through both ends on a plain JVM.
+
+import com/praxisapocalyptica/jamie.perception.DetectedObject;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Diff coding of consecutive vision_update messages (BrainWireProtocol.FEATURE_DETECTION_DIFF).
+// Most objects in a room don't move between frames, so instead of the full list the Sender writes only what
+// changed since the last frame it sent, keyed by a stable track id: ids that disappeared, and objects that are
+// new or moved beyond a threshold. Every keyframeInterval frames (and after reset(), i.e. on a new connection)
+// it sends a keyframe with the whole list so the brain can never drift for long.
+//
+// Track ids come from DetectedObject.trackId when a tracker has set one. Untracked objects (-1) are matched to
+// the last sent state greedily by class and bounding box overlap, and get ids from a range that cannot clash
+// with tracker ids.
+//
+// Changes are measured against the last *sent* state, not the previous frame, so slow drift still triggers an
+// update once it adds up. Objects must not be modified after they have been handed to the Sender.
+//
+// The Receiver is the brain side: it applies each frame and returns the reconstructed full list.
+public class DetectionDelta {
+
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 30;     // Frames, about 1 s of vision_updates
+    public static final float DEFAULT_BBOX_THRESHOLD_PX = 4f;    // Any bounding box edge
+    public static final float DEFAULT_CONFIDENCE_THRESHOLD = 0.1f;
+    public static final float DEFAULT_POSE_THRESHOLD_M = 0.05f;  // Object position in world space
+    private static final float MATCH_MIN_IOU = 0.3f;             // For objects without a tracker id
+    private static final int FIRST_LOCAL_ID = 0x40000000;        // Ids the Sender assigns itself
+
+    // Writer thread only
+    public static class Sender {
+        private final int keyframeInterval;
+        private final float bboxThresholdPx;
+        private final float confidenceThreshold;
+        private final float poseThresholdM;
+
+        private final Map<Integer, DetectedObject> sent = new HashMap<>(); // Last sent state per track id
+        private final Map<Integer, DetectedObject> current = new HashMap<>();
+        private final List<DetectedObject> upserts = new ArrayList<>();
+        private int[] upsertIds = new int[16];
+        private int[] removedIds = new int[16];
+        private int[] frameIds = new int[16];
+        private int framesSinceKeyframe = Integer.MAX_VALUE; // Forces a keyframe first
+        private int nextLocalId = FIRST_LOCAL_ID;
+
+        // --- Counters ---
+        private long framesEncoded = 0;
+        private long keyframesEncoded = 0;
+        private long objectsSeen = 0;
+        private long objectsSent = 0;
+
+        public Sender() {
+            this(DEFAULT_KEYFRAME_INTERVAL, DEFAULT_BBOX_THRESHOLD_PX, DEFAULT_CONFIDENCE_THRESHOLD,
+                    DEFAULT_POSE_THRESHOLD_M);
+        }
+
+        public Sender(int keyframeInterval, float bboxThresholdPx, float confidenceThreshold, float poseThresholdM) {
+            if (keyframeInterval < 1 || bboxThresholdPx < 0 || confidenceThreshold < 0 || poseThresholdM < 0) {
+                throw new IllegalArgumentException("Invalid detection diff settings: keyframe every "
+                        + keyframeInterval + ", thresholds " + bboxThresholdPx + " px, " + confidenceThreshold
+                        + ", " + poseThresholdM + " m");
+            }
+            this.keyframeInterval = keyframeInterval;
+            this.bboxThresholdPx = bboxThresholdPx;
+            this.confidenceThreshold = confidenceThreshold;
+            this.poseThresholdM = poseThresholdM;
+        }
+
+        // Next frame is a keyframe (call for every new connection: the brain's state is gone)
+        public void reset() {
+            sent.clear();
+            framesSinceKeyframe = Integer.MAX_VALUE;
+        }
+
+        // Encodes one vision_update as a TYPE_DETECTION_DIFF frame (in the encoder's buffer)
+        public ByteBuffer encode(BrainWireProtocol.Encoder encoder, long timestampNs, List<DetectedObject> objects) {
+            final boolean keyframe = framesSinceKeyframe >= keyframeInterval;
+            assignIds(objects);
+
+            int removedCount = 0;
+            if (!keyframe) {
+                for (Integer id : sent.keySet()) {
+                    if (!current.containsKey(id)) {
+                        if (removedCount == removedIds.length) removedIds = Arrays.copyOf(removedIds, removedCount * 2);
+                        removedIds[removedCount++] = id;
+                    }
+                }
+            }
+            upserts.clear();
+            if (upsertIds.length < objects.size()) upsertIds = new int[Math.max(objects.size(), upsertIds.length * 2)];
+            for (int i = 0; i < objects.size(); i++) {
+                final DetectedObject obj = objects.get(i);
+                if (current.get(frameIds[i]) != obj) continue; // Duplicate id in this frame
+                if (keyframe || changed(sent.get(frameIds[i]), obj)) {
+                    upsertIds[upserts.size()] = frameIds[i];
+                    upserts.add(obj);
+                }
+            }
+
+            final ByteBuffer frame = encoder.encodeDetectionDiff(timestampNs, keyframe, removedIds, removedCount,
+                    upserts, upsertIds);
+
+            // What the brain now holds: unchanged objects keep their last sent version
+            if (keyframe) sent.clear();
+            for (int i = 0; i < removedCount; i++) sent.remove(removedIds[i]);
+            for (int i = 0; i < upserts.size(); i++) sent.put(upsertIds[i], upserts.get(i));
+            framesSinceKeyframe = keyframe ? 1 : framesSinceKeyframe + 1;
+            framesEncoded++;
+            if (keyframe) keyframesEncoded++;
+            objectsSeen += objects.size();
+            objectsSent += upserts.size();
+            return frame;
+        }
+
+        // Fills frameIds[i] for every object and current with id -> object
+        private void assignIds(List<DetectedObject> objects) {
+            current.clear();
+            if (frameIds.length < objects.size()) frameIds = new int[Math.max(objects.size(), frameIds.length * 2)];
+            for (int i = 0; i < objects.size(); i++) {
+                final int id = objects.get(i).trackId;
+                frameIds[i] = id;
+                if (id >= 0 && !current.containsKey(id)) current.put(id, objects.get(i));
+            }
+            for (int i = 0; i < objects.size(); i++) {
+                if (frameIds[i] >= 0) continue;
+                final DetectedObject obj = objects.get(i);
+                int best = -1;
+                float bestIou = MATCH_MIN_IOU;
+                for (Map.Entry<Integer, DetectedObject> e : sent.entrySet()) {
+                    if (e.getKey() < FIRST_LOCAL_ID || current.containsKey(e.getKey())) continue;
+                    final DetectedObject prev = e.getValue();
+                    if (prev.objectClass == null ? obj.objectClass != null : !prev.objectClass.equals(obj.objectClass)) continue;
+                    final float iou = iou(prev, obj);
+                    if (iou >= bestIou) {
+                        bestIou = iou;
+                        best = e.getKey();
+                    }
+                }
+                if (best < 0) {
+                    best = nextLocalId;
+                    nextLocalId = nextLocalId == Integer.MAX_VALUE ? FIRST_LOCAL_ID : nextLocalId + 1;
+                }
+                frameIds[i] = best;
+                current.put(best, obj);
+            }
+        }
+
+        private boolean changed(DetectedObject prev, DetectedObject obj) {
+            if (prev == null) return true;
+            if (prev.objectClass == null ? obj.objectClass != null : !prev.objectClass.equals(obj.objectClass)) return true;
+            if (Math.abs(prev.confidence - obj.confidence) > confidenceThreshold) return true;
+            if (Math.abs(prev.boundingBoxLeft - obj.boundingBoxLeft) > bboxThresholdPx
+                    || Math.abs(prev.boundingBoxTop - obj.boundingBoxTop) > bboxThresholdPx
+                    || Math.abs(prev.boundingBoxRight - obj.boundingBoxRight) > bboxThresholdPx
+                    || Math.abs(prev.boundingBoxBottom - obj.boundingBoxBottom) > bboxThresholdPx) return true;
+            final float dx = prev.poseX - obj.poseX, dy = prev.poseY - obj.poseY, dz = prev.poseZ - obj.poseZ;
+            return dx * dx + dy * dy + dz * dz > poseThresholdM * poseThresholdM;
+        }
+
+        public long getFramesEncoded() { return framesEncoded; }
+        public long getKeyframesEncoded() { return keyframesEncoded; }
+        // Fraction of detections that actually went on the wire (1.0 before the first frame)
+        public float getSentFraction() {
+            return objectsSeen == 0 ? 1f : objectsSent / (float) objectsSeen;
+        }
+    }
+
+    static float iou(DetectedObject a, DetectedObject b) {
+        final float w = Math.min(a.boundingBoxRight, b.boundingBoxRight) - Math.max(a.boundingBoxLeft, b.boundingBoxLeft);
+        final float h = Math.min(a.boundingBoxBottom, b.boundingBoxBottom) - Math.max(a.boundingBoxTop, b.boundingBoxTop);
+        if (w <= 0 || h <= 0) return 0f;
+        final float inter = w * h;
+        final float areaA = (a.boundingBoxRight - a.boundingBoxLeft) * (a.boundingBoxBottom - a.boundingBoxTop);
+        final float areaB = (b.boundingBoxRight - b.boundingBoxLeft) * (b.boundingBoxBottom - b.boundingBoxTop);
+        return inter / (areaA + areaB - inter);
+    }
+
+    // Brain side (and tools): rebuilds the full detection list from TYPE_DETECTION_DIFF payloads
+    public static class Receiver {
+        private final LinkedHashMap<Integer, DetectedObject> objects = new LinkedHashMap<>();
+        private boolean synced = false; // Seen a keyframe since creation / reset()
+        private long lastTimestampNs = 0;
+
+        // Applies one payload and returns the full current list (trackId set on every object).
+        // Diffs that arrive before the first keyframe are ignored and return an empty list.
+        public List<DetectedObject> apply(ByteBuffer payload) {
+            try {
+                lastTimestampNs = payload.getLong();
+                final int flags = payload.get() & 0xFF;
+                final boolean keyframe = (flags & BrainWireProtocol.DIFF_KEYFRAME) != 0;
+                final boolean deltas = (flags & BrainWireProtocol.DIFF_POLYGON_DELTAS) != 0;
+                if (keyframe) {
+                    objects.clear();
+                    synced = true;
+                }
+                final int removedCount = payload.getShort() & 0xFFFF;
+                for (int i = 0; i < removedCount; i++) objects.remove(payload.getInt());
+                final int upsertCount = payload.getShort() & 0xFFFF;
+                for (int i = 0; i < upsertCount; i++) {
+                    final int id = payload.getInt();
+                    final DetectedObject obj = BrainWireProtocol.getDetection(payload, deltas);
+                    obj.trackId = id;
+                    objects.put(id, obj);
+                }
+            } catch (BufferUnderflowException e) {
+                throw new IllegalStateException("Truncated detection diff frame.", e);
+            }
+            return synced ? new ArrayList<>(objects.values()) : new ArrayList<DetectedObject>();
+        }
+
+        public void reset() {
+            objects.clear();
+            synced = false;
+        }
+
+        public boolean isSynced() { return synced; }
+        public long getLastTimestampNs() { return lastTimestampNs; }
+    }
+}
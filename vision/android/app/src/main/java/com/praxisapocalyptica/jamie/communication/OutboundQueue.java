@@ -0,0 +1,330 @@
+package com/praxisapocalyptica/jamie.communication;
+
+// Pure Java (no Android imports) so it can be driven against a slow loopback consumer on a plain JVM.
+
+import com/praxisapocalyptica/jamie.perception.DetectedObject;
+import com/praxisapocalyptica/jamie.perception.OccupancyGrid;
+import com/praxisapocalyptica/jamie.perception.VoxelCloud;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Bounded, prioritised outbound scheduler between the app threads and the single writer thread.
+//   - Each message has a priority class; the writer always takes the highest class first (FIFO within a class),
+//     so speech/control commands overtake a backlog of vision traffic.
+//   - Superseding streams (slam_update, vision_update) carry a coalesce key: while a message with that key is
+//     still queued, a newer one replaces its content in place, so at most one stale pose/detection list waits.
+//   - The queue is bounded: when full, the oldest message of the lowest class (not above the new message's
+//     class) is dropped to make room; if everything queued outranks the new message, the new one is dropped.
+//     Control messages are never evicted: a control message offered to a queue full of them is rejected.
+// If Wi-Fi stalls, the queue therefore stays short and what eventually goes out is the newest state.
+public class OutboundQueue {
+
+    // Priority classes, highest first
+    public static final int PRIORITY_CONTROL = 0; // Speech / commands / acks - never coalesced
+    public static final int PRIORITY_POSE = 1;    // slam_update
+    public static final int PRIORITY_VISION = 2;  // vision_update
+    private static final int PRIORITY_LEVELS = 3;
+
+    public static final String KEY_POSE = "slam_update";
+    public static final String KEY_VISION = "vision_update";
+    public static final String KEY_POINT_CLOUD = "point_cloud_update";
+    public static final String KEY_GRID = "occupancy_grid_update";
+
+    public static final int KIND_JSON = 0;
+    public static final int KIND_POSE = 1;
+    public static final int KIND_DETECTIONS = 2;
+    public static final int KIND_POINT_CLOUD = 3;
+    public static final int KIND_GRID = 4;
+
+    // One queued message. Content fields are replaced in place when a newer message with the same key arrives.
+    public static class Message {
+        public int kind;
+        public String json;                       // KIND_JSON
+        public long timestampNs;                  // KIND_POSE / KIND_DETECTIONS
+        public final float[] pose = new float[7]; // tx, ty, tz, qx, qy, qz, qw
+        public List<DetectedObject> objects;
+        public VoxelCloud cloud;                  // KIND_POINT_CLOUD: drained by the writer, not copied
+        public OccupancyGrid grid;                // KIND_GRID: drained by the writer, not copied
+        public long enqueueNanos;                 // Time the current content was offered
+        public long seq;                          // Session sequence number once sent as critical (0 = none)
+        private int priority;
+        private String coalesceKey;
+
+        public int getPriority() { return priority; }
+        public String getCoalesceKey() { return coalesceKey; }
+    }
+
+    private final int capacity;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<Message>[] levels = new ArrayDeque[PRIORITY_LEVELS];
+    private final Map<String, Message> queuedByKey = new HashMap<>();
+    private int depth = 0;
+    private boolean closed = false;
+    private Runnable wakeup; // See setWakeup()
+
+    // --- Counters ---
+    private long enqueuedCount = 0;
+    private long coalescedCount = 0;
+    private final long[] droppedCount = new long[PRIORITY_LEVELS];
+    private long sentCount = 0;
+    private long lastLatencyNanos = 0;
+    private long maxLatencyNanos = 0;
+    private long totalLatencyNanos = 0;
+
+    public OutboundQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        for (int i = 0; i < PRIORITY_LEVELS; i++) levels[i] = new ArrayDeque<>();
+    }
+
+    // --- Producers (any thread). Each returns false if the message was rejected. ---
+
+    public boolean offerJson(String json, int priority, String coalesceKey) {
+        synchronized (this) {
+            Message m = slotFor(priority, coalesceKey);
+            if (m == null) return false;
+            m.kind = KIND_JSON;
+            m.json = json;
+            m.objects = null;
+            return publish(m);
+        }
+    }
+
+    public boolean offerPose(long timestampNs, float tx, float ty, float tz, float qx, float qy, float qz, float qw) {
+        synchronized (this) {
+            Message m = slotFor(PRIORITY_POSE, KEY_POSE);
+            if (m == null) return false;
+            m.kind = KIND_POSE;
+            m.json = null;
+            m.objects = null;
+            m.timestampNs = timestampNs;
+            m.pose[0] = tx;
+            m.pose[1] = ty;
+            m.pose[2] = tz;
+            m.pose[3] = qx;
+            m.pose[4] = qy;
+            m.pose[5] = qz;
+            m.pose[6] = qw;
+            return publish(m);
+        }
+    }
+
+    // The list is copied (the caller may reuse it); the DetectedObjects in it are shared and must not be
+    // changed after they are offered.
+    public boolean offerDetections(long timestampNs, List<DetectedObject> objects) {
+        final List<DetectedObject> copy = new ArrayList<>(objects);
+        synchronized (this) {
+            Message m = slotFor(PRIORITY_VISION, KEY_VISION);
+            if (m == null) return false;
+            m.kind = KIND_DETECTIONS;
+            m.json = null;
+            m.timestampNs = timestampNs;
+            m.objects = copy;
+            return publish(m);
+        }
+    }
+
+    // Asks the writer to send the cloud's changed voxels. The voxels stay in the cloud until the writer drains
+    // them, so a coalesced or dropped request loses nothing.
+    public boolean offerPointCloud(long timestampNs, VoxelCloud cloud) {
+        synchronized (this) {
+            Message m = slotFor(PRIORITY_VISION, KEY_POINT_CLOUD);
+            if (m == null) return false;
+            m.kind = KIND_POINT_CLOUD;
+            m.json = null;
+            m.objects = null;
+            m.timestampNs = timestampNs;
+            m.cloud = cloud;
+            m.grid = null;
+            return publish(m);
+        }
+    }
+
+    // Asks the writer to send the grid's dirty tiles; like offerPointCloud, the tiles stay dirty until drained
+    public boolean offerGrid(long timestampNs, OccupancyGrid grid) {
+        synchronized (this) {
+            Message m = slotFor(PRIORITY_VISION, KEY_GRID);
+            if (m == null) return false;
+            m.kind = KIND_GRID;
+            m.json = null;
+            m.objects = null;
+            m.timestampNs = timestampNs;
+            m.cloud = null;
+            m.grid = grid;
+            return publish(m);
+        }
+    }
+
+    // Returns the message to fill: the queued one with the same key (coalescing), a new one if there is room
+    // or room could be made, or null if the new message loses against everything queued.
+    private Message slotFor(int priority, String coalesceKey) {
+        if (priority < 0 || priority >= PRIORITY_LEVELS) {
+            throw new IllegalArgumentException("Invalid priority: " + priority);
+        }
+        if (closed) return null;
+        if (coalesceKey != null) {
+            Message queued = queuedByKey.get(coalesceKey);
+            if (queued != null) {
+                coalescedCount++;
+                return queued;
+            }
+        }
+        if (depth >= capacity && !evictFor(priority)) {
+            droppedCount[priority]++;
+            return null;
+        }
+        Message m = new Message();
+        m.priority = priority;
+        m.coalesceKey = coalesceKey;
+        levels[priority].addLast(m);
+        depth++;
+        if (coalesceKey != null) queuedByKey.put(coalesceKey, m);
+        return m;
+    }
+
+    // Drops the oldest message of the lowest class that does not outrank the incoming one. Control messages
+    // are never dropped to make room (not even for another control message).
+    private boolean evictFor(int priority) {
+        for (int p = PRIORITY_LEVELS - 1; p >= Math.max(priority, PRIORITY_CONTROL + 1); p--) {
+            Message victim = levels[p].pollFirst();
+            if (victim == null) continue;
+            depth--;
+            if (victim.coalesceKey != null) queuedByKey.remove(victim.coalesceKey);
+            droppedCount[p]++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean publish(Message m) {
+        m.enqueueNanos = System.nanoTime();
+        enqueuedCount++;
+        signal();
+        return true;
+    }
+
+    // --- Consumer (writer thread) ---
+
+    // Highest-priority message, waiting up to timeoutMs. Returns null on timeout or once closed and empty.
+    // After a message is returned its key no longer coalesces, so later updates queue behind it.
+    public Message poll(long timeoutMs) throws InterruptedException {
+        return pollNanos(timeoutMs * 1000000L);
+    }
+
+    // Same with a nanosecond timeout (aggregation windows are in the microsecond range); 0 doesn't wait
+    public synchronized Message pollNanos(long timeoutNanos) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeoutNanos;
+        while (depth == 0) {
+            if (closed) return null;
+            final long wait = deadline - System.nanoTime();
+            if (wait <= 0) return null;
+            wait(wait / 1000000L, (int) (wait % 1000000L));
+        }
+        for (ArrayDeque<Message> level : levels) {
+            Message m = level.pollFirst();
+            if (m == null) continue;
+            depth--;
+            if (m.coalesceKey != null) queuedByKey.remove(m.coalesceKey);
+            return m;
+        }
+        return null; // Unreachable while depth is consistent
+    }
+
+    // Puts already-dequeued messages back at the head of their classes, in the given order (e.g. unacknowledged
+    // critical messages replayed after a reconnect). Bypasses the capacity bound; they were admitted once.
+    public synchronized void requeueFront(List<Message> messages) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            final Message m = messages.get(i);
+            levels[m.priority].addFirst(m);
+            depth++;
+        }
+        if (!messages.isEmpty()) signal();
+    }
+
+    // Puts back messages the writer took but couldn't get onto the wire (connection lost before the flush),
+    // at the head of their classes in the given order. A message whose coalesce key was offered again in
+    // the meantime is dropped as superseded; the others take their key back so newer offers coalesce into them.
+    public synchronized void requeueUnsent(List<Message> messages) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            final Message m = messages.get(i);
+            if (m.coalesceKey != null) {
+                if (queuedByKey.containsKey(m.coalesceKey)) {
+                    coalescedCount++;
+                    continue;
+                }
+                queuedByKey.put(m.coalesceKey, m);
+            }
+            levels[m.priority].addFirst(m);
+            depth++;
+        }
+        if (depth > 0) signal();
+    }
+
+    // Records that a message made it onto the wire (written and flushed)
+    public synchronized void markSent(Message m) {
+        final long latency = System.nanoTime() - m.enqueueNanos;
+        sentCount++;
+        lastLatencyNanos = latency;
+        totalLatencyNanos += latency;
+        if (latency > maxLatencyNanos) maxLatencyNanos = latency;
+    }
+
+    public synchronized boolean isEmpty() {
+        return depth == 0;
+    }
+
+    // Discards everything queued (counted as dropped)
+    public synchronized void clear() {
+        for (int p = 0; p < PRIORITY_LEVELS; p++) {
+            droppedCount[p] += levels[p].size();
+            levels[p].clear();
+        }
+        queuedByKey.clear();
+        depth = 0;
+    }
+
+    // Wakes the writer and rejects further offers
+    public synchronized void close() {
+        closed = true;
+        signal();
+    }
+
+    // A consumer that waits somewhere else than in poll() (the writer blocked in a Selector) gets this run,
+    // under the queue's lock, whenever a message becomes available or the queue closes; null removes it.
+    // Once setWakeup(null) returns the previous hook is not running and won't run again.
+    public synchronized void setWakeup(Runnable wakeup) {
+        this.wakeup = wakeup;
+    }
+
+    private void signal() {
+        notifyAll();
+        if (wakeup != null) wakeup.run();
+    }
+
+    public synchronized boolean isClosed() { return closed; }
+
+    // --- Counters ---
+    public int getCapacity() { return capacity; }
+    public synchronized int getDepth() { return depth; }
+    public synchronized long getEnqueuedCount() { return enqueuedCount; }
+    public synchronized long getCoalescedCount() { return coalescedCount; }
+    public synchronized long getDroppedCount(int priority) { return droppedCount[priority]; }
+    public synchronized long getDroppedCount() {
+        long total = 0;
+        for (long d : droppedCount) total += d;
+        return total;
+    }
+    public synchronized long getSentCount() { return sentCount; }
+    // Enqueue (of the content that was sent) -> written and flushed to the socket
+    public synchronized long getLastLatencyNanos() { return lastLatencyNanos; }
+    public synchronized long getMaxLatencyNanos() { return maxLatencyNanos; }
+    public synchronized long getAverageLatencyNanos() {
+        return sentCount == 0 ? 0 : totalLatencyNanos / sentCount;
+    }
+}
@@ -0,0 +1,173 @@
+package com/praxisapocalyptica/jamie.communication;
+
+// Pure Java (no Android imports) so compression ratio and cost can be measured on a plain JVM.
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Optional per-frame compression for the binary protocol (BrainWireProtocol.FEATURE_DEFLATE).
+// Frames whose payload reaches the threshold are deflated (raw deflate, fastest level) with a preset dictionary
+// of the strings our messages repeat - JSON keys, message types and detector class names - so even a single
+// small vision_update compresses, not just long streams. A frame that doesn't get smaller is sent as is.
+//
+// TYPE_COMPRESSED payload: u8 codec (CODEC_DEFLATE), u8 inner frame type, u32 uncompressed payload length,
+// then the deflate stream of the inner payload.
+//
+// One instance per direction per connection; Deflater/Inflater and buffers are reused. Not thread safe.
+public class PayloadCompressor {
+
+    public static final byte CODEC_DEFLATE = 1;
+    public static final int DEFAULT_THRESHOLD_BYTES = 256;
+    private static final int COMPRESSED_HEADER_BYTES = 6;
+
+    // Shared with the brain byte for byte. Most frequent strings last: deflate reaches them with shorter distances.
+    private static final byte[] DICTIONARY = (
+            "toothbrush hair drier teddy bear scissors vase clock book refrigerator sink toaster oven microwave "
+            + "cell phone keyboard remote mouse laptop tv toilet bed dining table potted plant couch chair cake "
+            + "donut pizza hot dog carrot broccoli orange sandwich apple banana bowl spoon knife fork wine glass "
+            + "bottle surfboard skateboard tennis racket baseball glove kite sports ball frisbee suitcase tie "
+            + "handbag umbrella backpack dog cat bird bench parking meter stop sign traffic light truck bus car "
+            + "{\"type\": \"speech_response_done\", \"utterance_id\": \"{\"type\": \"command\", \"text\": \""
+            + "{\"type\": \"status\", \"message\": \"{\"type\": \"speak\", \"text\": \""
+            + "{\"type\": \"slam_update\", \"timestamp_ns\": , \"pose\": {\"x\": , \"y\": , \"z\": , \"qx\": , \"qy\": , \"qz\": , \"qw\": }}"
+            + "{\"type\": \"vision_update\", \"timestamp_ns\": , \"objects\": [{\"class\": \"person\", \"confidence\": 0."
+            + ", \"bbox\": [, \"polygon\": [").getBytes(StandardCharsets.US_ASCII);
+
+    private final int thresholdBytes;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final Inflater inflater = new Inflater(true);
+    private ByteBuffer output = ByteBuffer.allocate(4096).order(ByteOrder.BIG_ENDIAN);
+    private byte[] scratch = new byte[4096];
+    private byte lastInnerType;
+
+    // --- Counters ---
+    private long framesCompressed = 0;
+    private long framesSkipped = 0;  // Below threshold or didn't shrink
+    private long rawBytes = 0;       // Payload bytes of compressed frames before...
+    private long compressedBytes = 0; // ...and after
+    private long compressNanos = 0;
+
+    public PayloadCompressor(int thresholdBytes) {
+        if (thresholdBytes < 0) {
+            throw new IllegalArgumentException("Invalid compression threshold: " + thresholdBytes);
+        }
+        this.thresholdBytes = thresholdBytes;
+    }
+
+    // Takes one complete encoded frame (position at its length field, as returned by BrainWireProtocol.Encoder)
+    // and returns either the same buffer untouched or a TYPE_COMPRESSED frame in an internal buffer that is
+    // valid until the next call.
+    public ByteBuffer compressFrame(ByteBuffer frame) {
+        final int start = frame.position();
+        final int payloadLength = frame.remaining() - BrainWireProtocol.HEADER_BYTES;
+        if (payloadLength < thresholdBytes) {
+            framesSkipped++;
+            return frame;
+        }
+        final long t0 = System.nanoTime();
+        final byte type = frame.get(start + 4);
+        final byte[] input;
+        final int inputOffset;
+        if (frame.hasArray()) {
+            input = frame.array();
+            inputOffset = frame.arrayOffset() + start + BrainWireProtocol.HEADER_BYTES;
+        } else {
+            if (scratch.length < payloadLength) scratch = new byte[payloadLength];
+            final ByteBuffer view = frame.duplicate();
+            view.position(start + BrainWireProtocol.HEADER_BYTES);
+            view.get(scratch, 0, payloadLength);
+            input = scratch;
+            inputOffset = 0;
+        }
+
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(input, inputOffset, payloadLength);
+        deflater.finish();
+        // Only worth it if the frame shrinks; give up as soon as the output can't be smaller
+        final int limit = BrainWireProtocol.HEADER_BYTES + COMPRESSED_HEADER_BYTES + payloadLength;
+        if (output.capacity() < limit) output = ByteBuffer.allocate(limit).order(ByteOrder.BIG_ENDIAN);
+        final byte[] out = output.array();
+        int written = BrainWireProtocol.HEADER_BYTES + COMPRESSED_HEADER_BYTES;
+        while (!deflater.finished() && written < limit) {
+            written += deflater.deflate(out, written, limit - written);
+        }
+        compressNanos += System.nanoTime() - t0;
+        if (!deflater.finished() || written >= frame.remaining()) {
+            framesSkipped++;
+            return frame;
+        }
+
+        output.clear();
+        output.putInt(written - 4);
+        output.put(BrainWireProtocol.TYPE_COMPRESSED);
+        output.put(CODEC_DEFLATE).put(type).putInt(payloadLength);
+        output.position(written);
+        output.flip();
+        framesCompressed++;
+        rawBytes += payloadLength;
+        compressedBytes += written - BrainWireProtocol.HEADER_BYTES;
+        return output;
+    }
+
+    // Inflates a TYPE_COMPRESSED payload. Returns the inner payload (valid until the next call);
+    // its frame type is available from getLastInnerType().
+    public ByteBuffer decompress(ByteBuffer payload) {
+        if (payload.remaining() < COMPRESSED_HEADER_BYTES) {
+            throw new IllegalStateException("Truncated compressed frame: " + payload.remaining() + " bytes.");
+        }
+        final byte codec = payload.get();
+        if (codec != CODEC_DEFLATE) {
+            throw new IllegalStateException("Unknown compression codec: " + codec);
+        }
+        lastInnerType = payload.get();
+        final int rawLength = payload.getInt();
+        if (rawLength < 0 || rawLength > BrainWireProtocol.MAX_FRAME_BYTES) {
+            throw new IllegalStateException("Invalid uncompressed length: " + rawLength);
+        }
+        final int compressedLength = payload.remaining();
+        if (scratch.length < compressedLength) scratch = new byte[compressedLength];
+        payload.get(scratch, 0, compressedLength);
+        if (output.capacity() < rawLength) output = ByteBuffer.allocate(rawLength).order(ByteOrder.BIG_ENDIAN);
+
+        inflater.reset();
+        inflater.setDictionary(DICTIONARY);
+        inflater.setInput(scratch, 0, compressedLength);
+        int n = 0;
+        try {
+            while (n < rawLength) {
+                final int got = inflater.inflate(output.array(), n, rawLength - n);
+                if (got == 0 && (inflater.finished() || inflater.needsInput())) break;
+                n += got;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed frame.", e);
+        }
+        if (n != rawLength) {
+            throw new IllegalStateException("Compressed frame inflated to " + n + " bytes, expected " + rawLength);
+        }
+        output.clear();
+        output.limit(rawLength);
+        return output;
+    }
+
+    public byte getLastInnerType() { return lastInnerType; }
+
+    public void close() {
+        deflater.end();
+        inflater.end();
+    }
+
+    // --- Counters ---
+    public long getFramesCompressed() { return framesCompressed; }
+    public long getFramesSkipped() { return framesSkipped; }
+    // Compressed / raw payload bytes over all compressed frames (1.0 before the first)
+    public float getCompressionRatio() {
+        return rawBytes == 0 ? 1f : compressedBytes / (float) rawBytes;
+    }
+    public long getCompressNanos() { return compressNanos; }
+}
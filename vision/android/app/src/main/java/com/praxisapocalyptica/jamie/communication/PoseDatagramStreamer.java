@@ -0,0 +1,106 @@
+package com/praxisapocalyptica/jamie.communication;
+
+// Pure Java (no Android imports) so it can be checked over loopback on a plain JVM.
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+
+// Optional UDP side channel for the camera pose, sent every frame from SlamManager.onDrawFrame.
+// Only the newest pose matters, so a lost or late datagram is simply superseded by the next one, and poses
+// never wait behind a large vision_update on the TCP link. Commands and detections stay on TCP.
+//
+// Packet (fixed PACKET_BYTES, big-endian):
+//   u16 magic 'JP', u8 version, u8 tracking state (STATE_*),
+//   u32 sequence (wraps), i64 timestampNs, f32 tx, ty, tz, qx, qy, qz, qw
+// The receiver keeps the highest sequence seen and discards older packets (see isNewer).
+//
+// send() is meant to be called from one thread (the GL thread); it never blocks and never allocates.
+public class PoseDatagramStreamer {
+
+    private static final String TAG = "JamiePoseDatagramStreamer";
+
+    public static final short MAGIC = 0x4A50; // "JP"
+    public static final byte VERSION = 1;
+    public static final int PACKET_BYTES = 2 + 1 + 1 + 4 + 8 + 7 * 4;
+
+    // Tracking state as reported by ARCore
+    public static final byte STATE_TRACKING = 0;
+    public static final byte STATE_PAUSED = 1;
+    public static final byte STATE_STOPPED = 2;
+
+    private final DatagramChannel channel;
+    private final ByteBuffer packet = ByteBuffer.allocateDirect(PACKET_BYTES).order(ByteOrder.BIG_ENDIAN);
+    private int sequence = 0;
+    private volatile long packetsSent = 0;
+    private volatile long packetsFailed = 0; // Socket buffer full or send error
+
+    public PoseDatagramStreamer(String brainAddress, int brainPort) throws IOException {
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.connect(new InetSocketAddress(brainAddress, brainPort));
+        System.out.println(TAG + ": Streaming poses to " + brainAddress + ":" + brainPort + " over UDP.");
+    }
+
+    // Streams over a channel that is already connected and non-blocking (tests: a stand-in with a full buffer)
+    PoseDatagramStreamer(DatagramChannel channel) {
+        this.channel = channel;
+    }
+
+    // Sends one pose packet. Returns false if it could not be handed to the network stack (it is not retried;
+    // the next frame's pose replaces it).
+    public boolean send(long timestampNs, byte trackingState, float tx, float ty, float tz,
+                        float qx, float qy, float qz, float qw) {
+        packet.clear();
+        packet.putShort(MAGIC).put(VERSION).put(trackingState);
+        packet.putInt(sequence++);
+        packet.putLong(timestampNs);
+        packet.putFloat(tx).putFloat(ty).putFloat(tz);
+        packet.putFloat(qx).putFloat(qy).putFloat(qz).putFloat(qw);
+        packet.flip();
+        try {
+            if (channel.write(packet) == PACKET_BYTES) {
+                packetsSent++;
+                return true;
+            }
+        } catch (IOException e) {
+            // e.g. ICMP port unreachable while the brain isn't listening yet - keep streaming
+        }
+        packetsFailed++;
+        return false;
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println(TAG + ": Error closing channel: " + e.getMessage());
+        }
+    }
+
+    public long getPacketsSent() { return packetsSent; }
+    public long getPacketsFailed() { return packetsFailed; }
+
+    // --- Receiving side (brain stand-ins, tools) ---
+
+    // Decodes one packet. headerOut receives {timestampNs, sequence (unsigned), tracking state};
+    // poseOut receives tx, ty, tz, qx, qy, qz, qw. Returns false for anything that isn't a valid pose packet.
+    public static boolean decode(ByteBuffer in, long[] headerOut, float[] poseOut) {
+        if (in.remaining() != PACKET_BYTES) return false;
+        in.order(ByteOrder.BIG_ENDIAN);
+        if (in.getShort() != MAGIC || in.get() != VERSION) return false;
+        final byte state = in.get();
+        headerOut[1] = in.getInt() & 0xFFFFFFFFL;
+        headerOut[0] = in.getLong();
+        headerOut[2] = state;
+        for (int i = 0; i < 7; i++) poseOut[i] = in.getFloat();
+        return true;
+    }
+
+    // True if u32 sequence a is after b, allowing for wrap-around (serial number arithmetic)
+    public static boolean isNewer(long a, long b) {
+        return (int) (a - b) > 0;
+    }
+}
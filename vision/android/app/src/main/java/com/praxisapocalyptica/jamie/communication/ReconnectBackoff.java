@@ -0,0 +1,44 @@
+package com/praxisapocalyptica/jamie.communication;
+
+// Pure Java (no Android imports).
+
+import java.util.Random;
+
+// Exponential backoff with "equal jitter" for reconnect attempts: the n-th delay is drawn uniformly from
+// [d/2, d] with d = min(maxMs, initialMs * 2^n). The jitter keeps a phone and a rebooting brain from
+// falling into lock-step retries; the lower bound keeps attempts from bunching up right after a failure.
+public class ReconnectBackoff {
+
+    private final long initialMs;
+    private final long maxMs;
+    private final Random random;
+    private int attempt = 0;
+
+    public ReconnectBackoff(long initialMs, long maxMs) {
+        this(initialMs, maxMs, new Random());
+    }
+
+    public ReconnectBackoff(long initialMs, long maxMs, Random random) {
+        if (initialMs <= 0 || maxMs < initialMs) {
+            throw new IllegalArgumentException("Invalid backoff range: " + initialMs + ".." + maxMs + " ms");
+        }
+        this.initialMs = initialMs;
+        this.maxMs = maxMs;
+        this.random = random;
+    }
+
+    // Delay before the next attempt; each call doubles the ceiling until maxMs
+    public long nextDelayMs() {
+        final long ceiling = Math.min(maxMs, initialMs << Math.min(attempt, 30));
+        attempt++;
+        final long half = ceiling / 2;
+        return half + (long) (random.nextDouble() * (ceiling - half + 1));
+    }
+
+    // Call after a successful connection
+    public void reset() {
+        attempt = 0;
+    }
+
+    public int getAttempt() { return attempt; }
+}
@@ -0,0 +1,139 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Pure Java (no Android imports) so it can be run on a plain JVM.
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Startup auto-tuner: creates each candidate backend, times a few warm-up + measured inferences on
+// dummy inputs, keeps the fastest (lowest median latency) and closes the others.
+// Candidates that fail to create or run (e.g. NNAPI on an unsupported device) are skipped.
+// Tuning costs a few seconds of startup; callers that remember the winner (per device and model) pass its index
+// to selectPreferred next time, which only checks that it still runs.
+public class BackendAutoTuner {
+
+    private static final String TAG = "JamieBackendAutoTuner";
+
+    // Creates one candidate backend; may throw if it is unavailable on this device
+    public interface BackendFactory {
+        InferenceBackend create() throws Exception;
+    }
+
+    private final int warmupRuns;
+    private final int timedRuns;
+    private final StringBuilder report = new StringBuilder();
+    private int selectedIndex = -1;
+
+    public BackendAutoTuner(int warmupRuns, int timedRuns) {
+        if (timedRuns < 1) {
+            throw new IllegalArgumentException("At least one timed run is required: " + timedRuns);
+        }
+        this.warmupRuns = warmupRuns;
+        this.timedRuns = timedRuns;
+    }
+
+    // Returns the fastest backend, or null if none of the candidates could run
+    public InferenceBackend selectFastest(List<BackendFactory> candidates) {
+        InferenceBackend best = null;
+        long bestNanos = Long.MAX_VALUE;
+        report.setLength(0);
+        selectedIndex = -1;
+
+        for (int index = 0; index < candidates.size(); index++) {
+            final BackendFactory factory = candidates.get(index);
+            InferenceBackend backend = null;
+            try {
+                backend = factory.create();
+                long median = measure(backend);
+                report.append(backend.getName()).append(": ").append(median / 1000).append(" us\n");
+                System.out.println(TAG + ": " + backend.getName() + " median " + (median / 1000) + " us");
+                if (median < bestNanos) {
+                    if (best != null) best.close();
+                    best = backend;
+                    bestNanos = median;
+                    selectedIndex = index;
+                } else {
+                    backend.close();
+                }
+            } catch (Exception e) {
+                String name = backend != null ? backend.getName() : "candidate";
+                report.append(name).append(": unavailable (").append(e.getMessage()).append(")\n");
+                System.err.println(TAG + ": Skipping " + name + ": " + e);
+                if (backend != null) backend.close();
+            }
+        }
+        return best;
+    }
+
+    // The candidate at preferred (an earlier getSelectedIndex()) if it can still be created and run once, without
+    // timing the others; otherwise, or if preferred is out of range, the same as selectFastest
+    public InferenceBackend selectPreferred(List<BackendFactory> candidates, int preferred) {
+        if (preferred < 0 || preferred >= candidates.size()) return selectFastest(candidates);
+        report.setLength(0);
+        InferenceBackend backend = null;
+        try {
+            backend = candidates.get(preferred).create();
+            final long nanos = measure(backend, 0, 1);
+            report.append(backend.getName()).append(": ").append(nanos / 1000).append(" us (remembered)\n");
+            selectedIndex = preferred;
+            return backend;
+        } catch (Exception e) {
+            String name = backend != null ? backend.getName() : "candidate";
+            report.append(name).append(": remembered, unavailable (").append(e.getMessage()).append(")\n");
+            System.err.println(TAG + ": Remembered " + name + " no longer runs, tuning again: " + e);
+            if (backend != null) backend.close();
+        }
+        final String failed = report.toString();
+        final InferenceBackend best = selectFastest(candidates);
+        report.insert(0, failed);
+        return best;
+    }
+
+    // Median wall time of timedRuns inferences after warmupRuns untimed ones
+    private long measure(InferenceBackend backend) {
+        return measure(backend, warmupRuns, timedRuns);
+    }
+
+    private static long measure(InferenceBackend backend, int warmupRuns, int timedRuns) {
+        Object[] inputs = new Object[backend.getInputTensorCount()];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = ByteBuffer.allocateDirect(backend.getInputNumBytes(i)).order(ByteOrder.nativeOrder());
+        }
+        Map<Integer, Object> outputs = new HashMap<>();
+        for (int i = 0; i < backend.getOutputTensorCount(); i++) {
+            outputs.put(i, ByteBuffer.allocateDirect(backend.getOutputNumBytes(i)).order(ByteOrder.nativeOrder()));
+        }
+
+        for (int i = 0; i < warmupRuns; i++) {
+            runOnce(backend, inputs, outputs);
+        }
+        long[] times = new long[timedRuns];
+        for (int i = 0; i < timedRuns; i++) {
+            long start = System.nanoTime();
+            runOnce(backend, inputs, outputs);
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[timedRuns / 2];
+    }
+
+    private static void runOnce(InferenceBackend backend, Object[] inputs, Map<Integer, Object> outputs) {
+        for (Object input : inputs) ((ByteBuffer) input).rewind();
+        for (Object output : outputs.values()) ((ByteBuffer) output).rewind();
+        backend.run(inputs, outputs);
+    }
+
+    // Per-candidate results of the last selectFastest() / selectPreferred() call, one line each
+    public String getReport() {
+        return report.toString();
+    }
+
+    // Index in the candidate list of the backend the last call returned, -1 if it returned null
+    public int getSelectedIndex() {
+        return selectedIndex;
+    }
+}
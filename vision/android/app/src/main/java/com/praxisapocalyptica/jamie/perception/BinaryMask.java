@@ -0,0 +1,256 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Pure Java (no Android imports) so it can be unit tested on a plain JVM.
+
+import java.util.Arrays;
+
+// Compact binary instance mask: one bit per pixel, packed into longs as one continuous row-major bit stream
+// (no per-row padding, so memory is width * height / 8 bytes rounded up to a whole long).
+// The mask covers a (width x height) window whose top-left corner is (originX, originY) in camera
+// image pixels, so masks cropped to different boxes can still be compared in the same image frame.
+// Area, IoU and bounding-box tightening all work directly on the packed words (popcount / bit scans),
+// and the mask can be (de)serialised as COCO-style run-length encoding for the brain.
+public class BinaryMask {
+
+    private final int originX;
+    private final int originY;
+    private final int width;
+    private final int height;
+    private final long[] bits; // Pixel (x, y) is bit p & 63 of word p >> 6, with p = y * width + x
+
+    public BinaryMask(int originX, int originY, int width, int height) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("Invalid mask size: " + width + "x" + height);
+        }
+        this.originX = originX;
+        this.originY = originY;
+        this.width = width;
+        this.height = height;
+        this.bits = new long[(int) (((long) width * height + 63) >>> 6)];
+    }
+
+    // Packs a byte-per-pixel row-major mask (non-zero = set), e.g. LazyInstanceMask.upsample()
+    public static BinaryMask fromBytes(int originX, int originY, int width, int height, byte[] pixels) {
+        BinaryMask mask = new BinaryMask(originX, originY, width, height);
+        final int n = width * height;
+        for (int p = 0; p < n; p++) {
+            if (pixels[p] != 0) mask.bits[p >>> 6] |= 1L << p;
+        }
+        return mask;
+    }
+
+    // --- Pixel access (local coordinates, 0..width-1 / 0..height-1) ---
+    public boolean get(int x, int y) {
+        final int p = y * width + x;
+        return (bits[p >>> 6] & (1L << p)) != 0;
+    }
+
+    public void set(int x, int y, boolean value) {
+        final int p = y * width + x;
+        if (value) bits[p >>> 6] |= 1L << p;
+        else bits[p >>> 6] &= ~(1L << p);
+    }
+
+    // Number of set pixels
+    public int area() {
+        int area = 0;
+        for (long word : bits) area += Long.bitCount(word);
+        return area;
+    }
+
+    // Intersection over union with another mask, in image coordinates
+    public float iou(BinaryMask other) {
+        final int inter = intersectionArea(other);
+        final int union = area() + other.area() - inter;
+        return union == 0 ? 0f : inter / (float) union;
+    }
+
+    public int intersectionArea(BinaryMask other) {
+        final int x0 = Math.max(originX, other.originX);
+        final int y0 = Math.max(originY, other.originY);
+        final int x1 = Math.min(originX + width, other.originX + other.width);
+        final int y1 = Math.min(originY + height, other.originY + other.height);
+        if (x1 <= x0 || y1 <= y0) return 0;
+
+        final int ax = x0 - originX, bx = x0 - other.originX;
+        final int span = x1 - x0;
+        int inter = 0;
+        for (int y = y0; y < y1; y++) {
+            final int aRow = (y - originY) * width + ax;
+            final int bRow = (y - other.originY) * other.width + bx;
+            for (int off = 0; off < span; off += 64) {
+                final int len = Math.min(64, span - off);
+                inter += Long.bitCount(window(bits, aRow + off, len) & window(other.bits, bRow + off, len));
+            }
+        }
+        return inter;
+    }
+
+    // len (1..64) bits of the stream starting at an arbitrary bit position, in the low bits of the result
+    private static long window(long[] bits, int bitPos, int len) {
+        final int wordIndex = bitPos >>> 6;
+        final int shift = bitPos & 63;
+        long v = bits[wordIndex] >>> shift;
+        if (shift != 0 && shift + len > 64) {
+            v |= bits[wordIndex + 1] << (64 - shift);
+        }
+        return len == 64 ? v : v & ((1L << len) - 1);
+    }
+
+    // Writes the low len (1..64) bits of value into the stream at an arbitrary bit position (target bits must be 0)
+    private static void orWindow(long[] bits, int bitPos, int len, long value) {
+        final int wordIndex = bitPos >>> 6;
+        final int shift = bitPos & 63;
+        bits[wordIndex] |= value << shift;
+        if (shift != 0 && shift + len > 64) {
+            bits[wordIndex + 1] |= value >>> (64 - shift);
+        }
+    }
+
+    // Tight bounds of the set pixels in image coordinates as [left, top, right, bottom) into out,
+    // or false if the mask is empty.
+    public boolean getTightBounds(int[] out) {
+        int minX = Integer.MAX_VALUE, maxX = -1, minY = -1, maxY = -1;
+        for (int y = 0; y < height; y++) {
+            final int row = y * width;
+            for (int off = 0; off < width; off += 64) {
+                final long word = window(bits, row + off, Math.min(64, width - off));
+                if (word == 0) continue;
+                if (minY < 0) minY = y;
+                maxY = y;
+                minX = Math.min(minX, off + Long.numberOfTrailingZeros(word));
+                maxX = Math.max(maxX, off + 63 - Long.numberOfLeadingZeros(word));
+            }
+        }
+        if (minY < 0) return false;
+        out[0] = originX + minX;
+        out[1] = originY + minY;
+        out[2] = originX + maxX + 1;
+        out[3] = originY + maxY + 1;
+        return true;
+    }
+
+    // Copy of this mask cropped to its tight bounds (an empty 0x0 mask if nothing is set)
+    public BinaryMask cropToTightBounds() {
+        final int[] b = new int[4];
+        if (!getTightBounds(b)) return new BinaryMask(originX, originY, 0, 0);
+        final BinaryMask cropped = new BinaryMask(b[0], b[1], b[2] - b[0], b[3] - b[1]);
+        final int dx = b[0] - originX, dy = b[1] - originY;
+        for (int y = 0; y < cropped.height; y++) {
+            final int srcRow = (y + dy) * width + dx;
+            final int dstRow = y * cropped.width;
+            for (int off = 0; off < cropped.width; off += 64) {
+                final int len = Math.min(64, cropped.width - off);
+                orWindow(cropped.bits, dstRow + off, len, window(bits, srcRow + off, len));
+            }
+        }
+        return cropped;
+    }
+
+    // --- COCO-style run-length encoding ---
+    // Column-major (Fortran order) runs over the width x height window, alternating 0s and 1s,
+    // always starting with a (possibly empty) run of 0s - the same convention as pycocotools.
+    public int[] toRleCounts() {
+        int[] counts = new int[16];
+        int n = 0;
+        boolean current = false;
+        int run = 0;
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                final int p = y * width + x;
+                final boolean v = (bits[p >>> 6] & (1L << p)) != 0;
+                if (v != current) {
+                    if (n == counts.length) counts = Arrays.copyOf(counts, n * 2);
+                    counts[n++] = run;
+                    run = 0;
+                    current = v;
+                }
+                run++;
+            }
+        }
+        if (n == counts.length) counts = Arrays.copyOf(counts, n + 1);
+        counts[n++] = run;
+        return Arrays.copyOf(counts, n);
+    }
+
+    // Counts as sent by the brain: each is checked before anything is written, so a corrupt message is rejected
+    // with an IllegalArgumentException rather than running off the mask
+    public static BinaryMask fromRleCounts(int originX, int originY, int width, int height, int[] counts) {
+        final BinaryMask mask = new BinaryMask(originX, originY, width, height);
+        final int area = width * height;
+        int pos = 0;
+        boolean value = false;
+        for (int count : counts) {
+            if (count < 0 || count > area - pos) {
+                throw new IllegalArgumentException("Invalid RLE count " + count + " at pixel " + pos + " of " + area);
+            }
+            if (value) {
+                for (int p = pos; p < pos + count; p++) {
+                    final int q = (p % height) * width + p / height;
+                    mask.bits[q >>> 6] |= 1L << q;
+                }
+            }
+            pos += count;
+            value = !value;
+        }
+        if (pos != area) {
+            throw new IllegalArgumentException("RLE covers " + pos + " pixels, expected " + area);
+        }
+        return mask;
+    }
+
+    // Compressed RLE string as produced by pycocotools (rleToString): each count is delta coded against
+    // the count two positions back (from the third on) and written as 5-bit groups offset by 48.
+    public String toRleString() {
+        final int[] counts = toRleCounts();
+        final StringBuilder sb = new StringBuilder(counts.length * 2);
+        for (int i = 0; i < counts.length; i++) {
+            long x = counts[i];
+            if (i > 2) x -= counts[i - 2];
+            boolean more = true;
+            while (more) {
+                long c = x & 0x1f;
+                x >>= 5;
+                more = (c & 0x10) != 0 ? x != -1 : x != 0;
+                if (more) c |= 0x20;
+                sb.append((char) (c + 48));
+            }
+        }
+        return sb.toString();
+    }
+
+    public static BinaryMask fromRleString(int originX, int originY, int width, int height, String rle) {
+        int[] counts = new int[16];
+        int n = 0;
+        int p = 0;
+        while (p < rle.length()) {
+            long x = 0;
+            int k = 0;
+            boolean more = true;
+            while (more) {
+                if (p == rle.length() || k > 6) {
+                    throw new IllegalArgumentException("Invalid RLE string: count " + n + " is cut off or too long");
+                }
+                final long c = rle.charAt(p) - 48;
+                x |= (c & 0x1f) << (5 * k);
+                more = (c & 0x20) != 0;
+                p++;
+                k++;
+                if (!more && (c & 0x10) != 0) x |= -1L << (5 * k);
+            }
+            if (n > 2) x += counts[n - 2];
+            if (x != (int) x) throw new IllegalArgumentException("Invalid RLE string: count " + n + " is " + x);
+            if (n == counts.length) counts = Arrays.copyOf(counts, n * 2);
+            counts[n++] = (int) x;
+        }
+        return fromRleCounts(originX, originY, width, height, Arrays.copyOf(counts, n));
+    }
+
+    // --- Accessors ---
+    public int getOriginX() { return originX; }
+    public int getOriginY() { return originY; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    // Bytes held by the packed pixel data (vs width * height for a byte-per-pixel buffer)
+    public int getPackedSizeBytes() { return bits.length * 8; }
+}
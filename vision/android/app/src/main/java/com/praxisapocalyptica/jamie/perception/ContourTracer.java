@@ -0,0 +1,211 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Pure Java (no Android imports) so it can be benchmarked on a plain JVM.
+
+import java.util.Arrays;
+
+// Mask -> polygon conversion for DetectedObject.polygon.
+//   1. Moore-neighbour border following on a BinaryMask (8-connected). Every outer/hole border found in the
+//      raster scan is traced once; the border enclosing the largest area is kept, which is the outer border
+//      of the biggest blob (hole borders always enclose less than their outer border).
+//   2. Douglas-Peucker simplification of the closed contour with a configurable epsilon (pixels),
+//      so a mask becomes tens of vertices instead of thousands.
+// Works on primitive int/float arrays only; scratch arrays grow as needed and are reused between masks,
+// so one instance should not be shared between threads.
+public class ContourTracer {
+
+    // Neighbour offsets, clockwise on screen (y down): E, SE, S, SW, W, NW, N, NE
+    private static final int[] DX = {1, 1, 0, -1, -1, -1, 0, 1};
+    private static final int[] DY = {0, 1, 1, 1, 0, -1, -1, -1};
+
+    private byte[] visited = new byte[0];     // Border pixels already traced
+    private int[] current = new int[256];     // Contour being traced, interleaved x, y (mask-local)
+    private int[] best = new int[256];        // Largest contour so far
+    private int bestPoints = 0;
+    private int originX = 0, originY = 0;     // Image position of the last traced mask
+    private int[] stack = new int[64];        // Douglas-Peucker segment stack
+    private boolean[] keep = new boolean[128];
+
+    // Traces the mask and returns the number of points of the largest border.
+    // Points are available from getContourX/Y (image coordinates) until the next call.
+    public int trace(BinaryMask mask) {
+        final int w = mask.getWidth(), h = mask.getHeight();
+        bestPoints = 0;
+        originX = mask.getOriginX();
+        originY = mask.getOriginY();
+        if (w == 0 || h == 0) return 0;
+        if (visited.length < w * h) visited = new byte[w * h];
+        else Arrays.fill(visited, 0, w * h, (byte) 0);
+
+        long bestArea2 = -1;
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                // A border start: set pixel whose west neighbour is background, not yet part of a traced border
+                if (!mask.get(x, y) || (x > 0 && mask.get(x - 1, y)) || visited[y * w + x] != 0) continue;
+                final int n = traceFrom(mask, x, y);
+                final long area2 = Math.abs(shoelace2(current, n));
+                if (area2 > bestArea2 || (area2 == bestArea2 && n > bestPoints)) {
+                    bestArea2 = area2;
+                    final int[] swap = best;
+                    best = current;
+                    current = swap;
+                    bestPoints = n;
+                }
+            }
+        }
+        return bestPoints;
+    }
+
+    // Moore-neighbour tracing from (sx, sy), whose west neighbour is background.
+    // Stops when the start pixel is re-entered with the same first move (Jacob's criterion).
+    private int traceFrom(BinaryMask mask, int sx, int sy) {
+        final int w = mask.getWidth(), h = mask.getHeight();
+        int n = 0;
+        n = append(n, sx, sy);
+        visited[sy * w + sx] = 1;
+
+        int x = sx, y = sy;
+        int dir = 0; // Backtrack (dir + 4) is the west neighbour
+        int firstDir = -1;
+        final int maxSteps = 4 * w * h + 8;
+        for (int step = 0; step < maxSteps; step++) {
+            int next = -1;
+            for (int k = 0; k < 8; k++) {
+                final int d = (dir + 5 + k) & 7;
+                final int nx = x + DX[d], ny = y + DY[d];
+                if (nx >= 0 && ny >= 0 && nx < w && ny < h && mask.get(nx, ny)) {
+                    next = d;
+                    break;
+                }
+            }
+            if (next < 0) break; // Isolated pixel
+            if (firstDir < 0) {
+                firstDir = next;
+            } else if (x == sx && y == sy && next == firstDir) {
+                break; // Closed
+            }
+            x += DX[next];
+            y += DY[next];
+            dir = next;
+            if (x == sx && y == sy) continue; // Don't duplicate the start point
+            visited[y * w + x] = 1;
+            n = append(n, x, y);
+        }
+        return n;
+    }
+
+    private int append(int n, int x, int y) {
+        if (2 * n + 2 > current.length) current = Arrays.copyOf(current, current.length * 2);
+        current[2 * n] = x;
+        current[2 * n + 1] = y;
+        return n + 1;
+    }
+
+    // Twice the signed polygon area
+    private static long shoelace2(int[] pts, int n) {
+        long sum = 0;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            sum += (long) pts[2 * j] * pts[2 * i + 1] - (long) pts[2 * i] * pts[2 * j + 1];
+        }
+        return sum;
+    }
+
+    // Douglas-Peucker simplification of the last traced contour (closed).
+    // Returns interleaved x, y vertices in image coordinates; epsilon is the max deviation in pixels.
+    public float[] simplify(float epsilon) {
+        final int n = bestPoints;
+        if (n == 0) return new float[0];
+        final int ox = originX, oy = originY;
+        if (n <= 3) {
+            final float[] out = new float[2 * n];
+            for (int i = 0; i < n; i++) {
+                out[2 * i] = best[2 * i] + ox;
+                out[2 * i + 1] = best[2 * i + 1] + oy;
+            }
+            return out;
+        }
+        if (keep.length < n + 1) keep = new boolean[Math.max(n + 1, keep.length * 2)];
+        Arrays.fill(keep, 0, n + 1, false);
+
+        // Split the closed ring at point 0 and the point farthest from it, then simplify both open chains.
+        // Index n stands for point 0 again, closing the ring.
+        int far = 0;
+        long farDist = -1;
+        for (int i = 1; i < n; i++) {
+            final long dx = best[2 * i] - best[0], dy = best[2 * i + 1] - best[1];
+            final long d = dx * dx + dy * dy;
+            if (d > farDist) {
+                farDist = d;
+                far = i;
+            }
+        }
+        keep[0] = true;
+        keep[far] = true;
+        keep[n] = true;
+
+        int sp = 0;
+        sp = push(sp, 0, far);
+        sp = push(sp, far, n);
+        final float eps2 = epsilon * epsilon;
+        while (sp > 0) {
+            final int last = stack[--sp];
+            final int first = stack[--sp];
+            if (last - first < 2) continue;
+            final float ax = best[2 * first], ay = best[2 * first + 1];
+            final int li = last == n ? 0 : last;
+            final float bx = best[2 * li], by = best[2 * li + 1];
+            final float vx = bx - ax, vy = by - ay;
+            final float len2 = vx * vx + vy * vy;
+            int index = -1;
+            float maxDist2 = eps2;
+            for (int i = first + 1; i < last; i++) {
+                final float px = best[2 * i] - ax, py = best[2 * i + 1] - ay;
+                final float dist2;
+                if (len2 == 0f) {
+                    dist2 = px * px + py * py;
+                } else {
+                    final float cross = px * vy - py * vx;
+                    dist2 = cross * cross / len2;
+                }
+                if (dist2 > maxDist2) {
+                    maxDist2 = dist2;
+                    index = i;
+                }
+            }
+            if (index >= 0) {
+                keep[index] = true;
+                sp = push(sp, first, index);
+                sp = push(sp, index, last);
+            }
+        }
+
+        int count = 0;
+        for (int i = 0; i < n; i++) if (keep[i]) count++;
+        final float[] out = new float[2 * count];
+        int o = 0;
+        for (int i = 0; i < n; i++) {
+            if (!keep[i]) continue;
+            out[o++] = best[2 * i] + ox;
+            out[o++] = best[2 * i + 1] + oy;
+        }
+        return out;
+    }
+
+    private int push(int sp, int first, int last) {
+        if (sp + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+        stack[sp++] = first;
+        stack[sp++] = last;
+        return sp;
+    }
+
+    // Convenience: trace + simplify
+    public float[] toPolygon(BinaryMask mask, float epsilon) {
+        trace(mask);
+        return simplify(epsilon);
+    }
+
+    // --- Raw (unsimplified) contour of the last trace() call, image coordinates ---
+    public int getContourPoints() { return bestPoints; }
+    public int getContourX(int i) { return best[2 * i] + originX; }
+    public int getContourY(int i) { return best[2 * i + 1] + originY; }
+}
@@ -0,0 +1,271 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Pure Java (no Android imports) so the lifting math can be checked against synthetic depth maps on a plain JVM.
+
+// Lifts 2D detections to 3D with the frame's depth image (ARCore DEPTH16, millimetres, 0 = no depth),
+// replacing one hit test per box centre: the depth image is taken once per frame and every detection is
+// lifted from the depth pixels that fall inside its mask.
+//
+// Per detection:
+//   1. depth pixels inside the mask (probability > MASK_THRESHOLD; the central half of the box when there is
+//      no mask) are collected, holes and anything beyond MAX_DEPTH_MM skipped;
+//   2. robust depth: samples further than INLIER_SIGMAS robust sigmas (1.4826 * MAD, at least MIN_BAND_MM)
+//      from the median are dropped - background seen through the mask edge, flying pixels;
+//   3. inliers are unprojected with the CPU image intrinsics into the camera frame (ARCore axes: +x right,
+//      +y up, looking down -z) and moved into the AR world frame with the camera pose;
+//   4. pose = centroid of those points weighted by depth^2 (the surface each pixel covers, so a slanted
+//      surface isn't pulled towards its near end), yaw = principal axis of their horizontal spread (world y is up),
+//      extent = visible size along that axis, vertically and across (extentX / extentY / extentZ);
+//   5. confidence = depth coverage of the mask x inlier fraction, scaled down below GOOD_SAMPLES inliers.
+// The extent only covers the surface the camera sees, so the depth of an object is underestimated.
+//
+// Scratch arrays grow with the depth image and are reused. Not thread safe (worker thread only).
+public class DepthLifter {
+
+    private static final float MASK_THRESHOLD = 0.5f;
+    private static final float MASK_LOGIT_THRESHOLD = (float) Math.log(MASK_THRESHOLD / (1 - MASK_THRESHOLD));
+    private static final int MAX_DEPTH_MM = 8000;     // ARCore depth is unreliable beyond about 8 m
+    private static final float INLIER_SIGMAS = 3f;
+    private static final int MIN_BAND_MM = 30;
+    private static final int MIN_SAMPLES = 3;
+    private static final int GOOD_SAMPLES = 20;
+
+    // Camera image intrinsics (pixels)
+    private float fx, fy, cx, cy;
+    private int imageWidth, imageHeight;
+    private boolean hasIntrinsics = false;
+
+    // Current depth image, row-major, not copied
+    private short[] depth;
+    private int depthWidth, depthHeight;
+
+    // Scratch per detection
+    private int[] sampleDepth = new int[0];   // mm
+    private float[] sampleU = new float[0];   // Image pixel of each sample
+    private float[] sampleV = new float[0];
+    private int[] selectScratch = new int[0];
+    private float[] worldX = new float[0];
+    private float[] worldY = new float[0];
+    private float[] worldZ = new float[0];
+    private float[] weight = new float[0];
+    private final float[] rotation = new float[9];
+
+    // --- Counters ---
+    private long objectsLifted = 0;
+    private long objectsSkipped = 0;
+
+    public void setIntrinsics(float fx, float fy, float cx, float cy, int imageWidth, int imageHeight) {
+        if (fx <= 0 || fy <= 0 || imageWidth <= 0 || imageHeight <= 0) {
+            throw new IllegalArgumentException("Invalid intrinsics: f=" + fx + "," + fy + " " + imageWidth + "x" + imageHeight);
+        }
+        this.fx = fx;
+        this.fy = fy;
+        this.cx = cx;
+        this.cy = cy;
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        hasIntrinsics = true;
+    }
+
+    // Depth image of the frame the next lift() calls belong to (same field of view as the CPU image)
+    public void setDepth(short[] depthMm, int width, int height) {
+        if (width <= 0 || height <= 0 || depthMm.length < width * height) {
+            throw new IllegalArgumentException("Invalid depth image: " + width + "x" + height);
+        }
+        depth = depthMm;
+        depthWidth = width;
+        depthHeight = height;
+        if (sampleDepth.length < width * height) {
+            final int n = width * height;
+            sampleDepth = new int[n];
+            sampleU = new float[n];
+            sampleV = new float[n];
+            selectScratch = new int[n];
+            worldX = new float[n];
+            worldY = new float[n];
+            worldZ = new float[n];
+            weight = new float[n];
+        }
+    }
+
+    public boolean isReady() {
+        return hasIntrinsics && depth != null;
+    }
+
+    // Fills obj's pose, extent and poseConfidence from the depth inside its mask. cameraTranslation /
+    // cameraRotation (qx, qy, qz, qw) are the camera pose of the depth frame. Returns false (obj untouched)
+    // if there is too little valid depth on the object.
+    public boolean lift(DetectedObject obj, float[] cameraTranslation, float[] cameraRotation) {
+        if (!isReady()) {
+            throw new IllegalStateException("Depth lifter has no intrinsics or depth image.");
+        }
+        final float toImageX = imageWidth / (float) depthWidth;
+        final float toImageY = imageHeight / (float) depthHeight;
+
+        // 1. Depth samples inside the mask (box in depth pixels, clipped)
+        float left = obj.boundingBoxLeft, top = obj.boundingBoxTop;
+        float right = obj.boundingBoxRight, bottom = obj.boundingBoxBottom;
+        final LazyInstanceMask mask = obj.mask;
+        if (mask != null) {
+            mask.resolve(); // Once here rather than first thing in the sample loop
+        } else {
+            final float qw = (right - left) * 0.25f, qh = (bottom - top) * 0.25f;
+            left += qw;
+            right -= qw;
+            top += qh;
+            bottom -= qh;
+        }
+        final int x0 = Math.max(0, (int) (left / toImageX));
+        final int x1 = Math.min(depthWidth - 1, (int) (right / toImageX));
+        final int y0 = Math.max(0, (int) (top / toImageY));
+        final int y1 = Math.min(depthHeight - 1, (int) (bottom / toImageY));
+        int covered = 0;
+        int samples = 0;
+        for (int y = y0; y <= y1; y++) {
+            final float v = (y + 0.5f) * toImageY;
+            if (v < top || v >= bottom) continue;
+            for (int x = x0; x <= x1; x++) {
+                final float u = (x + 0.5f) * toImageX;
+                if (u < left || u >= right) continue;
+                if (mask != null && !mask.isInside(u, v, MASK_LOGIT_THRESHOLD)) continue;
+                covered++;
+                final int d = depth[y * depthWidth + x] & 0xFFFF;
+                if (d == 0 || d > MAX_DEPTH_MM) continue;
+                sampleDepth[samples] = d;
+                sampleU[samples] = u;
+                sampleV[samples] = v;
+                samples++;
+            }
+        }
+        if (samples < MIN_SAMPLES) {
+            objectsSkipped++;
+            return false;
+        }
+
+        // 2. Median / MAD band
+        System.arraycopy(sampleDepth, 0, selectScratch, 0, samples);
+        final int median = select(selectScratch, samples, samples / 2);
+        for (int i = 0; i < samples; i++) selectScratch[i] = Math.abs(sampleDepth[i] - median);
+        final int mad = select(selectScratch, samples, samples / 2);
+        final float band = Math.max(MIN_BAND_MM, INLIER_SIGMAS * 1.4826f * mad);
+
+        // 3. Unproject the inliers into the world frame
+        toRotationMatrix(cameraRotation, rotation);
+        int inliers = 0;
+        float sumW = 0, sumX = 0, sumY = 0, sumZ = 0;
+        for (int i = 0; i < samples; i++) {
+            if (Math.abs(sampleDepth[i] - median) > band) continue;
+            final float z = sampleDepth[i] * 0.001f;
+            // Image y points down, camera y up; the camera looks down -z
+            final float px = (sampleU[i] - cx) * z / fx;
+            final float py = -(sampleV[i] - cy) * z / fy;
+            final float pz = -z;
+            final float wx = rotation[0] * px + rotation[1] * py + rotation[2] * pz + cameraTranslation[0];
+            final float wy = rotation[3] * px + rotation[4] * py + rotation[5] * pz + cameraTranslation[1];
+            final float wz = rotation[6] * px + rotation[7] * py + rotation[8] * pz + cameraTranslation[2];
+            worldX[inliers] = wx;
+            worldY[inliers] = wy;
+            worldZ[inliers] = wz;
+            // A depth pixel covers z^2 times more surface at depth z: weight by it, or the near end of a
+            // slanted surface (more pixels per metre) pulls the centroid towards the camera
+            final float w = z * z;
+            weight[inliers] = w;
+            sumW += w;
+            sumX += w * wx;
+            sumY += w * wy;
+            sumZ += w * wz;
+            inliers++;
+        }
+        if (inliers < MIN_SAMPLES) {
+            objectsSkipped++;
+            return false;
+        }
+        final float meanX = sumX / sumW, meanY = sumY / sumW, meanZ = sumZ / sumW;
+
+        // 4. Yaw from the horizontal covariance, extents along the principal axes
+        float sxx = 0, szz = 0, sxz = 0;
+        for (int i = 0; i < inliers; i++) {
+            final float dx = worldX[i] - meanX, dz = worldZ[i] - meanZ, w = weight[i];
+            sxx += w * dx * dx;
+            szz += w * dz * dz;
+            sxz += w * dx * dz;
+        }
+        final float yaw = 0.5f * (float) Math.atan2(2 * sxz, sxx - szz); // Principal axis (cos, 0, sin) in x-z
+        final float ax = (float) Math.cos(yaw), az = (float) Math.sin(yaw);
+        float minA = Float.MAX_VALUE, maxA = -Float.MAX_VALUE;
+        float minB = Float.MAX_VALUE, maxB = -Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < inliers; i++) {
+            final float dx = worldX[i] - meanX, dz = worldZ[i] - meanZ;
+            final float a = dx * ax + dz * az;
+            final float b = -dx * az + dz * ax;
+            if (a < minA) minA = a;
+            if (a > maxA) maxA = a;
+            if (b < minB) minB = b;
+            if (b > maxB) maxB = b;
+            if (worldY[i] < minY) minY = worldY[i];
+            if (worldY[i] > maxY) maxY = worldY[i];
+        }
+
+        obj.poseX = meanX;
+        obj.poseY = meanY;
+        obj.poseZ = meanZ;
+        // Rotation about world y taking the local x axis onto the principal axis: angle -yaw
+        obj.poseQx = 0;
+        obj.poseQy = (float) Math.sin(-yaw * 0.5f);
+        obj.poseQz = 0;
+        obj.poseQw = (float) Math.cos(-yaw * 0.5f);
+        obj.extentX = maxA - minA;
+        obj.extentY = maxY - minY;
+        obj.extentZ = maxB - minB;
+
+        // 5. Confidence
+        final float coverage = samples / (float) covered;
+        final float inlierFraction = inliers / (float) samples;
+        obj.poseConfidence = coverage * inlierFraction * Math.min(1f, inliers / (float) GOOD_SAMPLES);
+        objectsLifted++;
+        return true;
+    }
+
+    // k-th smallest of a[0..n) (quickselect, reorders a)
+    private static int select(int[] a, int n, int k) {
+        int lo = 0, hi = n - 1;
+        while (lo < hi) {
+            final int pivot = a[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (a[i] < pivot) i++;
+                while (a[j] > pivot) j--;
+                if (i <= j) {
+                    final int t = a[i];
+                    a[i] = a[j];
+                    a[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else break;
+        }
+        return a[k];
+    }
+
+    // Unit quaternion (qx, qy, qz, qw) -> row-major 3x3 rotation
+    private static void toRotationMatrix(float[] q, float[] m) {
+        final float x = q[0], y = q[1], z = q[2], w = q[3];
+        m[0] = 1 - 2 * (y * y + z * z);
+        m[1] = 2 * (x * y - z * w);
+        m[2] = 2 * (x * z + y * w);
+        m[3] = 2 * (x * y + z * w);
+        m[4] = 1 - 2 * (x * x + z * z);
+        m[5] = 2 * (y * z - x * w);
+        m[6] = 2 * (x * z - y * w);
+        m[7] = 2 * (y * z + x * w);
+        m[8] = 1 - 2 * (x * x + y * y);
+    }
+
+    // --- Counters ---
+    public long getObjectsLifted() { return objectsLifted; }
+    public long getObjectsSkipped() { return objectsSkipped; }
+}
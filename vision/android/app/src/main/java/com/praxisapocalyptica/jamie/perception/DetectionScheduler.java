@@ -0,0 +1,329 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Pure Java (no Android imports) so a synthetic camera sequence can be replayed against it on a plain JVM.
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Detection-skipping mode for VisionProcessor: the full model runs only on keyframes, and on the frames in
+// between the last results are carried forward by the camera motion since the keyframe they came from.
+//
+// Propagation assumes objects are static in the world (most of what the robot looks at is). With the camera
+// pose of both frames and the image intrinsics, every box corner and polygon vertex is re-projected:
+//   - objects with a world position (pose set) are moved as a plane through that position, facing the
+//     keyframe camera, so camera translation is handled as well as rotation;
+//   - objects without one are treated as far away, i.e. warped by the rotation only (exact for pure rotation).
+// Objects that leave the image are dropped; a moving object is corrected at the next keyframe.
+//
+// The interval adapts between minInterval and maxInterval:
+//   - at each keyframe the carried-forward boxes are compared with the fresh detections of the same track
+//     (mean IoU): good agreement lengthens the interval by one, poor agreement halves it;
+//   - a new keyframe is forced early when the camera has turned or moved more than the motion limits, or when
+//     few of the last detections were in confirmed tracks (nothing stable to carry forward).
+//
+// Poses are camera.getPose() (sensor-aligned, ARCore axes: +x right, +y up, looking down -z), the same frame as
+// the CPU image intrinsics. Methods are synchronized: frames arrive on the GL thread, results on the worker.
+// The results are copied in (box, pose, extent, polygon; not the mask), and every propagate() returns new
+// objects, so the caller's detections and the carried-forward ones never share state across threads.
+public class DetectionScheduler {
+
+    public static final float DEFAULT_MAX_ROTATION_RAD = 0.15f;   // About 9 degrees
+    public static final float DEFAULT_MAX_TRANSLATION_M = 0.15f;
+    private static final float GOOD_IOU = 0.8f;  // Carried-forward boxes this close: lengthen the interval
+    private static final float POOR_IOU = 0.6f;  // Worse than this: halve it
+    private static final float MIN_TRACKED_FRACTION = 0.5f;
+
+    private final int minInterval;
+    private final int maxInterval;
+    private float maxRotationRad = DEFAULT_MAX_ROTATION_RAD;
+    private float maxTranslationM = DEFAULT_MAX_TRANSLATION_M;
+    private int interval;
+
+    // Camera image intrinsics (pixels)
+    private float fx, fy, cx, cy;
+    private int imageWidth, imageHeight;
+    private boolean hasIntrinsics = false;
+
+    // Copy of the last inference result and the camera pose of its frame
+    private final List<DetectedObject> base = new ArrayList<>();
+    private final float[] baseTranslation = new float[3];
+    private final float[] baseRotation = {0, 0, 0, 1};
+    private boolean hasBase = false;
+    private float trackedFraction = 0f;
+
+    // Camera pose of the last submitted keyframe (motion trigger)
+    private final float[] keyTranslation = new float[3];
+    private final float[] keyRotation = {0, 0, 0, 1};
+    private int framesSinceKeyframe = Integer.MAX_VALUE; // First frame is a keyframe
+
+    // Scratch: 3x3 rotations (row-major) and a point
+    private final float[] rBase = new float[9];
+    private final float[] rCurrent = new float[9];
+    private final float[] point = new float[2];
+
+    // --- Counters ---
+    private long framesSeen = 0;
+    private long keyframesRun = 0;
+    private long framesPropagated = 0;
+    private long objectsDropped = 0;  // Left the image while being carried forward
+    private float lastPropagationIou = 1f; // Carried-forward vs fresh boxes at the last keyframe
+    private long startNanos = -1, lastNanos = -1;
+
+    public DetectionScheduler(int minInterval, int maxInterval) {
+        if (minInterval < 1 || maxInterval < minInterval) {
+            throw new IllegalArgumentException("Invalid keyframe interval range: " + minInterval + ".." + maxInterval);
+        }
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.interval = minInterval;
+    }
+
+    public synchronized void setMotionLimits(float maxRotationRad, float maxTranslationM) {
+        if (maxRotationRad <= 0 || maxTranslationM <= 0) {
+            throw new IllegalArgumentException("Invalid motion limits: " + maxRotationRad + " rad, " + maxTranslationM + " m");
+        }
+        this.maxRotationRad = maxRotationRad;
+        this.maxTranslationM = maxTranslationM;
+    }
+
+    // Intrinsics of the image the boxes are in (ARCore: camera.getImageIntrinsics())
+    public synchronized void setIntrinsics(float fx, float fy, float cx, float cy, int width, int height) {
+        this.fx = fx;
+        this.fy = fy;
+        this.cx = cx;
+        this.cy = cy;
+        this.imageWidth = width;
+        this.imageHeight = height;
+        this.hasIntrinsics = fx > 0 && fy > 0;
+    }
+
+    // Called for every camera frame. True if this frame should get full inference; then call
+    // onKeyframeSubmitted once it has actually been handed to the model, otherwise call propagate().
+    public synchronized boolean isKeyframeDue(float[] translation, float[] rotation) {
+        framesSeen++;
+        final long now = System.nanoTime();
+        if (startNanos < 0) startNanos = now;
+        lastNanos = now;
+        if (!hasBase || !hasIntrinsics || framesSinceKeyframe == Integer.MAX_VALUE) return true;
+        if (framesSinceKeyframe + 1 >= interval) return true;
+        if (trackedFraction < MIN_TRACKED_FRACTION && !base.isEmpty()) return true;
+        return rotationAngle(keyRotation, rotation) > maxRotationRad
+                || distance(keyTranslation, translation) > maxTranslationM;
+    }
+
+    public synchronized void onKeyframeSubmitted(float[] translation, float[] rotation) {
+        framesSinceKeyframe = 0;
+        System.arraycopy(translation, 0, keyTranslation, 0, 3);
+        System.arraycopy(rotation, 0, keyRotation, 0, 4);
+        keyframesRun++;
+    }
+
+    // Stores a copy of fresh inference results (after tracking) with the camera pose of their frame and adapts
+    // the interval by how well the carried-forward boxes agreed with them. Later changes to the objects passed
+    // in are not seen; pass them once they carry everything to be carried forward (e.g. their polygons).
+    public synchronized void onInferenceResult(List<DetectedObject> objects, float[] translation, float[] rotation) {
+        if (hasBase && hasIntrinsics && !objects.isEmpty()) {
+            List<DetectedObject> carried = propagateFromBase(translation, rotation);
+            float iouSum = 0;
+            int compared = 0;
+            for (DetectedObject fresh : objects) {
+                if (fresh.trackId < 0) continue;
+                for (DetectedObject old : carried) {
+                    if (old.trackId == fresh.trackId) {
+                        iouSum += iou(old, fresh);
+                        compared++;
+                        break;
+                    }
+                }
+            }
+            if (compared > 0) {
+                lastPropagationIou = iouSum / compared;
+                if (lastPropagationIou >= GOOD_IOU) interval = Math.min(interval + 1, maxInterval);
+                else if (lastPropagationIou < POOR_IOU) interval = Math.max(interval / 2, minInterval);
+            }
+        }
+        int tracked = 0;
+        base.clear();
+        for (DetectedObject obj : objects) {
+            if (obj.trackId >= 0) tracked++;
+            DetectedObject copy = copyOf(obj);
+            if (obj.polygon != null) copy.polygon = obj.polygon.clone();
+            base.add(copy);
+        }
+        trackedFraction = objects.isEmpty() ? 1f : tracked / (float) objects.size();
+        System.arraycopy(translation, 0, baseTranslation, 0, 3);
+        System.arraycopy(rotation, 0, baseRotation, 0, 4);
+        hasBase = true;
+    }
+
+    // Detections for a non-keyframe: the last results re-projected into this camera pose (new objects;
+    // masks are not carried over, polygons are).
+    public synchronized List<DetectedObject> propagate(float[] translation, float[] rotation) {
+        framesSinceKeyframe++;
+        framesPropagated++;
+        return propagateFromBase(translation, rotation);
+    }
+
+    private List<DetectedObject> propagateFromBase(float[] translation, float[] rotation) {
+        List<DetectedObject> out = new ArrayList<>(base.size());
+        if (!hasBase || !hasIntrinsics) return out;
+        toMatrix(baseRotation, rBase);
+        toMatrix(rotation, rCurrent);
+        for (DetectedObject src : base) {
+            final float depth = depthInBase(src);
+            float left = Float.MAX_VALUE, top = Float.MAX_VALUE, right = -Float.MAX_VALUE, bottom = -Float.MAX_VALUE;
+            boolean visible = true;
+            for (int corner = 0; corner < 4 && visible; corner++) {
+                final float u = (corner & 1) == 0 ? src.boundingBoxLeft : src.boundingBoxRight;
+                final float v = (corner & 2) == 0 ? src.boundingBoxTop : src.boundingBoxBottom;
+                visible = reproject(u, v, depth, translation);
+                left = Math.min(left, point[0]);
+                right = Math.max(right, point[0]);
+                top = Math.min(top, point[1]);
+                bottom = Math.max(bottom, point[1]);
+            }
+            // Gone if behind the camera or no longer overlapping the image
+            if (!visible || right <= 0 || bottom <= 0 || left >= imageWidth || top >= imageHeight) {
+                objectsDropped++;
+                continue;
+            }
+            DetectedObject obj = copyOf(src);
+            obj.boundingBoxLeft = left;
+            obj.boundingBoxTop = top;
+            obj.boundingBoxRight = right;
+            obj.boundingBoxBottom = bottom;
+            if (src.polygon != null) {
+                obj.polygon = new float[src.polygon.length];
+                for (int i = 0; i + 1 < src.polygon.length; i += 2) {
+                    reproject(src.polygon[i], src.polygon[i + 1], depth, translation);
+                    obj.polygon[i] = point[0];
+                    obj.polygon[i + 1] = point[1];
+                }
+            }
+            out.add(obj);
+        }
+        return out;
+    }
+
+    // Everything but the mask and polygon
+    private static DetectedObject copyOf(DetectedObject src) {
+        DetectedObject obj = new DetectedObject();
+        obj.trackId = src.trackId;
+        obj.trackAge = src.trackAge;
+        obj.objectClass = src.objectClass;
+        obj.confidence = src.confidence;
+        obj.boundingBoxLeft = src.boundingBoxLeft;
+        obj.boundingBoxTop = src.boundingBoxTop;
+        obj.boundingBoxRight = src.boundingBoxRight;
+        obj.boundingBoxBottom = src.boundingBoxBottom;
+        obj.poseX = src.poseX;
+        obj.poseY = src.poseY;
+        obj.poseZ = src.poseZ;
+        obj.poseQx = src.poseQx;
+        obj.poseQy = src.poseQy;
+        obj.poseQz = src.poseQz;
+        obj.poseQw = src.poseQw;
+        obj.extentX = src.extentX;
+        obj.extentY = src.extentY;
+        obj.extentZ = src.extentZ;
+        obj.poseConfidence = src.poseConfidence;
+        return obj;
+    }
+
+    // Distance of the object in front of the base camera (along -z), or infinity if it has no world position
+    private float depthInBase(DetectedObject obj) {
+        if (obj.poseQx == 0 && obj.poseQy == 0 && obj.poseQz == 0 && obj.poseQw == 0) return Float.POSITIVE_INFINITY;
+        final float dx = obj.poseX - baseTranslation[0];
+        final float dy = obj.poseY - baseTranslation[1];
+        final float dz = obj.poseZ - baseTranslation[2];
+        // Camera z axis in world = third column of rBase
+        final float z = rBase[2] * dx + rBase[5] * dy + rBase[8] * dz;
+        return -z > 0.05f ? -z : Float.POSITIVE_INFINITY;
+    }
+
+    // Pixel (u, v) of the base frame at the given depth into the current camera; result in point.
+    // Returns false if it ends up behind the camera.
+    private boolean reproject(float u, float v, float depth, float[] translation) {
+        // Ray in base camera coordinates (z = -1 plane)
+        final float rx = (u - cx) / fx, ry = -(v - cy) / fy, rz = -1f;
+        // To world direction
+        float wx = rBase[0] * rx + rBase[1] * ry + rBase[2] * rz;
+        float wy = rBase[3] * rx + rBase[4] * ry + rBase[5] * rz;
+        float wz = rBase[6] * rx + rBase[7] * ry + rBase[8] * rz;
+        if (depth != Float.POSITIVE_INFINITY) {
+            // Point in world, relative to the current camera
+            wx = baseTranslation[0] + wx * depth - translation[0];
+            wy = baseTranslation[1] + wy * depth - translation[1];
+            wz = baseTranslation[2] + wz * depth - translation[2];
+        }
+        // Into current camera coordinates (transpose of rCurrent)
+        final float x = rCurrent[0] * wx + rCurrent[3] * wy + rCurrent[6] * wz;
+        final float y = rCurrent[1] * wx + rCurrent[4] * wy + rCurrent[7] * wz;
+        final float z = rCurrent[2] * wx + rCurrent[5] * wy + rCurrent[8] * wz;
+        if (z >= -1e-3f) {
+            point[0] = point[1] = 0;
+            return false;
+        }
+        point[0] = cx + fx * x / -z;
+        point[1] = cy - fy * y / -z;
+        return true;
+    }
+
+    // Unit quaternion (x, y, z, w) to a row-major rotation matrix
+    private static void toMatrix(float[] q, float[] m) {
+        final float x = q[0], y = q[1], z = q[2], w = q[3];
+        m[0] = 1 - 2 * (y * y + z * z); m[1] = 2 * (x * y - z * w);     m[2] = 2 * (x * z + y * w);
+        m[3] = 2 * (x * y + z * w);     m[4] = 1 - 2 * (x * x + z * z); m[5] = 2 * (y * z - x * w);
+        m[6] = 2 * (x * z - y * w);     m[7] = 2 * (y * z + x * w);     m[8] = 1 - 2 * (x * x + y * y);
+    }
+
+    // Angle between two orientations, radians
+    private static float rotationAngle(float[] a, float[] b) {
+        final float dot = Math.abs(a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3]);
+        return 2f * (float) Math.acos(Math.min(1f, dot));
+    }
+
+    private static float distance(float[] a, float[] b) {
+        final float dx = a[0] - b[0], dy = a[1] - b[1], dz = a[2] - b[2];
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    static float iou(DetectedObject a, DetectedObject b) {
+        final float w = Math.min(a.boundingBoxRight, b.boundingBoxRight) - Math.max(a.boundingBoxLeft, b.boundingBoxLeft);
+        final float h = Math.min(a.boundingBoxBottom, b.boundingBoxBottom) - Math.max(a.boundingBoxTop, b.boundingBoxTop);
+        if (w <= 0 || h <= 0) return 0f;
+        final float inter = w * h;
+        final float areaA = (a.boundingBoxRight - a.boundingBoxLeft) * (a.boundingBoxBottom - a.boundingBoxTop);
+        final float areaB = (b.boundingBoxRight - b.boundingBoxLeft) * (b.boundingBoxBottom - b.boundingBoxTop);
+        return inter / (areaA + areaB - inter);
+    }
+
+    public synchronized void reset() {
+        base.clear();
+        hasBase = false;
+        interval = minInterval;
+        framesSinceKeyframe = Integer.MAX_VALUE;
+    }
+
+    // True once an inference result is available to carry forward
+    public synchronized boolean hasResults() { return hasBase; }
+
+    // --- Stats ---
+    public synchronized int getInterval() { return interval; }
+    public synchronized long getFramesSeen() { return framesSeen; }
+    public synchronized long getKeyframesRun() { return keyframesRun; }
+    public synchronized long getFramesPropagated() { return framesPropagated; }
+    public synchronized long getObjectsDropped() { return objectsDropped; }
+    public synchronized float getLastPropagationIou() { return lastPropagationIou; }
+    // Frames per second that got a detection list (inferred or carried forward), and model runs per second
+    public synchronized float getEffectiveDetectionRate() {
+        return rate(keyframesRun + framesPropagated);
+    }
+    public synchronized float getInferenceRate() {
+        return rate(keyframesRun);
+    }
+
+    private float rate(long count) {
+        return lastNanos > startNanos ? count * 1e9f / (lastNanos - startNanos) : 0f;
+    }
+}
@@ -0,0 +1,162 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Pure Java (no Android imports) so the control loop can be driven by a simulated latency source on a plain JVM.
+
+import java.util.Arrays;
+
+// Feedback loop that holds the vision pipeline's end-to-end latency (capture -> results) under an SLO.
+// Every processed frame reports its latency and how many newer frames were dropped while it was being worked
+// on (queue depth: frames the camera delivered faster than inference could take them). Every EVAL_PERIOD frames
+// the governor looks at the rolling p50 / p95 and moves one step along a ladder of settings - first the frame
+// rate, then the input stride (see YuvToTensorConverter) - so heat and load come down before image quality does.
+//
+// Hysteresis, so it settles instead of oscillating:
+//   - step down as soon as one evaluation sees p95 over the SLO, or more than MAX_DROP_FRACTION of the frames
+//     dropped (capturing frames that are thrown away only adds heat);
+//   - step up only after several consecutive evaluations with p95 under UPGRADE_RATIO * SLO and nothing
+//     dropped. If a step up has to be undone right away, the number of evaluations needed next time doubles
+//     (up to MAX_UPGRADE_EVALUATIONS), and halves again once a level has held for a while;
+//   - after every change the window is cleared, so the next decision only sees frames run with the new settings.
+//
+// Heat: setThermalHeadroom() takes the platform's forecast (PowerManager.getThermalHeadroom, 1.0 = severe
+// throttling is about to start). At THERMAL_STEP_DOWN_HEADROOM the governor steps down even if latency is fine,
+// but only every THERMAL_SETTLE_EVALUATIONS evaluations, because the temperature takes seconds to follow the
+// load; from THERMAL_HOLD_HEADROOM up it doesn't step back up. No reading (NaN) leaves it to latency alone.
+//
+// The model input is a fixed-size tensor, so there is no input resolution to trade; the stride lowers the
+// sampling density of the camera image inside that tensor instead. That only saves conversion work: inference
+// cost, and with it most of the heat, comes down with the frame rate. Thread safe.
+public class FrameGovernor {
+
+    // Ladder of settings, index 0 = full quality
+    private static final int[] LEVEL_FPS = {30, 24, 20, 15, 15, 10, 10, 5};
+    private static final int[] LEVEL_STRIDE = {1, 1, 1, 1, 2, 2, 3, 3};
+
+    private static final int WINDOW = 60;             // Latency samples kept (about 2 s at 30 fps)
+    private static final int EVAL_PERIOD = 15;        // Frames between decisions
+    private static final float UPGRADE_RATIO = 0.6f;  // Headroom needed before stepping back up
+    private static final float MAX_DROP_FRACTION = 0.25f;
+    private static final int UPGRADE_EVALUATIONS = 3;
+    private static final int MAX_UPGRADE_EVALUATIONS = 8;
+    private static final int STABLE_EVALUATIONS = 10;  // A level held this long relaxes the upgrade backoff
+    private static final float THERMAL_STEP_DOWN_HEADROOM = 0.85f;
+    private static final float THERMAL_HOLD_HEADROOM = 0.7f;
+    private static final int THERMAL_SETTLE_EVALUATIONS = 4;
+
+    private final long sloNanos;
+    private int level = 0;
+
+    private final long[] latencies = new long[WINDOW];
+    private final long[] sorted = new long[WINDOW];   // Scratch for percentiles
+    private int samples = 0;                           // Valid entries in latencies (up to WINDOW)
+    private int next = 0;
+    private int sinceEvaluation = 0;
+    private int droppedInPeriod = 0;
+    private int goodEvaluations = 0;
+    private int requiredGoodEvaluations = UPGRADE_EVALUATIONS;
+    private int evaluationsSinceChange = 0;
+    private boolean lastChangeWasUpgrade = false;
+    private long p50Nanos = 0;
+    private long p95Nanos = 0;
+    private float thermalHeadroom = Float.NaN;        // Last reading; NaN until there is one
+
+    private long nextAdmitNanos = Long.MIN_VALUE;     // Start of the next frame-rate slot
+
+    // --- Counters ---
+    private long levelChanges = 0;
+    private long framesAdmitted = 0;
+    private long framesThrottled = 0;
+    private long thermalStepDowns = 0;
+
+    public FrameGovernor(long sloNanos) {
+        if (sloNanos <= 0) {
+            throw new IllegalArgumentException("Invalid latency SLO: " + sloNanos + " ns");
+        }
+        this.sloNanos = sloNanos;
+    }
+
+    // Frame-rate gate, called for every camera frame before it is handed to inference. Frames are admitted on
+    // a fixed schedule of 1 / fps slots, not timed from the last admitted frame: a camera at 30 fps then gets
+    // 24 or 20 fps through instead of every other frame, and timestamp jitter doesn't cost frames. A frame may
+    // be up to a quarter of an interval early for its slot.
+    public synchronized boolean admit(long nowNanos) {
+        final long interval = 1_000_000_000L / LEVEL_FPS[level];
+        if (nextAdmitNanos != Long.MIN_VALUE && nowNanos - nextAdmitNanos < -interval / 4) {
+            framesThrottled++;
+            return false;
+        }
+        // Behind by more than a slot (no frames for a while, or a lower level before): restart the schedule
+        final boolean onSchedule = nextAdmitNanos != Long.MIN_VALUE && nowNanos - nextAdmitNanos <= interval;
+        nextAdmitNanos = (onSchedule ? nextAdmitNanos : nowNanos) + interval;
+        framesAdmitted++;
+        return true;
+    }
+
+    // One processed frame: capture -> results latency, and frames dropped while it was in flight
+    public synchronized void record(long latencyNanos, int framesDropped) {
+        latencies[next] = latencyNanos;
+        next = (next + 1) % WINDOW;
+        if (samples < WINDOW) samples++;
+        droppedInPeriod += framesDropped;
+        if (++sinceEvaluation >= EVAL_PERIOD) evaluate();
+    }
+
+    // Forecast thermal headroom from the platform; NaN (no reading, or polled too often) keeps the last one
+    public synchronized void setThermalHeadroom(float headroom) {
+        if (!Float.isNaN(headroom)) thermalHeadroom = headroom;
+    }
+
+    private void evaluate() {
+        System.arraycopy(latencies, 0, sorted, 0, samples);
+        Arrays.sort(sorted, 0, samples);
+        p50Nanos = sorted[(samples - 1) / 2];
+        p95Nanos = sorted[Math.min(samples - 1, (int) Math.ceil(samples * 0.95) - 1)];
+        final float dropFraction = droppedInPeriod / (float) (droppedInPeriod + sinceEvaluation);
+        sinceEvaluation = 0;
+        droppedInPeriod = 0;
+        if (++evaluationsSinceChange == STABLE_EVALUATIONS) {
+            requiredGoodEvaluations = Math.max(UPGRADE_EVALUATIONS, requiredGoodEvaluations / 2);
+        }
+
+        final boolean overSlo = p95Nanos > sloNanos || dropFraction > MAX_DROP_FRACTION;
+        final boolean hot = thermalHeadroom >= THERMAL_STEP_DOWN_HEADROOM   // Both false while NaN
+                && evaluationsSinceChange >= THERMAL_SETTLE_EVALUATIONS;
+        final boolean warm = thermalHeadroom >= THERMAL_HOLD_HEADROOM;
+        if ((overSlo || hot) && level < LEVEL_FPS.length - 1) {
+            if (lastChangeWasUpgrade && evaluationsSinceChange <= 2) {
+                // The step up didn't hold: wait longer before trying again
+                requiredGoodEvaluations = Math.min(requiredGoodEvaluations * 2, MAX_UPGRADE_EVALUATIONS);
+            }
+            if (!overSlo) thermalStepDowns++;
+            setLevel(level + 1);
+        } else if (p95Nanos < sloNanos * UPGRADE_RATIO && dropFraction == 0 && !warm && level > 0) {
+            if (++goodEvaluations >= requiredGoodEvaluations) setLevel(level - 1);
+        } else {
+            goodEvaluations = 0;
+        }
+    }
+
+    private void setLevel(int newLevel) {
+        lastChangeWasUpgrade = newLevel < level;
+        level = newLevel;
+        levelChanges++;
+        goodEvaluations = 0;
+        evaluationsSinceChange = 0;
+        samples = 0;
+        next = 0;
+    }
+
+    public synchronized int getLevel() { return level; }
+    public synchronized int getTargetFps() { return LEVEL_FPS[level]; }
+    public synchronized int getInputStride() { return LEVEL_STRIDE[level]; }
+    public synchronized long getP50Nanos() { return p50Nanos; }
+    public synchronized long getP95Nanos() { return p95Nanos; }
+    public long getSloNanos() { return sloNanos; }
+    public synchronized float getThermalHeadroom() { return thermalHeadroom; }
+
+    // --- Counters ---
+    public synchronized long getLevelChanges() { return levelChanges; }
+    public synchronized long getFramesAdmitted() { return framesAdmitted; }
+    public synchronized long getFramesThrottled() { return framesThrottled; }
+    public synchronized long getThermalStepDowns() { return thermalStepDowns; }
+}
@@ -0,0 +1,272 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Pure Java (no Android / ARCore imports) so it can be driven by a synthetic frame source on a plain JVM.
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+// Asynchronous, latest-frame-wins hand-off between the GL thread (SlamManager.onDrawFrame) and inference.
+// The GL thread only copies the camera image planes and the camera pose into one of a small ring of reusable
+// slots and returns immediately; a dedicated worker thread runs the (slow) consumer on the newest frame.
+// If inference is slower than the camera, a frame that is still waiting when a newer one arrives is dropped.
+//
+// Slot states: FREE -> WRITING (GL thread copying) -> PENDING (waiting for worker) -> PROCESSING -> FREE.
+// With 3 slots the writer can always find a free slot: at most one is PENDING and one PROCESSING.
+public class FramePipeline {
+
+    private static final String TAG = "JamieFramePipeline";
+
+    // One captured camera frame: YUV_420_888 planes (copied) plus the camera pose at capture time
+    public static class FrameSlot {
+        public ByteBuffer yPlane = ByteBuffer.allocateDirect(0);
+        public ByteBuffer uPlane = ByteBuffer.allocateDirect(0);
+        public ByteBuffer vPlane = ByteBuffer.allocateDirect(0);
+        public int yRowStride, yPixelStride, uvRowStride, uvPixelStride;
+        public int width, height;
+        public final float[] translation = new float[3]; // Camera pose in the AR world frame
+        public final float[] rotation = new float[4];    // qx, qy, qz, qw
+        public boolean hasPose;   // false if the frame was captured without a pose (translation / rotation stale)
+        public long timestampNs;  // Camera (sensor) timestamp
+        public long captureNanos; // System.nanoTime() when the copy started, for end-to-end latency
+        public long sequence;
+        public short[] depth = new short[0]; // Depth image (mm, row-major) of the same frame, if any
+        public int depthWidth, depthHeight;  // 0 when the frame has no depth
+        private int state = FREE;
+    }
+
+    // Runs on the worker thread, once per frame that was not dropped
+    public interface FrameConsumer {
+        void onFrame(FrameSlot frame);
+    }
+
+    private static final int FREE = 0;
+    private static final int WRITING = 1;
+    private static final int PENDING = 2;
+    private static final int PROCESSING = 3;
+
+    private final FrameSlot[] slots;
+    private final FrameConsumer consumer;
+    private FrameSlot pending; // Newest frame waiting for the worker (guarded by this)
+    private Thread worker;
+    private volatile boolean running = false;
+    private Runnable exitAction; // Run by the worker as it exits, see stop(Runnable) (guarded by this)
+    private long nextSequence = 0;
+
+    // --- Counters ---
+    private long framesCaptured = 0;
+    private long framesDropped = 0;   // Published but superseded before the worker picked them up
+    private long framesSkipped = 0;   // No free slot to copy into (should stay 0 with >= 3 slots)
+    private long framesProcessed = 0;
+    private long lastLatencyNanos = 0;
+    private long maxLatencyNanos = 0;
+    private long totalLatencyNanos = 0;
+
+    public FramePipeline(int slotCount, FrameConsumer consumer) {
+        if (slotCount < 3) {
+            throw new IllegalArgumentException("Latest-wins hand-off needs at least 3 slots: " + slotCount);
+        }
+        this.consumer = consumer;
+        slots = new FrameSlot[slotCount];
+        for (int i = 0; i < slotCount; i++) slots[i] = new FrameSlot();
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        worker = new Thread(this::runWorker, TAG);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public void stop() {
+        stop(null);
+    }
+
+    // Stops the worker and runs onStopped once the worker has really exited: on the worker itself, after the
+    // frame it may still be processing, or right away if there is no worker. Waits up to a second for the
+    // worker, but a consumer stuck in a slow call (a first NNAPI / GPU inference can take seconds) is never
+    // cut short - so anything the consumer uses must be released in onStopped, not after stop() returns.
+    public void stop(Runnable onStopped) {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            t = worker;
+            worker = null;
+            if (t != null) exitAction = onStopped;
+            notifyAll();
+        }
+        if (t == null) {
+            if (onStopped != null) onStopped.run();
+            return;
+        }
+        t.interrupt();
+        try {
+            t.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Called from the GL thread. Copies the planes and pose into a free slot and publishes it.
+    // Plane buffers are copied from their current position to their limit and their positions are restored.
+    // translation / rotation may be null for a frame whose pose isn't known (FrameSlot.hasPose is then false).
+    // Returns false if the frame could not be captured (pipeline stopped or no free slot).
+    public boolean capture(ByteBuffer y, ByteBuffer u, ByteBuffer v,
+                           int yRowStride, int yPixelStride, int uvRowStride, int uvPixelStride,
+                           int width, int height, float[] translation, float[] rotation, long timestampNs) {
+        return capture(y, u, v, yRowStride, yPixelStride, uvRowStride, uvPixelStride, width, height,
+                translation, rotation, timestampNs, null, 0, 0, 0);
+    }
+
+    // Same, with the frame's DEPTH16 image (native byte order, depthRowStride in bytes); depth may be null
+    public boolean capture(ByteBuffer y, ByteBuffer u, ByteBuffer v,
+                           int yRowStride, int yPixelStride, int uvRowStride, int uvPixelStride,
+                           int width, int height, float[] translation, float[] rotation, long timestampNs,
+                           ByteBuffer depth, int depthWidth, int depthHeight, int depthRowStride) {
+        final long start = System.nanoTime();
+        FrameSlot slot;
+        synchronized (this) {
+            if (!running) return false;
+            slot = null;
+            for (FrameSlot s : slots) {
+                if (s.state == FREE) {
+                    slot = s;
+                    break;
+                }
+            }
+            if (slot == null) {
+                framesSkipped++;
+                return false;
+            }
+            slot.state = WRITING;
+        }
+
+        // Copy outside the lock - the worker never touches a WRITING slot
+        slot.yPlane = copyPlane(y, slot.yPlane);
+        slot.uPlane = copyPlane(u, slot.uPlane);
+        slot.vPlane = copyPlane(v, slot.vPlane);
+        slot.yRowStride = yRowStride;
+        slot.yPixelStride = yPixelStride;
+        slot.uvRowStride = uvRowStride;
+        slot.uvPixelStride = uvPixelStride;
+        slot.width = width;
+        slot.height = height;
+        slot.hasPose = translation != null && rotation != null;
+        if (slot.hasPose) {
+            System.arraycopy(translation, 0, slot.translation, 0, 3);
+            System.arraycopy(rotation, 0, slot.rotation, 0, 4);
+        }
+        slot.timestampNs = timestampNs;
+        slot.captureNanos = start;
+        if (depth != null) {
+            slot.depth = copyDepth(depth, depthWidth, depthHeight, depthRowStride, slot.depth);
+            slot.depthWidth = depthWidth;
+            slot.depthHeight = depthHeight;
+        } else {
+            slot.depthWidth = slot.depthHeight = 0;
+        }
+
+        synchronized (this) {
+            slot.sequence = nextSequence++;
+            framesCaptured++;
+            if (pending != null) {
+                // Worker hasn't caught up: the older frame is stale, recycle it (latest wins)
+                pending.state = FREE;
+                framesDropped++;
+            }
+            slot.state = PENDING;
+            pending = slot;
+            notifyAll();
+        }
+        return true;
+    }
+
+    // Copies src (position..limit) into dst, growing dst only when the frame size increases
+    private static ByteBuffer copyPlane(ByteBuffer src, ByteBuffer dst) {
+        final int pos = src.position();
+        final int size = src.remaining();
+        if (dst.capacity() < size) {
+            dst = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        }
+        dst.clear();
+        dst.put(src);
+        dst.flip();
+        src.position(pos);
+        return dst;
+    }
+
+    // Copies a 16-bit image into a packed row-major array, growing dst only when the image size increases
+    private static short[] copyDepth(ByteBuffer src, int width, int height, int rowStride, short[] dst) {
+        if (dst.length < width * height) {
+            dst = new short[width * height];
+        }
+        final ShortBuffer rows = src.duplicate().order(ByteOrder.nativeOrder()).asShortBuffer();
+        for (int y = 0; y < height; y++) {
+            rows.position(y * rowStride / 2);
+            rows.get(dst, y * width, width);
+        }
+        return dst;
+    }
+
+    private void runWorker() {
+        try {
+            processFrames();
+        } finally {
+            final Runnable action;
+            synchronized (this) {
+                action = exitAction;
+                exitAction = null;
+            }
+            if (action != null) action.run();
+        }
+    }
+
+    private void processFrames() {
+        final Thread self = Thread.currentThread();
+        while (true) {
+            FrameSlot slot;
+            synchronized (this) {
+                // worker != self: stopped, and possibly restarted with a new worker already
+                while (running && worker == self && pending == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        if (!running) return;
+                    }
+                }
+                if (!running || worker != self) return;
+                slot = pending;
+                pending = null;
+                slot.state = PROCESSING;
+            }
+
+            try {
+                consumer.onFrame(slot);
+            } catch (RuntimeException e) {
+                System.err.println(TAG + ": Frame consumer failed: " + e);
+            }
+
+            final long latency = System.nanoTime() - slot.captureNanos;
+            synchronized (this) {
+                slot.state = FREE;
+                framesProcessed++;
+                lastLatencyNanos = latency;
+                totalLatencyNanos += latency;
+                if (latency > maxLatencyNanos) maxLatencyNanos = latency;
+            }
+        }
+    }
+
+    // --- Counters (capture -> consumer finished) ---
+    public synchronized long getFramesCaptured() { return framesCaptured; }
+    public synchronized long getFramesDropped() { return framesDropped; }
+    public synchronized long getFramesSkipped() { return framesSkipped; }
+    public synchronized long getFramesProcessed() { return framesProcessed; }
+    public synchronized long getLastLatencyNanos() { return lastLatencyNanos; }
+    public synchronized long getMaxLatencyNanos() { return maxLatencyNanos; }
+    public synchronized long getAverageLatencyNanos() {
+        return framesProcessed == 0 ? 0 : totalLatencyNanos / framesProcessed;
+    }
+    public boolean isRunning() { return running; }
+}
@@ -0,0 +1,27 @@
+package com/praxisapocalyptica/jamie.perception;
+
+import java.util.Map;
+
+// Abstraction over "something that runs the vision model", so VisionProcessor is not tied to one
+// Interpreter configuration. Implementations: TfliteInferenceBackend (CPU / XNNPACK / NNAPI), and
+// FakeInferenceBackend in the JVM tests (canned outputs, simulated latency).
+// BackendAutoTuner picks the fastest available one at startup.
+public interface InferenceBackend {
+
+    // Human readable name for logs, e.g. "xnnpack x4"
+    String getName();
+
+    int getInputTensorCount();
+    int[] getInputShape(int index);
+    int getInputNumBytes(int index);
+    boolean isInputUint8(int index); // Quantized input (uint8) vs float32
+
+    int getOutputTensorCount();
+    int[] getOutputShape(int index);
+    int getOutputNumBytes(int index);
+
+    // Runs one inference. inputs[i] / outputs.get(i) are direct buffers sized for tensor i.
+    void run(Object[] inputs, Map<Integer, Object> outputs);
+
+    void close();
+}
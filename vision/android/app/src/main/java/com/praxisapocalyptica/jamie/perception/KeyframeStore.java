@@ -0,0 +1,665 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Pure Java (no Android imports) so selection, matching and the spill files can be exercised on a plain JVM.
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Keyframes recorded while tracking, so that after tracking is lost and recovered the phone can tell the
+// brain which earlier view the camera is looking at again (see SlamManager's relocalization report).
+//
+// A frame becomes a keyframe when the camera has moved more than minTranslation or turned more than
+// minRotation since the last one. Each keyframe keeps:
+//   - the pose and timestamp;
+//   - a THUMB_WIDTH x THUMB_HEIGHT box-downscaled copy of the Y plane (centre crop to 4:3);
+//   - up to MAX_FEATURES FAST-9 corners of the thumbnail with upright 256-bit BRIEF descriptors (the robot's
+//     camera stays roughly level, so rotation invariance is not worth the cost);
+//   - a GLOBAL_WIDTH x GLOBAL_HEIGHT zero-mean, unit-norm tiny image as a global descriptor.
+// findBestMatch() ranks every keyframe by global descriptor similarity, then matches BRIEF descriptors
+// (Hamming distance with a ratio test) against the best CANDIDATES. Only matches that agree on the dominant
+// image displacement count (votes in VOTE_BIN pixel bins, peak plus neighbours), which rejects the chance
+// matches of repetitive texture; the keyframe with the most such matches wins if it has at least
+// MIN_MATCHES. Relocalization is expected from a similar viewpoint, so a displacement is a fair model.
+//
+// Memory: the thumbnail, corners and descriptors (about 27 KB per keyframe) count against maxResidentBytes.
+// Over the budget, the oldest keyframes move them to a file in the spill directory (read back only to match
+// a candidate, never made resident again) or, without a spill directory, are dropped. Pose and global
+// descriptor stay in memory (under 1 KB each), up to maxKeyframes keyframes; beyond that the oldest are
+// dropped, spill file included. Spill files are named and stamped with a random session id drawn by each
+// store, so ids (which start at 1 in every store) never pick up a file of an earlier run; setSpillDirectory()
+// deletes the files such runs left behind (killed before clear()). One store per spill directory.
+//
+// Methods are synchronized (GL thread, readers anywhere), but findBestMatch() only holds the lock to pick
+// its candidates: spill files are read and descriptors matched outside it, on whatever thread calls it, so a
+// relocalization matched in the background doesn't hold up add() and isKeyframeDue() on the GL thread.
+public class KeyframeStore {
+
+    public static final int THUMB_WIDTH = 160;
+    public static final int THUMB_HEIGHT = 120;
+    private static final int THUMB_PIXELS = THUMB_WIDTH * THUMB_HEIGHT;
+    public static final int GLOBAL_WIDTH = 16;
+    public static final int GLOBAL_HEIGHT = 12;
+    private static final int GLOBAL_BLOCK = THUMB_WIDTH / GLOBAL_WIDTH; // 10 x 10 thumbnail pixels per value
+
+    public static final int MAX_FEATURES = 200;
+    private static final int FAST_THRESHOLD = 20;
+    private static final int PATCH_RADIUS = 15;               // BRIEF sampling pattern lies within 31 x 31
+    private static final int BORDER = PATCH_RADIUS + 2;       // Smoothing box radius included
+    private static final int DESCRIPTOR_LONGS = 4;            // 256 bits
+    private static final int MAX_HAMMING = 64;
+    private static final float RATIO = 0.8f;
+    private static final int MIN_MATCHES = 15;
+    private static final int CANDIDATES = 16;
+    private static final int VOTE_BIN = 8;                    // Thumbnail pixels per displacement bin
+    private static final int VOTE_COLUMNS = 2 * THUMB_WIDTH / VOTE_BIN + 1;
+    private static final int VOTE_ROWS = 2 * THUMB_HEIGHT / VOTE_BIN + 1;
+
+    public static final float DEFAULT_MIN_TRANSLATION_M = 0.5f;
+    public static final float DEFAULT_MIN_ROTATION_RAD = 0.35f; // About 20 degrees
+
+    private static final int SPILL_MAGIC = 0x4B465332; // "KFS2"
+    private static final int SPILL_HEADER_BYTES = 4 + 8 + 8 + 4;
+    private static final int SPILL_FEATURE_BYTES = 2 * 2 + DESCRIPTOR_LONGS * 8;
+    private static final String SPILL_PREFIX = "keyframe-";
+
+    // FAST circle of radius 3 (dx, dy), clockwise from the top
+    private static final int[] CIRCLE_X = {0, 1, 2, 3, 3, 3, 2, 1, 0, -1, -2, -3, -3, -3, -2, -1};
+    private static final int[] CIRCLE_Y = {-3, -3, -2, -1, 0, 1, 2, 3, 3, 3, 2, 1, 0, -1, -2, -3};
+
+    // BRIEF test pairs (x1, y1, x2, y2), Gaussian around the corner (sigma = patch / 5), fixed seed so stored
+    // and spilled descriptors stay comparable
+    private static final byte[] PAIRS = new byte[256 * 4];
+    static {
+        final Random random = new Random(0x5EED);
+        for (int i = 0; i < PAIRS.length; i++) {
+            final double v = random.nextGaussian() * (2 * PATCH_RADIUS + 1) / 5.0;
+            PAIRS[i] = (byte) Math.max(-PATCH_RADIUS, Math.min(PATCH_RADIUS, Math.round(v)));
+        }
+    }
+
+    public static class Keyframe {
+        public final long id;
+        public final long timestampNs;
+        public final float[] pose = new float[7]; // tx, ty, tz, qx, qy, qz, qw
+        final float[] global = new float[GLOBAL_WIDTH * GLOBAL_HEIGHT];
+        byte[] thumbnail;       // null once spilled
+        short[] keypoints;      // x, y per feature; null once spilled
+        long[] descriptors;     // DESCRIPTOR_LONGS per feature; null once spilled
+        int featureCount;
+        File spillFile;
+
+        Keyframe(long id, long timestampNs) {
+            this.id = id;
+            this.timestampNs = timestampNs;
+        }
+
+        public int getFeatureCount() { return featureCount; }
+        public boolean isSpilled() { return spillFile != null; }
+
+        long residentBytes() {
+            return thumbnail == null ? 0 : thumbnail.length + keypoints.length * 2L + descriptors.length * 8L;
+        }
+    }
+
+    // Result of findBestMatch(); fields are only meaningful when it returned true
+    public static class Match {
+        public long keyframeId;
+        public long timestampNs;
+        public final float[] pose = new float[7];
+        public int matches;        // BRIEF matches passing the ratio test and the displacement vote
+        public int queryFeatures;  // Features found in the query image
+        public float similarity;   // Global descriptor similarity, -1 .. 1
+    }
+
+    // Features of one camera image (see extract()) and the scratch findBestMatch() works in. Use one per
+    // matching thread.
+    public static class Query {
+        final short[] keypoints = new short[MAX_FEATURES * 2];
+        final long[] descriptors = new long[MAX_FEATURES * DESCRIPTOR_LONGS];
+        final float[] global = new float[GLOBAL_WIDTH * GLOBAL_HEIGHT];
+        int featureCount;
+        // Candidates as they were when picked: resident features, or the spill file to read them from
+        final long[] ranking = new long[CANDIDATES];
+        final Keyframe[] candidates = new Keyframe[CANDIDATES];
+        final short[][] candidateKeypoints = new short[CANDIDATES][];
+        final long[][] candidateDescriptors = new long[CANDIDATES][];
+        final File[] candidateFiles = new File[CANDIDATES];
+        final int[] votes = new int[VOTE_COLUMNS * VOTE_ROWS];
+        final short[] spilledKeypoints = new short[MAX_FEATURES * 2];
+        final long[] spilledDescriptors = new long[MAX_FEATURES * DESCRIPTOR_LONGS];
+        final byte[] spillBytes = new byte[SPILL_HEADER_BYTES + MAX_FEATURES * SPILL_FEATURE_BYTES];
+        final ByteBuffer spillBuffer = ByteBuffer.wrap(spillBytes); // Big-endian, like DataOutputStream
+
+        public int getFeatureCount() { return featureCount; }
+    }
+
+    private final long maxResidentBytes;
+    private final int maxKeyframes;
+    private final long session = new Random().nextLong(); // Names and stamps this store's spill files
+    private float minTranslationM = DEFAULT_MIN_TRANSLATION_M;
+    private float minRotationRad = DEFAULT_MIN_ROTATION_RAD;
+    private File spillDirectory;
+
+    private final List<Keyframe> keyframes = new ArrayList<>(); // Oldest first
+    private long nextId = 1;
+    private long residentBytes = 0;
+    private final float[] lastTranslation = new float[3];
+    private final float[] lastRotation = {0, 0, 0, 1};
+    private boolean hasLast = false;
+
+    // Scratch for feature extraction (one image at a time)
+    private final byte[] thumbnail = new byte[THUMB_PIXELS];
+    private final int[] smoothed = new int[THUMB_PIXELS];
+    private final int[] rowSums = new int[THUMB_PIXELS];
+    private final int[] scores = new int[THUMB_PIXELS];
+    private long[] corners = new long[1024];
+    private final short[] queryKeypoints = new short[MAX_FEATURES * 2];
+    private final long[] queryDescriptors = new long[MAX_FEATURES * DESCRIPTOR_LONGS];
+    private final float[] queryGlobal = new float[GLOBAL_WIDTH * GLOBAL_HEIGHT];
+
+    // --- Counters ---
+    private long keyframesAdded = 0;
+    private long keyframesSpilled = 0;
+    private long keyframesDropped = 0;
+    private long spillReadFailures = 0;
+    private long staleSpillFilesDeleted = 0;
+
+    public KeyframeStore(long maxResidentBytes, int maxKeyframes) {
+        if (maxResidentBytes <= 0 || maxKeyframes < 1) {
+            throw new IllegalArgumentException("Invalid keyframe store bounds: " + maxResidentBytes + " B, " + maxKeyframes + " keyframes");
+        }
+        this.maxResidentBytes = maxResidentBytes;
+        this.maxKeyframes = maxKeyframes;
+    }
+
+    public synchronized void setSelection(float minTranslationM, float minRotationRad) {
+        if (minTranslationM <= 0 || minRotationRad <= 0) {
+            throw new IllegalArgumentException("Invalid keyframe selection: " + minTranslationM + " m, " + minRotationRad + " rad");
+        }
+        this.minTranslationM = minTranslationM;
+        this.minRotationRad = minRotationRad;
+    }
+
+    // Directory for keyframes over the memory budget (created if missing); null drops them instead.
+    // Spill files of other sessions found in it are deleted.
+    public synchronized void setSpillDirectory(File directory) {
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Invalid spill directory: " + directory);
+        }
+        spillDirectory = directory;
+        if (directory == null) return;
+        final String own = spillFilePrefix();
+        final File[] stale = directory.listFiles((dir, name) -> name.startsWith(SPILL_PREFIX) && name.endsWith(".bin")
+                && !name.startsWith(own));
+        if (stale == null) return;
+        for (File file : stale) {
+            if (file.delete()) staleSpillFilesDeleted++;
+        }
+    }
+
+    // True if the camera moved or turned far enough from the last keyframe (always for the first one)
+    public synchronized boolean isKeyframeDue(float[] translation, float[] rotation) {
+        if (!hasLast) return true;
+        final float dx = translation[0] - lastTranslation[0];
+        final float dy = translation[1] - lastTranslation[1];
+        final float dz = translation[2] - lastTranslation[2];
+        return dx * dx + dy * dy + dz * dz > minTranslationM * minTranslationM
+                || rotationAngle(lastRotation, rotation) > minRotationRad;
+    }
+
+    // Adds a keyframe from the Y plane of the camera image. Returns it, or null if the image has too little
+    // texture to be matched later (fewer than MIN_MATCHES corners); the selection still moves on.
+    public synchronized Keyframe add(long timestampNs, float[] translation, float[] rotation,
+                                     ByteBuffer yPlane, int rowStride, int pixelStride, int width, int height) {
+        System.arraycopy(translation, 0, lastTranslation, 0, 3);
+        System.arraycopy(rotation, 0, lastRotation, 0, 4);
+        hasLast = true;
+        final int features = extract(yPlane, rowStride, pixelStride, width, height);
+        if (features < MIN_MATCHES) return null;
+
+        final Keyframe kf = new Keyframe(nextId++, timestampNs);
+        System.arraycopy(translation, 0, kf.pose, 0, 3);
+        System.arraycopy(rotation, 0, kf.pose, 3, 4);
+        System.arraycopy(queryGlobal, 0, kf.global, 0, queryGlobal.length);
+        kf.thumbnail = thumbnail.clone();
+        kf.featureCount = features;
+        kf.keypoints = Arrays.copyOf(queryKeypoints, features * 2);
+        kf.descriptors = Arrays.copyOf(queryDescriptors, features * DESCRIPTOR_LONGS);
+        keyframes.add(kf);
+        residentBytes += kf.residentBytes();
+        keyframesAdded++;
+        enforceBounds();
+        return kf;
+    }
+
+    // Features of the camera image into query, for findBestMatch(). Cheap enough for the GL thread (it works on
+    // the thumbnail, like add()). Returns the number of features.
+    public synchronized int extract(ByteBuffer yPlane, int rowStride, int pixelStride, int width, int height,
+                                    Query query) {
+        final int features = extract(yPlane, rowStride, pixelStride, width, height);
+        System.arraycopy(queryKeypoints, 0, query.keypoints, 0, features * 2);
+        System.arraycopy(queryDescriptors, 0, query.descriptors, 0, features * DESCRIPTOR_LONGS);
+        System.arraycopy(queryGlobal, 0, query.global, 0, queryGlobal.length);
+        query.featureCount = features;
+        return features;
+    }
+
+    // Finds the stored keyframe that best matches the query image. False if none has MIN_MATCHES matches.
+    // Any thread; reads spill files without holding the store's lock (see the class comment).
+    public boolean findBestMatch(Query query, Match out) {
+        out.queryFeatures = query.featureCount;
+        if (query.featureCount < MIN_MATCHES) return false;
+        final int ranked = pickCandidates(query);
+        Keyframe best = null;
+        int bestMatches = 0;
+        for (int i = 0; i < ranked; i++) {
+            final Keyframe kf = query.candidates[i];
+            short[] keypoints = query.candidateKeypoints[i];
+            long[] descriptors = query.candidateDescriptors[i];
+            if (descriptors == null) {
+                if (!readSpilledFeatures(kf, query.candidateFiles[i], query)) continue;
+                keypoints = query.spilledKeypoints;
+                descriptors = query.spilledDescriptors;
+            }
+            final int matches = countMatches(query, keypoints, descriptors, kf.featureCount);
+            if (matches > bestMatches) {
+                bestMatches = matches;
+                best = kf;
+            }
+        }
+        for (int i = 0; i < ranked; i++) { // Keep nothing of the store alive through the query
+            query.candidates[i] = null;
+            query.candidateKeypoints[i] = null;
+            query.candidateDescriptors[i] = null;
+            query.candidateFiles[i] = null;
+        }
+        if (best == null || bestMatches < MIN_MATCHES) return false;
+        out.keyframeId = best.id;
+        out.timestampNs = best.timestampNs;
+        System.arraycopy(best.pose, 0, out.pose, 0, 7);
+        out.matches = bestMatches;
+        out.similarity = dot(query.global, best.global);
+        return true;
+    }
+
+    // Best CANDIDATES keyframes by global similarity (sortable key: similarity bits, index) into the query,
+    // each with its resident features or its spill file as they are now. Returns how many.
+    private synchronized int pickCandidates(Query query) {
+        final long[] ranking = query.ranking;
+        int ranked = 0;
+        for (int k = 0; k < keyframes.size(); k++) {
+            final float similarity = dot(query.global, keyframes.get(k).global);
+            final long key = ((long) sortableBits(similarity) << 32) | k;
+            if (ranked < CANDIDATES) {
+                ranking[ranked++] = key;
+            } else {
+                int worst = 0;
+                for (int i = 1; i < CANDIDATES; i++) if (ranking[i] < ranking[worst]) worst = i;
+                if (key > ranking[worst]) ranking[worst] = key;
+            }
+        }
+        for (int i = 0; i < ranked; i++) {
+            final Keyframe kf = keyframes.get((int) ranking[i]);
+            query.candidates[i] = kf;
+            query.candidateKeypoints[i] = kf.keypoints;
+            query.candidateDescriptors[i] = kf.descriptors;
+            query.candidateFiles[i] = kf.spillFile;
+        }
+        return ranked;
+    }
+
+    // Forgets every keyframe (e.g. a new AR session with a new world frame); spill files are deleted
+    public synchronized void clear() {
+        for (Keyframe kf : keyframes) deleteSpillFile(kf);
+        keyframes.clear();
+        residentBytes = 0;
+        hasLast = false;
+    }
+
+    // --- Memory bounds ---
+
+    private void enforceBounds() {
+        while (keyframes.size() > maxKeyframes) drop(0);
+        for (int k = 0; residentBytes > maxResidentBytes && k < keyframes.size(); ) {
+            final Keyframe kf = keyframes.get(k);
+            if (kf.thumbnail == null) {
+                k++;
+            } else if (spillDirectory != null && spill(kf)) {
+                keyframesSpilled++;
+                k++;
+            } else {
+                drop(k);
+            }
+        }
+    }
+
+    private void drop(int index) {
+        final Keyframe kf = keyframes.remove(index);
+        residentBytes -= kf.residentBytes();
+        deleteSpillFile(kf);
+        keyframesDropped++;
+    }
+
+    // Layout: i32 magic, i64 session, i64 id, i32 featureCount, featureCount * 2 i16 keypoints,
+    // featureCount * DESCRIPTOR_LONGS i64 descriptors, THUMB_PIXELS thumbnail bytes
+    private boolean spill(Keyframe kf) {
+        final File file = new File(spillDirectory, spillFilePrefix() + kf.id + ".bin");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(SPILL_MAGIC);
+            out.writeLong(session);
+            out.writeLong(kf.id);
+            out.writeInt(kf.featureCount);
+            for (short v : kf.keypoints) out.writeShort(v);
+            for (long v : kf.descriptors) out.writeLong(v);
+            out.write(kf.thumbnail);
+        } catch (IOException e) {
+            file.delete();
+            return false;
+        }
+        residentBytes -= kf.residentBytes();
+        kf.spillFile = file;
+        kf.thumbnail = null;
+        kf.keypoints = null;
+        kf.descriptors = null;
+        return true;
+    }
+
+    private String spillFilePrefix() {
+        return SPILL_PREFIX + Long.toHexString(session) + "-";
+    }
+
+    // Corners and descriptors of spilled keyframe kf into the query's spilledKeypoints / spilledDescriptors,
+    // read in one go into the query's buffer (no stream buffers per file). Outside the lock: a keyframe dropped
+    // meanwhile has lost its file, which reads as a failure.
+    private boolean readSpilledFeatures(Keyframe kf, File file, Query query) {
+        final int length = SPILL_HEADER_BYTES + kf.featureCount * SPILL_FEATURE_BYTES;
+        try (FileInputStream in = new FileInputStream(file)) {
+            for (int read = 0; read < length; ) {
+                final int n = in.read(query.spillBytes, read, length - read);
+                if (n < 0) throw new EOFException("Truncated keyframe spill file.");
+                read += n;
+            }
+        } catch (IOException e) {
+            countSpillReadFailure();
+            return false;
+        }
+        final ByteBuffer in = query.spillBuffer;
+        in.clear();
+        if (in.getInt() != SPILL_MAGIC || in.getLong() != session || in.getLong() != kf.id
+                || in.getInt() != kf.featureCount) {
+            countSpillReadFailure();
+            return false;
+        }
+        for (int i = 0; i < kf.featureCount * 2; i++) query.spilledKeypoints[i] = in.getShort();
+        for (int i = 0; i < kf.featureCount * DESCRIPTOR_LONGS; i++) query.spilledDescriptors[i] = in.getLong();
+        return true;
+    }
+
+    private synchronized void countSpillReadFailure() {
+        spillReadFailures++;
+    }
+
+    private static void skipFully(DataInputStream in, int bytes) throws IOException {
+        while (bytes > 0) {
+            final int skipped = in.skipBytes(bytes);
+            if (skipped <= 0) throw new EOFException("Truncated keyframe spill file.");
+            bytes -= skipped;
+        }
+    }
+
+    private static void deleteSpillFile(Keyframe kf) {
+        if (kf.spillFile != null) kf.spillFile.delete();
+    }
+
+    // --- Features ---
+
+    // Thumbnail, global descriptor, corners and descriptors of one image into the scratch arrays.
+    // Returns the number of features.
+    private int extract(ByteBuffer yPlane, int rowStride, int pixelStride, int width, int height) {
+        if (width < THUMB_WIDTH || height < THUMB_HEIGHT) {
+            throw new IllegalArgumentException("Invalid keyframe image: " + width + "x" + height);
+        }
+        downscale(yPlane, rowStride, pixelStride, width, height);
+        computeGlobal();
+        smooth();
+        final int count = detectCorners();
+        for (int i = 0; i < count; i++) {
+            describe(queryKeypoints[2 * i], queryKeypoints[2 * i + 1], queryDescriptors, i * DESCRIPTOR_LONGS);
+        }
+        return count;
+    }
+
+    // Box average of step x step source pixels per thumbnail pixel, centre crop to the thumbnail aspect
+    private void downscale(ByteBuffer y, int rowStride, int pixelStride, int width, int height) {
+        final int step = Math.min(width / THUMB_WIDTH, height / THUMB_HEIGHT);
+        final int x0 = (width - step * THUMB_WIDTH) / 2, y0 = (height - step * THUMB_HEIGHT) / 2;
+        final int base = y.position();
+        final int area = step * step;
+        for (int ty = 0; ty < THUMB_HEIGHT; ty++) {
+            for (int tx = 0; tx < THUMB_WIDTH; tx++) {
+                int sum = 0;
+                for (int sy = 0; sy < step; sy++) {
+                    int offset = base + (y0 + ty * step + sy) * rowStride + (x0 + tx * step) * pixelStride;
+                    for (int sx = 0; sx < step; sx++, offset += pixelStride) sum += y.get(offset) & 0xFF;
+                }
+                thumbnail[ty * THUMB_WIDTH + tx] = (byte) (sum / area);
+            }
+        }
+    }
+
+    private void computeGlobal() {
+        float mean = 0;
+        for (int gy = 0; gy < GLOBAL_HEIGHT; gy++) {
+            for (int gx = 0; gx < GLOBAL_WIDTH; gx++) {
+                int sum = 0;
+                for (int y = gy * GLOBAL_BLOCK; y < (gy + 1) * GLOBAL_BLOCK; y++) {
+                    for (int x = gx * GLOBAL_BLOCK; x < (gx + 1) * GLOBAL_BLOCK; x++) sum += thumbnail[y * THUMB_WIDTH + x] & 0xFF;
+                }
+                final float v = sum / (float) (GLOBAL_BLOCK * GLOBAL_BLOCK);
+                queryGlobal[gy * GLOBAL_WIDTH + gx] = v;
+                mean += v;
+            }
+        }
+        mean /= queryGlobal.length;
+        float norm = 0;
+        for (int i = 0; i < queryGlobal.length; i++) {
+            queryGlobal[i] -= mean;
+            norm += queryGlobal[i] * queryGlobal[i];
+        }
+        final float scale = norm > 0 ? 1f / (float) Math.sqrt(norm) : 0f;
+        for (int i = 0; i < queryGlobal.length; i++) queryGlobal[i] *= scale;
+    }
+
+    // 5 x 5 box sum of the thumbnail (separable), for the BRIEF tests
+    private void smooth() {
+        for (int y = 0; y < THUMB_HEIGHT; y++) {
+            final int row = y * THUMB_WIDTH;
+            for (int x = 2; x < THUMB_WIDTH - 2; x++) {
+                int sum = 0;
+                for (int d = -2; d <= 2; d++) sum += thumbnail[row + x + d] & 0xFF;
+                rowSums[row + x] = sum;
+            }
+        }
+        for (int y = 2; y < THUMB_HEIGHT - 2; y++) {
+            for (int x = 2; x < THUMB_WIDTH - 2; x++) {
+                int sum = 0;
+                for (int d = -2; d <= 2; d++) sum += rowSums[(y + d) * THUMB_WIDTH + x];
+                smoothed[y * THUMB_WIDTH + x] = sum;
+            }
+        }
+    }
+
+    // FAST-9 with a sum-of-differences score, 3 x 3 non-maximum suppression, strongest MAX_FEATURES kept
+    private int detectCorners() {
+        Arrays.fill(scores, 0);
+        for (int y = BORDER; y < THUMB_HEIGHT - BORDER; y++) {
+            for (int x = BORDER; x < THUMB_WIDTH - BORDER; x++) {
+                final int p = thumbnail[y * THUMB_WIDTH + x] & 0xFF;
+                int brighter = 0, darker = 0, score = 0;
+                for (int i = 0; i < 16; i++) {
+                    final int v = thumbnail[(y + CIRCLE_Y[i]) * THUMB_WIDTH + x + CIRCLE_X[i]] & 0xFF;
+                    if (v > p + FAST_THRESHOLD) {
+                        brighter |= 1 << i;
+                        score += v - p - FAST_THRESHOLD;
+                    } else if (v < p - FAST_THRESHOLD) {
+                        darker |= 1 << i;
+                        score += p - v - FAST_THRESHOLD;
+                    }
+                }
+                if (hasArc(brighter) || hasArc(darker)) scores[y * THUMB_WIDTH + x] = score;
+            }
+        }
+        int count = 0;
+        for (int y = BORDER; y < THUMB_HEIGHT - BORDER; y++) {
+            for (int x = BORDER; x < THUMB_WIDTH - BORDER; x++) {
+                final int i = y * THUMB_WIDTH + x;
+                final int s = scores[i];
+                if (s == 0) continue;
+                if (s < scores[i - 1] || s <= scores[i + 1]
+                        || s < scores[i - THUMB_WIDTH - 1] || s < scores[i - THUMB_WIDTH] || s < scores[i - THUMB_WIDTH + 1]
+                        || s <= scores[i + THUMB_WIDTH - 1] || s <= scores[i + THUMB_WIDTH] || s <= scores[i + THUMB_WIDTH + 1]) {
+                    continue;
+                }
+                if (count == corners.length) corners = Arrays.copyOf(corners, count * 2);
+                corners[count++] = ((long) s << 32) | i;
+            }
+        }
+        Arrays.sort(corners, 0, count);
+        final int kept = Math.min(count, MAX_FEATURES);
+        for (int k = 0; k < kept; k++) {
+            final int i = (int) corners[count - 1 - k];
+            queryKeypoints[2 * k] = (short) (i % THUMB_WIDTH);
+            queryKeypoints[2 * k + 1] = (short) (i / THUMB_WIDTH);
+        }
+        return kept;
+    }
+
+    // 9 or more contiguous set bits in a 16-bit circular mask
+    private static boolean hasArc(int mask) {
+        if (Integer.bitCount(mask) < 9) return false;
+        final int doubled = mask | (mask << 16);
+        int run = doubled;
+        for (int k = 1; k < 9; k++) run &= doubled >>> k;
+        return run != 0;
+    }
+
+    private void describe(int x, int y, long[] out, int offset) {
+        final int centre = y * THUMB_WIDTH + x;
+        for (int w = 0; w < DESCRIPTOR_LONGS; w++) {
+            long bits = 0;
+            for (int b = 0; b < 64; b++) {
+                final int p = (w * 64 + b) * 4;
+                final int a = smoothed[centre + PAIRS[p + 1] * THUMB_WIDTH + PAIRS[p]];
+                final int c = smoothed[centre + PAIRS[p + 3] * THUMB_WIDTH + PAIRS[p + 2]];
+                if (a < c) bits |= 1L << b;
+            }
+            out[offset + w] = bits;
+        }
+    }
+
+    // Query features whose nearest stored descriptor is close and clearly closer than the second nearest,
+    // counted only if their displacement agrees with the majority
+    private static int countMatches(Query query, short[] storedKeypoints, long[] stored, int storedCount) {
+        final int[] votes = query.votes;
+        final short[] queryKeypoints = query.keypoints;
+        final long[] queryDescriptors = query.descriptors;
+        Arrays.fill(votes, 0);
+        for (int q = 0; q < query.featureCount; q++) {
+            final int qo = q * DESCRIPTOR_LONGS;
+            final long q0 = queryDescriptors[qo], q1 = queryDescriptors[qo + 1];
+            final long q2 = queryDescriptors[qo + 2], q3 = queryDescriptors[qo + 3];
+            int best = Integer.MAX_VALUE, second = Integer.MAX_VALUE, bestIndex = -1;
+            for (int s = 0, so = 0; s < storedCount; s++, so += DESCRIPTOR_LONGS) {
+                final int d = Long.bitCount(q0 ^ stored[so]) + Long.bitCount(q1 ^ stored[so + 1])
+                        + Long.bitCount(q2 ^ stored[so + 2]) + Long.bitCount(q3 ^ stored[so + 3]);
+                if (d < best) {
+                    second = best;
+                    best = d;
+                    bestIndex = s;
+                } else if (d < second) {
+                    second = d;
+                }
+            }
+            if (best > MAX_HAMMING || best >= RATIO * second) continue;
+            final int dx = queryKeypoints[2 * q] - storedKeypoints[2 * bestIndex];
+            final int dy = queryKeypoints[2 * q + 1] - storedKeypoints[2 * bestIndex + 1];
+            final int column = (dx + THUMB_WIDTH + VOTE_BIN / 2) / VOTE_BIN;
+            final int row = (dy + THUMB_HEIGHT + VOTE_BIN / 2) / VOTE_BIN;
+            votes[row * VOTE_COLUMNS + column]++;
+        }
+        // Peak of the 3 x 3 bin sums (a displacement near a bin edge splits its votes)
+        int peak = 0;
+        for (int row = 0; row < VOTE_ROWS; row++) {
+            for (int column = 0; column < VOTE_COLUMNS; column++) {
+                if (votes[row * VOTE_COLUMNS + column] == 0) continue;
+                int sum = 0;
+                for (int r = Math.max(0, row - 1); r <= Math.min(VOTE_ROWS - 1, row + 1); r++) {
+                    for (int c = Math.max(0, column - 1); c <= Math.min(VOTE_COLUMNS - 1, column + 1); c++) {
+                        sum += votes[r * VOTE_COLUMNS + c];
+                    }
+                }
+                if (sum > peak) peak = sum;
+            }
+        }
+        return peak;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) sum += a[i] * b[i];
+        return sum;
+    }
+
+    // Float bits made to order like the values when compared as signed ints
+    private static int sortableBits(float v) {
+        final int bits = Float.floatToIntBits(v);
+        return bits >= 0 ? bits : bits ^ 0x7FFFFFFF;
+    }
+
+    // Angle between two unit quaternions (qx, qy, qz, qw)
+    static float rotationAngle(float[] a, float[] b) {
+        final float dot = Math.abs(a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3]);
+        return 2f * (float) Math.acos(Math.min(1f, dot));
+    }
+
+    public synchronized int getKeyframeCount() { return keyframes.size(); }
+    public synchronized long getResidentBytes() { return residentBytes; }
+
+    // Copy of the thumbnail of keyframe id (THUMB_WIDTH x THUMB_HEIGHT, row-major), read back from the spill
+    // file if needed; null if the keyframe is gone
+    public synchronized byte[] getThumbnail(long id) {
+        for (Keyframe kf : keyframes) {
+            if (kf.id != id) continue;
+            if (kf.thumbnail != null) return kf.thumbnail.clone();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(kf.spillFile)))) {
+                skipFully(in, SPILL_HEADER_BYTES + kf.featureCount * SPILL_FEATURE_BYTES);
+                final byte[] pixels = new byte[THUMB_PIXELS];
+                in.readFully(pixels);
+                return pixels;
+            } catch (IOException e) {
+                spillReadFailures++;
+                return null;
+            }
+        }
+        return null;
+    }
+
+    // --- Counters ---
+    public synchronized long getKeyframesAdded() { return keyframesAdded; }
+    public synchronized long getKeyframesSpilled() { return keyframesSpilled; }
+    public synchronized long getKeyframesDropped() { return keyframesDropped; }
+    public synchronized long getSpillReadFailures() { return spillReadFailures; }
+    public synchronized long getStaleSpillFilesDeleted() { return staleSpillFilesDeleted; }
+}
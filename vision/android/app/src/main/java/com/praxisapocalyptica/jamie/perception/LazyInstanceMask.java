@@ -0,0 +1,222 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Pure Java (no Android imports) so it can be benchmarked on a plain JVM with synthetic prototypes.
+
+import java.nio.FloatBuffer;
+
+// Lazy YOLOv8-seg instance mask.
+// A YOLOv8-seg mask is sigmoid(coefficients . prototypes), with prototypes of e.g. 32 x 160 x 160.
+// Instead of materialising a full-resolution mask for every detection, this handle:
+//   - only evaluates the coefficient/prototype product inside the detection's box, at prototype resolution,
+//     the first time somebody asks for mask data (cost O(box area) instead of O(160 x 160));
+//   - only upsamples to camera resolution when a consumer explicitly calls upsample().
+// Prototypes live in a pooled TensorPool slot, so the product must be evaluated (any accessor, or resolve())
+// before that slot is recycled - normally that means inside VisionListener.onObjectsDetected. resolve() pins
+// the slot while it reads, so a late resolve on another thread either fails cleanly or reads this frame's
+// prototypes, never those of a frame inferred into the slot halfway through.
+public class LazyInstanceMask {
+
+    // Prototype tensor of one frame plus the letterbox that maps camera pixels into model input pixels
+    public static class Prototypes {
+        final FloatBuffer buffer;
+        final int protoWidth;
+        final int protoHeight;
+        final int numCoefficients;
+        final int channelStride; // Distance between coefficient channels
+        final int pixelStride;   // Distance between neighbouring prototype pixels
+        final float protoScaleX; // Model input pixels -> prototype pixels
+        final float protoScaleY;
+        final float letterboxScale;
+        final float padX;
+        final float padY;
+        final TensorPool.Slot slot; // Owner of buffer, checked for recycling
+        final long generation;
+
+        // channelsLast = true for [1, H, W, C] exports (TFLite default), false for [1, C, H, W]
+        public Prototypes(FloatBuffer buffer, int protoWidth, int protoHeight, int numCoefficients, boolean channelsLast,
+                          int inputWidth, int inputHeight, float letterboxScale, float padX, float padY,
+                          TensorPool.Slot slot) {
+            this.buffer = buffer;
+            this.protoWidth = protoWidth;
+            this.protoHeight = protoHeight;
+            this.numCoefficients = numCoefficients;
+            this.channelStride = channelsLast ? 1 : protoWidth * protoHeight;
+            this.pixelStride = channelsLast ? numCoefficients : 1;
+            this.protoScaleX = protoWidth / (float) inputWidth;
+            this.protoScaleY = protoHeight / (float) inputHeight;
+            this.letterboxScale = letterboxScale;
+            this.padX = padX;
+            this.padY = padY;
+            this.slot = slot;
+            this.generation = slot != null ? slot.getGeneration() : 0;
+        }
+    }
+
+    private Prototypes prototypes; // Dropped once the ROI has been evaluated
+    private final float[] coefficients;
+
+    // Detection box in camera image pixels
+    private final float left, top, right, bottom;
+
+    // Region of interest in prototype pixels [roiX0, roiX1) x [roiY0, roiY1)
+    private final int roiX0, roiY0, roiX1, roiY1;
+    private float[] roiLogits; // null until evaluated
+
+    // Mapping camera pixels -> prototype pixels (copied so upsampling works after prototypes are dropped)
+    private final float srcToProtoScaleX, srcToProtoScaleY, srcToProtoOffsetX, srcToProtoOffsetY;
+
+    public LazyInstanceMask(Prototypes prototypes, float[] coefficients,
+                            float left, float top, float right, float bottom) {
+        this.prototypes = prototypes;
+        this.coefficients = coefficients.clone();
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+
+        // camera px -> model px: x * letterboxScale + pad; model px -> proto px: * protoScale
+        srcToProtoScaleX = prototypes.letterboxScale * prototypes.protoScaleX;
+        srcToProtoScaleY = prototypes.letterboxScale * prototypes.protoScaleY;
+        srcToProtoOffsetX = prototypes.padX * prototypes.protoScaleX;
+        srcToProtoOffsetY = prototypes.padY * prototypes.protoScaleY;
+
+        roiX0 = clamp((int) Math.floor(left * srcToProtoScaleX + srcToProtoOffsetX), prototypes.protoWidth);
+        roiY0 = clamp((int) Math.floor(top * srcToProtoScaleY + srcToProtoOffsetY), prototypes.protoHeight);
+        roiX1 = Math.max(roiX0, clamp((int) Math.ceil(right * srcToProtoScaleX + srcToProtoOffsetX), prototypes.protoWidth));
+        roiY1 = Math.max(roiY0, clamp((int) Math.ceil(bottom * srcToProtoScaleY + srcToProtoOffsetY), prototypes.protoHeight));
+    }
+
+    // Evaluates coefficients . prototypes inside the ROI now, so the mask no longer depends on the pooled tensor
+    public synchronized void resolve() {
+        if (roiLogits != null) return;
+        final Prototypes p = prototypes;
+        if (p.slot != null && !p.slot.pin(p.generation)) {
+            throw new IllegalStateException("Mask prototypes were recycled before the mask was resolved.");
+        }
+        try {
+            roiLogits = evaluate(p);
+        } finally {
+            if (p.slot != null) p.slot.unpin();
+        }
+        prototypes = null; // Don't keep the frame's prototype buffer reachable any longer
+    }
+
+    private float[] evaluate(Prototypes p) {
+        final int roiWidth = roiX1 - roiX0;
+        final int roiHeight = roiY1 - roiY0;
+        final float[] logits = new float[roiWidth * roiHeight];
+        final int base = p.buffer.position();
+        final int m = p.numCoefficients;
+        int i = 0;
+        for (int py = roiY0; py < roiY1; py++) {
+            int pixel = base + (py * p.protoWidth + roiX0) * p.pixelStride;
+            for (int px = roiX0; px < roiX1; px++, pixel += p.pixelStride) {
+                float acc = 0f;
+                int channel = pixel;
+                for (int c = 0; c < m; c++, channel += p.channelStride) {
+                    acc += coefficients[c] * p.buffer.get(channel);
+                }
+                logits[i++] = acc;
+            }
+        }
+        return logits;
+    }
+
+    // Mask probability at a camera pixel, bilinearly interpolated from the prototype-resolution ROI.
+    // Pixels outside the detection box are always 0.
+    public float probabilityAt(float x, float y) {
+        if (x < left || x >= right || y < top || y >= bottom) return 0f;
+        resolve();
+        return sigmoid(sampleLogit(x, y));
+    }
+
+    // Same test as probabilityAt(x, y) > probabilityThreshold, without the exp() per pixel: compare against
+    // logit(probabilityThreshold) (0 for 0.5). For per-pixel loops such as depth lifting.
+    public boolean isInside(float x, float y, float logitThreshold) {
+        if (x < left || x >= right || y < top || y >= bottom) return false;
+        resolve();
+        return sampleLogit(x, y) > logitThreshold;
+    }
+
+    // Upsamples the mask to camera resolution over the detection box only.
+    // Returns a byte-per-pixel mask (1 = object) of getBoxWidth() x getBoxHeight(), row-major,
+    // whose (0, 0) is camera pixel (getBoxLeft(), getBoxTop()). Allocates; call only when needed.
+    public byte[] upsample(float probabilityThreshold) {
+        resolve();
+        final int x0 = getBoxLeft(), y0 = getBoxTop();
+        final int w = getBoxWidth(), h = getBoxHeight();
+        final byte[] out = new byte[w * h];
+        // sigmoid(l) > t  <=>  l > logit(t)
+        final float logitThreshold = (float) Math.log(probabilityThreshold / (1.0 - probabilityThreshold));
+        int i = 0;
+        for (int y = 0; y < h; y++) {
+            final float sy = y0 + y + 0.5f;
+            for (int x = 0; x < w; x++) {
+                out[i++] = sampleLogit(x0 + x + 0.5f, sy) > logitThreshold ? (byte) 1 : (byte) 0;
+            }
+        }
+        return out;
+    }
+
+    // Same as upsample(), but packed straight into a BinaryMask (1 bit per pixel, no byte buffer in between)
+    public BinaryMask toBinaryMask(float probabilityThreshold) {
+        resolve();
+        final int x0 = getBoxLeft(), y0 = getBoxTop();
+        final int w = getBoxWidth(), h = getBoxHeight();
+        final BinaryMask out = new BinaryMask(x0, y0, w, h);
+        final float logitThreshold = (float) Math.log(probabilityThreshold / (1.0 - probabilityThreshold));
+        for (int y = 0; y < h; y++) {
+            final float sy = y0 + y + 0.5f;
+            for (int x = 0; x < w; x++) {
+                if (sampleLogit(x0 + x + 0.5f, sy) > logitThreshold) out.set(x, y, true);
+            }
+        }
+        return out;
+    }
+
+    private float sampleLogit(float x, float y) {
+        final int roiWidth = roiX1 - roiX0;
+        final int roiHeight = roiY1 - roiY0;
+        if (roiWidth == 0 || roiHeight == 0) return Float.NEGATIVE_INFINITY;
+        // Prototype pixel centres sit at +0.5
+        float px = x * srcToProtoScaleX + srcToProtoOffsetX - 0.5f - roiX0;
+        float py = y * srcToProtoScaleY + srcToProtoOffsetY - 0.5f - roiY0;
+        px = px < 0 ? 0 : (px > roiWidth - 1 ? roiWidth - 1 : px);
+        py = py < 0 ? 0 : (py > roiHeight - 1 ? roiHeight - 1 : py);
+        final int ix = (int) px, iy = (int) py;
+        final int ix1 = Math.min(ix + 1, roiWidth - 1), iy1 = Math.min(iy + 1, roiHeight - 1);
+        final float fx = px - ix, fy = py - iy;
+        final float[] l = roiLogits;
+        final float upper = l[iy * roiWidth + ix] * (1 - fx) + l[iy * roiWidth + ix1] * fx;
+        final float lower = l[iy1 * roiWidth + ix] * (1 - fx) + l[iy1 * roiWidth + ix1] * fx;
+        return upper * (1 - fy) + lower * fy;
+    }
+
+    private static float sigmoid(float v) {
+        return (float) (1.0 / (1.0 + Math.exp(-v)));
+    }
+
+    private static int clamp(int v, int max) {
+        return v < 0 ? 0 : (v > max ? max : v);
+    }
+
+    // --- Prototype-resolution ROI (evaluated on first access) ---
+    public int getRoiLeft() { return roiX0; }
+    public int getRoiTop() { return roiY0; }
+    public int getRoiWidth() { return roiX1 - roiX0; }
+    public int getRoiHeight() { return roiY1 - roiY0; }
+    public float[] getRoiLogits() { resolve(); return roiLogits; }
+    public boolean isResolved() { return roiLogits != null; }
+
+    // --- Detection box the mask was evaluated for (camera pixels, as measured, before tracker smoothing) ---
+    public float getLeft() { return left; }
+    public float getTop() { return top; }
+    public float getRight() { return right; }
+    public float getBottom() { return bottom; }
+
+    // --- Camera-resolution box covered by upsample() ---
+    public int getBoxLeft() { return (int) Math.floor(left); }
+    public int getBoxTop() { return (int) Math.floor(top); }
+    public int getBoxWidth() { return Math.max(0, (int) Math.ceil(right) - getBoxLeft()); }
+    public int getBoxHeight() { return Math.max(0, (int) Math.ceil(bottom) - getBoxTop()); }
+}
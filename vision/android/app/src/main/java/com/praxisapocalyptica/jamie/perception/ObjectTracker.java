@@ -0,0 +1,399 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Pure Java (no Android imports) so it can be replayed and benchmarked on a plain JVM.
+
+import java.util.Arrays;
+import java.util.List;
+
+// Multi-object tracker between post-processing and the listener: gives each DetectedObject a persistent
+// trackId, smooths its box and 3D position and reports how long it has been tracked (trackAge).
+//
+// Association is ByteTrack-style, in two rounds per frame, class-aware:
+//   1. Detections with confidence >= highThreshold against every track, by IoU with the track's predicted box.
+//   2. Remaining detections between lowThreshold and highThreshold against the confirmed tracks still
+//      unmatched - a partly occluded object keeps its id instead of being dropped and re-born.
+// Each round is a greedy assignment over candidate pairs sorted by IoU (highest first), which matches the
+// Hungarian result whenever boxes don't overlap ambiguously and costs O(n log n) instead of O(n^3).
+// Unmatched high-confidence detections start tentative tracks that become confirmed after minHits frames
+// (only confirmed tracks stamp ids); confirmed tracks coast on their prediction for up to maxMisses frames.
+//
+// Every track runs a constant-velocity Kalman filter per axis (box centre x/y, width, height, and the object's
+// world x/y/z when a pose is present): state [position, velocity], 2x2 covariance, white-acceleration noise.
+// The smoothed box replaces the measured one, but the mask stays where the model saw the object (it keeps
+// the measured box, see LazyInstanceMask.getLeft()); alignPolygonToBox() maps a polygon traced from the mask
+// onto the smoothed box so the outline and the box sent together agree.
+//
+// All state lives in primitive arrays sized for maxTracks and maxDetections at construction; update() does not
+// allocate. Not thread safe.
+public class ObjectTracker {
+
+    public static final int DEFAULT_MAX_TRACKS = 256;
+    public static final float DEFAULT_HIGH_THRESHOLD = 0.5f;
+    public static final float DEFAULT_LOW_THRESHOLD = 0.1f;
+    public static final float DEFAULT_MATCH_IOU = 0.3f;
+    public static final int DEFAULT_MIN_HITS = 3;
+    public static final int DEFAULT_MAX_MISSES = 30; // About 1 s at 30 fps
+
+    // Filter axes: box centre x, y, width, height (camera pixels), world x, y, z (metres)
+    private static final int AXES = 7;
+    private static final int AXIS_POSE = 4;
+    private static final int STATE = 5; // position, velocity, P00, P01, P11
+    private static final float BOX_MEASUREMENT_VAR = 4f;        // (2 px)^2
+    private static final float BOX_ACCEL_VAR = 250000f;         // (500 px/s^2)^2, camera pans move boxes fast
+    private static final float POSE_MEASUREMENT_VAR = 0.0004f;  // (2 cm)^2
+    private static final float POSE_ACCEL_VAR = 0.25f;          // (0.5 m/s^2)^2
+    private static final float INITIAL_VELOCITY_VAR = 1e4f;     // Unknown velocity at birth
+    private static final float DEFAULT_DT = 1f / 30f;           // First frame, or timestamps out of order
+
+    private final int maxTracks;
+    private final int maxDetections;
+    private final float highThreshold;
+    private final float lowThreshold;
+    private final float matchIou;
+    private final int minHits;
+    private final int maxMisses;
+
+    // --- Tracks, compact in [0, trackCount) ---
+    private int trackCount = 0;
+    private final int[] trackIds;
+    private final String[] trackClasses;
+    private final int[] ages;          // Frames since birth
+    private final int[] hits;          // Frames with a matched detection
+    private final int[] misses;        // Consecutive frames without one
+    private final boolean[] confirmed;
+    private final boolean[] hasPose;
+    private final float[] lastConfidence;
+    private final float[] filters;     // [track][axis][STATE]
+    private final float[] predicted;   // [track][x1, y1, x2, y2, area] predicted box for this frame
+    private int nextTrackId = 1;
+    private long lastTimestampNs = Long.MIN_VALUE;
+
+    // --- Per-frame scratch ---
+    private final int[] detectionTrack;   // Matched track per detection, -1 if none
+    private final int[] trackDetection;   // Matched detection per track, -1 if none
+    private final long[] pairKeys;        // (IoU bits << 32 | track << 16 | detection), sorted descending
+
+    // --- Counters ---
+    private long framesProcessed = 0;
+    private long tracksCreated = 0;
+    private long tracksDeleted = 0;
+
+    public ObjectTracker(int maxDetections) {
+        this(DEFAULT_MAX_TRACKS, maxDetections, DEFAULT_HIGH_THRESHOLD, DEFAULT_LOW_THRESHOLD, DEFAULT_MATCH_IOU,
+                DEFAULT_MIN_HITS, DEFAULT_MAX_MISSES);
+    }
+
+    public ObjectTracker(int maxTracks, int maxDetections, float highThreshold, float lowThreshold,
+                         float matchIou, int minHits, int maxMisses) {
+        if (maxTracks <= 0 || maxTracks > 0xFFFF || maxDetections <= 0 || maxDetections > 0xFFFF
+                || lowThreshold > highThreshold || matchIou <= 0 || minHits < 1 || maxMisses < 0) {
+            throw new IllegalArgumentException("Invalid tracker configuration: tracks=" + maxTracks
+                    + " detections=" + maxDetections + " thresholds=" + lowThreshold + ".." + highThreshold
+                    + " iou=" + matchIou + " minHits=" + minHits + " maxMisses=" + maxMisses);
+        }
+        this.maxTracks = maxTracks;
+        this.maxDetections = maxDetections;
+        this.highThreshold = highThreshold;
+        this.lowThreshold = lowThreshold;
+        this.matchIou = matchIou;
+        this.minHits = minHits;
+        this.maxMisses = maxMisses;
+
+        trackIds = new int[maxTracks];
+        trackClasses = new String[maxTracks];
+        ages = new int[maxTracks];
+        hits = new int[maxTracks];
+        misses = new int[maxTracks];
+        confirmed = new boolean[maxTracks];
+        hasPose = new boolean[maxTracks];
+        lastConfidence = new float[maxTracks];
+        filters = new float[maxTracks * AXES * STATE];
+        predicted = new float[maxTracks * 5];
+
+        detectionTrack = new int[maxDetections];
+        trackDetection = new int[maxTracks];
+        pairKeys = new long[maxTracks * maxDetections];
+    }
+
+    // Associates this frame's detections with the tracks. Each detection in a confirmed track gets its trackId
+    // and trackAge set and its box / position replaced by the filtered estimate; the others keep trackId -1.
+    // Detections beyond maxDetections are left untouched. Returns the number of confirmed tracks.
+    public int update(List<DetectedObject> detections, long timestampNs) {
+        final float dt = lastTimestampNs == Long.MIN_VALUE || timestampNs <= lastTimestampNs
+                ? DEFAULT_DT : (timestampNs - lastTimestampNs) * 1e-9f;
+        lastTimestampNs = timestampNs;
+        final int n = Math.min(detections.size(), maxDetections);
+
+        for (int t = 0; t < trackCount; t++) {
+            predict(t, dt);
+            trackDetection[t] = -1;
+        }
+        Arrays.fill(detectionTrack, 0, n, -1);
+
+        // Round 1: confident detections against all tracks; round 2: weak ones against confirmed leftovers
+        associate(detections, n, highThreshold, Float.MAX_VALUE, false);
+        associate(detections, n, lowThreshold, highThreshold, true);
+
+        // Matched tracks: correct the filters and write the smoothed estimate back
+        for (int d = 0; d < n; d++) {
+            final int t = detectionTrack[d];
+            if (t < 0) continue;
+            final DetectedObject obj = detections.get(d);
+            correct(t, obj);
+            hits[t]++;
+            misses[t] = 0;
+            lastConfidence[t] = obj.confidence;
+            if (!confirmed[t] && hits[t] >= minHits) confirmed[t] = true;
+            if (confirmed[t]) stamp(t, obj);
+        }
+
+        // Unmatched tracks coast or die (a tentative track dies at its first miss)
+        for (int t = trackCount - 1; t >= 0; t--) {
+            if (trackDetection[t] >= 0) continue;
+            misses[t]++;
+            if (!confirmed[t] || misses[t] > maxMisses) removeTrack(t);
+        }
+
+        // Unmatched confident detections start tentative tracks
+        for (int d = 0; d < n; d++) {
+            final DetectedObject obj = detections.get(d);
+            if (detectionTrack[d] >= 0 || obj.confidence < highThreshold) continue;
+            if (trackCount == maxTracks) break;
+            final int t = createTrack(obj);
+            if (confirmed[t]) stamp(t, obj);
+        }
+
+        for (int t = 0; t < trackCount; t++) ages[t]++;
+        framesProcessed++;
+        return getConfirmedCount();
+    }
+
+    // Greedy IoU assignment of detections with confidence in [minConfidence, maxConfidence) to unmatched tracks
+    private void associate(List<DetectedObject> detections, int n, float minConfidence, float maxConfidence,
+                           boolean confirmedOnly) {
+        int pairs = 0;
+        for (int d = 0; d < n; d++) {
+            final DetectedObject obj = detections.get(d);
+            if (detectionTrack[d] >= 0 || obj.confidence < minConfidence || obj.confidence >= maxConfidence) continue;
+            final float area = (obj.boundingBoxRight - obj.boundingBoxLeft) * (obj.boundingBoxBottom - obj.boundingBoxTop);
+            for (int t = 0; t < trackCount; t++) {
+                if (trackDetection[t] >= 0 || (confirmedOnly && !confirmed[t])) continue;
+                if (!sameClass(trackClasses[t], obj.objectClass)) continue;
+                final float iou = iou(t, obj, area);
+                if (iou >= matchIou) {
+                    // IoU is positive, so its float bits sort like the value
+                    pairKeys[pairs++] = ((long) Float.floatToIntBits(iou) << 32) | ((long) t << 16) | d;
+                }
+            }
+        }
+        Arrays.sort(pairKeys, 0, pairs);
+        for (int i = pairs - 1; i >= 0; i--) {
+            final int t = (int) (pairKeys[i] >>> 16) & 0xFFFF;
+            final int d = (int) pairKeys[i] & 0xFFFF;
+            if (trackDetection[t] >= 0 || detectionTrack[d] >= 0) continue;
+            trackDetection[t] = d;
+            detectionTrack[d] = t;
+        }
+    }
+
+    private float iou(int t, DetectedObject obj, float area) {
+        final int p = t * 5;
+        final float w = Math.min(predicted[p + 2], obj.boundingBoxRight) - Math.max(predicted[p], obj.boundingBoxLeft);
+        final float h = Math.min(predicted[p + 3], obj.boundingBoxBottom) - Math.max(predicted[p + 1], obj.boundingBoxTop);
+        if (w <= 0 || h <= 0) return 0f;
+        final float inter = w * h;
+        return inter / (predicted[p + 4] + area - inter);
+    }
+
+    private static boolean sameClass(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    // --- Kalman filter (constant velocity, one independent filter per axis) ---
+
+    private void predict(int t, float dt) {
+        final float dt2 = dt * dt;
+        for (int axis = 0; axis < AXES; axis++) {
+            if (axis >= AXIS_POSE && !hasPose[t]) break;
+            final int s = (t * AXES + axis) * STATE;
+            final float q = axis >= AXIS_POSE ? POSE_ACCEL_VAR : BOX_ACCEL_VAR;
+            final float p01 = filters[s + 3], p11 = filters[s + 4];
+            filters[s] += filters[s + 1] * dt;
+            filters[s + 2] += dt * (2 * p01 + dt * p11) + q * dt2 * dt2 * 0.25f;
+            filters[s + 3] = p01 + dt * p11 + q * dt2 * dt * 0.5f;
+            filters[s + 4] = p11 + q * dt2;
+        }
+        final int b = t * AXES * STATE;
+        final float cx = filters[b], cy = filters[b + STATE];
+        final float w = Math.max(filters[b + 2 * STATE], 1f), h = Math.max(filters[b + 3 * STATE], 1f);
+        final int p = t * 5;
+        predicted[p] = cx - w * 0.5f;
+        predicted[p + 1] = cy - h * 0.5f;
+        predicted[p + 2] = cx + w * 0.5f;
+        predicted[p + 3] = cy + h * 0.5f;
+        predicted[p + 4] = w * h;
+    }
+
+    private void correct(int t, DetectedObject obj) {
+        correctAxis(t, 0, (obj.boundingBoxLeft + obj.boundingBoxRight) * 0.5f, BOX_MEASUREMENT_VAR);
+        correctAxis(t, 1, (obj.boundingBoxTop + obj.boundingBoxBottom) * 0.5f, BOX_MEASUREMENT_VAR);
+        correctAxis(t, 2, obj.boundingBoxRight - obj.boundingBoxLeft, BOX_MEASUREMENT_VAR);
+        correctAxis(t, 3, obj.boundingBoxBottom - obj.boundingBoxTop, BOX_MEASUREMENT_VAR);
+        if (!hasPose(obj)) return;
+        if (!hasPose[t]) {
+            // First pose for this track (e.g. depth became available): start the pose filters here
+            hasPose[t] = true;
+            initAxis(t, AXIS_POSE, obj.poseX, POSE_MEASUREMENT_VAR);
+            initAxis(t, AXIS_POSE + 1, obj.poseY, POSE_MEASUREMENT_VAR);
+            initAxis(t, AXIS_POSE + 2, obj.poseZ, POSE_MEASUREMENT_VAR);
+            return;
+        }
+        correctAxis(t, AXIS_POSE, obj.poseX, POSE_MEASUREMENT_VAR);
+        correctAxis(t, AXIS_POSE + 1, obj.poseY, POSE_MEASUREMENT_VAR);
+        correctAxis(t, AXIS_POSE + 2, obj.poseZ, POSE_MEASUREMENT_VAR);
+    }
+
+    private void correctAxis(int t, int axis, float z, float r) {
+        final int s = (t * AXES + axis) * STATE;
+        final float p00 = filters[s + 2], p01 = filters[s + 3];
+        final float k0 = p00 / (p00 + r), k1 = p01 / (p00 + r);
+        final float y = z - filters[s];
+        filters[s] += k0 * y;
+        filters[s + 1] += k1 * y;
+        filters[s + 2] = (1 - k0) * p00;
+        filters[s + 3] = (1 - k0) * p01;
+        filters[s + 4] -= k1 * p01;
+    }
+
+    private void initAxis(int t, int axis, float z, float r) {
+        final int s = (t * AXES + axis) * STATE;
+        filters[s] = z;
+        filters[s + 1] = 0f;
+        filters[s + 2] = r;
+        filters[s + 3] = 0f;
+        filters[s + 4] = INITIAL_VELOCITY_VAR;
+    }
+
+    // --- Track bookkeeping ---
+
+    private int createTrack(DetectedObject obj) {
+        final int t = trackCount++;
+        trackIds[t] = nextTrackId;
+        nextTrackId = nextTrackId == Integer.MAX_VALUE ? 1 : nextTrackId + 1;
+        trackClasses[t] = obj.objectClass;
+        ages[t] = 0;
+        hits[t] = 1;
+        misses[t] = 0;
+        confirmed[t] = minHits <= 1;
+        lastConfidence[t] = obj.confidence;
+        trackDetection[t] = -1;
+        initAxis(t, 0, (obj.boundingBoxLeft + obj.boundingBoxRight) * 0.5f, BOX_MEASUREMENT_VAR);
+        initAxis(t, 1, (obj.boundingBoxTop + obj.boundingBoxBottom) * 0.5f, BOX_MEASUREMENT_VAR);
+        initAxis(t, 2, obj.boundingBoxRight - obj.boundingBoxLeft, BOX_MEASUREMENT_VAR);
+        initAxis(t, 3, obj.boundingBoxBottom - obj.boundingBoxTop, BOX_MEASUREMENT_VAR);
+        hasPose[t] = hasPose(obj);
+        if (hasPose[t]) {
+            initAxis(t, AXIS_POSE, obj.poseX, POSE_MEASUREMENT_VAR);
+            initAxis(t, AXIS_POSE + 1, obj.poseY, POSE_MEASUREMENT_VAR);
+            initAxis(t, AXIS_POSE + 2, obj.poseZ, POSE_MEASUREMENT_VAR);
+        }
+        tracksCreated++;
+        return t;
+    }
+
+    // Moves the last track into slot t (order of tracks is not meaningful)
+    private void removeTrack(int t) {
+        final int last = --trackCount;
+        if (t != last) {
+            trackIds[t] = trackIds[last];
+            trackClasses[t] = trackClasses[last];
+            ages[t] = ages[last];
+            hits[t] = hits[last];
+            misses[t] = misses[last];
+            confirmed[t] = confirmed[last];
+            hasPose[t] = hasPose[last];
+            lastConfidence[t] = lastConfidence[last];
+            trackDetection[t] = trackDetection[last];
+            System.arraycopy(filters, last * AXES * STATE, filters, t * AXES * STATE, AXES * STATE);
+            System.arraycopy(predicted, last * 5, predicted, t * 5, 5);
+        }
+        trackClasses[last] = null;
+        tracksDeleted++;
+    }
+
+    // Writes the track's id, age and filtered box / position into the detection
+    private void stamp(int t, DetectedObject obj) {
+        obj.trackId = trackIds[t];
+        obj.trackAge = ages[t];
+        final int b = t * AXES * STATE;
+        final float cx = filters[b], cy = filters[b + STATE];
+        final float w = Math.max(filters[b + 2 * STATE], 1f), h = Math.max(filters[b + 3 * STATE], 1f);
+        obj.boundingBoxLeft = cx - w * 0.5f;
+        obj.boundingBoxTop = cy - h * 0.5f;
+        obj.boundingBoxRight = cx + w * 0.5f;
+        obj.boundingBoxBottom = cy + h * 0.5f;
+        if (hasPose[t] && hasPose(obj)) {
+            obj.poseX = filters[b + AXIS_POSE * STATE];
+            obj.poseY = filters[b + (AXIS_POSE + 1) * STATE];
+            obj.poseZ = filters[b + (AXIS_POSE + 2) * STATE];
+        }
+    }
+
+    // Maps obj.polygon (traced from obj.mask, so laid out in the mask's measured box) onto obj's current box:
+    // the identity for an untracked detection, a small shift and scale for a smoothed one.
+    public static void alignPolygonToBox(DetectedObject obj) {
+        final float[] polygon = obj.polygon;
+        final LazyInstanceMask mask = obj.mask;
+        if (polygon == null || mask == null) return;
+        final float maskWidth = mask.getRight() - mask.getLeft(), maskHeight = mask.getBottom() - mask.getTop();
+        if (maskWidth <= 0 || maskHeight <= 0) return;
+        final float sx = (obj.boundingBoxRight - obj.boundingBoxLeft) / maskWidth;
+        final float sy = (obj.boundingBoxBottom - obj.boundingBoxTop) / maskHeight;
+        for (int i = 0; i + 1 < polygon.length; i += 2) {
+            polygon[i] = obj.boundingBoxLeft + (polygon[i] - mask.getLeft()) * sx;
+            polygon[i + 1] = obj.boundingBoxTop + (polygon[i + 1] - mask.getTop()) * sy;
+        }
+    }
+
+    // DetectedObject leaves the quaternion all zero until a 3D pose has been estimated
+    private static boolean hasPose(DetectedObject obj) {
+        return obj.poseQx != 0 || obj.poseQy != 0 || obj.poseQz != 0 || obj.poseQw != 0;
+    }
+
+    public void reset() {
+        for (int t = 0; t < trackCount; t++) trackClasses[t] = null;
+        trackCount = 0;
+        lastTimestampNs = Long.MIN_VALUE;
+    }
+
+    // --- Track inspection (index in [0, getTrackCount()), valid until the next update) ---
+    public int getTrackCount() { return trackCount; }
+    public int getTrackId(int index) { return trackIds[index]; }
+    public String getTrackClass(int index) { return trackClasses[index]; }
+    public int getTrackAge(int index) { return ages[index]; }
+    public int getTrackMisses(int index) { return misses[index]; }
+    public boolean isTrackConfirmed(int index) { return confirmed[index]; }
+    public float getTrackConfidence(int index) { return lastConfidence[index]; }
+
+    // Filtered box of a track as left, top, right, bottom
+    public void getTrackBox(int index, float[] out) {
+        final int b = index * AXES * STATE;
+        final float cx = filters[b], cy = filters[b + STATE];
+        final float w = Math.max(filters[b + 2 * STATE], 1f), h = Math.max(filters[b + 3 * STATE], 1f);
+        out[0] = cx - w * 0.5f;
+        out[1] = cy - h * 0.5f;
+        out[2] = cx + w * 0.5f;
+        out[3] = cy + h * 0.5f;
+    }
+
+    public int getConfirmedCount() {
+        int confirmedCount = 0;
+        for (int t = 0; t < trackCount; t++) if (confirmed[t]) confirmedCount++;
+        return confirmedCount;
+    }
+
+    // --- Counters ---
+    public long getFramesProcessed() { return framesProcessed; }
+    public long getTracksCreated() { return tracksCreated; }
+    public long getTracksDeleted() { return tracksDeleted; }
+}
@@ -0,0 +1,408 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Pure Java (no Android imports) so synthetic scenes can be ray-cast into it on a plain JVM.
+
+import java.util.Arrays;
+
+// 2D occupancy grid for the brain's navigation, built on the phone from depth images and camera poses so only
+// map changes cross the Wi-Fi link, never raw depth.
+//
+// Grid plane is world x / z (ARCore: y up), resolution metres per cell. Cells hold log-odds as signed bytes
+// (LOG_ODDS_SCALE per unit, 0 = unknown, clamped to +-LOG_ODDS_CLAMP so the map can still change its mind).
+// Per integrate() call, every sampled depth pixel is unprojected into the world and classified by height:
+//   - inside the obstacle band (floor + minObstacleHeight .. floor + maxObstacleHeight): the cell is a hit,
+//     the cells between the camera and it are misses;
+//   - below the band (floor): the ray up to and including the cell is free;
+//   - above the band (ceiling, overhangs the robot passes under): ignored;
+//   - beyond maxRange: free up to maxRange, no hit.
+// A cell is updated at most once per call, a hit winning over misses, so dense rays don't over-count.
+//
+// Storage is chunked: TILE_SIZE x TILE_SIZE tiles are allocated on first touch (the map grows with what the
+// camera has seen), found through a linear-probing hash on a packed long tile key. Each tile also keeps the
+// cells as last drained, so drainDirty() can hand out changed tiles with their previous state for delta
+// coding. Not thread safe except drainDirty() / markAllDirty() / getters, which synchronize with integrate().
+public class OccupancyGrid {
+
+    public static final int TILE_SHIFT = 6;
+    public static final int TILE_SIZE = 1 << TILE_SHIFT; // Cells per tile side
+    private static final int TILE_CELLS = TILE_SIZE * TILE_SIZE;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+
+    public static final float LOG_ODDS_SCALE = 16f; // Cell value = log-odds * 16
+    private static final int LOG_ODDS_HIT = 14;     // log(0.7 / 0.3)
+    private static final int LOG_ODDS_MISS = -6;    // log(0.4 / 0.6)
+    private static final int LOG_ODDS_CLAMP = 56;   // p = 0.03 .. 0.97
+
+    private final float resolution;
+    private final float inverseResolution;
+
+    // Camera image intrinsics (pixels)
+    private float fx, fy, cx, cy;
+    private int imageWidth, imageHeight;
+    private boolean hasIntrinsics = false;
+
+    // Height band (world y)
+    private float floorY;
+    private float minObstacleHeight = 0.05f;
+    private float maxObstacleHeight = 1.0f;
+    private boolean hasFloor = false;
+    private float maxRange = 4f;
+    private int pixelStride = 2;
+
+    // Tiles, by dense index
+    private int tileCount = 0;
+    private long[] tileKeys = new long[16];
+    private byte[][] cells = new byte[16][];
+    private byte[][] sent = new byte[16][];     // Cells when last drained (all unknown before the first drain)
+    private int[][] stamps = new int[16][];     // integrate() call that last updated each cell (0 = none)
+    private boolean[] everSent = new boolean[16];
+    private boolean[] dirty = new boolean[16];
+    private int[] dirtyTiles = new int[16];     // FIFO ring of dirty tile indices
+    private int dirtyHead = 0;
+    private int dirtyCount = 0;
+
+    // Hash: table[slot] = tile index + 1, 0 = empty
+    private int[] table = new int[32];
+
+    // Scratch per integrate(): endpoint cells and what to do with them
+    private int[] endX = new int[0];
+    private int[] endZ = new int[0];
+    private byte[] endKind = new byte[0];
+    private static final byte END_HIT = 1, END_FREE = 2, END_RANGE = 3;
+    private final float[] rotation = new float[9];
+    private int frame = 0;
+    private int lastTileKeyX = Integer.MIN_VALUE, lastTileKeyZ, lastTile; // One-entry tile cache
+
+    // --- Counters ---
+    private long raysCast = 0;
+    private long cellUpdates = 0;
+    private long tilesDrained = 0;
+
+    // Changed tiles taken by drainDirty(); arrays sized at construction and reused
+    public static class TileBatch {
+        public int count;
+        public float resolution;
+        public final int[] tileX;
+        public final int[] tileZ;
+        public final boolean[] keyframe;  // Receiver has no state for this tile (first send, or after markAllDirty)
+        public final byte[][] cells;      // Current cells, row-major by z then x
+        public final byte[][] previous;   // Cells as last sent (all 0 for a keyframe)
+
+        public TileBatch(int capacity) {
+            tileX = new int[capacity];
+            tileZ = new int[capacity];
+            keyframe = new boolean[capacity];
+            cells = new byte[capacity][TILE_CELLS];
+            previous = new byte[capacity][TILE_CELLS];
+        }
+
+        public int getCapacity() { return tileX.length; }
+    }
+
+    public OccupancyGrid(float resolution) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("Invalid grid resolution: " + resolution + " m");
+        }
+        this.resolution = resolution;
+        this.inverseResolution = 1f / resolution;
+    }
+
+    public void setIntrinsics(float fx, float fy, float cx, float cy, int imageWidth, int imageHeight) {
+        if (fx <= 0 || fy <= 0 || imageWidth <= 0 || imageHeight <= 0) {
+            throw new IllegalArgumentException("Invalid intrinsics: f=" + fx + "," + fy + " " + imageWidth + "x" + imageHeight);
+        }
+        this.fx = fx;
+        this.fy = fy;
+        this.cx = cx;
+        this.cy = cy;
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        hasIntrinsics = true;
+    }
+
+    // World y of the floor, and the band above it that counts as obstacle for the robot
+    public void setHeightBand(float floorY, float minObstacleHeight, float maxObstacleHeight) {
+        if (minObstacleHeight < 0 || maxObstacleHeight <= minObstacleHeight) {
+            throw new IllegalArgumentException("Invalid obstacle band: " + minObstacleHeight + " .. " + maxObstacleHeight + " m");
+        }
+        this.floorY = floorY;
+        this.minObstacleHeight = minObstacleHeight;
+        this.maxObstacleHeight = maxObstacleHeight;
+        hasFloor = true;
+    }
+
+    public void setFloorY(float floorY) {
+        this.floorY = floorY;
+        hasFloor = true;
+    }
+
+    // Depth beyond maxRange metres is only used as free space; every pixelStride-th depth pixel is cast
+    public void setSampling(float maxRange, int pixelStride) {
+        if (maxRange <= 0 || pixelStride < 1) {
+            throw new IllegalArgumentException("Invalid sampling: range " + maxRange + " m, stride " + pixelStride);
+        }
+        this.maxRange = maxRange;
+        this.pixelStride = pixelStride;
+    }
+
+    public boolean isReady() {
+        return hasIntrinsics && hasFloor;
+    }
+
+    public boolean hasIntrinsics() { return hasIntrinsics; }
+    public boolean hasFloor() { return hasFloor; }
+
+    // Ray-casts one depth image (mm, row-major, 0 = no depth, same field of view as the CPU image) taken from
+    // the camera pose cameraTranslation / cameraRotation (qx, qy, qz, qw; camera.getPose() axes).
+    public synchronized void integrate(short[] depthMm, int depthWidth, int depthHeight,
+                                       float[] cameraTranslation, float[] cameraRotation) {
+        if (!isReady()) {
+            throw new IllegalStateException("Occupancy grid has no intrinsics or floor height.");
+        }
+        frame++; // Never 0 again for 2^32 calls (over four years at 30 Hz), so it can't match a fresh stamp
+        final int stamp = frame;
+        toRotationMatrix(cameraRotation, rotation);
+        final float camX = cameraTranslation[0], camY = cameraTranslation[1], camZ = cameraTranslation[2];
+        final int camCellX = cell(camX), camCellZ = cell(camZ);
+        final float toImageX = imageWidth / (float) depthWidth;
+        final float toImageY = imageHeight / (float) depthHeight;
+        final float bandLow = floorY + minObstacleHeight, bandHigh = floorY + maxObstacleHeight;
+        final int maxRays = ((depthWidth + pixelStride - 1) / pixelStride) * ((depthHeight + pixelStride - 1) / pixelStride);
+        if (endX.length < maxRays) {
+            endX = new int[maxRays];
+            endZ = new int[maxRays];
+            endKind = new byte[maxRays];
+        }
+
+        // 1. Classify the endpoints; hits are applied right away so the free-space pass can't lower them
+        int rays = 0;
+        for (int v = pixelStride / 2; v < depthHeight; v += pixelStride) {
+            for (int u = pixelStride / 2; u < depthWidth; u += pixelStride) {
+                final int d = depthMm[v * depthWidth + u] & 0xFFFF;
+                if (d == 0) continue;
+                float z = d * 0.001f;
+                byte kind;
+                // Image y points down, camera y up; the camera looks down -z
+                final float rx = ((u + 0.5f) * toImageX - cx) / fx;
+                final float ry = -((v + 0.5f) * toImageY - cy) / fy;
+                final float range = z * (float) Math.sqrt(rx * rx + ry * ry + 1);
+                if (range > maxRange) {
+                    z *= maxRange / range;
+                    kind = END_RANGE;
+                } else {
+                    kind = 0;
+                }
+                final float px = rx * z, py = ry * z, pz = -z;
+                final float wx = rotation[0] * px + rotation[1] * py + rotation[2] * pz + camX;
+                final float wy = rotation[3] * px + rotation[4] * py + rotation[5] * pz + camY;
+                final float wz = rotation[6] * px + rotation[7] * py + rotation[8] * pz + camZ;
+                if (kind == 0) {
+                    if (wy < bandLow) kind = END_FREE;
+                    else if (wy <= bandHigh) kind = END_HIT;
+                    else continue; // Above the robot
+                }
+                final int ex = cell(wx), ez = cell(wz);
+                if (kind == END_HIT) update(ex, ez, LOG_ODDS_HIT, stamp);
+                endX[rays] = ex;
+                endZ[rays] = ez;
+                endKind[rays] = kind;
+                rays++;
+            }
+        }
+
+        // 2. Free space along every ray (Bresenham over cells), endpoint included unless it was a hit
+        for (int r = 0; r < rays; r++) {
+            traverse(camCellX, camCellZ, endX[r], endZ[r], endKind[r] != END_HIT, stamp);
+        }
+        raysCast += rays;
+    }
+
+    private void traverse(int x0, int z0, int x1, int z1, boolean includeEnd, int stamp) {
+        final int dx = Math.abs(x1 - x0), dz = -Math.abs(z1 - z0);
+        final int sx = x0 < x1 ? 1 : -1, sz = z0 < z1 ? 1 : -1;
+        int err = dx + dz;
+        int x = x0, z = z0;
+        while (x != x1 || z != z1) {
+            update(x, z, LOG_ODDS_MISS, stamp);
+            final int e2 = 2 * err;
+            if (e2 >= dz) {
+                err += dz;
+                x += sx;
+            }
+            if (e2 <= dx) {
+                err += dx;
+                z += sz;
+            }
+        }
+        if (includeEnd) update(x1, z1, LOG_ODDS_MISS, stamp);
+    }
+
+    // At most one update per cell per integrate() (the stamp); the first one wins, and hits go first.
+    // Full int stamps: a byte stamp wrapped every 256 calls and then matched fresh tiles (0) and cells last
+    // updated 256 calls earlier, skipping their update.
+    private void update(int x, int z, int delta, int stamp) {
+        final int t = tileFor(x >> TILE_SHIFT, z >> TILE_SHIFT);
+        final int i = ((z & TILE_MASK) << TILE_SHIFT) | (x & TILE_MASK);
+        final int[] s = stamps[t];
+        if (s[i] == stamp) return;
+        s[i] = stamp;
+        final byte[] c = cells[t];
+        final int value = Math.max(-LOG_ODDS_CLAMP, Math.min(LOG_ODDS_CLAMP, c[i] + delta));
+        if (value == c[i]) return;
+        c[i] = (byte) value;
+        cellUpdates++;
+        if (!dirty[t]) {
+            dirty[t] = true;
+            dirtyTiles[(dirtyHead + dirtyCount++) % dirtyTiles.length] = t;
+        }
+    }
+
+    private int cell(float world) {
+        return (int) Math.floor(world * inverseResolution);
+    }
+
+    // Moves up to batch capacity dirty tiles into batch, oldest first. Returns the number taken.
+    public synchronized int drainDirty(TileBatch batch) {
+        final int n = Math.min(dirtyCount, batch.getCapacity());
+        batch.resolution = resolution;
+        for (int i = 0; i < n; i++) {
+            final int t = dirtyTiles[(dirtyHead + i) % dirtyTiles.length];
+            final long key = tileKeys[t];
+            batch.tileX[i] = (int) (key >> 32);
+            batch.tileZ[i] = (int) key;
+            batch.keyframe[i] = !everSent[t];
+            System.arraycopy(cells[t], 0, batch.cells[i], 0, TILE_CELLS);
+            System.arraycopy(sent[t], 0, batch.previous[i], 0, TILE_CELLS);
+            System.arraycopy(cells[t], 0, sent[t], 0, TILE_CELLS);
+            everSent[t] = true;
+            dirty[t] = false;
+        }
+        dirtyHead = (dirtyHead + n) % dirtyTiles.length;
+        dirtyCount -= n;
+        batch.count = n;
+        tilesDrained += n;
+        return n;
+    }
+
+    // Every tile goes out again as a keyframe, e.g. after reconnecting to a brain that may have lost the map
+    public synchronized void markAllDirty() {
+        dirtyHead = 0;
+        dirtyCount = 0;
+        for (int t = 0; t < tileCount; t++) {
+            Arrays.fill(sent[t], (byte) 0);
+            everSent[t] = false;
+            dirty[t] = true;
+            dirtyTiles[dirtyCount++] = t;
+        }
+    }
+
+    // Log-odds (scaled by LOG_ODDS_SCALE) of the cell at world x / z; 0 if never observed
+    public synchronized int getLogOdds(float worldX, float worldZ) {
+        final int x = cell(worldX), z = cell(worldZ);
+        final int t = findTile(x >> TILE_SHIFT, z >> TILE_SHIFT);
+        return t < 0 ? 0 : cells[t][((z & TILE_MASK) << TILE_SHIFT) | (x & TILE_MASK)];
+    }
+
+    public synchronized float getOccupancyProbability(float worldX, float worldZ) {
+        return 1f / (1f + (float) Math.exp(-getLogOdds(worldX, worldZ) / LOG_ODDS_SCALE));
+    }
+
+    // --- Tiles ---
+
+    // Packed tile coordinates, as used by BrainWireProtocol.decodeGrid
+    public static long tileKey(int tx, int tz) {
+        return ((long) tx << 32) | (tz & 0xFFFFFFFFL);
+    }
+
+    private int slotOf(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private int findTile(int tx, int tz) {
+        final long key = tileKey(tx, tz);
+        final int mask = table.length - 1;
+        for (int slot = slotOf(key, mask); ; slot = (slot + 1) & mask) {
+            final int t = table[slot] - 1;
+            if (t < 0) return -1;
+            if (tileKeys[t] == key) return t;
+        }
+    }
+
+    // Tile index for tile coordinates, allocated on first touch
+    private int tileFor(int tx, int tz) {
+        if (tx == lastTileKeyX && tz == lastTileKeyZ) return lastTile;
+        int t = findTile(tx, tz);
+        if (t < 0) t = addTile(tx, tz);
+        lastTileKeyX = tx;
+        lastTileKeyZ = tz;
+        lastTile = t;
+        return t;
+    }
+
+    private int addTile(int tx, int tz) {
+        if (tileCount == tileKeys.length) {
+            final int capacity = tileCount * 2;
+            tileKeys = Arrays.copyOf(tileKeys, capacity);
+            cells = Arrays.copyOf(cells, capacity);
+            sent = Arrays.copyOf(sent, capacity);
+            stamps = Arrays.copyOf(stamps, capacity);
+            everSent = Arrays.copyOf(everSent, capacity);
+            dirty = Arrays.copyOf(dirty, capacity);
+            // Unroll the dirty ring into the bigger array
+            final int[] ring = new int[capacity];
+            for (int i = 0; i < dirtyCount; i++) ring[i] = dirtyTiles[(dirtyHead + i) % dirtyTiles.length];
+            dirtyTiles = ring;
+            dirtyHead = 0;
+        }
+        final int t = tileCount++;
+        tileKeys[t] = tileKey(tx, tz);
+        cells[t] = new byte[TILE_CELLS];
+        sent[t] = new byte[TILE_CELLS];
+        stamps[t] = new int[TILE_CELLS];
+        if (tileCount * 2 > table.length) {
+            rehash(table.length * 2);
+        } else {
+            insertSlot(t);
+        }
+        return t;
+    }
+
+    private void insertSlot(int t) {
+        final int mask = table.length - 1;
+        int slot = slotOf(tileKeys[t], mask);
+        while (table[slot] != 0) slot = (slot + 1) & mask;
+        table[slot] = t + 1;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        for (int t = 0; t < tileCount; t++) insertSlot(t);
+    }
+
+    // Unit quaternion (qx, qy, qz, qw) -> row-major 3x3 rotation
+    private static void toRotationMatrix(float[] q, float[] m) {
+        final float x = q[0], y = q[1], z = q[2], w = q[3];
+        m[0] = 1 - 2 * (y * y + z * z);
+        m[1] = 2 * (x * y - z * w);
+        m[2] = 2 * (x * z + y * w);
+        m[3] = 2 * (x * y + z * w);
+        m[4] = 1 - 2 * (x * x + z * z);
+        m[5] = 2 * (y * z - x * w);
+        m[6] = 2 * (x * z - y * w);
+        m[7] = 2 * (y * z + x * w);
+        m[8] = 1 - 2 * (x * x + y * y);
+    }
+
+    public float getResolution() { return resolution; }
+    public synchronized int getTileCount() { return tileCount; }
+    public synchronized int getDirtyTileCount() { return dirtyCount; }
+
+    // Heap used by the tiles (cells, last-sent copy, stamps), for memory-per-area budgeting
+    public synchronized long getTileBytes() { return (long) tileCount * TILE_CELLS * (1 + 1 + 4); }
+
+    // --- Counters ---
+    public synchronized long getRaysCast() { return raysCast; }
+    public synchronized long getCellUpdates() { return cellUpdates; }
+    public synchronized long getTilesDrained() { return tilesDrained; }
+}
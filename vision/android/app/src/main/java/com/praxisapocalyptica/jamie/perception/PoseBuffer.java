@@ -0,0 +1,224 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Pure Java (no Android imports) so the interpolation and the writer/reader protocol can be exercised on a plain JVM.
+
+// History of camera poses by timestamp, so a result computed late (detections, the brain's encoder readings)
+// can be tied to where the camera was when its input was captured rather than where it is now.
+//
+// Single writer (the GL thread, once per frame), any number of readers, no locks and no allocation on either
+// side. The ring holds the last `capacity` poses in preallocated slots; each slot carries a version (its
+// write index + 1, 0 while being written) that the reader checks before and after copying the slot. A slot
+// that changed under the reader was overwritten by a newer pose and the query restarts. Every slot field is
+// volatile, which is what makes the version check valid under the Java memory model.
+//
+// getPose(t) interpolates between the two samples around t: translation linearly, rotation by SLERP. Samples
+// more than maxGapNanos apart (tracking was lost in between) are not interpolated across. A t slightly newer
+// than the newest sample (up to maxGapNanos) returns the newest pose; anything older than the oldest sample
+// kept is gone.
+//
+// The timestamps are whatever clock the writer uses (ARCore's frame clock), which another machine can't read.
+// getFrameClockNanos() extrapolates "now" in that clock from the newest pose, for clock sync with the brain.
+public class PoseBuffer {
+
+    private static final int MAX_RETRIES = 8; // Only a reader preempted for a whole ring of writes retries
+    private static final float SLERP_LINEAR_DOT = 0.9995f; // Nearly equal rotations: normalised lerp
+
+    private static final class Slot {
+        volatile long version; // Write index + 1 once complete, 0 while being written
+        volatile long timestampNs;
+        volatile long addedNanos; // System.nanoTime() when add() was called
+        volatile float tx, ty, tz, qx, qy, qz, qw;
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private final long maxGapNanos;
+    private volatile long written = 0; // Number of poses added; slot of pose i is i & mask
+
+    // --- Counters ---
+    private volatile long queryRetries = 0; // Approximate (readers race on it)
+
+    // capacity is rounded up to a power of two
+    public PoseBuffer(int capacity, long maxGapNanos) {
+        if (capacity < 2 || capacity > (1 << 20)) {
+            throw new IllegalArgumentException("Invalid pose buffer capacity: " + capacity);
+        }
+        if (maxGapNanos <= 0) {
+            throw new IllegalArgumentException("Invalid pose gap: " + maxGapNanos + " ns");
+        }
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+        slots = new Slot[size];
+        for (int i = 0; i < size; i++) slots[i] = new Slot();
+        mask = size - 1;
+        this.maxGapNanos = maxGapNanos;
+    }
+
+    // Writer thread only. Timestamps must increase; a repeated or older timestamp (ARCore hands out the same
+    // frame again when the camera has no new image) is ignored and returns false.
+    public boolean add(long timestampNs, float tx, float ty, float tz, float qx, float qy, float qz, float qw) {
+        final long index = written;
+        if (index > 0 && timestampNs <= slots[(int) ((index - 1) & mask)].timestampNs) return false;
+        final Slot s = slots[(int) (index & mask)];
+        s.version = 0;
+        s.timestampNs = timestampNs;
+        s.addedNanos = System.nanoTime();
+        s.tx = tx;
+        s.ty = ty;
+        s.tz = tz;
+        s.qx = qx;
+        s.qy = qy;
+        s.qz = qz;
+        s.qw = qw;
+        s.version = index + 1;
+        written = index + 1;
+        return true;
+    }
+
+    public boolean add(long timestampNs, float[] translation, float[] rotation) {
+        return add(timestampNs, translation[0], translation[1], translation[2],
+                rotation[0], rotation[1], rotation[2], rotation[3]);
+    }
+
+    // Pose at timestampNs into poseOut (tx, ty, tz, qx, qy, qz, qw). Any thread. False if the buffer has no
+    // pose for that time: empty, older than the history, newer than the newest pose by more than
+    // maxGapNanos, or inside a gap in the history.
+    public boolean getPose(long timestampNs, float[] poseOut) {
+        for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+            final int result = tryGetPose(timestampNs, poseOut);
+            if (result >= 0) return result == 1;
+            queryRetries++;
+        }
+        return false;
+    }
+
+    // Newest pose into poseOut; returns its timestamp, or -1 if the buffer is empty
+    public long getLatest(float[] poseOut) {
+        for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+            final long n = written;
+            if (n == 0) return -1;
+            final Slot s = slots[(int) ((n - 1) & mask)];
+            final long version = s.version;
+            final long t = s.timestampNs;
+            copy(s, poseOut);
+            if (version == n && s.version == version) return t;
+            queryRetries++;
+        }
+        return -1;
+    }
+
+    // Current time in the clock of the timestamps: the newest timestamp plus the System.nanoTime() elapsed since
+    // it was added, or -1 if the buffer is empty. Any thread. Behind the true time by the delay between capture
+    // and add() (under a frame when the GL thread adds the pose of each frame as it draws it).
+    public long getFrameClockNanos() {
+        for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+            final long n = written;
+            if (n == 0) return -1;
+            final Slot s = slots[(int) ((n - 1) & mask)];
+            final long version = s.version;
+            final long t = s.timestampNs;
+            final long added = s.addedNanos;
+            if (version == n && s.version == version) return t + (System.nanoTime() - added);
+            queryRetries++;
+        }
+        return -1;
+    }
+
+    // 1 = found, 0 = no pose for that time, -1 = overwritten while reading (retry)
+    private int tryGetPose(long t, float[] poseOut) {
+        final long n = written;
+        if (n == 0) return 0;
+        final long oldest = Math.max(0, n - slots.length);
+
+        // Newest sample at or before t (binary search over the ring, every read validated)
+        final long newestT = timestampAt(n - 1);
+        if (newestT == Long.MIN_VALUE) return -1;
+        if (t >= newestT) {
+            if (t - newestT > maxGapNanos) return 0;
+            return copyValidated(n - 1, poseOut) ? 1 : -1;
+        }
+        final long oldestT = timestampAt(oldest);
+        if (oldestT == Long.MIN_VALUE) return -1;
+        if (t < oldestT) return 0;
+        long lo = oldest, hi = n - 1; // timestamp(lo) <= t < timestamp(hi)
+        while (hi - lo > 1) {
+            final long mid = (lo + hi) >>> 1;
+            final long midT = timestampAt(mid);
+            if (midT == Long.MIN_VALUE) return -1;
+            if (midT <= t) lo = mid;
+            else hi = mid;
+        }
+
+        // Interpolate between lo and hi
+        final Slot a = slots[(int) (lo & mask)], b = slots[(int) (hi & mask)];
+        final long versionA = a.version, versionB = b.version;
+        if (versionA != lo + 1 || versionB != hi + 1) return -1;
+        final long ta = a.timestampNs, tb = b.timestampNs;
+        final float ax = a.tx, ay = a.ty, az = a.tz, aqx = a.qx, aqy = a.qy, aqz = a.qz, aqw = a.qw;
+        final float bx = b.tx, by = b.ty, bz = b.tz;
+        float bqx = b.qx, bqy = b.qy, bqz = b.qz, bqw = b.qw;
+        if (a.version != versionA || b.version != versionB) return -1;
+        if (tb - ta > maxGapNanos) return 0;
+
+        final float alpha = (t - ta) / (float) (tb - ta);
+        poseOut[0] = ax + (bx - ax) * alpha;
+        poseOut[1] = ay + (by - ay) * alpha;
+        poseOut[2] = az + (bz - az) * alpha;
+        float dot = aqx * bqx + aqy * bqy + aqz * bqz + aqw * bqw;
+        if (dot < 0) { // Shorter way round
+            dot = -dot;
+            bqx = -bqx;
+            bqy = -bqy;
+            bqz = -bqz;
+            bqw = -bqw;
+        }
+        float wa, wb;
+        if (dot > SLERP_LINEAR_DOT) {
+            wa = 1 - alpha;
+            wb = alpha;
+        } else {
+            final double theta = Math.acos(dot);
+            final double sinTheta = Math.sin(theta);
+            wa = (float) (Math.sin((1 - alpha) * theta) / sinTheta);
+            wb = (float) (Math.sin(alpha * theta) / sinTheta);
+        }
+        float qx = wa * aqx + wb * bqx, qy = wa * aqy + wb * bqy, qz = wa * aqz + wb * bqz, qw = wa * aqw + wb * bqw;
+        final float norm = (float) Math.sqrt(qx * qx + qy * qy + qz * qz + qw * qw);
+        poseOut[3] = qx / norm;
+        poseOut[4] = qy / norm;
+        poseOut[5] = qz / norm;
+        poseOut[6] = qw / norm;
+        return 1;
+    }
+
+    // Timestamp of pose index, or Long.MIN_VALUE if its slot no longer holds it
+    private long timestampAt(long index) {
+        final Slot s = slots[(int) (index & mask)];
+        final long version = s.version;
+        final long t = s.timestampNs;
+        return version == index + 1 && s.version == version ? t : Long.MIN_VALUE;
+    }
+
+    private boolean copyValidated(long index, float[] poseOut) {
+        final Slot s = slots[(int) (index & mask)];
+        final long version = s.version;
+        if (version != index + 1) return false;
+        copy(s, poseOut);
+        return s.version == version;
+    }
+
+    private static void copy(Slot s, float[] poseOut) {
+        poseOut[0] = s.tx;
+        poseOut[1] = s.ty;
+        poseOut[2] = s.tz;
+        poseOut[3] = s.qx;
+        poseOut[4] = s.qy;
+        poseOut[5] = s.qz;
+        poseOut[6] = s.qw;
+    }
+
+    public int getCapacity() { return slots.length; }
+    public long getWrittenCount() { return written; }
+
+    // --- Counters ---
+    public long getQueryRetries() { return queryRetries; }
+}
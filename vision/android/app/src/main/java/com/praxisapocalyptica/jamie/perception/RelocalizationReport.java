@@ -0,0 +1,34 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Pure Java (no Android imports), filled in by SlamManager and formatted by BrainWireProtocol.
+
+// What SlamManager knows when tracking comes back after being lost: the last good pose before the loss, the
+// first pose after it, the jump between them, and which stored keyframe the camera is looking at again (see
+// KeyframeStore). If ARCore relocalized into its old map, the jump is the real motion during the loss; if it
+// started over, the matched keyframe's pose is what the brain can use to re-anchor the new poses.
+public class RelocalizationReport {
+
+    public long lostTimestampNs;       // Frame timestamp of the last TRACKING frame before the loss
+    public long recoveredTimestampNs;  // Frame timestamp of the first TRACKING frame after it
+    public final float[] poseBeforeLoss = new float[7]; // tx, ty, tz, qx, qy, qz, qw
+    public final float[] poseAfterRecovery = new float[7];
+    public boolean matched;            // match holds a keyframe (KeyframeStore.findBestMatch succeeded)
+    public final KeyframeStore.Match match = new KeyframeStore.Match();
+
+    public float getTranslationJump() {
+        final float dx = poseAfterRecovery[0] - poseBeforeLoss[0];
+        final float dy = poseAfterRecovery[1] - poseBeforeLoss[1];
+        final float dz = poseAfterRecovery[2] - poseBeforeLoss[2];
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    public float getRotationJumpRad() {
+        final float[] a = poseBeforeLoss, b = poseAfterRecovery;
+        final float dot = Math.abs(a[3] * b[3] + a[4] * b[4] + a[5] * b[5] + a[6] * b[6]);
+        return 2f * (float) Math.acos(Math.min(1f, dot));
+    }
+
+    public long getLostDurationNs() {
+        return recoveredTimestampNs - lostTimestampNs;
+    }
+}
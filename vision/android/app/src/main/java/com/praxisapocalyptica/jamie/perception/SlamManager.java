@@ -8,13 +8,21 @@ import android.opengl.GLSurfaceView; // Or use the ARCore Sceneform library
 import android.util.Log;
 import android.view.Surface;
 
+import com/praxisapocalyptica/jamie.communication.BrainWifiCommunicator;
+import com/praxisapocalyptica/jamie.communication.BrainWireProtocol;
+import com/praxisapocalyptica/jamie.communication.PoseDatagramStreamer;
+
 import com.google.ar.core.ArCoreApk;
 import com.google.ar.core.Camera;
+import com.google.ar.core.Config;
 import com.google.ar.core.Frame;
+import com.google.ar.core.Plane;
+import com.google.ar.core.PointCloud;
 import com.google.ar.core.Pose;
 import com.google.ar.core.Session;
 import com.google.ar.core.TrackingState;
 import com.google.ar.core.exceptions.CameraNotAvailableException;
+import com.google.ar.core.exceptions.NotYetAvailableException;
 import com.google.ar.core.exceptions.UnavailableApkTooOldException;
 import com.google.ar.core.exceptions.UnavailableArcoreNotInstalledException;
 import com.google.ar.core.exceptions.UnavailableDeviceNotCompatibleException;
@@ -22,6 +30,9 @@ import com.google.ar.core.exceptions.UnavailableException;
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException;
 import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationException;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 // You'll need to integrate this with your camera preview and potentially a renderer
 
 public class SlamManager {
@@ -35,10 +46,40 @@ public class SlamManager {
         void onNewFrame(Frame frame, Pose robotPose);
         void onTrackingStateChanged(TrackingState state);
         void onError(String errorMessage);
+        // Tracking is back after PAUSED / STOPPED (see setRelocalization()); optional. Called on the
+        // relocalization thread, not the GL thread: keyframe matching may read spill files.
+        default void onRelocalized(RelocalizationReport report) {}
     }
 
     private FrameListener listener;
     private Context context;
+    private PoseDatagramStreamer poseStreamer; // Optional UDP pose stream, see setPoseStreamer()
+    private VoxelCloud pointCloud; // Feature points accumulated for the brain, see setPointCloudStream()
+    private BrainWifiCommunicator pointCloudLink;
+    private long pointCloudPeriodNanos;
+    private long lastPointCloudSendNanos = 0;
+    private long lastPointCloudTimestamp = -1;
+    // Poses of the last few seconds by frame timestamp, for results that arrive after the frame they belong to
+    private static final int POSE_HISTORY_CAPACITY = 256;            // About 8 s at 30 fps
+    private static final long POSE_HISTORY_MAX_GAP_NANOS = 200_000_000L; // Longer gaps: tracking was lost
+    private final PoseBuffer poseHistory = new PoseBuffer(POSE_HISTORY_CAPACITY, POSE_HISTORY_MAX_GAP_NANOS);
+    private OccupancyGrid occupancyGrid; // Depth ray-cast into the navigation grid, see setOccupancyGridStream()
+    private BrainWifiCommunicator occupancyGridLink;
+    private long occupancyGridPeriodNanos;
+    private long lastOccupancyGridNanos = 0;
+    private boolean occupancyGridDepthUnavailable = false;
+    private short[] gridDepth = new short[0];
+    private final float[] gridTranslation = new float[3];
+    private final float[] gridRotation = new float[4];
+    private KeyframeStore keyframeStore; // Keyframes to match against after a tracking loss, see setRelocalization()
+    private BrainWifiCommunicator relocalizationLink;
+    private ExecutorService relocalizationExecutor; // Keyframe matching off the GL thread, created on first use
+    private final float[] keyTranslation = new float[3];
+    private final float[] keyRotation = new float[4];
+    private final float[] lastTrackedPose = new float[7]; // Last TRACKING frame, reported after a loss
+    private long lastTrackedTimestamp;
+    private boolean hasTracked = false;
+    private boolean trackingLost = false;
 
     public SlamManager(Context context, FrameListener listener) {
         this.context = context;
@@ -46,6 +87,51 @@ public class SlamManager {
         this.installRequested = false; // Initialize flag
     }
 
+    // Streams the camera pose to the brain over UDP every frame (null to stop).
+    // Lives on the GL thread like onDrawFrame; commands and detections keep using BrainWifiCommunicator.
+    public void setPoseStreamer(PoseDatagramStreamer poseStreamer) {
+        this.poseStreamer = poseStreamer;
+    }
+
+    // Accumulates ARCore's feature points into cloud every frame and sends the changed voxels to the brain at
+    // most rateHz times a second (null cloud to stop). GL thread, like onDrawFrame.
+    public void setPointCloudStream(VoxelCloud cloud, BrainWifiCommunicator communicator, float rateHz) {
+        if (cloud != null && rateHz <= 0) {
+            throw new IllegalArgumentException("Invalid point cloud rate: " + rateHz + " Hz");
+        }
+        pointCloud = cloud;
+        pointCloudLink = communicator;
+        pointCloudPeriodNanos = cloud != null ? (long) (1_000_000_000L / rateHz) : 0;
+    }
+
+    // Camera poses while tracking, by ARCore frame timestamp (same clock as Frame / Image timestamps).
+    // Written on the GL thread in onDrawFrame, readable from any thread.
+    public PoseBuffer getPoseHistory() {
+        return poseHistory;
+    }
+
+    // Stores keyframes while tracking (store may be null: the report then only has the pose jump), and on the
+    // first TRACKING frame after PAUSED / STOPPED reports the jump and the best matching keyframe to the
+    // listener and, as a relocalization message, to the brain (communicator may be null). GL thread.
+    // The camera image's features are extracted on the GL thread; matching them against the keyframes
+    // (spill file reads included) and the report run on a background thread.
+    public void setRelocalization(KeyframeStore store, BrainWifiCommunicator communicator) {
+        keyframeStore = store;
+        relocalizationLink = communicator;
+    }
+
+    // Ray-casts the depth image into grid at most rateHz times a second and sends the dirty tiles to the brain
+    // after each update (null grid to stop). The floor height comes from the lowest upward-facing ARCore plane;
+    // nothing is integrated until one has been found. GL thread, like onDrawFrame.
+    public void setOccupancyGridStream(OccupancyGrid grid, BrainWifiCommunicator communicator, float rateHz) {
+        if (grid != null && rateHz <= 0) {
+            throw new IllegalArgumentException("Invalid occupancy grid rate: " + rateHz + " Hz");
+        }
+        occupancyGrid = grid;
+        occupancyGridLink = communicator;
+        occupancyGridPeriodNanos = grid != null ? (long) (1_000_000_000L / rateHz) : 0;
+    }
+
     // --- ARCore Session Management ---
 
     public void resumeArSession(android.app.Activity activity) { // Pass activity to handle installation requests
@@ -71,9 +157,11 @@ public class SlamManager {
                     // Session initialization logic
                     session = new Session(context);
                     // Configure session (e.g., enable depth, cloud anchors)
-                    // config = new Config(session);
-                    // config.setDepthMode(Config.DepthMode.AUTOMATIC); // Enable depth
-                    // session.configure(config);
+                    Config config = new Config(session);
+                    if (session.isDepthModeSupported(Config.DepthMode.AUTOMATIC)) {
+                        config.setDepthMode(Config.DepthMode.AUTOMATIC); // Depth images for VisionProcessor's 3D lifting
+                    }
+                    session.configure(config);
 
                     System.out.println(TAG + ": ARCore Session created.");
                     Log.i(TAG, "ARCore Session created.");
@@ -162,6 +250,10 @@ public class SlamManager {
     }
 
     public void destroyArSession() {
+         if (relocalizationExecutor != null) {
+             relocalizationExecutor.shutdownNow(); // A match still running just isn't reported
+             relocalizationExecutor = null;
+         }
          if (session != null) {
              session.close();
              session = null;
@@ -182,6 +274,7 @@ public class SlamManager {
             // Get camera pose
             Camera camera = frame.getCamera();
             Pose cameraPose = camera.getPose(); // This is the 6-DOF pose in the AR world frame
+            streamPose(frame.getTimestamp(), camera.getTrackingState(), cameraPose);
 
             // Check tracking state
             if (camera.getTrackingState() == TrackingState.TRACKING) {
@@ -190,12 +283,19 @@ public class SlamManager {
                  Log.d(TAG, "Tracking - Pose: " + cameraPose);
 
                  // <<<<< SEND POSE DATA TO RASPBERRY PI (BRAIN) >>>>>
-                 // Convert Pose object to a serializable format (e.g., JSON)
+                 // Sent above via the UDP pose stream when one is set; otherwise over TCP:
                  // { "type": "slam_update", "pose": { "x": ..., "y": ..., "z": ..., "qx": ..., "qy": ..., "qz": ..., "qw": ... } }
-                 // wifiCommunicator.sendData(formatPoseToJson(cameraPose)); // Needs implementation in MainActivity
+                 // wifiCommunicator.sendPose(frame.getTimestamp(), tx, ty, tz, qx, qy, qz, qw);
 
-                 // You can also get point clouds or other environmental data from the frame/session
-                 // frame.acquirePointCloud().getPoints() // Get 3D points
+                 poseHistory.add(frame.getTimestamp(), cameraPose.tx(), cameraPose.ty(), cameraPose.tz(),
+                         cameraPose.qx(), cameraPose.qy(), cameraPose.qz(), cameraPose.qw());
+                 // Keyframes, or the relocalization report if tracking was lost before this frame
+                 updateKeyframes(frame, cameraPose);
+
+                 // Feature points into the voxel map streamed to the brain
+                 accumulatePointCloud(frame, cameraPose);
+                 // Depth into the occupancy grid streamed to the brain
+                 updateOccupancyGrid(frame, camera, cameraPose);
 
                  if (listener != null) {
                       listener.onNewFrame(frame, cameraPose); // Notify listener of new frame and pose
@@ -206,11 +306,13 @@ public class SlamManager {
                  // Tracking is paused (e.g., insufficient features)
                   System.out.println(TAG + ": Tracking Paused.");
                   Log.w(TAG, "Tracking Paused.");
+                  if (hasTracked) trackingLost = true;
                   if (listener != null) listener.onTrackingStateChanged(TrackingState.PAUSED);
             } else if (camera.getTrackingState() == TrackingState.STOPPED) {
                  // Tracking stopped (e.g., ARCore session ended)
                   System.out.println(TAG + ": Tracking Stopped.");
                    Log.e(TAG, "Tracking Stopped.");
+                   if (hasTracked) trackingLost = true;
                    if (listener != null) listener.onTrackingStateChanged(TrackingState.STOPPED);
             }
 
@@ -227,6 +329,177 @@ public class SlamManager {
         }
     }
 
+    private void accumulatePointCloud(Frame frame, Pose cameraPose) {
+        final VoxelCloud cloud = pointCloud;
+        if (cloud == null) return;
+        PointCloud points = frame.acquirePointCloud();
+        try {
+            // ARCore hands out the same cloud until it has new points
+            if (points.getTimestamp() != lastPointCloudTimestamp) {
+                lastPointCloudTimestamp = points.getTimestamp();
+                java.nio.FloatBuffer buffer = points.getPoints();
+                cloud.addPoints(buffer, buffer.remaining() / 4, cameraPose.tx(), cameraPose.ty(), cameraPose.tz());
+            }
+        } finally {
+            points.release();
+        }
+        final long now = System.nanoTime();
+        if (pointCloudLink != null && now - lastPointCloudSendNanos >= pointCloudPeriodNanos
+                && cloud.hasPendingChanges()) {
+            pointCloudLink.sendPointCloud(frame.getTimestamp(), cloud);
+            lastPointCloudSendNanos = now;
+        }
+    }
+
+    private void updateKeyframes(Frame frame, Pose cameraPose) {
+        cameraPose.getTranslation(keyTranslation, 0);
+        cameraPose.getRotationQuaternion(keyRotation, 0);
+        final KeyframeStore store = keyframeStore;
+        if (trackingLost) {
+            if (!reportRelocalization(frame, store)) return; // No camera image yet, try again next frame
+            trackingLost = false;
+        } else if (store != null && store.isKeyframeDue(keyTranslation, keyRotation)) {
+            addKeyframe(frame, store);
+        }
+        lastTrackedTimestamp = frame.getTimestamp();
+        System.arraycopy(keyTranslation, 0, lastTrackedPose, 0, 3);
+        System.arraycopy(keyRotation, 0, lastTrackedPose, 3, 4);
+        hasTracked = true;
+    }
+
+    private void addKeyframe(Frame frame, KeyframeStore store) {
+        com.google.ar.core.Image image;
+        try {
+            image = frame.acquireCameraImage();
+        } catch (NotYetAvailableException e) {
+            return; // Still due on the next frame
+        }
+        try {
+            com.google.ar.core.Image.Plane y = image.getPlanes()[0];
+            store.add(frame.getTimestamp(), keyTranslation, keyRotation,
+                    y.getBuffer(), y.getRowStride(), y.getPixelStride(), image.getWidth(), image.getHeight());
+        } finally {
+            image.close();
+        }
+    }
+
+    // False if the camera image isn't available yet (only asked for when there are keyframes to match)
+    private boolean reportRelocalization(Frame frame, KeyframeStore store) {
+        final RelocalizationReport report = new RelocalizationReport();
+        report.lostTimestampNs = lastTrackedTimestamp;
+        report.recoveredTimestampNs = frame.getTimestamp();
+        System.arraycopy(lastTrackedPose, 0, report.poseBeforeLoss, 0, 7);
+        System.arraycopy(keyTranslation, 0, report.poseAfterRecovery, 0, 3);
+        System.arraycopy(keyRotation, 0, report.poseAfterRecovery, 3, 4);
+        KeyframeStore.Query query = null; // New per report: a match still running may hold the last one
+        if (store != null && store.getKeyframeCount() > 0) {
+            com.google.ar.core.Image image;
+            try {
+                image = frame.acquireCameraImage();
+            } catch (NotYetAvailableException e) {
+                return false;
+            }
+            try {
+                com.google.ar.core.Image.Plane y = image.getPlanes()[0];
+                query = new KeyframeStore.Query();
+                store.extract(y.getBuffer(), y.getRowStride(), y.getPixelStride(), image.getWidth(), image.getHeight(),
+                        query);
+            } finally {
+                image.close();
+            }
+        }
+        if (relocalizationExecutor == null) {
+            relocalizationExecutor = Executors.newSingleThreadExecutor(r -> {
+                final Thread t = new Thread(r, TAG + "-relocalization");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        final KeyframeStore.Query matchQuery = query;
+        final FrameListener reportListener = listener;
+        final BrainWifiCommunicator link = relocalizationLink;
+        relocalizationExecutor.execute(() -> {
+            if (matchQuery != null) report.matched = store.findBestMatch(matchQuery, report.match);
+            Log.i(TAG, "Tracking recovered after " + report.getLostDurationNs() / 1_000_000 + " ms, jump "
+                    + report.getTranslationJump() + " m / " + Math.toDegrees(report.getRotationJumpRad())
+                    + " deg, keyframe "
+                    + (report.matched ? report.match.keyframeId + " (" + report.match.matches + " matches)" : "none"));
+            if (reportListener != null) reportListener.onRelocalized(report);
+            if (link != null) link.sendData(BrainWireProtocol.formatRelocalizationJson(report));
+        });
+        return true;
+    }
+
+    private void updateOccupancyGrid(Frame frame, Camera camera, Pose cameraPose) {
+        final OccupancyGrid grid = occupancyGrid;
+        if (grid == null || occupancyGridDepthUnavailable) return;
+        final long now = System.nanoTime();
+        if (now - lastOccupancyGridNanos < occupancyGridPeriodNanos) return;
+        if (!updateFloor(grid)) return;
+        com.google.ar.core.Image depthImage;
+        try {
+            depthImage = frame.acquireDepthImage16Bits();
+        } catch (NotYetAvailableException e) {
+            return; // No depth estimate yet (first frames of the session)
+        } catch (IllegalStateException e) {
+            occupancyGridDepthUnavailable = true; // Depth mode is off (unsupported device); stop asking
+            return;
+        }
+        try {
+            final int width = depthImage.getWidth(), height = depthImage.getHeight();
+            final com.google.ar.core.Image.Plane plane = depthImage.getPlanes()[0];
+            if (gridDepth.length < width * height) gridDepth = new short[width * height];
+            final java.nio.ShortBuffer rows = plane.getBuffer().order(java.nio.ByteOrder.nativeOrder()).asShortBuffer();
+            for (int y = 0; y < height; y++) {
+                rows.position(y * plane.getRowStride() / 2);
+                rows.get(gridDepth, y * width, width);
+            }
+            if (!grid.hasIntrinsics()) {
+                com.google.ar.core.CameraIntrinsics intrinsics = camera.getImageIntrinsics();
+                float[] focal = intrinsics.getFocalLength();
+                float[] principal = intrinsics.getPrincipalPoint();
+                int[] size = intrinsics.getImageDimensions();
+                grid.setIntrinsics(focal[0], focal[1], principal[0], principal[1], size[0], size[1]);
+            }
+            cameraPose.getTranslation(gridTranslation, 0);
+            cameraPose.getRotationQuaternion(gridRotation, 0);
+            grid.integrate(gridDepth, width, height, gridTranslation, gridRotation);
+        } finally {
+            depthImage.close();
+        }
+        lastOccupancyGridNanos = now;
+        if (occupancyGridLink != null && grid.getDirtyTileCount() > 0) {
+            occupancyGridLink.sendOccupancyGrid(frame.getTimestamp(), grid);
+        }
+    }
+
+    // Floor = lowest tracked upward-facing plane (the robot drives on it). False until there is one.
+    private boolean updateFloor(OccupancyGrid grid) {
+        boolean found = false;
+        float floorY = Float.MAX_VALUE;
+        for (Plane plane : session.getAllTrackables(Plane.class)) {
+            if (plane.getType() != Plane.Type.HORIZONTAL_UPWARD_FACING
+                    || plane.getTrackingState() != TrackingState.TRACKING || plane.getSubsumedBy() != null) {
+                continue;
+            }
+            floorY = Math.min(floorY, plane.getCenterPose().ty());
+            found = true;
+        }
+        if (found) grid.setFloorY(floorY);
+        return grid.hasFloor();
+    }
+
+    // One fixed-size datagram per frame, whatever the tracking state, so the brain also learns about PAUSED/STOPPED
+    private void streamPose(long timestampNs, TrackingState state, Pose pose) {
+        final PoseDatagramStreamer streamer = poseStreamer;
+        if (streamer == null) return;
+        final byte wireState = state == TrackingState.TRACKING ? PoseDatagramStreamer.STATE_TRACKING
+                : state == TrackingState.PAUSED ? PoseDatagramStreamer.STATE_PAUSED
+                : PoseDatagramStreamer.STATE_STOPPED;
+        streamer.send(timestampNs, wireState, pose.tx(), pose.ty(), pose.tz(),
+                pose.qx(), pose.qy(), pose.qz(), pose.qw());
+    }
+
     // --- Requires integration with a camera preview and possibly a rendering surface ---
     // You would typically use a GLSurfaceView and a custom Renderer that calls session.update() and session.setCameraTextureName()
     // and then calls this SlamManager.onDrawFrame() within the renderer's onDrawFrame method.
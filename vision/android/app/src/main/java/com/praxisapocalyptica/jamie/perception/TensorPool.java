@@ -0,0 +1,133 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Pure Java (no Android / TFLite imports) so the pooling logic can be checked on a plain JVM.
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+// Fixed set of preallocated inference buffers, reused across frames.
+// Output tensor shapes/sizes are discovered once (in VisionProcessor's constructor) and every
+// direct buffer, output map and input array is created here up front - nothing per frame.
+// More than one slot only pays off when a slot is released on another thread than the one running the next
+// inference; a caller that infers, post-processes and releases on one thread needs a single slot.
+public class TensorPool {
+
+    // One complete set of buffers for a single inference call
+    public static class Slot {
+        public final int index;
+        public final ByteBuffer[] outputs;           // Direct, native order, one per output tensor
+        public final FloatBuffer[] outputFloats;     // Float views over outputs (for FLOAT32 tensors)
+        public final Map<Integer, Object> outputMap; // Passed to runForMultipleInputsOutputs, never rebuilt
+        public final Object[] inputs;                // Input array, only its element is swapped per frame
+        private boolean inUse = false;    // Guarded by the slot
+        private int pins = 0;             // Readers in the middle of reading the outputs, guarded by the slot
+        private volatile long generation = 0; // Bumped on every acquire, lets consumers detect recycled outputs
+
+        Slot(int index, ByteBuffer[] outputs, FloatBuffer[] outputFloats, Map<Integer, Object> outputMap, Object[] inputs) {
+            this.index = index;
+            this.outputs = outputs;
+            this.outputFloats = outputFloats;
+            this.outputMap = outputMap;
+            this.inputs = inputs;
+        }
+
+        public long getGeneration() { return generation; }
+
+        // Keeps acquire() from handing the slot out again until unpin(), if it still holds the outputs of
+        // generation. Returns false if the slot has been recycled since. For readers that may run on another
+        // thread than the one releasing the slot (lazy masks): a generation check alone can't see a recycle
+        // that happens while the outputs are being read.
+        public synchronized boolean pin(long generation) {
+            if (this.generation != generation) return false;
+            pins++;
+            return true;
+        }
+
+        public synchronized void unpin() {
+            if (pins > 0) pins--;
+        }
+
+        // Claims the slot for a new inference if nobody holds or reads it
+        synchronized boolean claim() {
+            if (inUse || pins > 0) return false;
+            inUse = true;
+            generation++;
+            return true;
+        }
+
+        synchronized void free() {
+            inUse = false;
+        }
+    }
+
+    private final int[][] outputShapes;
+    private final Slot[] slots;
+    private int nextSlot = 0;
+    private long exhaustedCount = 0;  // acquire() calls that found no free slot
+
+    // outputShapes[i] / outputNumBytes[i] describe output tensor i (Tensor.shape() / Tensor.numBytes()).
+    // slotCount = number of buffer sets that can be held at the same time.
+    public TensorPool(int[][] outputShapes, int[] outputNumBytes, int inputCount, int slotCount) {
+        if (outputShapes.length != outputNumBytes.length) {
+            throw new IllegalArgumentException("Output shape and size counts differ.");
+        }
+        if (slotCount < 1) {
+            throw new IllegalArgumentException("Slot count must be at least 1: " + slotCount);
+        }
+        this.outputShapes = new int[outputShapes.length][];
+        for (int i = 0; i < outputShapes.length; i++) {
+            this.outputShapes[i] = outputShapes[i].clone();
+        }
+
+        slots = new Slot[slotCount];
+        for (int s = 0; s < slotCount; s++) {
+            ByteBuffer[] outputs = new ByteBuffer[outputShapes.length];
+            FloatBuffer[] outputFloats = new FloatBuffer[outputShapes.length];
+            Map<Integer, Object> outputMap = new HashMap<>();
+            for (int i = 0; i < outputShapes.length; i++) {
+                outputs[i] = ByteBuffer.allocateDirect(outputNumBytes[i]).order(ByteOrder.nativeOrder());
+                outputFloats[i] = outputs[i].asFloatBuffer();
+                outputMap.put(i, outputs[i]);
+            }
+            Object[] inputs = new Object[inputCount];
+            slots[s] = new Slot(s, outputs, outputFloats, outputMap, inputs);
+        }
+    }
+
+    // Returns the next free slot with its buffers rewound, or null if all slots are still in use or pinned
+    // (caller should drop the frame rather than allocate).
+    public synchronized Slot acquire() {
+        for (int tried = 0; tried < slots.length; tried++) {
+            Slot slot = slots[nextSlot];
+            nextSlot = (nextSlot + 1) % slots.length;
+            if (slot.claim()) {
+                for (int i = 0; i < slot.outputs.length; i++) {
+                    slot.outputs[i].rewind();
+                    slot.outputFloats[i].rewind();
+                }
+                return slot;
+            }
+        }
+        exhaustedCount++;
+        return null;
+    }
+
+    // Hands a slot back once its outputs have been fully consumed
+    public synchronized void release(Slot slot) {
+        if (slot == null) return;
+        for (int i = 0; i < slot.inputs.length; i++) {
+            slot.inputs[i] = null; // Don't keep the last frame's input alive
+        }
+        slot.free();
+    }
+
+    public int getOutputCount() { return outputShapes.length; }
+    public int[] getOutputShape(int index) { return outputShapes[index].clone(); }
+    public int getSlotCount() { return slots.length; }
+
+    // acquire() calls that returned null; stays 0 while every slot is released before the next acquire
+    public synchronized long getExhaustedCount() { return exhaustedCount; }
+}
@@ -0,0 +1,77 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Uses only the TFLite Java bindings (no Android imports), so the CPU and XNNPACK kinds also run and can be
+// benchmarked on a plain Linux JVM with the tensorflow-lite jar. NNAPI only exists on Android devices.
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+// InferenceBackend backed by a TFLite Interpreter configured for one execution provider.
+public class TfliteInferenceBackend implements InferenceBackend {
+
+    public enum Kind {
+        CPU,     // Built-in reference kernels, multi-threaded
+        XNNPACK, // XNNPACK delegate (optimized CPU kernels), multi-threaded
+        NNAPI    // Android Neural Networks API (DSP / NPU / GPU, device dependent)
+    }
+
+    private final Kind kind;
+    private final int numThreads;
+    private Interpreter interpreter;
+
+    // Throws if the backend can't be created on this device (e.g. NNAPI on a plain JVM)
+    public TfliteInferenceBackend(ByteBuffer model, Kind kind, int numThreads) {
+        this.kind = kind;
+        this.numThreads = numThreads;
+        Interpreter.Options options = new Interpreter.Options();
+        options.setNumThreads(numThreads);
+        switch (kind) {
+            case CPU:
+                options.setUseXNNPACK(false);
+                break;
+            case XNNPACK:
+                options.setUseXNNPACK(true);
+                break;
+            case NNAPI:
+                options.setUseNNAPI(true);
+                break;
+        }
+        // Enable GPU delegation if available (requires specific dependencies and build flags)
+        // GpuDelegate delegate = new GpuDelegate();
+        // options.addDelegate(delegate);
+        interpreter = new Interpreter(model, options);
+    }
+
+    @Override
+    public String getName() {
+        return kind == Kind.NNAPI ? "nnapi" : kind.name().toLowerCase() + " x" + numThreads;
+    }
+
+    @Override public int getInputTensorCount() { return interpreter.getInputTensorCount(); }
+    @Override public int[] getInputShape(int index) { return interpreter.getInputTensor(index).shape(); }
+    @Override public int getInputNumBytes(int index) { return interpreter.getInputTensor(index).numBytes(); }
+    @Override public boolean isInputUint8(int index) { return interpreter.getInputTensor(index).dataType() == DataType.UINT8; }
+
+    @Override public int getOutputTensorCount() { return interpreter.getOutputTensorCount(); }
+    @Override public int[] getOutputShape(int index) { return interpreter.getOutputTensor(index).shape(); }
+    @Override public int getOutputNumBytes(int index) { return interpreter.getOutputTensor(index).numBytes(); }
+
+    @Override
+    public void run(Object[] inputs, Map<Integer, Object> outputs) {
+        interpreter.runForMultipleInputsOutputs(inputs, outputs);
+    }
+
+    @Override
+    public void close() {
+        if (interpreter != null) {
+            interpreter.close();
+            interpreter = null;
+        }
+    }
+
+    public Kind getKind() { return kind; }
+    public int getNumThreads() { return numThreads; }
+}
@@ -0,0 +1,256 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Pure Java (no Android imports) so boundary merging can be checked on a plain JVM with synthetic tiles.
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Cross-tile NMS for tiled inference: combines the detections of the full-frame pass and of every tile
+// (already in camera image pixels) into one list.
+//
+// Per-tile NMS can't see duplicates in other tiles, and an object crossing a tile edge comes back as a
+// fragment clipped at that edge, which plain IoU barely relates to the whole object. So each detection
+// remembers which of its sides lie on an inner tile edge (within EDGE_MARGIN_PX; image borders don't count),
+// and the greedy pass (highest score first, same class only) treats a candidate against each kept box as:
+//   - piece of the same object if either is cut on a side facing the other, they touch or overlap across
+//     that side and line up along it (1-D IoU > ALIGN_IOU): the kept box grows to the union of both;
+//   - otherwise duplicate if IoU > iouThreshold, or if one box lies almost entirely inside the other
+//     (intersection over the smaller area > CONTAINED_FRACTION); where the kept box is cut and the duplicate
+//     reaches further (the whole object containing a higher-scoring corner piece), the kept box takes its extent.
+// The merged object keeps the higher-scoring detection's class, score and mask (a fragment's mask covers
+// only its part of the object). Boxes grow as pieces join, so the kept boxes are then compared with each other
+// the same way until nothing changes: an object cut by a column and a row edge comes in four pieces, and a
+// corner piece seen before the half it belongs to lines up with neither half on its own.
+//
+// Arrays are sized for maxDetections at construction. Not thread safe.
+public class TileMerger {
+
+    private static final float EDGE_MARGIN_PX = 2f;
+    private static final float CONTAINED_FRACTION = 0.8f;
+    private static final float ALIGN_IOU = 0.5f;
+
+    private static final int CUT_LEFT = 1, CUT_TOP = 2, CUT_RIGHT = 4, CUT_BOTTOM = 8;
+
+    private final int maxDetections;
+    private final float iouThreshold;
+
+    private int count = 0;
+    private int imageWidth, imageHeight;
+    private final DetectedObject[] objects;
+    private final float[] boxes;   // left, top, right, bottom
+    private final int[] cuts;      // CUT_* flags
+    private final long[] sortKeys;
+    private final int[] kept;
+
+    // --- Counters ---
+    private long duplicatesRemoved = 0;
+    private long fragmentsJoined = 0;
+
+    public TileMerger(int maxDetections, float iouThreshold) {
+        if (maxDetections <= 0) {
+            throw new IllegalArgumentException("Invalid merge capacity: " + maxDetections);
+        }
+        this.maxDetections = maxDetections;
+        this.iouThreshold = iouThreshold;
+        objects = new DetectedObject[maxDetections];
+        boxes = new float[maxDetections * 4];
+        cuts = new int[maxDetections];
+        sortKeys = new long[maxDetections];
+        kept = new int[maxDetections];
+    }
+
+    // Starts a new frame
+    public void reset(int width, int height) {
+        Arrays.fill(objects, 0, count, null);
+        count = 0;
+        imageWidth = width;
+        imageHeight = height;
+    }
+
+    // Adds one detection (camera image pixels) found in the region [left, top, right, bottom) of the image;
+    // the full-frame pass uses the whole image. Returns false once the capacity is reached.
+    public boolean add(DetectedObject obj, int left, int top, int right, int bottom) {
+        if (count == maxDetections) return false;
+        final int o = count * 4;
+        boxes[o] = obj.boundingBoxLeft;
+        boxes[o + 1] = obj.boundingBoxTop;
+        boxes[o + 2] = obj.boundingBoxRight;
+        boxes[o + 3] = obj.boundingBoxBottom;
+        int cut = 0;
+        if (left > 0 && boxes[o] <= left + EDGE_MARGIN_PX) cut |= CUT_LEFT;
+        if (top > 0 && boxes[o + 1] <= top + EDGE_MARGIN_PX) cut |= CUT_TOP;
+        if (right < imageWidth && boxes[o + 2] >= right - EDGE_MARGIN_PX) cut |= CUT_RIGHT;
+        if (bottom < imageHeight && boxes[o + 3] >= bottom - EDGE_MARGIN_PX) cut |= CUT_BOTTOM;
+        cuts[count] = cut;
+        objects[count] = obj;
+        // Scores are positive, so their IEEE bits order the same way as the values
+        sortKeys[count] = ((long) Float.floatToIntBits(obj.confidence) << 32) | count;
+        count++;
+        return true;
+    }
+
+    // Runs the merge and returns the surviving detections, highest score first, boxes updated in place
+    public List<DetectedObject> merge() {
+        Arrays.sort(sortKeys, 0, count);
+        int keptCount = 0;
+        for (int k = count - 1; k >= 0; k--) {
+            final int c = (int) sortKeys[k];
+            boolean absorbed = false;
+            for (int j = 0; j < keptCount && !absorbed; j++) {
+                final int m = kept[j];
+                if (!sameClass(objects[m].objectClass, objects[c].objectClass)) continue;
+                // Pieces first: a cut box inside the whole-object box of a neighbouring tile is also a
+                // "duplicate", but only the union keeps the whole extent when the piece scored higher
+                if (isFragment(m, c)) {
+                    union(m, c);
+                    fragmentsJoined++;
+                    absorbed = true;
+                } else if (isDuplicate(m, c)) {
+                    extendCutSides(m, c);
+                    duplicatesRemoved++;
+                    absorbed = true;
+                }
+            }
+            if (!absorbed) kept[keptCount++] = c;
+        }
+        keptCount = settle(keptCount);
+
+        List<DetectedObject> out = new ArrayList<>(keptCount);
+        for (int j = 0; j < keptCount; j++) {
+            final int m = kept[j];
+            final DetectedObject obj = objects[m];
+            obj.boundingBoxLeft = boxes[m * 4];
+            obj.boundingBoxTop = boxes[m * 4 + 1];
+            obj.boundingBoxRight = boxes[m * 4 + 2];
+            obj.boundingBoxBottom = boxes[m * 4 + 3];
+            out.add(obj);
+        }
+        return out;
+    }
+
+    // Merges kept boxes (higher score into lower index) until no pair is a fragment or duplicate pair any more.
+    // Returns the new kept count.
+    private int settle(int keptCount) {
+        boolean changed = keptCount > 1;
+        while (changed) {
+            changed = false;
+            for (int j = 0; j < keptCount; j++) {
+                for (int k = j + 1; k < keptCount; k++) {
+                    final int m = kept[j], c = kept[k];
+                    if (!sameClass(objects[m].objectClass, objects[c].objectClass)) continue;
+                    if (isFragment(m, c)) {
+                        union(m, c);
+                        fragmentsJoined++;
+                    } else if (isDuplicate(m, c)) {
+                        extendCutSides(m, c);
+                        duplicatesRemoved++;
+                    } else {
+                        continue;
+                    }
+                    System.arraycopy(kept, k + 1, kept, k, keptCount - k - 1);
+                    keptCount--;
+                    k--;
+                    changed = true;
+                }
+            }
+        }
+        return keptCount;
+    }
+
+    private boolean isDuplicate(int a, int b) {
+        final float inter = intersection(a, b);
+        if (inter <= 0) return false;
+        final float areaA = area(a), areaB = area(b);
+        return inter > iouThreshold * (areaA + areaB - inter) || inter > CONTAINED_FRACTION * Math.min(areaA, areaB);
+    }
+
+    // a and b are two pieces of one object split at a tile edge
+    private boolean isFragment(int a, int b) {
+        final int oa = a * 4, ob = b * 4;
+        final float ax = boxes[oa] + boxes[oa + 2], bx = boxes[ob] + boxes[ob + 2]; // Doubled centres
+        final float ay = boxes[oa + 1] + boxes[oa + 3], by = boxes[ob + 1] + boxes[ob + 3];
+        // Side by side: cut on the sides facing each other, touching or overlapping in x, lined up in y
+        final boolean horizontal = bx > ax
+                ? (cuts[a] & CUT_RIGHT) != 0 || (cuts[b] & CUT_LEFT) != 0
+                : (cuts[a] & CUT_LEFT) != 0 || (cuts[b] & CUT_RIGHT) != 0;
+        if (horizontal && boxes[oa] <= boxes[ob + 2] + EDGE_MARGIN_PX && boxes[ob] <= boxes[oa + 2] + EDGE_MARGIN_PX
+                && overlap1d(boxes[oa + 1], boxes[oa + 3], boxes[ob + 1], boxes[ob + 3]) > ALIGN_IOU) {
+            return true;
+        }
+        // One above the other
+        final boolean vertical = by > ay
+                ? (cuts[a] & CUT_BOTTOM) != 0 || (cuts[b] & CUT_TOP) != 0
+                : (cuts[a] & CUT_TOP) != 0 || (cuts[b] & CUT_BOTTOM) != 0;
+        return vertical && boxes[oa + 1] <= boxes[ob + 3] + EDGE_MARGIN_PX && boxes[ob + 1] <= boxes[oa + 3] + EDGE_MARGIN_PX
+                && overlap1d(boxes[oa], boxes[oa + 2], boxes[ob], boxes[ob + 2]) > ALIGN_IOU;
+    }
+
+    // Grows into to cover from. A side of the union stays cut if the piece that provides that side was cut
+    // there, so an object spanning three tiles can still pick up its third piece.
+    private void union(int into, int from) {
+        final int oi = into * 4, of = from * 4;
+        int cut = 0;
+        cut |= (boxes[of] < boxes[oi] ? cuts[from] : cuts[into]) & CUT_LEFT;
+        cut |= (boxes[of + 1] < boxes[oi + 1] ? cuts[from] : cuts[into]) & CUT_TOP;
+        cut |= (boxes[of + 2] > boxes[oi + 2] ? cuts[from] : cuts[into]) & CUT_RIGHT;
+        cut |= (boxes[of + 3] > boxes[oi + 3] ? cuts[from] : cuts[into]) & CUT_BOTTOM;
+        cuts[into] = cut;
+        boxes[oi] = Math.min(boxes[oi], boxes[of]);
+        boxes[oi + 1] = Math.min(boxes[oi + 1], boxes[of + 1]);
+        boxes[oi + 2] = Math.max(boxes[oi + 2], boxes[of + 2]);
+        boxes[oi + 3] = Math.max(boxes[oi + 3], boxes[of + 3]);
+    }
+
+    // On each side where into was cut and from reaches further, from saw more of the object: take its edge
+    // (and whether that edge was cut)
+    private void extendCutSides(int into, int from) {
+        final int oi = into * 4, of = from * 4;
+        int cut = cuts[into];
+        if ((cut & CUT_LEFT) != 0 && boxes[of] < boxes[oi]) {
+            boxes[oi] = boxes[of];
+            cut = (cut & ~CUT_LEFT) | (cuts[from] & CUT_LEFT);
+        }
+        if ((cut & CUT_TOP) != 0 && boxes[of + 1] < boxes[oi + 1]) {
+            boxes[oi + 1] = boxes[of + 1];
+            cut = (cut & ~CUT_TOP) | (cuts[from] & CUT_TOP);
+        }
+        if ((cut & CUT_RIGHT) != 0 && boxes[of + 2] > boxes[oi + 2]) {
+            boxes[oi + 2] = boxes[of + 2];
+            cut = (cut & ~CUT_RIGHT) | (cuts[from] & CUT_RIGHT);
+        }
+        if ((cut & CUT_BOTTOM) != 0 && boxes[of + 3] > boxes[oi + 3]) {
+            boxes[oi + 3] = boxes[of + 3];
+            cut = (cut & ~CUT_BOTTOM) | (cuts[from] & CUT_BOTTOM);
+        }
+        cuts[into] = cut;
+    }
+
+    private float intersection(int a, int b) {
+        final int oa = a * 4, ob = b * 4;
+        final float w = Math.min(boxes[oa + 2], boxes[ob + 2]) - Math.max(boxes[oa], boxes[ob]);
+        if (w <= 0) return 0f;
+        final float h = Math.min(boxes[oa + 3], boxes[ob + 3]) - Math.max(boxes[oa + 1], boxes[ob + 1]);
+        return h <= 0 ? 0f : w * h;
+    }
+
+    private float area(int i) {
+        final int o = i * 4;
+        return (boxes[o + 2] - boxes[o]) * (boxes[o + 3] - boxes[o + 1]);
+    }
+
+    private static float overlap1d(float a0, float a1, float b0, float b1) {
+        final float inter = Math.min(a1, b1) - Math.max(a0, b0);
+        if (inter <= 0) return 0f;
+        return inter / (Math.max(a1, b1) - Math.min(a0, b0));
+    }
+
+    private static boolean sameClass(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    public int getCount() { return count; }
+    public int getCapacity() { return maxDetections; }
+    public long getDuplicatesRemoved() { return duplicatesRemoved; }
+    public long getFragmentsJoined() { return fragmentsJoined; }
+}
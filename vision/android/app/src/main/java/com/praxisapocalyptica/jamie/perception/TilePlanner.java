@@ -0,0 +1,130 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Pure Java (no Android imports) so tile layouts and selection can be checked on a plain JVM.
+
+// Tile layout for small-object detection (VisionProcessor tiling mode).
+// Downscaling a whole camera frame to the model input makes objects of a few dozen pixels disappear, so the
+// frame is also split into a columns x rows grid of overlapping tiles, each converted at a higher scale.
+// The overlap should be at least the size of the small objects we care about, so each of them is whole in
+// at least one tile (TileMerger joins the pieces of anything larger).
+//
+// The model runs one image at a time, so each tile costs a full inference. To bound the cost per frame only
+// maxTilesPerFrame tiles are picked: first any tile that hasn't run for columns x rows plans, then the tiles
+// holding the centre of a small tracked object (biggest need first), then the tiles that have waited longest.
+// Without the first rule the tracked tiles would win every plan and small objects elsewhere, never tracked
+// because never seen, would never be found; with it no tile waits much longer than columns x rows plans.
+public class TilePlanner {
+
+    private static final int OVERDUE = 1 << 20; // Priority boost above any count of tracked objects
+
+    private final int columns;
+    private final int rows;
+    private final float overlap;
+    private final int maxTilesPerFrame;
+    private final float smallObjectFraction; // Boxes below this fraction of the frame area count as small
+
+    // Layout for the current image size, tile t = [left, top, right, bottom)
+    private int imageWidth = -1, imageHeight = -1;
+    private final int[] tiles;
+    private final int[] lastRun;    // Plan number when each tile last ran
+    private final int[] priority;   // Scratch: small tracked objects per tile this plan
+    private final int[] selected;
+    private int selectedCount = 0;
+    private int planNumber = 0;
+    private final float[] box = new float[4];
+
+    public TilePlanner(int columns, int rows, float overlap, int maxTilesPerFrame) {
+        if (columns < 1 || rows < 1 || overlap < 0 || overlap >= 0.5f || maxTilesPerFrame < 0) {
+            throw new IllegalArgumentException("Invalid tile layout: " + columns + "x" + rows + ", overlap " + overlap
+                    + ", " + maxTilesPerFrame + " tiles per frame");
+        }
+        this.columns = columns;
+        this.rows = rows;
+        this.overlap = overlap;
+        this.maxTilesPerFrame = Math.min(maxTilesPerFrame, columns * rows);
+        this.smallObjectFraction = 1f / (4f * columns * rows);
+        tiles = new int[columns * rows * 4];
+        lastRun = new int[columns * rows];
+        priority = new int[columns * rows];
+        selected = new int[columns * rows];
+    }
+
+    // Chooses the tiles for this frame; tracker may be null (then tiles simply take turns).
+    // Returns the number of tiles selected; read them with getTile*(i).
+    public int plan(int width, int height, ObjectTracker tracker) {
+        if (width != imageWidth || height != imageHeight) layout(width, height);
+        planNumber++;
+        final int count = columns * rows;
+        for (int t = 0; t < count; t++) priority[t] = 0;
+
+        if (tracker != null) {
+            final float smallArea = smallObjectFraction * width * height;
+            for (int i = 0; i < tracker.getTrackCount(); i++) {
+                tracker.getTrackBox(i, box);
+                if ((box[2] - box[0]) * (box[3] - box[1]) > smallArea) continue;
+                final float cx = (box[0] + box[2]) * 0.5f, cy = (box[1] + box[3]) * 0.5f;
+                for (int t = 0; t < count; t++) {
+                    final int o = t * 4;
+                    if (cx >= tiles[o] && cx < tiles[o + 2] && cy >= tiles[o + 1] && cy < tiles[o + 3]) {
+                        priority[t]++;
+                        break; // One tile is enough to see it whole
+                    }
+                }
+            }
+        }
+
+        // Overdue tiles first
+        for (int t = 0; t < count; t++) {
+            if (planNumber - lastRun[t] > count) priority[t] += OVERDUE;
+        }
+
+        // Selection by (overdue, tracked small objects, frames waited), all descending
+        selectedCount = 0;
+        while (selectedCount < maxTilesPerFrame) {
+            int best = -1;
+            for (int t = 0; t < count; t++) {
+                if (priority[t] < 0) continue; // Already taken
+                if (best < 0 || priority[t] > priority[best]
+                        || (priority[t] == priority[best] && lastRun[t] < lastRun[best])) {
+                    best = t;
+                }
+            }
+            if (best < 0) break;
+            selected[selectedCount++] = best;
+            priority[best] = -1;
+            lastRun[best] = planNumber;
+        }
+        return selectedCount;
+    }
+
+    private void layout(int width, int height) {
+        imageWidth = width;
+        imageHeight = height;
+        // Tile size such that columns tiles with the given overlap exactly span the image
+        final float tileWidth = width / (columns - overlap * (columns - 1));
+        final float tileHeight = height / (rows - overlap * (rows - 1));
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                final int o = (r * columns + c) * 4;
+                final float left = c * tileWidth * (1 - overlap);
+                final float top = r * tileHeight * (1 - overlap);
+                tiles[o] = Math.round(left);
+                tiles[o + 1] = Math.round(top);
+                tiles[o + 2] = c == columns - 1 ? width : Math.round(left + tileWidth);
+                tiles[o + 3] = r == rows - 1 ? height : Math.round(top + tileHeight);
+            }
+        }
+        for (int t = 0; t < columns * rows; t++) lastRun[t] = 0;
+    }
+
+    // --- Selected tiles of the last plan(), i in [0, plan()) ---
+    public int getTileLeft(int i) { return tiles[selected[i] * 4]; }
+    public int getTileTop(int i) { return tiles[selected[i] * 4 + 1]; }
+    public int getTileRight(int i) { return tiles[selected[i] * 4 + 2]; }
+    public int getTileBottom(int i) { return tiles[selected[i] * 4 + 3]; }
+    public int getTileIndex(int i) { return selected[i]; }
+
+    public int getColumns() { return columns; }
+    public int getRows() { return rows; }
+    public int getMaxTilesPerFrame() { return maxTilesPerFrame; }
+}
@@ -7,46 +7,63 @@ package com/praxisapocalyptica/jamie.perception;
 // Requires label map file (txt) in your assets folder
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.PowerManager;
 import android.util.Log;
 
 import com.google.ar.core.Frame;
 import com.google.ar.core.Pose; // If processing ARCore frames
 import com.google.ar.core.exceptions.NotYetAvailableException;
-import org.tensorflow.lite.Interpreter;
 import org.tensorflow.lite.support.common.FileUtil;
-import org.tensorflow.lite.support.image.TensorImage;
-import org.tensorflow.lite.support.image.ops.ResizeOp;
-import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
-import android.graphics.PointF; // For polygon masks
 
 // Need to define data structure for detected objects (Class, Confidence, BBox, Mask)
 public class DetectedObject {
+    public int trackId = -1; // Stable id of the same physical object across frames; -1 until one is assigned
+    public int trackAge = 0; // Frames since the track was first seen (see ObjectTracker)
     public String objectClass;
     public float confidence;
     public float boundingBoxLeft;
     public float boundingBoxTop;
     public float boundingBoxRight;
     public float boundingBoxBottom;
-    // Mask data - depends on model output (e.g., ByteBuffer, float array, or polygon points)
-    // This is the tricky part for instance segmentation output
-    // Example: Raw mask output buffer or processed polygon points
-    public ByteBuffer maskBuffer; // Example: Raw mask output tensor part
-    public List<PointF> polygon; // Example: Processed polygon from mask
+    // Mask data - a lazy handle: coefficients . prototypes is only evaluated inside the box, on first access,
+    // and only upsampled to camera resolution when someone calls mask.upsample(...)
+    // Must be resolved (any accessor or mask.resolve()) inside onObjectsDetected, before the prototypes are recycled
+    // Covers the box as measured (mask.getLeft()...), which the tracker may have smoothed the box fields away from
+    public LazyInstanceMask mask;
+    private BinaryMask binaryMask; // Packed 1-bit form of mask, built on first request
+    // Simplified outline of the mask as interleaved x, y image coordinates (x0, y0, x1, y1, ...),
+    // filled by VisionProcessor.convertMaskToPolygon(obj) when the consumer needs it; fitted to the box fields
+    public float[] polygon;
 
     // Add 3D pose if derived from ARCore frame and camera pose
     public float poseX = 0, poseY = 0, poseZ = 0, poseQx = 0, poseQy = 0, poseQz = 0, poseQw = 0; // Pose in AR world frame
+    // Visible size (m) along the pose's local x / y / z axes and how much to trust the pose (0..1), see DepthLifter
+    public float extentX = 0, extentY = 0, extentZ = 0;
+    public float poseConfidence = 0;
 
 
     // Add constructor, getters, setters as needed
+
+    // Compact bit-packed mask over the bounding box (8x smaller than a byte per pixel, RLE-serialisable).
+    // Built from the lazy mask on first call; null if the model produced no mask.
+    public BinaryMask getBinaryMask() {
+        if (binaryMask == null && mask != null) {
+            binaryMask = mask.toBinaryMask(0.5f);
+        }
+        return binaryMask;
+    }
+
     @Override
     public String toString() {
         return "DetectedObject{" +
@@ -66,10 +83,55 @@ public class VisionProcessor {
     private static final String MODEL_PATH = "yolov8n-seg.tflite"; // <<<<< SET YOUR MODEL FILE NAME >>>>>
     private static final String LABEL_PATH = "coco_labels.txt"; // <<<<< SET YOUR LABEL FILE NAME >>>>>
 
-    private Interpreter tfliteInterpreter;
+    private static final String PREFS_NAME = "jamie_vision";
+    private static final String PREF_BACKEND = "backend:"; // + model: device fingerprint | TfliteInferenceBackend.Kind
+
+    private volatile InferenceBackend backend; // Fastest of CPU / XNNPACK / NNAPI, set once loadModel() is done
+    private YoloSegPostProcessor.BoxCoordinates boxCoordinates; // setBoxCoordinates() before the model was loaded
+    private volatile boolean destroyed = false; // No new frames once destroy() has been called
+    private static final int CPU_THREADS = 4;
     private List<String> labels;
     private int inputWidth;
     private int inputHeight;
+    private YuvToTensorConverter yuvConverter; // YUV_420_888 -> model input tensor, reused every frame
+    private TensorPool tensorPool; // Preallocated output buffers, reused every frame
+    private YoloSegPostProcessor postProcessor; // Threshold + NMS over the raw detection tensor
+    private ObjectTracker tracker; // Track ids, smoothed boxes / positions across frames
+    private int detectionOutputIndex; // Which output tensor is the detection head
+    private int protoOutputIndex; // Which output tensor holds the mask prototypes (-1 if none)
+    private int protoWidth;
+    private int protoHeight;
+    private boolean protoChannelsLast;
+    private float[] maskCoefficients; // Scratch, copied into each LazyInstanceMask
+    private FramePipeline framePipeline; // Created on the first submitFrame() / processFrame() call
+    private final float[] poseTranslation = new float[3]; // Pose of the frame being enqueued (GL thread only)
+    private final float[] poseRotation = new float[4];
+    private final float[] historyPose = new float[7]; // Scratch for poseAt (GL thread only)
+    private volatile DetectionScheduler detectionScheduler; // Detection-skipping mode; null runs every frame
+    private boolean schedulerHasIntrinsics = false; // GL thread only
+    private volatile float[] imageIntrinsics; // fx, fy, cx, cy, width, height of the CPU image, read once
+    private boolean depthUnavailable = false; // Session runs without depth; GL thread only
+    private final DepthLifter depthLifter = new DepthLifter(); // Depth -> 3D pose / extent, worker thread only
+    private static final long LATENCY_SLO_NANOS = 150_000_000L; // p95 capture -> results held by the governor
+    private final FrameGovernor governor = new FrameGovernor(LATENCY_SLO_NANOS); // Frame rate / input stride
+    // Thermal headroom for the governor, forecast this far ahead. The platform rate-limits the call (NaN when it
+    // is polled too often), and the temperature moves over seconds anyway.
+    private static final int THERMAL_FORECAST_SECONDS = 10;
+    private static final long THERMAL_POLL_NANOS = 10_000_000_000L;
+    private long lastThermalPollNanos = Long.MIN_VALUE; // Worker thread only
+    private long lastProcessedSequence = -1; // Worker thread only
+    private volatile PoseBuffer poseHistory; // Poses by frame timestamp (SlamManager.getPoseHistory()), optional
+    private volatile TilePlanner tilePlanner; // Tiling mode for small objects; null runs one full-frame pass
+    private TileMerger tileMerger; // Cross-tile NMS, worker thread only
+    private final ContourTracer contourTracer = new ContourTracer(); // Mask -> polygon, scratch reused
+    private static final float POLYGON_EPSILON = 2.0f; // Douglas-Peucker tolerance in camera pixels
+    private int numClasses;
+    private static final float SCORE_THRESHOLD = 0.25f;
+    private static final float IOU_THRESHOLD = 0.45f;
+    private static final int MAX_DETECTIONS = 100;
+    // Box coordinate convention of the model's detection head (Ultralytics TFLite exports are normalized);
+    // AUTO tells from the first frame with detections. Overridable with setBoxCoordinates().
+    private static final YoloSegPostProcessor.BoxCoordinates BOX_COORDINATES = YoloSegPostProcessor.BoxCoordinates.AUTO;
     // Model output tensor shapes depend *heavily* on the specific TFLite model export
     // YOLOv8-Seg outputs are complex! Typically a detection output and a mask output.
     // You need to inspect your specific .tflite model's input/output signatures.
@@ -79,7 +141,10 @@ public class VisionProcessor {
     // private int MASK_HEIGHT = ...; private int MASK_WIDTH = ...;
     // private int numDetection = ...;
 
-    // Callback for when processing is complete
+    // Callback for when processing is complete. Called on two threads: the pipeline's worker for inferred
+    // frames and, in detection-skipping mode, the GL thread (submitFrame) for carried-forward ones, possibly
+    // at the same time. Every call gets its own list and objects, which the listener may keep or modify;
+    // keep any state shared between calls thread-safe.
     public interface VisionListener {
         void onObjectsDetected(List<DetectedObject> objects, Bitmap frameBitmap, Pose cameraPose);
         void onError(String errorMessage);
@@ -88,22 +153,56 @@ public class VisionProcessor {
     private VisionListener listener;
     private Context context;
 
+    // Returns right away: the model is loaded and the backends timed on a background thread (seconds, longer for
+    // a first NNAPI compile, so never on the UI thread). Frames submitted before that is done are ignored, see
+    // isReady(). Loading errors reach listener.onError on that thread.
     public VisionProcessor(Context context, VisionListener listener) {
         this.context = context;
         this.listener = listener;
         // TODO: Load configuration for model paths, input size, score threshold, etc.
+        Thread init = new Thread(this::loadModel, TAG + "-init");
+        init.setDaemon(true);
+        init.start();
+    }
 
+    // True once the model is loaded and frames are processed; false while loading or if it failed
+    public boolean isReady() {
+        return backend != null && !destroyed;
+    }
+
+    // Background half of the constructor. Every field it sets is written before backend, which is volatile, so
+    // a thread that sees the backend sees the rest.
+    private void loadModel() {
+        InferenceBackend loaded = null;
         try {
             // Load the TFLite model file from assets
-            ByteBuffer modelBuffer = FileUtil.loadMappedFile(context, MODEL_PATH);
-            Interpreter.Options options = new Interpreter.Options();
-            // Enable GPU delegation if available (requires specific dependencies and build flags)
-            // GpuDelegate delegate = new GpuDelegate();
-            // options.addDelegate(delegate);
-            // Enable NNAPI delegation if available (often good on Android devices)
-            // options.setUseNNAPI(true);
-
-            tfliteInterpreter = new Interpreter(modelBuffer, options);
+            final ByteBuffer modelBuffer = FileUtil.loadMappedFile(context, MODEL_PATH);
+
+            // Time a few warm-up runs on each available backend and keep the fastest one for this device.
+            // The winner is remembered per device build and model, so later starts only check it still runs.
+            final TfliteInferenceBackend.Kind[] kinds = {TfliteInferenceBackend.Kind.XNNPACK,
+                    TfliteInferenceBackend.Kind.CPU, TfliteInferenceBackend.Kind.NNAPI};
+            List<BackendAutoTuner.BackendFactory> candidates = new ArrayList<>();
+            for (TfliteInferenceBackend.Kind kind : kinds) {
+                candidates.add(() -> new TfliteInferenceBackend(modelBuffer, kind, CPU_THREADS));
+            }
+            final SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            final String key = PREF_BACKEND + MODEL_PATH + ":" + modelBuffer.capacity();
+            final String deviceTag = Build.FINGERPRINT + "|";
+            final String remembered = prefs.getString(key, "");
+            int preferred = -1;
+            for (int i = 0; i < kinds.length; i++) {
+                if (remembered.equals(deviceTag + kinds[i].name())) preferred = i;
+            }
+            BackendAutoTuner tuner = new BackendAutoTuner(2, 5);
+            loaded = tuner.selectPreferred(candidates, preferred);
+            if (loaded == null) {
+                throw new IllegalStateException("No inference backend could run the model.");
+            }
+            if (tuner.getSelectedIndex() != preferred) {
+                prefs.edit().putString(key, deviceTag + kinds[tuner.getSelectedIndex()].name()).apply();
+            }
+            Log.i(TAG, "Inference backend: " + loaded.getName() + "\n" + tuner.getReport());
 
             // Load labels
             labels = FileUtil.loadLabels(context, LABEL_PATH);
@@ -112,21 +211,62 @@ public class VisionProcessor {
             // Get input/output tensor details from the interpreter
             // You need to know the input tensor name/index and output tensor names/indices from your model export
             // Example: Input shape is typically [1, height, width, 3] for image
-            int[] inputShape = tfliteInterpreter.getInputTensor(0).shape(); // Assumes input tensor index is 0
-            inputHeight = inputShape;
-            inputWidth = inputShape;
-
-            // TODO: Get output tensor shapes and allocate output TensorBuffers
-            // The output tensors for YOLOv8-Seg are complex (detections + masks)
-            // Refer to TFLite export documentation for your specific model.
-            // For example, you might need to allocate several output buffers.
-            // int outputTensorCount = tfliteInterpreter.getOutputTensorCount();
-            // for (int i = 0; i < outputTensorCount; i++) {
-            //     int[] outputShape = tfliteInterpreter.getOutputTensor(i).shape();
-            //     DataType outputType = tfliteInterpreter.getOutputTensor(i).dataType();
-            //     // Allocate buffer and store in a map or list for inference
-            //     // outputTensorBuffers.put(i, TensorBuffer.createFixedSize(outputShape, outputType));
-            // }
+            int[] inputShape = loaded.getInputShape(0); // Assumes input tensor index is 0
+            inputHeight = inputShape[1];
+            inputWidth = inputShape[2];
+
+            // Camera frames are converted straight into this reusable input buffer
+            YuvToTensorConverter.OutputType inputType =
+                    loaded.isInputUint8(0)
+                            ? YuvToTensorConverter.OutputType.UINT8
+                            : YuvToTensorConverter.OutputType.FLOAT32;
+            yuvConverter = new YuvToTensorConverter(inputWidth, inputHeight, inputType);
+
+            // Discover all output tensor shapes/sizes once and preallocate reusable buffers for them.
+            // The output tensors for YOLOv8-Seg are complex (detections + mask prototypes), and their
+            // order depends on the export, so inspect the shapes logged below for your model.
+            int outputTensorCount = loaded.getOutputTensorCount();
+            int[][] outputShapes = new int[outputTensorCount][];
+            int[] outputNumBytes = new int[outputTensorCount];
+            for (int i = 0; i < outputTensorCount; i++) {
+                outputShapes[i] = loaded.getOutputShape(i);
+                outputNumBytes[i] = loaded.getOutputNumBytes(i);
+                Log.i(TAG, "Output tensor " + i + ": shape=" + java.util.Arrays.toString(outputShapes[i])
+                        + " bytes=" + outputNumBytes[i]);
+            }
+            // One buffer set: inference, post-processing and the listener all run on the worker thread,
+            // which releases the set before it takes the next frame
+            tensorPool = new TensorPool(outputShapes, outputNumBytes, loaded.getInputTensorCount(), 1);
+
+
+            // The detection head is the rank-3 output [1, 4 + numClasses + 32, numAnchors];
+            // the rank-4 output holds the mask prototypes.
+            detectionOutputIndex = -1;
+            protoOutputIndex = -1;
+            for (int i = 0; i < outputTensorCount; i++) {
+                if (outputShapes[i].length == 3) detectionOutputIndex = i;
+                if (outputShapes[i].length == 4) protoOutputIndex = i;
+            }
+            if (detectionOutputIndex < 0) {
+                throw new IllegalStateException("Model has no [1, channels, anchors] detection output.");
+            }
+            int[] detectionShape = outputShapes[detectionOutputIndex];
+            YoloSegPostProcessor post = new YoloSegPostProcessor(numClasses, detectionShape[1] - 4 - numClasses,
+                    detectionShape[2], SCORE_THRESHOLD, IOU_THRESHOLD, MAX_DETECTIONS, inputWidth, inputHeight,
+                    BOX_COORDINATES);
+            synchronized (this) { // Against setBoxCoordinates() from the caller's thread
+                if (boxCoordinates != null) post.setBoxCoordinates(boxCoordinates);
+                postProcessor = post;
+            }
+            maskCoefficients = new float[postProcessor.getNumMaskCoefficients()];
+            tracker = new ObjectTracker(MAX_DETECTIONS);
+            if (protoOutputIndex >= 0) {
+                // Prototypes are [1, H, W, 32] in TFLite exports, [1, 32, H, W] in some others
+                int[] protoShape = outputShapes[protoOutputIndex];
+                protoChannelsLast = protoShape[3] == postProcessor.getNumMaskCoefficients();
+                protoHeight = protoChannelsLast ? protoShape[1] : protoShape[2];
+                protoWidth = protoChannelsLast ? protoShape[2] : protoShape[3];
+            }
 
 
             System.out.println(TAG + ": TFLite model loaded. Input: " + inputWidth + "x" + inputHeight);
@@ -137,189 +277,424 @@ public class VisionProcessor {
             System.err.println(TAG + ": Error loading TFLite model or labels: " + e);
             android.util.Log.e(TAG, "Error loading TFLite model", e);
             if (listener != null) listener.onError("Error loading vision model.");
-            tfliteInterpreter = null; // Invalidate interpreter
+            if (loaded != null) loaded.close();
+            return; // backend stays null
         } catch (Exception e) {
             System.err.println(TAG + ": Unexpected error during model initialization: " + e);
             android.util.Log.e(TAG, "Error during model initialization", e);
              if (listener != null) listener.onError("Error initializing vision model.");
-             tfliteInterpreter = null;
+             if (loaded != null) loaded.close();
+             return;
+        }
+        synchronized (this) {
+            // destroy() may have run while loading: then nothing else will close the backend
+            if (!destroyed) {
+                backend = loaded;
+                return;
+            }
         }
+        loaded.close();
     }
 
     // Process a camera frame (e.g., from ARCore or a standard camera listener)
-    // If using ARCore, you get a Frame object and its camera Pose.
-    // If using standard camera, you get a Bitmap or ByteBuffer frame and need separate pose estimation (harder).
+    // Same as submitFrame, except for the pose: the camera pose at the image's capture time from the pose
+    // history if one is set (setPoseHistory), otherwise cameraPose, which may be newer than the image
+    // (processFrame called late, or with the robot's current pose), or null if there is none. The frame goes
+    // through the same pipeline, so results arrive on its worker thread after this returns: the converter,
+    // tensor slot and post-processor belong to that thread and are never used from the caller's.
     public void processFrame(Frame arFrame, Pose cameraPose) { // Example processing an ARCore Frame
-         if (tfliteInterpreter == null) return; // Model failed to load
-
-         Bitmap inputBitmap = null;
-         try {
-              // --- Get Camera Image from ARCore Frame ---
-              // This is a complex step! You need to get the raw image bytes (usually YUV)
-              // and convert them to a format the TFLite model expects (Bitmap or ByteBuffer).
-              // ARCore's Image is YUV_420_888 format.
-              // Example conceptual steps:
-              // Image arImage = arFrame.acquireCameraImage();
-              // ByteBuffer yBuffer = arImage.getPlanes().getBuffer(); // Y plane
-              // ByteBuffer uBuffer = arImage.getPlanes().getBuffer(); // U plane
-              // ByteBuffer vBuffer = arImage.getPlanes().getBuffer(); // V plane
-              // int yRowStride = arImage.getPlanes().getRowStride();
-              // int uvRowStride = arImage.getPlanes().getRowStride(); // Or arImage.getPlanes().getRowStride()
-              // int uvPixelStride = arImage.getPlanes().getPixelStride(); // Or arImage.getPlanes().getPixelStride()
-
-              // <<< Implement YUV to Bitmap Conversion >>>
-              // inputBitmap = convertYUVBytesToBitmap(yBuffer, uBuffer, vBuffer, yRowStride, uvRowStride, uvPixelStride, arImage.getWidth(), arImage.getHeight()); // You need to write this function!
-
-              // arImage.close(); // Always close the image when done!
-
-              // --- Alternative (if not using ARCore frame directly) ---
-              // If you are getting camera frames via CameraX or Camera2 as Bitmaps or ImageFormat.YUV_420_888 ByteBuffers,
-              // adapt the input processing accordingly. CameraX ImageProxy can often provide the ByteBuffer directly.
-              // Example from a CameraX ImageProxy:
-              // ImageProxy imageProxy = ...;
-              // inputBitmap = imageProxy.toBitmap(); // Simple, but might be slow
-              // // Or process imageProxy's planes directly into a ByteBuffer for the model input
-
-              // --- For this outline, let's assume you have a Bitmap called inputBitmap ---
-              // Placeholder (replace with actual frame acquisition/conversion):
-              if (arFrame != null) { // If processing ARCore frame
-                  try {
-                      // This is a simplified placeholder. Actual YUV->Bitmap conversion is more involved.
-                      com.google.ar.core.Image arImage = arFrame.acquireCameraImage();
-                      ByteBuffer yuvByteBuffer = arImage.getPlanes().getBuffer(); // Just Y plane as a minimal placeholder
-                      // You would need a proper YUV to Bitmap conversion here
-                      inputBitmap = Bitmap.createBitmap(arImage.getWidth(), arImage.getHeight(), Bitmap.Config.ARGB_8888); // Dummy Bitmap creation
-                      arImage.close();
-                  } catch (NotYetAvailableException e) {
-                      // Frame image not yet available, skip processing this frame
-                      // Log.d(TAG, "ARCore camera image not yet available.");
-                      return;
-                  }
-              } else {
-                  // Assume inputBitmap comes from a different camera source if not using ARCore frame
-                  // inputBitmap = yourCameraSource.getLatestBitmap(); // Example
-              }
-
-
-         } catch (Exception e) { // Catching general Exception for simplicity, include specific ones
-             System.err.println(TAG + ": Error acquiring/processing camera frame: " + e);
-             android.util.Log.e(TAG, "Error acquiring frame", e);
-             if (listener != null) listener.onError("Error processing camera frame.");
-             return;
+         if (backend == null || destroyed || arFrame == null) return; // Model failed to load, or shut down
+         if (poseAt(arFrame.getTimestamp())) {
+             enqueue(arFrame, null, true);
+         } else if (cameraPose != null) {
+             cameraPose.getTranslation(poseTranslation, 0);
+             cameraPose.getRotationQuaternion(poseRotation, 0);
+             enqueue(arFrame, cameraPose, true);
+         } else {
+             enqueue(arFrame, null, false);
          }
+         // If frames come from CameraX / Camera2 instead, feed the ImageProxy / Image planes to
+         // framePipeline.capture(...) the same way enqueue() does.
+    }
 
-         if (inputBitmap == null) {
-             // System.out.println(TAG + ": Frame bitmap is null, skipping processing.");
-             return; // Skip this frame if bitmap acquisition failed
-         }
+    // Camera pose at the capture time of the image into poseTranslation / poseRotation, from the pose history;
+    // false if there is none (no history, or the timestamp is outside it). Nothing is allocated here; publish()
+    // builds a Pose from the arrays only if there is a listener.
+    private boolean poseAt(long timestampNs) {
+        final PoseBuffer history = poseHistory;
+        if (history == null || !history.getPose(timestampNs, historyPose)) return false;
+        System.arraycopy(historyPose, 0, poseTranslation, 0, 3);
+        System.arraycopy(historyPose, 3, poseRotation, 0, 4);
+        return true;
+    }
 
+    // Pose history used by processFrame(Frame, Pose) to look up the pose at capture time (null to use the
+    // pose passed in)
+    public void setPoseHistory(PoseBuffer history) {
+        poseHistory = history;
+    }
 
-         // Preprocess the bitmap for the TFLite model
-         TensorImage tensorImage = new TensorImage(org.tensorflow.lite.DataType.UINT8); // Or FLOAT32 depending on model input
-         tensorImage.load(inputBitmap);
+    // --- Asynchronous path (see FramePipeline) ---
+    // Call from the GL thread (SlamManager.FrameListener.onNewFrame): only the camera planes and pose are
+    // copied here, inference runs on the pipeline's worker thread, and stale frames are dropped when inference
+    // can't keep up.
+    public void submitFrame(Frame arFrame, Pose cameraPose) {
+        if (backend == null || destroyed || arFrame == null || cameraPose == null) return;
+        cameraPose.getTranslation(poseTranslation, 0);
+        cameraPose.getRotationQuaternion(poseRotation, 0);
+        enqueue(arFrame, cameraPose, true);
+    }
 
-         // Resize the image to the model's expected input size
-         tensorImage = new ResizeOp(inputHeight, inputWidth, ResizeOp.ResizeMethod.BILINEAR).apply(tensorImage);
+    // Hands the frame to the pipeline with the pose in poseTranslation / poseRotation (hasPose false: unknown,
+    // then no detection skipping, depth lifting or pose in the results). cameraPose is the same pose as a Pose
+    // object if the caller has one, for propagated results. GL thread (or whichever single thread feeds frames).
+    private void enqueue(Frame arFrame, Pose cameraPose, boolean hasPose) {
+        if (framePipeline == null) {
+            framePipeline = new FramePipeline(3, this::processFrame);
+            framePipeline.start();
+        }
+        final DetectionScheduler scheduler = hasPose ? detectionScheduler : null;
+        if (!governor.admit(System.nanoTime())) {
+            // Over the governor's frame rate: no inference for this frame
+            if (scheduler != null && scheduler.hasResults()) emitPropagated(scheduler, cameraPose);
+            return;
+        }
+        if (imageIntrinsics == null) {
+            // Constant for the session; boxes are in CPU image pixels, so use the image intrinsics
+            com.google.ar.core.CameraIntrinsics intrinsics = arFrame.getCamera().getImageIntrinsics();
+            float[] focal = intrinsics.getFocalLength();
+            float[] principal = intrinsics.getPrincipalPoint();
+            int[] size = intrinsics.getImageDimensions();
+            imageIntrinsics = new float[] {focal[0], focal[1], principal[0], principal[1], size[0], size[1]};
+        }
+        if (scheduler != null) {
+            if (!schedulerHasIntrinsics) {
+                final float[] k = imageIntrinsics;
+                scheduler.setIntrinsics(k[0], k[1], k[2], k[3], (int) k[4], (int) k[5]);
+                schedulerHasIntrinsics = true;
+            }
+            if (!scheduler.isKeyframeDue(poseTranslation, poseRotation)) {
+                emitPropagated(scheduler, cameraPose);
+                return;
+            }
+        }
+        com.google.ar.core.Image arImage = null;
+        com.google.ar.core.Image depthImage = null;
+        try {
+            arImage = arFrame.acquireCameraImage();
+            if (!depthUnavailable) {
+                try {
+                    depthImage = arFrame.acquireDepthImage16Bits(); // Copied with the frame for 3D lifting
+                } catch (NotYetAvailableException e) {
+                    // No depth estimate yet (first frames of the session)
+                } catch (IllegalStateException e) {
+                    depthUnavailable = true; // Depth mode is off (see SlamManager); stop asking
+                }
+            }
+            com.google.ar.core.Image.Plane[] planes = arImage.getPlanes();
+            com.google.ar.core.Image.Plane depthPlane = depthImage != null ? depthImage.getPlanes()[0] : null;
+            boolean captured = framePipeline.capture(planes[0].getBuffer(), planes[1].getBuffer(), planes[2].getBuffer(),
+                    planes[0].getRowStride(), planes[0].getPixelStride(),
+                    planes[1].getRowStride(), planes[1].getPixelStride(), arImage.getWidth(), arImage.getHeight(),
+                    hasPose ? poseTranslation : null, hasPose ? poseRotation : null, arImage.getTimestamp(),
+                    depthPlane != null ? depthPlane.getBuffer() : null,
+                    depthPlane != null ? depthImage.getWidth() : 0, depthPlane != null ? depthImage.getHeight() : 0,
+                    depthPlane != null ? depthPlane.getRowStride() : 0);
+            if (scheduler != null) {
+                if (captured) scheduler.onKeyframeSubmitted(poseTranslation, poseRotation);
+                else if (scheduler.hasResults()) emitPropagated(scheduler, cameraPose); // No free slot: carry the last results forward instead
+            }
+        } catch (NotYetAvailableException e) {
+            // Frame image not yet available, skip this frame
+        } catch (Exception e) {
+            android.util.Log.e(TAG, "Error capturing frame for vision pipeline", e);
+        } finally {
+            if (arImage != null) arImage.close();
+            if (depthImage != null) depthImage.close();
+        }
+    }
 
-         // Prepare input buffer from the TensorImage
-         ByteBuffer inputBuffer = tensorImage.getBuffer();
+    // Non-keyframe in detection-skipping mode: the last results moved by the camera motion since their frame.
+    // GL thread; the objects are new copies, never the ones the worker handed out.
+    private void emitPropagated(DetectionScheduler scheduler, Pose cameraPose) {
+        List<DetectedObject> objects = scheduler.propagate(poseTranslation, poseRotation);
+        if (listener == null) return;
+        if (cameraPose == null) cameraPose = new Pose(poseTranslation, poseRotation); // Pose from the history
+        listener.onObjectsDetected(objects, null, cameraPose);
+    }
 
+    // Detection-skipping mode: full inference only on keyframes chosen by the scheduler (adaptive interval,
+    // earlier on fast camera motion), camera-motion propagation of the last results on the frames in between.
+    // Applies to frames with a pose. Pass null to run inference on every frame again.
+    public void setDetectionScheduler(DetectionScheduler scheduler) {
+        detectionScheduler = scheduler;
+    }
 
-         // Run inference
-         // The output structure is model-specific. YOLOv8-Seg has multiple outputs.
-         // Example placeholder output map:
-         Map<Integer, Object> outputMap = new HashMap<>();
-         // Allocate output tensors based on model output shapes and store in outputMap
-         // For example:
-         // outputMap.put(0, TensorBuffer.createFixedSize(detectionOutputShape, org.tensorflow.lite.DataType.FLOAT32));
-         // outputMap.put(1, TensorBuffer.createFixedSize(maskOutputShape, org.tensorflow.lite.DataType.FLOAT32));
+    public DetectionScheduler getDetectionScheduler() {
+        return detectionScheduler;
+    }
 
+    // Tiling mode for small objects: every processed frame gets a full-frame pass plus the planner's tiles
+    // (each a full inference, so expect latency to grow with the tiles per frame; the governor compensates).
+    // Pass null to go back to one full-frame pass.
+    public void setTiling(TilePlanner planner) {
+        tilePlanner = planner;
+    }
 
-         try {
-             // Run inference
-             // tfliteInterpreter.runForMultipleInputsOutputs(new Object[]{inputBuffer}, outputMap);
-
-             // <<<<< IMPLEMENT POST-PROCESSING >>>>>
-             // This is complex for YOLOv8-Seg:
-             // 1. Get output buffers from outputMap (e.g., detection_boxes, detection_classes, detection_scores, detection_masks)
-             // 2. Process the detection output tensor (likely a float array/buffer):
-             //    - Iterate through detections.
-             //    - Apply confidence score threshold.
-             //    - Apply Non-Maximum Suppression (NMS) to remove duplicate bounding boxes for the same object.
-             //    - Get bounding box coordinates (often normalized, need to scale back to original image size).
-             //    - Get class ID and lookup label.
-             // 3. Process the mask output tensor:
-             //    - Get the raw mask data for the filtered detections. These are usually low-resolution prototype masks and per-detection coefficients.
-             //    - Combine prototypes using coefficients to get raw instance masks (often low-resolution, e.g., 160x160).
-             //    - Scale these low-resolution masks back up to the original image size or bounding box size.
-             //    - Apply a mask threshold (e.g., 0.5) to get binary masks (pixel is object or not).
-             //    - Optionally, convert the binary mask pixels into a polygon (List<PointF>) for easier representation/transmission.
-             // 4. Create a list of DetectedObject instances.
-             //    - For each *filtered, valid* detection: Populate its class, confidence, scaled bounding box.
-             //    - Include the mask data (e.g., raw buffer part, or the generated polygon).
-             //    - If using ARCore, transform the 2D image coordinates/bounding box center
-             //      into a 3D pose in the AR world frame using ARCore hit testing or depth data from the ARFrame.
-             //      This gives you the object's 3D pose relative to the phone. Add this to the DetectedObject.
-
-             List<DetectedObject> detectedObjects = new ArrayList<>(); // Populate this list with results
-             // Example loop structure after NMS and mask processing:
-             // for (int i = 0; i < numFilteredDetections; i++) {
-             //    DetectedObject obj = new DetectedObject();
-             //    obj.objectClass = labels.get(filteredClassIds[i]);
-             //    obj.confidence = filteredScores[i];
-             //    // Scale and set bounding box from filteredBoxes[i]
-             //    obj.boundingBoxLeft = ...; obj.boundingBoxTop = ...; ...
-
-             //    // Get and process mask data for this detection
-             //    // obj.maskBuffer = ... // Store raw mask data
-             //    // obj.polygon = convertMaskToPolygon(...); // Convert processed mask to polygon
-
-             //    // Add 3D pose if using ARCore/depth
-             //    if (arFrame != null && cameraPose != null) {
-             //        // Estimate 3D pose based on 2D location (e.g., center of bbox)
-             //        Pose object3dPose = estimateObjectPoseInArWorld(obj.boundingBoxCenterX, obj.boundingBoxCenterY, arFrame); // <<< IMPLEMENT THIS >>>
-             //        if (object3dPose != null) {
-             //             obj.poseX = object3dPose.tx(); obj.poseY = object3dPose.ty(); obj.poseZ = object3dPose.tz();
-             //             obj.poseQx = object3dPose.qx(); obj.poseQy = object3dPose.qy(); obj.poseQz = object3dPose.qz(); obj.poseQw = object3dPose.qw();
-             //        }
-             //    }
-             //    detectedObjects.add(obj);
-             // }
-
-
-             // Notify the listener with the results
-             if (listener != null) {
-                  listener.onObjectsDetected(detectedObjects, inputBitmap, cameraPose); // Pass results, frame bitmap, and phone pose
-             }
+    public TilePlanner getTiling() {
+        return tilePlanner;
+    }
+
+    // Box coordinate convention of the model export, if AUTO guesses wrong for a custom model. Call before the
+    // first frame is submitted (the post-processor runs on the inference worker); if the model is still loading,
+    // the post-processor is created with it.
+    public synchronized void setBoxCoordinates(YoloSegPostProcessor.BoxCoordinates boxCoordinates) {
+        this.boxCoordinates = boxCoordinates;
+        if (postProcessor != null) postProcessor.setBoxCoordinates(boxCoordinates);
+    }
+
+    // Latency feedback for the asynchronous path: current frame rate / input stride and rolling p50 / p95
+    public FrameGovernor getFrameGovernor() {
+        return governor;
+    }
 
+    // Worker-thread side of the pipeline: converts the copied planes and runs detection. The only place the
+    // converter, the tensor pool, the post-processor and the lifter are used from.
+    private void processFrame(FramePipeline.FrameSlot frame) {
+        pollThermalHeadroom();
+        yuvConverter.setSampleStride(governor.getInputStride());
+        final float[] translation = frame.hasPose ? frame.translation : null;
+        final float[] rotation = frame.hasPose ? frame.rotation : null;
+        final boolean hasDepth = translation != null && loadDepth(frame);
+        final TilePlanner planner = tilePlanner;
+        if (planner != null) {
+            runTiledDetection(frame, planner, translation, rotation, hasDepth);
+        } else {
+            ByteBuffer inputBuffer = yuvConverter.convert(frame.yPlane, frame.uPlane, frame.vPlane,
+                    frame.yRowStride, frame.yPixelStride, frame.uvRowStride, frame.uvPixelStride,
+                    frame.width, frame.height);
+            runDetection(inputBuffer, translation, rotation, hasDepth, frame.timestampNs);
+        }
+        // Frames captured after this one and superseded before the worker got to them
+        final int dropped = lastProcessedSequence < 0 ? 0 : (int) (frame.sequence - lastProcessedSequence - 1);
+        lastProcessedSequence = frame.sequence;
+        governor.record(System.nanoTime() - frame.captureNanos, dropped);
+    }
+
+    // Feeds the governor the platform's thermal headroom every THERMAL_POLL_NANOS (API 30+; older devices
+    // leave the governor to latency alone)
+    private void pollThermalHeadroom() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) return;
+        final long now = System.nanoTime();
+        if (lastThermalPollNanos != Long.MIN_VALUE && now - lastThermalPollNanos < THERMAL_POLL_NANOS) return;
+        lastThermalPollNanos = now;
+        final PowerManager power = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (power != null) governor.setThermalHeadroom(power.getThermalHeadroom(THERMAL_FORECAST_SECONDS));
+    }
+
+    // Hands the frame's depth image to the lifter; false if the frame has none or intrinsics aren't known yet
+    private boolean loadDepth(FramePipeline.FrameSlot frame) {
+        final float[] k = imageIntrinsics;
+        if (frame.depthWidth == 0 || k == null) return false;
+        if (!depthLifter.isReady()) {
+            depthLifter.setIntrinsics(k[0], k[1], k[2], k[3], (int) k[4], (int) k[5]);
+        }
+        depthLifter.setDepth(frame.depth, frame.depthWidth, frame.depthHeight);
+        return true;
+    }
+
+    // Frames captured / dropped / processed and end-to-end latency of the asynchronous path
+    public FramePipeline getFramePipeline() {
+        return framePipeline;
+    }
+
+    // Inference + post-processing on an already converted input tensor. See publish() for the other arguments.
+    private void runDetection(ByteBuffer inputBuffer, float[] translation, float[] rotation, boolean hasDepth,
+                              long timestampNs) {
+         // Take the preallocated set of output buffers (no per-frame TensorBuffers / HashMap). Null only while a
+         // late mask resolve has it pinned (see LazyInstanceMask): drop this frame.
+         TensorPool.Slot slot = tensorPool.acquire();
+         if (slot == null) {
+             return;
+         }
+         try {
+             publish(infer(slot, inputBuffer), translation, rotation, hasDepth, timestampNs);
          } catch (Exception e) {
              System.err.println(TAG + ": Error during TFLite inference or post-processing: " + e);
              android.util.Log.e(TAG, "Error during TFLite inference or post-processing", e);
              if (listener != null) listener.onError("Error during vision processing.");
          }
          finally {
-             // If you created the bitmap here from raw frame data, you might need to recycle it
-             if (inputBitmap != null) {
-                  // inputBitmap.recycle(); // Recycle if no longer needed
-                  inputBitmap = null;
+             // Results have been handed to the listener; the buffers can be reused for a later frame
+             tensorPool.release(slot);
+         }
+    }
+
+    // Tiling mode: a full-frame pass for everything of normal size, then the planner's tiles of the same frame
+    // at a higher scale for small objects, merged across tiles (see TileMerger). The model takes one image
+    // at a time, so the passes run back to back in one slot; each pass's masks are resolved before the next
+    // pass overwrites the prototypes.
+    private void runTiledDetection(FramePipeline.FrameSlot frame, TilePlanner planner, float[] translation,
+                                   float[] rotation, boolean hasDepth) {
+         TensorPool.Slot slot = tensorPool.acquire();
+         if (slot == null) {
+             return;
+         }
+         try {
+             final int maxObjects = MAX_DETECTIONS * (1 + planner.getMaxTilesPerFrame());
+             if (tileMerger == null || tileMerger.getCapacity() != maxObjects) {
+                 tileMerger = new TileMerger(maxObjects, IOU_THRESHOLD);
+             }
+             tileMerger.reset(frame.width, frame.height);
+             yuvConverter.clearSourceRegion();
+             addTilePass(slot, frame, 0, 0, frame.width, frame.height);
+             final int tiles;
+             synchronized (tracker) {
+                 tiles = planner.plan(frame.width, frame.height, tracker);
+             }
+             for (int i = 0; i < tiles; i++) {
+                 final int left = planner.getTileLeft(i), top = planner.getTileTop(i);
+                 final int right = planner.getTileRight(i), bottom = planner.getTileBottom(i);
+                 yuvConverter.setSourceRegion(left, top, right - left, bottom - top);
+                 addTilePass(slot, frame, left, top, right, bottom);
+             }
+             publish(tileMerger.merge(), translation, rotation, hasDepth, frame.timestampNs);
+         } catch (Exception e) {
+             android.util.Log.e(TAG, "Error during tiled inference", e);
+             if (listener != null) listener.onError("Error during vision processing.");
+         } finally {
+             yuvConverter.clearSourceRegion();
+             tensorPool.release(slot);
+         }
+    }
+
+    // One pass of the tiling mode over the converter's current source region
+    private void addTilePass(TensorPool.Slot slot, FramePipeline.FrameSlot frame, int left, int top, int right, int bottom) {
+         ByteBuffer inputBuffer = yuvConverter.convert(frame.yPlane, frame.uPlane, frame.vPlane,
+                 frame.yRowStride, frame.yPixelStride, frame.uvRowStride, frame.uvPixelStride,
+                 frame.width, frame.height);
+         for (DetectedObject obj : infer(slot, inputBuffer)) {
+             if (obj.mask != null) obj.mask.resolve();
+             tileMerger.add(obj, left, top, right, bottom);
+         }
+    }
+
+    // Runs the model on inputBuffer in slot and turns the outputs into detections in camera image pixels.
+    // Masks point into the slot's prototype buffer, so they stay valid only while the slot is held and unused.
+    private List<DetectedObject> infer(TensorPool.Slot slot, ByteBuffer inputBuffer) {
+         slot.inputs[0] = inputBuffer;
+         Map<Integer, Object> outputMap = slot.outputMap;
+
+         // Run inference
+         backend.run(slot.inputs, outputMap);
+
+         // --- Post-processing ---
+         // 1. Score filtering, class argmax and class-aware NMS over the raw detection tensor
+         //    [1, 4 + numClasses + 32, numAnchors] (see YoloSegPostProcessor).
+         FloatBuffer detectionOutput = slot.outputFloats[detectionOutputIndex];
+         detectionOutput.rewind();
+         int numDetections = postProcessor.process(detectionOutput);
+         // 2. Scale boxes back from the letterboxed model input to the camera image.
+         postProcessor.rescaleBoxes(yuvConverter.getOffsetX(), yuvConverter.getOffsetY(), yuvConverter.getScale(),
+                 yuvConverter.getSourceWidth(), yuvConverter.getSourceHeight());
+         // 3. Mask output: per-detection coefficients against the frame's prototypes.
+         //    Masks are lazy (see LazyInstanceMask) - nothing is evaluated or upsampled here.
+         LazyInstanceMask.Prototypes prototypes = null;
+         if (protoOutputIndex >= 0 && postProcessor.getNumMaskCoefficients() > 0) {
+             FloatBuffer protoOutput = slot.outputFloats[protoOutputIndex];
+             protoOutput.rewind();
+             prototypes = new LazyInstanceMask.Prototypes(protoOutput, protoWidth, protoHeight,
+                     postProcessor.getNumMaskCoefficients(), protoChannelsLast, inputWidth, inputHeight,
+                     yuvConverter.getScale(), yuvConverter.getOffsetX(), yuvConverter.getOffsetY(), slot);
+         }
+         // 4. Create a list of DetectedObject instances. Unlike the tensors these are new for every frame:
+         //    the listener, the tracker's consumers and the detection scheduler keep them after this call.
+
+         List<DetectedObject> detectedObjects = new ArrayList<>(numDetections);
+         for (int i = 0; i < numDetections; i++) {
+             DetectedObject obj = new DetectedObject();
+             int classId = postProcessor.getClassId(i);
+             obj.objectClass = classId < labels.size() ? labels.get(classId) : String.valueOf(classId);
+             obj.confidence = postProcessor.getScore(i);
+             obj.boundingBoxLeft = postProcessor.getLeft(i);
+             obj.boundingBoxTop = postProcessor.getTop(i);
+             obj.boundingBoxRight = postProcessor.getRight(i);
+             obj.boundingBoxBottom = postProcessor.getBottom(i);
+             if (prototypes != null) {
+                 postProcessor.copyMaskCoefficients(detectionOutput, i, maskCoefficients);
+                 obj.mask = new LazyInstanceMask(prototypes, maskCoefficients,
+                         obj.boundingBoxLeft, obj.boundingBoxTop, obj.boundingBoxRight, obj.boundingBoxBottom);
              }
-             // TODO: Release input/output TensorBuffers if you allocated them manually
+
+             // The 3D pose is filled in by publish() when the frame has a depth image
+             detectedObjects.add(obj);
          }
+         return detectedObjects;
+    }
+
+    // Tracking, detection-skipping bookkeeping and the listener callback for one frame's detections.
+    // translation / rotation: camera pose of the frame (null if unknown), read by the lifter and the scheduler.
+    // hasDepth: depthLifter holds this frame's depth (loadDepth). A Pose for the listener is built from the
+    // arrays only if there is a listener, so frames with no listener allocate nothing for the pose.
+    private void publish(List<DetectedObject> detectedObjects, float[] translation, float[] rotation,
+                         boolean hasDepth, long timestampNs) {
+         // 5. 3D pose, extent and pose confidence from the depth inside each mask (see DepthLifter)
+         if (hasDepth && translation != null) {
+             for (DetectedObject obj : detectedObjects) {
+                 depthLifter.lift(obj, translation, rotation);
+             }
+         }
+         // 6. Associate with the tracks of earlier frames: ids, smoothed boxes, track age
+         synchronized (tracker) {
+             tracker.update(detectedObjects, timestampNs);
+         }
+         // Notify the listener with the results
+         if (listener != null) {
+              final Pose cameraPose = translation != null ? new Pose(translation, rotation) : null;
+              // No Bitmap is materialised any more (frames go YUV -> tensor directly), so frameBitmap is null
+              listener.onObjectsDetected(detectedObjects, null, cameraPose); // Pass results and phone pose
+         }
+         // 7. In detection-skipping mode these become the base for the next propagated frames. After the
+         // listener, so the scheduler's copies include the polygons it traced (convertMaskToPolygon)
+         final DetectionScheduler scheduler = detectionScheduler;
+         if (scheduler != null && translation != null) {
+             scheduler.onInferenceResult(detectedObjects, translation, rotation);
+         }
+    }
+
+    // Converts a detection's mask into a simplified polygon (obj.polygon) for the brain's grasp planning.
+    // Call from onObjectsDetected (the mask must be resolved before its prototypes are recycled).
+    public float[] convertMaskToPolygon(DetectedObject obj) {
+        BinaryMask binaryMask = obj.getBinaryMask();
+        if (binaryMask == null) return null;
+        synchronized (contourTracer) {
+            obj.polygon = contourTracer.toPolygon(binaryMask, POLYGON_EPSILON);
+        }
+        ObjectTracker.alignPolygonToBox(obj); // Follow the tracker's smoothed box, not the raw one
+        return obj.polygon;
     }
 
     // Clean up
     public void destroy() {
-        if (tfliteInterpreter != null) {
-            tfliteInterpreter.close();
-             System.out.println(TAG + ": TFLite interpreter closed.");
-             android.util.Log.i(TAG, "TFLite interpreter closed.");
+        final InferenceBackend closing;
+        synchronized (this) {
+            if (destroyed) return; // A second call must not close the backend under a worker still exiting
+            destroyed = true;
+            closing = backend; // Null while still loading: loadModel() closes it instead
+        }
+        final Runnable closeBackend = () -> {
+            if (closing == null) return;
+            closing.close(); // Also releases the backend's delegate
+            System.out.println(TAG + ": Inference backend closed.");
+            android.util.Log.i(TAG, "Inference backend closed.");
+        };
+        if (framePipeline != null) {
+            // The worker may still be inside an inference that outlasts stop()'s wait (a first NNAPI / GPU run
+            // can take seconds), so the interpreter is closed by the worker once it has exited, never under it
+            framePipeline.stop(closeBackend);
+            framePipeline = null;
+        } else {
+            closeBackend.run();
         }
-        // TODO: Release any other resources (e.g., GPU delegate)
     }
-
-    // --- Helper methods you might need to implement ---
-    // private Bitmap convertYUVBytesToBitmap(ByteBuffer y, ByteBuffer u, ByteBuffer v, int yStride, int uvStride, int uvPixelStride, int width, int height) { ... } // If getting YUV from ARCore/CameraX
-    // private List<DetectedObject> postprocessModelOutput(...) { ... } // The core of interpreting model tensors, NMS, scaling
-    // private List<PointF> convertMaskToPolygon(ByteBuffer maskBuffer, ...) { ... } // If converting masks to polygons
-    // private Pose estimateObjectPoseInArWorld(float imageCenterX, float imageCenterY, Frame frame) { ... } // Using ARCore hit test or depth
 }
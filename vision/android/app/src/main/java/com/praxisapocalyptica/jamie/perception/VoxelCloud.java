@@ -0,0 +1,437 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Pure Java (no Android imports) so accumulation, eviction and draining can be benchmarked on a plain JVM.
+
+import java.nio.FloatBuffer;
+
+// Sparse voxel grid over ARCore feature points (world frame), streamed to the brain as changes only.
+//
+// Raw point clouds are mostly the same points again every frame, so each point is folded into its voxel
+// (voxelSize metres): the voxel keeps a running centroid and confidence, weighted up to MAX_WEIGHT
+// observations so it still follows ARCore's map corrections. A voxel is "changed" when it is new or its
+// centroid (quantised to 1/256 of the voxel) or confidence (to 1/255) moved more than a threshold since it was
+// last drained; drainChanges() hands out changed voxels, so nothing is lost if a message is never sent -
+// the voxels simply stay changed until the next drain. Evicting a voxel that was drained before queues its
+// removal, handed out by the next drain ahead of the changes, so the brain's copy loses it too.
+//
+// Storage is primitive arrays only: a linear-probing hash from a packed long key (three signed 16-bit voxel
+// coordinates, +-32767 voxels = +-1.6 km at 5 cm) to a dense voxel id, and per-id attribute arrays.
+// Memory bound: maxVoxels. When full, the least recently seen voxels farther than keepRadius from the camera
+// are evicted in batches (then the least recently seen anywhere), changed or not: with nothing draining (link
+// down) the map keeps following the camera instead of freezing. Pending removals never exceed maxVoxels
+// (see queueRemoval). markAllChanged() and clear() make the next batch a reset: the brain drops its copy
+// first. About 60 bytes per voxel. Thread safe.
+public class VoxelCloud {
+
+    private static final int MAX_WEIGHT = 32;
+    private static final int MOVE_THRESHOLD = 16;       // Centroid change (1/256 voxel) that counts as changed
+    private static final int CONFIDENCE_THRESHOLD = 25; // Confidence change (1/255) that counts as changed
+    private static final int COORD_LIMIT = 32767;
+
+    private final float voxelSize;
+    private final float inverseSize;
+    private final int maxVoxels;
+    private final float keepRadiusSq;
+
+    // Hash: table[slot] = voxel id + 1, 0 = empty
+    private final int[] table;
+    private final int mask;
+
+    // Per voxel id
+    private final long[] keys;
+    private final float[] centroidX, centroidY, centroidZ; // Offset inside the voxel, 0..1
+    private final float[] confidence;
+    private final short[] weight;
+    private final int[] lastSeen;    // Tick of the last addPoints() that hit it
+    private final int[] sentState;   // Quantised offsets and confidence when last drained, -1 = never
+    private final boolean[] changed;
+    private final int[] freeIds;
+    private int freeCount;
+    private int size = 0;
+    private int tick = 0;
+
+    // Changed voxel ids in the order they changed (ring), each at most once
+    private final int[] changedIds;
+    private int changedHead = 0;
+    private int changedCount = 0;
+
+    // Keys of evicted voxels the brain has (drained at least once), oldest first (ring)
+    private final long[] removedKeys;
+    private int removedHead = 0;
+    private int removedCount = 0;
+    private boolean resetPending = false; // Next batch tells the brain to drop its copy first
+
+    // Eviction scratch
+    private final int[] ageScratch;
+
+    // --- Counters ---
+    private long pointsAdded = 0;
+    private long pointsDropped = 0;
+    private long voxelsEvicted = 0;
+    private long voxelsDrained = 0;
+    private long removalsDrained = 0;
+    private long resets = 0;
+
+    // Changes taken by drainChanges(); arrays sized at construction and reused. Applied in order: reset (drop
+    // every voxel), then the removals, then the changed voxels.
+    public static class Batch {
+        public int count;
+        public float voxelSize;
+        public final short[] coords;      // x, y, z voxel index per voxel
+        public final byte[] offsets;      // Centroid inside the voxel, x, y, z in 1/256 (unsigned)
+        public final byte[] confidence;   // 0..255 (unsigned)
+        public final byte[] hits;         // Observations folded in, saturating at 255 (unsigned)
+        public boolean reset;
+        public int removedCount;
+        public final short[] removedCoords; // x, y, z voxel index per evicted voxel
+
+        public Batch(int capacity) {
+            coords = new short[capacity * 3];
+            offsets = new byte[capacity * 3];
+            confidence = new byte[capacity];
+            hits = new byte[capacity];
+            removedCoords = new short[capacity * 3];
+        }
+
+        public int getCapacity() { return confidence.length; }
+
+        public boolean isEmpty() {
+            return count == 0 && removedCount == 0 && !reset;
+        }
+
+        // World position of voxel i's centroid, written to out[0..3)
+        public void getPosition(int i, float[] out) {
+            for (int a = 0; a < 3; a++) {
+                out[a] = (coords[i * 3 + a] + ((offsets[i * 3 + a] & 0xFF) + 0.5f) / 256f) * voxelSize;
+            }
+        }
+
+        // World position of removed voxel i's centre, written to out[0..3)
+        public void getRemovedPosition(int i, float[] out) {
+            for (int a = 0; a < 3; a++) out[a] = (removedCoords[i * 3 + a] + 0.5f) * voxelSize;
+        }
+    }
+
+    public VoxelCloud(float voxelSize, int maxVoxels, float keepRadius) {
+        if (voxelSize <= 0 || maxVoxels < 64 || keepRadius < 0) {
+            throw new IllegalArgumentException("Invalid voxel cloud: " + voxelSize + " m voxels, " + maxVoxels
+                    + " max, keep radius " + keepRadius + " m");
+        }
+        this.voxelSize = voxelSize;
+        this.inverseSize = 1f / voxelSize;
+        this.maxVoxels = maxVoxels;
+        this.keepRadiusSq = keepRadius * keepRadius;
+        int capacity = Integer.highestOneBit(maxVoxels * 2 - 1) << 1; // Power of two, load factor <= 0.5
+        table = new int[capacity];
+        mask = capacity - 1;
+        keys = new long[maxVoxels];
+        centroidX = new float[maxVoxels];
+        centroidY = new float[maxVoxels];
+        centroidZ = new float[maxVoxels];
+        confidence = new float[maxVoxels];
+        weight = new short[maxVoxels];
+        lastSeen = new int[maxVoxels];
+        sentState = new int[maxVoxels];
+        changed = new boolean[maxVoxels];
+        freeIds = new int[maxVoxels];
+        for (int i = 0; i < maxVoxels; i++) freeIds[i] = maxVoxels - 1 - i;
+        freeCount = maxVoxels;
+        changedIds = new int[maxVoxels];
+        removedKeys = new long[maxVoxels];
+        ageScratch = new int[maxVoxels];
+    }
+
+    // Folds pointCount points (x, y, z, confidence - ARCore's PointCloud layout, world frame) into the grid.
+    // The camera position steers eviction. Returns the number of voxels that became occupied.
+    public synchronized int addPoints(FloatBuffer points, int pointCount, float cameraX, float cameraY, float cameraZ) {
+        tick++;
+        int created = 0;
+        final int base = points.position();
+        for (int p = 0; p < pointCount; p++) {
+            final int o = base + p * 4;
+            final float x = points.get(o) * inverseSize;
+            final float y = points.get(o + 1) * inverseSize;
+            final float z = points.get(o + 2) * inverseSize;
+            final float c = points.get(o + 3);
+            // Written so that NaN fails too
+            if (!(Math.abs(x) < COORD_LIMIT && Math.abs(y) < COORD_LIMIT && Math.abs(z) < COORD_LIMIT)) {
+                pointsDropped++;
+                continue;
+            }
+            final int vx = (int) Math.floor(x), vy = (int) Math.floor(y), vz = (int) Math.floor(z);
+            final long key = pack(vx, vy, vz);
+            int id = find(key);
+            if (id < 0) {
+                if (freeCount == 0) evict(cameraX, cameraY, cameraZ);
+                if (freeCount == 0) {
+                    pointsDropped++; // Only when maxVoxels / 32 can't be freed, i.e. never once full
+                    continue;
+                }
+                id = insert(key);
+                created++;
+                centroidX[id] = x - vx;
+                centroidY[id] = y - vy;
+                centroidZ[id] = z - vz;
+                confidence[id] = c;
+                weight[id] = 1;
+                sentState[id] = -1;
+                changed[id] = false;
+            } else {
+                final int w = weight[id];
+                final float k = 1f / (w + 1);
+                centroidX[id] += (x - vx - centroidX[id]) * k;
+                centroidY[id] += (y - vy - centroidY[id]) * k;
+                centroidZ[id] += (z - vz - centroidZ[id]) * k;
+                confidence[id] += (c - confidence[id]) * k;
+                if (w < MAX_WEIGHT) weight[id] = (short) (w + 1);
+            }
+            lastSeen[id] = tick;
+            if (!changed[id] && differsFromSent(id)) {
+                changed[id] = true;
+                changedIds[(changedHead + changedCount++) % maxVoxels] = id;
+            }
+            pointsAdded++;
+        }
+        return created;
+    }
+
+    // Moves a pending reset, up to batch capacity removals and up to batch capacity changed voxels (oldest
+    // first) into batch. Changes only come once every earlier removal fits, so a voxel evicted and seen again
+    // is never removed after its new state. Returns the number of changed voxels taken; see Batch.isEmpty().
+    public synchronized int drainChanges(Batch batch) {
+        batch.voxelSize = voxelSize;
+        batch.reset = resetPending;
+        if (resetPending) resets++;
+        resetPending = false;
+        final int removals = Math.min(removedCount, batch.getCapacity());
+        for (int i = 0; i < removals; i++) {
+            final long key = removedKeys[(removedHead + i) % maxVoxels];
+            batch.removedCoords[i * 3] = (short) (key >> 32);
+            batch.removedCoords[i * 3 + 1] = (short) (key >> 16);
+            batch.removedCoords[i * 3 + 2] = (short) key;
+        }
+        removedHead = (removedHead + removals) % maxVoxels;
+        removedCount -= removals;
+        batch.removedCount = removals;
+        removalsDrained += removals;
+
+        final int n = removedCount > 0 ? 0 : Math.min(changedCount, batch.getCapacity());
+        for (int i = 0; i < n; i++) {
+            final int id = changedIds[(changedHead + i) % maxVoxels];
+            final long key = keys[id];
+            batch.coords[i * 3] = (short) (key >> 32);
+            batch.coords[i * 3 + 1] = (short) (key >> 16);
+            batch.coords[i * 3 + 2] = (short) key;
+            final int state = quantise(id);
+            batch.offsets[i * 3] = (byte) state;
+            batch.offsets[i * 3 + 1] = (byte) (state >> 8);
+            batch.offsets[i * 3 + 2] = (byte) (state >> 16);
+            batch.confidence[i] = (byte) (state >>> 24);
+            batch.hits[i] = (byte) Math.min(weight[id], 255);
+            sentState[id] = state;
+            changed[id] = false;
+        }
+        changedHead = (changedHead + n) % maxVoxels;
+        changedCount -= n;
+        batch.count = n;
+        voxelsDrained += n;
+        return n;
+    }
+
+    // True while a drain would hand out anything: changes, removals or a reset
+    public synchronized boolean hasPendingChanges() {
+        return changedCount > 0 || removedCount > 0 || resetPending;
+    }
+
+    // Marks every voxel changed behind a reset, e.g. after reconnecting to a brain that may have lost the map
+    // or kept voxels whose removal was in flight
+    public synchronized void markAllChanged() {
+        resetPending = true;
+        removedHead = 0;
+        removedCount = 0; // The reset removes them
+        changedHead = 0;
+        changedCount = 0;
+        for (int slot = 0; slot < table.length; slot++) {
+            final int id = table[slot] - 1;
+            if (id < 0) continue;
+            changed[id] = true;
+            changedIds[changedCount++] = id;
+        }
+    }
+
+    public synchronized void clear() {
+        java.util.Arrays.fill(table, 0);
+        for (int i = 0; i < maxVoxels; i++) freeIds[i] = maxVoxels - 1 - i;
+        freeCount = maxVoxels;
+        size = 0;
+        changedHead = 0;
+        changedCount = 0;
+        removedHead = 0;
+        removedCount = 0;
+        resetPending = true; // The brain still has the old voxels
+    }
+
+    private boolean differsFromSent(int id) {
+        final int sent = sentState[id];
+        if (sent == -1) return true;
+        final int now = quantise(id);
+        return Math.abs((now & 0xFF) - (sent & 0xFF)) > MOVE_THRESHOLD
+                || Math.abs(((now >> 8) & 0xFF) - ((sent >> 8) & 0xFF)) > MOVE_THRESHOLD
+                || Math.abs(((now >> 16) & 0xFF) - ((sent >> 16) & 0xFF)) > MOVE_THRESHOLD
+                || Math.abs((now >>> 24) - (sent >>> 24)) > CONFIDENCE_THRESHOLD;
+    }
+
+    // Offsets x, y, z in 1/256 and confidence in 1/255, one byte each (confidence in the top byte, capped at
+    // 254 so the result is never -1, the "never drained" marker)
+    private int quantise(int id) {
+        final int qx = Math.min(255, (int) (centroidX[id] * 256));
+        final int qy = Math.min(255, (int) (centroidY[id] * 256));
+        final int qz = Math.min(255, (int) (centroidZ[id] * 256));
+        final int qc = Math.max(0, Math.min(254, Math.round(confidence[id] * 255)));
+        return qx | (qy << 8) | (qz << 16) | (qc << 24);
+    }
+
+    // Frees about 1/32 of the ids: least recently seen first, voxels beyond keepRadius before the rest.
+    // O(size) per batch, so O(32) per inserted voxel once the cloud is full.
+    private void evict(float cameraX, float cameraY, float cameraZ) {
+        final int batch = Math.max(1, maxVoxels / 32);
+        boolean changedEvicted = false;
+        for (int pass = 0; pass < 2 && freeCount < batch; pass++) {
+            // Ages of the candidates of this pass (pass 0: far voxels only)
+            int candidates = 0;
+            for (int slot = 0; slot < table.length; slot++) {
+                final int id = table[slot] - 1;
+                if (id < 0) continue;
+                if (pass == 0 && distanceSq(id, cameraX, cameraY, cameraZ) <= keepRadiusSq) continue;
+                ageScratch[candidates++] = lastSeen[id];
+            }
+            if (candidates == 0) continue;
+            final int wanted = Math.min(candidates, batch - freeCount);
+            final int cutoff = select(ageScratch, candidates, wanted - 1);
+            int slot = 0;
+            while (slot < table.length && freeCount < batch) {
+                final int id = table[slot] - 1;
+                if (id >= 0 && lastSeen[id] <= cutoff
+                        && (pass == 1 || distanceSq(id, cameraX, cameraY, cameraZ) > keepRadiusSq)) {
+                    if (sentState[id] != -1) queueRemoval(keys[id]);
+                    if (changed[id]) {
+                        changed[id] = false;
+                        changedEvicted = true;
+                    }
+                    remove(slot, id);
+                    voxelsEvicted++;
+                    // remove() may shift a later entry into this slot: look at it again
+                } else {
+                    slot++;
+                }
+            }
+        }
+        if (changedEvicted) {
+            // Drop the evicted ids from the changed ring before they are handed out again
+            int kept = 0;
+            for (int i = 0; i < changedCount; i++) {
+                final int id = changedIds[(changedHead + i) % maxVoxels];
+                if (changed[id]) changedIds[(changedHead + kept++) % maxVoxels] = id;
+            }
+            changedCount = kept;
+        }
+    }
+
+    // Never overflows: pending removals plus drained voxels still held stay <= maxVoxels, since a drain only
+    // hands out changes (which can add drained voxels) once it has handed out every pending removal
+    private void queueRemoval(long key) {
+        if (resetPending) return; // The reset removes it
+        removedKeys[(removedHead + removedCount++) % maxVoxels] = key;
+    }
+
+    private float distanceSq(int id, float cameraX, float cameraY, float cameraZ) {
+        final long key = keys[id];
+        final float dx = ((short) (key >> 32) + 0.5f) * voxelSize - cameraX;
+        final float dy = ((short) (key >> 16) + 0.5f) * voxelSize - cameraY;
+        final float dz = ((short) key + 0.5f) * voxelSize - cameraZ;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    // --- Hash table ---
+
+    private static long pack(int vx, int vy, int vz) {
+        return ((long) (vx & 0xFFFF) << 32) | ((long) (vy & 0xFFFF) << 16) | (vz & 0xFFFF);
+    }
+
+    private int slotOf(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private int find(long key) {
+        for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+            final int id = table[slot] - 1;
+            if (id < 0) return -1;
+            if (keys[id] == key) return id;
+        }
+    }
+
+    private int insert(long key) {
+        final int id = freeIds[--freeCount];
+        keys[id] = key;
+        int slot = slotOf(key);
+        while (table[slot] != 0) slot = (slot + 1) & mask;
+        table[slot] = id + 1;
+        size++;
+        return id;
+    }
+
+    // Backward-shift deletion, so the table never fills up with tombstones
+    private void remove(int slot, int id) {
+        freeIds[freeCount++] = id;
+        size--;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+            final int home = slotOf(keys[table[next] - 1]);
+            // Move next into the hole unless its home lies cyclically in (hole, next]
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole] = table[next];
+                hole = next;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    // k-th smallest of a[0..n) (quickselect, reorders a)
+    private static int select(int[] a, int n, int k) {
+        int lo = 0, hi = n - 1;
+        while (lo < hi) {
+            final int pivot = a[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (a[i] < pivot) i++;
+                while (a[j] > pivot) j--;
+                if (i <= j) {
+                    final int t = a[i];
+                    a[i] = a[j];
+                    a[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else break;
+        }
+        return a[k];
+    }
+
+    public float getVoxelSize() { return voxelSize; }
+    public int getMaxVoxels() { return maxVoxels; }
+    public synchronized int getVoxelCount() { return size; }
+    public synchronized int getChangedCount() { return changedCount; }
+    public synchronized int getRemovedCount() { return removedCount; }
+
+    // --- Counters ---
+    public synchronized long getPointsAdded() { return pointsAdded; }
+    public synchronized long getPointsDropped() { return pointsDropped; }
+    public synchronized long getVoxelsEvicted() { return voxelsEvicted; }
+    public synchronized long getVoxelsDrained() { return voxelsDrained; }
+    public synchronized long getRemovalsDrained() { return removalsDrained; }
+    public synchronized long getResets() { return resets; }
+}
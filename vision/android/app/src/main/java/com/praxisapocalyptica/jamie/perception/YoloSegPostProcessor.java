@@ -0,0 +1,244 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Pure Java (no Android / TFLite imports) so it can be golden-tested and benchmarked on a plain JVM.
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+// Post-processing for the YOLOv8-seg detection head.
+// Works in place over the raw output tensor [1, 4 + numClasses + numMaskCoefficients, numAnchors]
+// (channel-major, i.e. all anchors of channel 0, then all anchors of channel 1, ...):
+//   1. Score filtering + class argmax in one pass over the class channels, using primitive arrays only.
+//   2. Candidates sorted by score.
+//   3. Greedy class-aware NMS that only compares against already-kept boxes and stops at maxDetections.
+// All working arrays are allocated once in the constructor and reused for every frame.
+//
+// Box coordinates: PyTorch exports emit cx, cy, w, h in model input pixels, the stock Ultralytics TFLite export
+// emits them normalized to 0..1. In AUTO mode the first frame with candidates decides: if no candidate has a
+// coordinate above NORMALIZED_LIMIT the boxes are normalized (a pixel-space box that small would be a speck in
+// the top-left corner) and are scaled by the input size from then on.
+public class YoloSegPostProcessor {
+
+    public enum BoxCoordinates {
+        AUTO,       // Decided from the first frame with candidates
+        PIXELS,     // Model input pixels
+        NORMALIZED  // 0..1 of the model input size
+    }
+
+    private static final float NORMALIZED_LIMIT = 1.5f; // Normalized exports overshoot 1 slightly at the edges
+
+    private final int numClasses;
+    private final int numMaskCoefficients;
+    private final int numAnchors;
+    private final int maxDetections;
+    private final int inputWidth;
+    private final int inputHeight;
+    private float scoreThreshold;
+    private float iouThreshold;
+    private BoxCoordinates boxCoordinates;
+    private float boxScaleX = 1f; // Raw box coordinate -> model input pixels
+    private float boxScaleY = 1f;
+
+    // Per-anchor best class/score (pass 1)
+    private final float[] bestScore;
+    private final int[] bestClass;
+
+    // Candidates above threshold (pass 2), sorted via packed (score bits << 32 | candidate) keys
+    private final int[] candAnchor;
+    private final long[] sortKeys;
+
+    // Kept detections, boxes as [x1, y1, x2, y2] in model input pixels unless rescaled
+    private int count = 0;
+    private final float[] boxes;
+    private final float[] areas;
+    private final float[] scores;
+    private final int[] classIds;
+    private final int[] anchorIndices; // Column of each detection in the raw tensor (to fetch mask coefficients)
+
+    // Boxes in model input pixels (no input size needed)
+    public YoloSegPostProcessor(int numClasses, int numMaskCoefficients, int numAnchors,
+                                float scoreThreshold, float iouThreshold, int maxDetections) {
+        this(numClasses, numMaskCoefficients, numAnchors, scoreThreshold, iouThreshold, maxDetections,
+                0, 0, BoxCoordinates.PIXELS);
+    }
+
+    // inputWidth / inputHeight: model input size, used for NORMALIZED and AUTO box coordinates
+    public YoloSegPostProcessor(int numClasses, int numMaskCoefficients, int numAnchors,
+                                float scoreThreshold, float iouThreshold, int maxDetections,
+                                int inputWidth, int inputHeight, BoxCoordinates boxCoordinates) {
+        if (numClasses <= 0 || numAnchors <= 0 || maxDetections <= 0 || numMaskCoefficients < 0) {
+            throw new IllegalArgumentException("Invalid YOLO head configuration: classes=" + numClasses
+                    + " coefficients=" + numMaskCoefficients + " anchors=" + numAnchors + " maxDetections=" + maxDetections);
+        }
+        this.numClasses = numClasses;
+        this.numMaskCoefficients = numMaskCoefficients;
+        this.numAnchors = numAnchors;
+        this.maxDetections = maxDetections;
+        this.inputWidth = inputWidth;
+        this.inputHeight = inputHeight;
+        this.scoreThreshold = scoreThreshold;
+        this.iouThreshold = iouThreshold;
+        setBoxCoordinates(boxCoordinates);
+
+        bestScore = new float[numAnchors];
+        bestClass = new int[numAnchors];
+        candAnchor = new int[numAnchors];
+        sortKeys = new long[numAnchors];
+
+        boxes = new float[maxDetections * 4];
+        areas = new float[maxDetections];
+        scores = new float[maxDetections];
+        classIds = new int[maxDetections];
+        anchorIndices = new int[maxDetections];
+    }
+
+    // Runs filtering + NMS over the raw detection tensor. Returns the number of kept detections.
+    // The buffer is read with absolute gets starting at its current position; it is not modified.
+    public int process(FloatBuffer output) {
+        final int base = output.position();
+        final int n = numAnchors;
+        count = 0;
+
+        // --- Pass 1: class argmax with threshold folded in (class-major, contiguous reads) ---
+        Arrays.fill(bestScore, scoreThreshold);
+        Arrays.fill(bestClass, -1);
+        for (int c = 0; c < numClasses; c++) {
+            final int channel = base + (4 + c) * n;
+            for (int a = 0; a < n; a++) {
+                float s = output.get(channel + a);
+                if (s > bestScore[a]) {
+                    bestScore[a] = s;
+                    bestClass[a] = c;
+                }
+            }
+        }
+
+        // --- Pass 2: gather candidates and sort by score (descending) ---
+        int numCandidates = 0;
+        for (int a = 0; a < n; a++) {
+            if (bestClass[a] >= 0) {
+                candAnchor[numCandidates] = a;
+                // Scores are positive, so their IEEE bits order the same way as the values
+                sortKeys[numCandidates] = ((long) Float.floatToIntBits(bestScore[a]) << 32) | numCandidates;
+                numCandidates++;
+            }
+        }
+        if (numCandidates == 0) return 0;
+        Arrays.sort(sortKeys, 0, numCandidates);
+
+        // --- Pass 3: greedy class-aware NMS against kept boxes only, with early exit ---
+        final int cxChannel = base;
+        final int cyChannel = base + n;
+        final int wChannel = base + 2 * n;
+        final int hChannel = base + 3 * n;
+        if (boxCoordinates == BoxCoordinates.AUTO) detectBoxCoordinates(output, base, numCandidates);
+        final float scaleX = boxScaleX, scaleY = boxScaleY;
+        for (int k = numCandidates - 1; k >= 0 && count < maxDetections; k--) {
+            final int anchor = candAnchor[(int) sortKeys[k]];
+            final int cls = bestClass[anchor];
+            final float cx = output.get(cxChannel + anchor) * scaleX;
+            final float cy = output.get(cyChannel + anchor) * scaleY;
+            final float hw = output.get(wChannel + anchor) * scaleX * 0.5f;
+            final float hh = output.get(hChannel + anchor) * scaleY * 0.5f;
+            final float x1 = cx - hw, y1 = cy - hh, x2 = cx + hw, y2 = cy + hh;
+            final float area = (x2 - x1) * (y2 - y1);
+
+            boolean suppressed = false;
+            for (int j = 0; j < count; j++) {
+                if (classIds[j] != cls) continue;
+                final int o = j * 4;
+                final float iw = Math.min(x2, boxes[o + 2]) - Math.max(x1, boxes[o]);
+                if (iw <= 0) continue;
+                final float ih = Math.min(y2, boxes[o + 3]) - Math.max(y1, boxes[o + 1]);
+                if (ih <= 0) continue;
+                final float inter = iw * ih;
+                if (inter > iouThreshold * (area + areas[j] - inter)) {
+                    suppressed = true;
+                    break;
+                }
+            }
+            if (suppressed) continue;
+
+            final int o = count * 4;
+            boxes[o] = x1;
+            boxes[o + 1] = y1;
+            boxes[o + 2] = x2;
+            boxes[o + 3] = y2;
+            areas[count] = area;
+            scores[count] = bestScore[anchor];
+            classIds[count] = cls;
+            anchorIndices[count] = anchor;
+            count++;
+        }
+        return count;
+    }
+
+    // AUTO mode, first frame with candidates: normalized if every candidate's cx, cy, w, h is small
+    private void detectBoxCoordinates(FloatBuffer output, int base, int numCandidates) {
+        float max = 0f;
+        for (int i = 0; i < numCandidates; i++) {
+            final int anchor = candAnchor[i];
+            for (int channel = 0; channel < 4; channel++) {
+                max = Math.max(max, output.get(base + channel * numAnchors + anchor));
+            }
+        }
+        setBoxCoordinates(max <= NORMALIZED_LIMIT ? BoxCoordinates.NORMALIZED : BoxCoordinates.PIXELS);
+    }
+
+    // Maps kept boxes from model input pixels back to source image pixels (undoing the letterbox)
+    // and clamps them to the image.
+    public void rescaleBoxes(float padX, float padY, float scale, int sourceWidth, int sourceHeight) {
+        final float inv = 1f / scale;
+        for (int i = 0; i < count * 4; i += 4) {
+            boxes[i] = clamp((boxes[i] - padX) * inv, sourceWidth);
+            boxes[i + 1] = clamp((boxes[i + 1] - padY) * inv, sourceHeight);
+            boxes[i + 2] = clamp((boxes[i + 2] - padX) * inv, sourceWidth);
+            boxes[i + 3] = clamp((boxes[i + 3] - padY) * inv, sourceHeight);
+        }
+    }
+
+    // Copies the mask coefficients of a kept detection into dst (length >= numMaskCoefficients)
+    public void copyMaskCoefficients(FloatBuffer output, int detection, float[] dst) {
+        final int base = output.position();
+        final int anchor = anchorIndices[detection];
+        final int first = 4 + numClasses;
+        for (int m = 0; m < numMaskCoefficients; m++) {
+            dst[m] = output.get(base + (first + m) * numAnchors + anchor);
+        }
+    }
+
+    private static float clamp(float v, int max) {
+        return v < 0 ? 0 : (v > max ? max : v);
+    }
+
+    // --- Results of the last process() call (valid until the next call) ---
+    public int getCount() { return count; }
+    public float getLeft(int i) { return boxes[i * 4]; }
+    public float getTop(int i) { return boxes[i * 4 + 1]; }
+    public float getRight(int i) { return boxes[i * 4 + 2]; }
+    public float getBottom(int i) { return boxes[i * 4 + 3]; }
+    public float getScore(int i) { return scores[i]; }
+    public int getClassId(int i) { return classIds[i]; }
+    public int getAnchorIndex(int i) { return anchorIndices[i]; }
+
+    // --- Configuration ---
+    public void setScoreThreshold(float scoreThreshold) { this.scoreThreshold = scoreThreshold; }
+    public void setIouThreshold(float iouThreshold) { this.iouThreshold = iouThreshold; }
+    // Box coordinate convention of the export; AUTO decides again on the next frame with candidates
+    public void setBoxCoordinates(BoxCoordinates boxCoordinates) {
+        if (boxCoordinates != BoxCoordinates.PIXELS && (inputWidth <= 0 || inputHeight <= 0)) {
+            throw new IllegalArgumentException("Invalid box coordinates " + boxCoordinates
+                    + " without a model input size: " + inputWidth + "x" + inputHeight);
+        }
+        this.boxCoordinates = boxCoordinates;
+        final boolean normalized = boxCoordinates == BoxCoordinates.NORMALIZED;
+        boxScaleX = normalized ? inputWidth : 1f;
+        boxScaleY = normalized ? inputHeight : 1f;
+    }
+    // AUTO until the first frame with candidates, then what was detected
+    public BoxCoordinates getBoxCoordinates() { return boxCoordinates; }
+    public int getNumClasses() { return numClasses; }
+    public int getNumMaskCoefficients() { return numMaskCoefficients; }
+    public int getNumAnchors() { return numAnchors; }
+    public int getMaxDetections() { return maxDetections; }
+}
@@ -0,0 +1,293 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Pure Java (no Android imports) so it can be exercised on a plain JVM with synthetic frames.
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Converts a YUV_420_888 camera image (as delivered by ARCore / Camera2 Image planes)
+// straight into the model input tensor: resized, letterboxed and normalized RGB.
+// No Bitmap is created and the output buffer is allocated once and reused every frame.
+public class YuvToTensorConverter {
+
+    // Layout of the model input tensor
+    public enum OutputType {
+        FLOAT32, // RGB in [0, 1], 4 bytes per channel (typical YOLOv8 float export)
+        UINT8    // RGB in [0, 255], 1 byte per channel (quantized models)
+    }
+
+    // YOLO letterbox padding colour (114, 114, 114)
+    private static final int PAD_VALUE = 114;
+
+    private final int outWidth;
+    private final int outHeight;
+    private final OutputType outputType;
+    private final int bytesPerChannel;
+    private final ByteBuffer outputBuffer; // Direct, native order, sized for the interpreter input
+
+    // Cached geometry - lookup tables are only rebuilt when any of these change
+    private int srcWidth = -1;
+    private int srcHeight = -1;
+    private int cachedYRowStride = -1;
+    private int cachedYPixelStride = -1;
+    private int cachedUvRowStride = -1;
+    private int cachedUvPixelStride = -1;
+
+    // Part of the source image to convert (tiled inference); width <= 0 means the whole image
+    private int regionX = 0;
+    private int regionY = 0;
+    private int regionWidth = 0;
+    private int regionHeight = 0;
+    private boolean regionChanged = false;
+
+    // Letterbox placement of the source image inside the model input
+    private float scale = 1f;
+    private int padX = 0;
+    private int padY = 0;
+    private int contentWidth = 0;
+    private int contentHeight = 0;
+    private int originX = 0; // Source pixel at the content's top-left corner (region origin)
+    private int originY = 0;
+    private boolean painted = false;
+
+    // Per output column / row offsets into the source planes (nearest-neighbour sampling)
+    private int[] yColOffset = new int[0];
+    private int[] uvColOffset = new int[0];
+    private int[] yRowOffset = new int[0];
+    private int[] uvRowOffset = new int[0];
+
+    // Sampling stride: 1 converts every output pixel; n converts one pixel per n x n block and repeats it
+    // (about n^2 less conversion work, same tensor size). Lowered by FrameGovernor under load.
+    private int sampleStride = 1;
+
+    public YuvToTensorConverter(int outWidth, int outHeight, OutputType outputType) {
+        if (outWidth <= 0 || outHeight <= 0) {
+            throw new IllegalArgumentException("Invalid model input size: " + outWidth + "x" + outHeight);
+        }
+        this.outWidth = outWidth;
+        this.outHeight = outHeight;
+        this.outputType = outputType;
+        this.bytesPerChannel = (outputType == OutputType.FLOAT32) ? 4 : 1;
+        this.outputBuffer = ByteBuffer.allocateDirect(outWidth * outHeight * 3 * bytesPerChannel)
+                .order(ByteOrder.nativeOrder());
+    }
+
+    // Converts one frame. Plane buffers are read with absolute gets, so their positions are left untouched.
+    // Returns the shared output buffer (rewound), valid until the next call.
+    public ByteBuffer convert(ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane,
+                              int yRowStride, int yPixelStride,
+                              int uvRowStride, int uvPixelStride,
+                              int width, int height) {
+        if (regionChanged || width != srcWidth || height != srcHeight
+                || yRowStride != cachedYRowStride || yPixelStride != cachedYPixelStride
+                || uvRowStride != cachedUvRowStride || uvPixelStride != cachedUvPixelStride) {
+            configure(width, height, yRowStride, yPixelStride, uvRowStride, uvPixelStride);
+        }
+
+        if (sampleStride > 1) {
+            convertStrided(yPlane, uPlane, vPlane);
+            outputBuffer.rewind();
+            return outputBuffer;
+        }
+
+        final int[] yCols = yColOffset;
+        final int[] uvCols = uvColOffset;
+        final ByteBuffer out = outputBuffer;
+        final int rowBytes = outWidth * 3 * bytesPerChannel;
+        final int pixelBytes = 3 * bytesPerChannel;
+        final boolean asFloat = outputType == OutputType.FLOAT32;
+
+        for (int dy = 0; dy < contentHeight; dy++) {
+            final int yRow = yRowOffset[dy];
+            final int uvRow = uvRowOffset[dy];
+            int o = (padY + dy) * rowBytes + padX * pixelBytes;
+            for (int dx = 0; dx < contentWidth; dx++) {
+                final int yy = yPlane.get(yRow + yCols[dx]) & 0xFF;
+                final int uvIndex = uvRow + uvCols[dx];
+                final int u = (uPlane.get(uvIndex) & 0xFF) - 128;
+                final int v = (vPlane.get(uvIndex) & 0xFF) - 128;
+
+                // BT.601 full-range YUV -> RGB in 10-bit fixed point
+                int r = yy + ((1436 * v) >> 10);
+                int g = yy - ((352 * u + 731 * v) >> 10);
+                int b = yy + ((1815 * u) >> 10);
+                r = r < 0 ? 0 : (r > 255 ? 255 : r);
+                g = g < 0 ? 0 : (g > 255 ? 255 : g);
+                b = b < 0 ? 0 : (b > 255 ? 255 : b);
+
+                if (asFloat) {
+                    out.putFloat(o, r * (1f / 255f));
+                    out.putFloat(o + 4, g * (1f / 255f));
+                    out.putFloat(o + 8, b * (1f / 255f));
+                } else {
+                    out.put(o, (byte) r);
+                    out.put(o + 1, (byte) g);
+                    out.put(o + 2, (byte) b);
+                }
+                o += pixelBytes;
+            }
+        }
+        outputBuffer.rewind();
+        return outputBuffer;
+    }
+
+    // convert() for sampleStride > 1: one conversion per block, written to every pixel of the block
+    private void convertStrided(ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane) {
+        final int stride = sampleStride;
+        final ByteBuffer out = outputBuffer;
+        final int rowBytes = outWidth * 3 * bytesPerChannel;
+        final int pixelBytes = 3 * bytesPerChannel;
+        final boolean asFloat = outputType == OutputType.FLOAT32;
+
+        for (int dy = 0; dy < contentHeight; dy += stride) {
+            final int yRow = yRowOffset[dy];
+            final int uvRow = uvRowOffset[dy];
+            final int blockRows = Math.min(stride, contentHeight - dy);
+            for (int dx = 0; dx < contentWidth; dx += stride) {
+                final int yy = yPlane.get(yRow + yColOffset[dx]) & 0xFF;
+                final int uvIndex = uvRow + uvColOffset[dx];
+                final int u = (uPlane.get(uvIndex) & 0xFF) - 128;
+                final int v = (vPlane.get(uvIndex) & 0xFF) - 128;
+
+                int r = yy + ((1436 * v) >> 10);
+                int g = yy - ((352 * u + 731 * v) >> 10);
+                int b = yy + ((1815 * u) >> 10);
+                r = r < 0 ? 0 : (r > 255 ? 255 : r);
+                g = g < 0 ? 0 : (g > 255 ? 255 : g);
+                b = b < 0 ? 0 : (b > 255 ? 255 : b);
+
+                final int blockCols = Math.min(stride, contentWidth - dx);
+                for (int by = 0; by < blockRows; by++) {
+                    int o = (padY + dy + by) * rowBytes + (padX + dx) * pixelBytes;
+                    for (int bx = 0; bx < blockCols; bx++) {
+                        if (asFloat) {
+                            out.putFloat(o, r * (1f / 255f));
+                            out.putFloat(o + 4, g * (1f / 255f));
+                            out.putFloat(o + 8, b * (1f / 255f));
+                        } else {
+                            out.put(o, (byte) r);
+                            out.put(o + 1, (byte) g);
+                            out.put(o + 2, (byte) b);
+                        }
+                        o += pixelBytes;
+                    }
+                }
+            }
+        }
+    }
+
+    public void setSampleStride(int stride) {
+        if (stride < 1 || stride > 8) {
+            throw new IllegalArgumentException("Invalid sample stride: " + stride);
+        }
+        sampleStride = stride;
+    }
+
+    public int getSampleStride() { return sampleStride; }
+
+    // Converts only the given rectangle of the source image (clipped to it), letterboxed into the model input
+    // like a whole frame. Boxes map back with getScale() / getOffsetX() / getOffsetY() as usual.
+    public void setSourceRegion(int x, int y, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid source region: " + width + "x" + height);
+        }
+        if (x == regionX && y == regionY && width == regionWidth && height == regionHeight) return;
+        regionX = x;
+        regionY = y;
+        regionWidth = width;
+        regionHeight = height;
+        regionChanged = true;
+    }
+
+    public void clearSourceRegion() {
+        if (regionWidth <= 0) return;
+        regionX = regionY = regionWidth = regionHeight = 0;
+        regionChanged = true;
+    }
+
+    // Rebuilds the sampling lookup tables (and repaints the letterbox border if the content area moved).
+    // Only runs when the camera geometry or the source region changes, never in the steady state.
+    private void configure(int width, int height, int yRowStride, int yPixelStride, int uvRowStride, int uvPixelStride) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid source image size: " + width + "x" + height);
+        }
+        srcWidth = width;
+        srcHeight = height;
+        cachedYRowStride = yRowStride;
+        cachedYPixelStride = yPixelStride;
+        cachedUvRowStride = uvRowStride;
+        cachedUvPixelStride = uvPixelStride;
+        regionChanged = false;
+
+        // Area to convert, clipped to the image
+        final int x0 = regionWidth > 0 ? Math.max(0, Math.min(regionX, width - 1)) : 0;
+        final int y0 = regionWidth > 0 ? Math.max(0, Math.min(regionY, height - 1)) : 0;
+        final int areaWidth = regionWidth > 0 ? Math.min(regionWidth, width - x0) : width;
+        final int areaHeight = regionWidth > 0 ? Math.min(regionHeight, height - y0) : height;
+        originX = x0;
+        originY = y0;
+
+        final int oldContentWidth = contentWidth, oldContentHeight = contentHeight;
+        scale = Math.min(outWidth / (float) areaWidth, outHeight / (float) areaHeight);
+        contentWidth = Math.min(outWidth, Math.round(areaWidth * scale));
+        contentHeight = Math.min(outHeight, Math.round(areaHeight * scale));
+        padX = (outWidth - contentWidth) / 2;
+        padY = (outHeight - contentHeight) / 2;
+
+        if (yColOffset.length != contentWidth) {
+            yColOffset = new int[contentWidth];
+            uvColOffset = new int[contentWidth];
+        }
+        for (int dx = 0; dx < contentWidth; dx++) {
+            int sx = x0 + Math.min(areaWidth - 1, (int) ((dx + 0.5f) / scale));
+            yColOffset[dx] = sx * yPixelStride;
+            uvColOffset[dx] = (sx >> 1) * uvPixelStride;
+        }
+        if (yRowOffset.length != contentHeight) {
+            yRowOffset = new int[contentHeight];
+            uvRowOffset = new int[contentHeight];
+        }
+        for (int dy = 0; dy < contentHeight; dy++) {
+            int sy = y0 + Math.min(areaHeight - 1, (int) ((dy + 0.5f) / scale));
+            yRowOffset[dy] = sy * yRowStride;
+            uvRowOffset[dy] = (sy >> 1) * uvRowStride;
+        }
+
+        // Same content area as before (e.g. switching between equally sized tiles): the border is still painted
+        if (painted && contentWidth == oldContentWidth && contentHeight == oldContentHeight) return;
+        painted = true;
+
+        // Paint the whole tensor with the pad colour once; convert() only overwrites the content area
+        final int channels = outWidth * outHeight * 3;
+        for (int i = 0; i < channels; i++) {
+            if (outputType == OutputType.FLOAT32) {
+                outputBuffer.putFloat(i * 4, PAD_VALUE / 255f);
+            } else {
+                outputBuffer.put(i, (byte) PAD_VALUE);
+            }
+        }
+    }
+
+    // --- Letterbox mapping helpers (model input coordinates -> source image coordinates) ---
+    public float toSourceX(float modelX) {
+        return (modelX - getOffsetX()) / scale;
+    }
+
+    public float toSourceY(float modelY) {
+        return (modelY - getOffsetY()) / scale;
+    }
+
+    // Model x = source x * getScale() + getOffsetX(); equals the pad unless a source region is set
+    public float getOffsetX() { return padX - originX * scale; }
+    public float getOffsetY() { return padY - originY * scale; }
+
+    public ByteBuffer getOutputBuffer() { return outputBuffer; }
+    public int getOutputWidth() { return outWidth; }
+    public int getOutputHeight() { return outHeight; }
+    public OutputType getOutputType() { return outputType; }
+    public float getScale() { return scale; }
+    public int getPadX() { return padX; }
+    public int getPadY() { return padY; }
+    public int getSourceWidth() { return srcWidth; }
+    public int getSourceHeight() { return srcHeight; }
+}
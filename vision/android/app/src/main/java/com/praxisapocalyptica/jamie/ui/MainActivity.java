@@ -270,14 +270,23 @@ public class MainActivity extends AppCompatActivity {
             slamManager = new SlamManager(this, new SlamManager.FrameListener() {
                  @Override public void onNewFrame(Frame frame, Pose robotPose) {
                      // Called when ARCore provides a new frame
-                     // TODO: Pass frame to VisionProcessor for object detection
-                     // visionProcessor.processFrame(frame, robotPose);
+                     // Hand the frame to VisionProcessor's inference worker (copies planes + pose, returns
+                     // immediately; stale frames are dropped). robotPose is this frame's pose, so no
+                     // pose history lookup is needed (processFrame() does one).
+                     visionProcessor.submitFrame(frame, robotPose);
                      // TODO: Send robotPose (phone's pose) to Brain via Wi-Fi
                      // wifiCommunicator.sendData(formatPoseToJson(robotPose)); // Need to implement formatPoseToJson
                  }
                  @Override public void onTrackingStateChanged(TrackingState state) { updateStatusText("AR Tracking: " + state); }
                  @Override public void onError(String message) { updateStatusText("AR Error: " + message); }
             });
+            // Optional: stream the pose every frame over UDP (brain listens on piPort + 1), so it never
+            // queues behind detections on the TCP link
+            // try {
+            //     slamManager.setPoseStreamer(new PoseDatagramStreamer(piAddress, piPort + 1));
+            // } catch (IOException e) {
+            //     updateStatusText("UDP pose stream unavailable: " + e.getMessage());
+            // }
         }
         if (visionProcessor == null) { // Check if not already initialized
             visionProcessor = new VisionProcessor(this, new VisionProcessor.VisionListener() {
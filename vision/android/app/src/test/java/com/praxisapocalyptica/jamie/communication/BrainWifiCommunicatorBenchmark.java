@@ -0,0 +1,130 @@
+package com/praxisapocalyptica/jamie.communication;
+
+// Plain-JVM benchmark (no JMH on this tree's classpath): java ...BrainWifiCommunicatorBenchmark.
+// Streams pose + vision_update (+ a control message every 10th frame) at 30 / 60 / 120 Hz over loopback to a
+// JSON-lines stand-in for the brain, once flushing every message and once with the default aggregation window.
+// Prints flushes per second (one gathering write each, a batch fits the 64 KB of staging segments), messages per
+// flush, received throughput and queue-to-wire latency.
+
+import com/praxisapocalyptica/jamie.perception.DetectedObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class BrainWifiCommunicatorBenchmark {
+
+    private static final int SECONDS = 3;
+    private static final int OBJECTS = 5;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("rate  window        flushes/s  msgs/flush  KB/s received  lines/s  latency avg/max (us)");
+        for (int hz : new int[] {30, 60, 120}) {
+            run(hz, "per message", 1, 0);
+            run(hz, "16 / 2000 us", 16, 2000);
+        }
+    }
+
+    private static void run(int hz, String label, int maxMessages, long maxDelayMicros) throws Exception {
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong lines = new AtomicLong();
+        final ServerSocket server = new ServerSocket();
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        Thread brain = new Thread(() -> serve(server, bytes, lines), "Benchmark brain");
+        brain.setDaemon(true);
+        brain.start();
+
+        final CountDownLatch connected = new CountDownLatch(1);
+        BrainWifiCommunicator communicator = new BrainWifiCommunicator("127.0.0.1", server.getLocalPort(),
+                new BrainWifiCommunicator.CommunicationListener() {
+                    @Override public void onDataReceived(String data) { }
+                    @Override public void onConnectionStatusChanged(boolean isConnected) {
+                        if (isConnected) connected.countDown();
+                    }
+                    @Override public void onError(String errorMessage) { }
+                });
+        communicator.setAggregationWindow(maxMessages, maxDelayMicros);
+        communicator.connect();
+        if (!connected.await(3, TimeUnit.SECONDS)) throw new IllegalStateException("No connection");
+
+        final List<DetectedObject> objects = objects();
+        final long period = 1_000_000_000L / hz;
+        final int frames = hz * SECONDS;
+        final long start = System.nanoTime();
+        final long bytesBefore = bytes.get();
+        final long linesBefore = lines.get();
+        for (int n = 0; n < frames; n++) {
+            final long t = start + n * period;
+            communicator.sendPose(t, n * 0.01f, 0, 0, 0, 0, 0, 1);
+            communicator.sendDetections(t, objects);
+            if (n % 10 == 0) communicator.sendData("{\"type\": \"speech\", \"text\": \"frame " + n + "\"}");
+            LockSupport.parkNanos(start + (n + 1) * period - System.nanoTime());
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        while (communicator.getOutboundQueueDepth() > 0) Thread.sleep(1);
+        Thread.sleep(50); // Last aggregation window
+
+        final long flushes = communicator.getFlushCount();
+        System.out.printf("%4d  %-12s  %9.1f  %10.2f  %13.1f  %7.1f  %8.0f / %.0f%n", hz, label,
+                flushes / seconds, flushes == 0 ? 0 : (double) communicator.getFlushedMessageCount() / flushes,
+                (bytes.get() - bytesBefore) / 1024.0 / seconds, (lines.get() - linesBefore) / seconds,
+                communicator.getOutboundAverageLatencyNanos() / 1000.0, communicator.getOutboundMaxLatencyNanos() / 1000.0);
+        communicator.disconnect();
+        communicator.shutdownExecutor();
+        server.close();
+    }
+
+    // Answers the hello in JSON-lines mode, then counts what arrives
+    private static void serve(ServerSocket server, AtomicLong bytes, AtomicLong lines) {
+        try (Socket client = server.accept()) {
+            InputStream in = client.getInputStream();
+            OutputStream out = client.getOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            boolean greeted = false;
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    if (buffer[i] != '\n') continue;
+                    if (!greeted) {
+                        out.write("{\"type\": \"hello_ack\", \"protocol\": \"json-lines\"}\n".getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                        greeted = true;
+                    } else {
+                        lines.incrementAndGet();
+                    }
+                }
+                bytes.addAndGet(n);
+            }
+        } catch (IOException e) {
+            // Benchmark over
+        }
+    }
+
+    private static List<DetectedObject> objects() {
+        List<DetectedObject> objects = new ArrayList<>();
+        for (int i = 0; i < OBJECTS; i++) {
+            DetectedObject obj = new DetectedObject();
+            obj.objectClass = "chair";
+            obj.confidence = 0.8f;
+            obj.boundingBoxLeft = 10 * i;
+            obj.boundingBoxTop = 20;
+            obj.boundingBoxRight = 10 * i + 60;
+            obj.boundingBoxBottom = 120;
+            obj.poseQw = 1;
+            obj.polygon = new float[32];
+            for (int k = 0; k < obj.polygon.length; k++) obj.polygon[k] = 10 * i + k * 3.5f;
+            objects.add(obj);
+        }
+        return objects;
+    }
+}
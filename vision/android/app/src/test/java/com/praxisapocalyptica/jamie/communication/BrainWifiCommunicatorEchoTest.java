@@ -0,0 +1,229 @@
+package com/praxisapocalyptica/jamie.communication;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...BrainWifiCommunicatorEchoTest, non-zero exit on failure.
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// The selector loop against a loopback stand-in for the brain that answers the hello and then echoes every byte
+// back, so whatever the communicator writes comes back through its own reader: JSON messages sent in binary
+// frames (deflated when large) and as JSON lines, data arriving in the same segment as the handshake answer,
+// and a brain that stops reading until the socket buffers are full.
+public class BrainWifiCommunicatorEchoTest {
+
+    private static final String BINARY_ACK = "{\"type\": \"hello_ack\", \"protocol\": \"binary-v1\", \"features\": [\"deflate\"]}";
+    private static final String JSON_ACK = "{\"type\": \"hello_ack\", \"protocol\": \"json-lines\"}";
+
+    public static void main(String[] args) throws Exception {
+        binaryFramesComeBackInOrder();
+        jsonLinesComeBackInOrder();
+        dataBehindTheHandshakeAnswerIsDelivered();
+        aStalledBrainGetsEverythingOnceItReadsAgain();
+        System.out.println("BrainWifiCommunicatorEchoTest: OK");
+    }
+
+    // Small messages, one much larger than the read buffer and the staging segments, and small ones behind it
+    private static void binaryFramesComeBackInOrder() throws Exception {
+        EchoBrain brain = EchoBrain.start(BINARY_ACK, null, null);
+        final Listener listener = new Listener();
+        BrainWifiCommunicator communicator = new BrainWifiCommunicator("127.0.0.1", brain.getPort(), listener);
+        try {
+            communicator.connect();
+            check(listener.connected.tryAcquire(3, TimeUnit.SECONDS), "connected");
+            check(communicator.isBinaryProtocol(), "binary-v1 negotiated");
+            final String large = speech("large", 300 * 1024);
+            for (int i = 0; i < 20; i++) communicator.sendData(speech("n" + i, 10));
+            communicator.sendData(large);
+            for (int i = 20; i < 40; i++) communicator.sendData(speech("n" + i, 10));
+            for (int i = 0; i < 20; i++) check(speech("n" + i, 10).equals(listener.next()), "message " + i + " echoed");
+            check(large.equals(listener.next()), "300 KB message echoed intact");
+            for (int i = 20; i < 40; i++) check(speech("n" + i, 10).equals(listener.next()), "message " + i + " echoed");
+            check(communicator.getCompressionRatio() < 0.5f, "the large frame went out deflated: "
+                    + communicator.getCompressionRatio());
+            check(communicator.getFlushedMessageCount() == 41, "all flushed: " + communicator.getFlushedMessageCount());
+            check(communicator.getOutboundDroppedCount() == 0, "nothing dropped");
+        } finally {
+            communicator.shutdownExecutor();
+            brain.close();
+        }
+    }
+
+    private static void jsonLinesComeBackInOrder() throws Exception {
+        EchoBrain brain = EchoBrain.start(JSON_ACK, null, null);
+        final Listener listener = new Listener();
+        BrainWifiCommunicator communicator = new BrainWifiCommunicator("127.0.0.1", brain.getPort(), listener);
+        try {
+            communicator.connect();
+            check(listener.connected.tryAcquire(3, TimeUnit.SECONDS), "connected");
+            check(!communicator.isBinaryProtocol(), "json-lines negotiated");
+            final String large = speech("large", 200 * 1024);
+            communicator.sendData(speech("first", 10));
+            communicator.sendData(large);
+            communicator.sendData(speech("last", 10));
+            check(speech("first", 10).equals(listener.next()), "first line echoed");
+            check(large.equals(listener.next()), "200 KB line echoed intact");
+            check(speech("last", 10).equals(listener.next()), "last line echoed");
+        } finally {
+            communicator.shutdownExecutor();
+            brain.close();
+        }
+    }
+
+    // The brain answers the hello and sends a message in the same write: it sits in the read buffer behind the
+    // answer and must be handled without waiting for more bytes
+    private static void dataBehindTheHandshakeAnswerIsDelivered() throws Exception {
+        final String early = "{\"type\": \"speech\", \"text\": \"early\"}";
+        final BrainWireProtocol.Encoder encoder = new BrainWireProtocol.Encoder();
+        final ByteBuffer frame = encoder.encodeJson(early);
+        final byte[] frameBytes = new byte[frame.remaining()];
+        frame.get(frameBytes);
+        for (boolean binary : new boolean[] {true, false}) {
+            final byte[] extra = binary ? frameBytes : (early + "\n").getBytes(StandardCharsets.UTF_8);
+            EchoBrain brain = EchoBrain.start(binary ? BINARY_ACK : JSON_ACK, extra, null);
+            final Listener listener = new Listener();
+            BrainWifiCommunicator communicator = new BrainWifiCommunicator("127.0.0.1", brain.getPort(), listener);
+            try {
+                communicator.connect();
+                check(listener.connected.tryAcquire(3, TimeUnit.SECONDS), "connected");
+                check(early.equals(listener.next()), (binary ? "frame" : "line") + " behind the answer delivered");
+            } finally {
+                communicator.shutdownExecutor();
+                brain.close();
+            }
+        }
+    }
+
+    // 6 MB of control messages while the brain doesn't read: the socket buffers fill, flushes wait for OP_WRITE
+    // (the brain's answer and the link state are still handled), and everything arrives once it reads again
+    private static void aStalledBrainGetsEverythingOnceItReadsAgain() throws Exception {
+        final CountDownLatch resume = new CountDownLatch(1);
+        EchoBrain brain = EchoBrain.start(BINARY_ACK, null, resume);
+        final Listener listener = new Listener();
+        BrainWifiCommunicator communicator = new BrainWifiCommunicator("127.0.0.1", brain.getPort(), listener);
+        try {
+            communicator.connect();
+            check(listener.connected.tryAcquire(3, TimeUnit.SECONDS), "connected");
+            final int messages = 64;
+            for (int i = 0; i < messages; i++) {
+                // Random text: deflate only takes it down to ~100 KB, so each one still fills a socket buffer
+                communicator.sendData(speech("s" + i, 128 * 1024, i));
+            }
+            Thread.sleep(300);
+            check(communicator.getFlushedMessageCount() < messages, "stalled: only "
+                    + communicator.getFlushedMessageCount() + " flushed");
+            check(communicator.is_connected(), "still connected while stalled");
+            resume.countDown();
+            for (int i = 0; i < messages; i++) {
+                check(speech("s" + i, 128 * 1024, i).equals(listener.next()), "message " + i + " after the stall");
+            }
+            check(communicator.getFlushedMessageCount() == messages, "all flushed after the stall");
+        } finally {
+            communicator.shutdownExecutor();
+            brain.close();
+        }
+    }
+
+    // A speech message whose text is padding characters long
+    private static String speech(String tag, int padding) {
+        final StringBuilder text = new StringBuilder(padding);
+        for (int i = 0; i < padding; i++) text.append((char) ('a' + i % 26));
+        return "{\"type\": \"speech\", \"tag\": \"" + tag + "\", \"text\": \"" + text + "\"}";
+    }
+
+    // Same with seeded random letters and digits, which deflate can't shrink much
+    private static String speech(String tag, int padding, int seed) {
+        final String alphabet = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+        final Random random = new Random(seed);
+        final StringBuilder text = new StringBuilder(padding);
+        for (int i = 0; i < padding; i++) text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return "{\"type\": \"speech\", \"tag\": \"" + tag + "\", \"text\": \"" + text + "\"}";
+    }
+
+    private static final class Listener implements BrainWifiCommunicator.CommunicationListener {
+        final Semaphore connected = new Semaphore(0);
+        final BlockingQueue<String> data = new LinkedBlockingQueue<>();
+
+        String next() throws InterruptedException {
+            final String message = data.poll(5, TimeUnit.SECONDS);
+            check(message != null, "a message within 5 s");
+            return message;
+        }
+
+        @Override public void onDataReceived(String received) { data.add(received); }
+
+        @Override
+        public void onConnectionStatusChanged(boolean isConnected) {
+            if (isConnected) connected.release();
+        }
+
+        @Override public void onError(String errorMessage) { System.err.println("Error: " + errorMessage); }
+    }
+
+    // Stand-in for the brain: reads the hello line, writes the answer (plus extra bytes in the same write),
+    // optionally waits for resume, then echoes everything it receives
+    private static final class EchoBrain {
+        private final ServerSocket server;
+        private volatile Socket client;
+
+        private EchoBrain(ServerSocket server) {
+            this.server = server;
+        }
+
+        static EchoBrain start(String ack, byte[] extra, CountDownLatch resume) throws IOException {
+            final ServerSocket server = new ServerSocket();
+            server.setReceiveBufferSize(64 * 1024); // Fixed, so a stalled brain holds at most our 4 MB send buffer
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            final EchoBrain brain = new EchoBrain(server);
+            Thread thread = new Thread(() -> brain.serve(ack, extra, resume), "EchoBrain");
+            thread.setDaemon(true);
+            thread.start();
+            return brain;
+        }
+
+        int getPort() { return server.getLocalPort(); }
+
+        private void serve(String ack, byte[] extra, CountDownLatch resume) {
+            try (Socket s = server.accept()) {
+                client = s;
+                final InputStream in = s.getInputStream();
+                final OutputStream out = s.getOutputStream();
+                int b;
+                while ((b = in.read()) != -1 && b != '\n') { } // The hello line
+                final ByteArrayOutputStream answer = new ByteArrayOutputStream();
+                answer.write((ack + "\n").getBytes(StandardCharsets.UTF_8));
+                if (extra != null) answer.write(extra);
+                out.write(answer.toByteArray());
+                out.flush();
+                if (resume != null) resume.await();
+                final byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) != -1) out.write(buffer, 0, n);
+            } catch (IOException | InterruptedException e) {
+                // Closed
+            }
+        }
+
+        void close() throws IOException {
+            server.close();
+            final Socket s = client;
+            if (s != null) s.close();
+        }
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,345 @@
+package com/praxisapocalyptica/jamie.communication;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...BrainWifiCommunicatorTest, non-zero exit on failure.
+
+import com/praxisapocalyptica/jamie.perception.VoxelCloud;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Connection supervision against an in-process stand-in for the brain that is killed and restarted on the
+// same port. The stand-in answers the hello with a JSON-lines hello_ack and collects every line it receives.
+public class BrainWifiCommunicatorTest {
+
+    public static void main(String[] args) throws Exception {
+        reconnectsAfterTheBrainRestarts();
+        reconnectAfterDisconnectKeepsOneSupervisor();
+        supervisorSurvivesAThrowingListener();
+        unflushedMessagesSurviveALinkLoss();
+        shutdownClosesTheLinkWhileTheBrainStaysUp();
+        evictedVoxelsReachTheBrainAsRemovals();
+        voxelFramesCarryRemovalsOnlyWhenNegotiated();
+        System.out.println("BrainWifiCommunicatorTest: OK");
+    }
+
+    private static void reconnectsAfterTheBrainRestarts() throws Exception {
+        FakeBrain brain = FakeBrain.start(0);
+        final int port = brain.getPort();
+        final Listener listener = new Listener(0);
+        BrainWifiCommunicator communicator = new BrainWifiCommunicator("127.0.0.1", port, listener);
+        try {
+            communicator.connect();
+            check(listener.connected.tryAcquire(3, TimeUnit.SECONDS), "connected");
+            communicator.sendData("{\"type\": \"speech\", \"text\": \"one\"}");
+            check(received(brain, "\"one\""), "first brain got the message");
+
+            brain.close();
+            check(waitFor(communicator::isReconnecting, 3000), "link loss noticed, reconnecting");
+            brain = FakeBrain.start(port);
+            check(listener.connected.tryAcquire(5, TimeUnit.SECONDS), "reconnected to the restarted brain");
+            check(communicator.getReconnectCount() == 1 && communicator.getLastRecoveryMillis() >= 0,
+                    "recovery counted: " + communicator.getReconnectCount());
+            communicator.sendData("{\"type\": \"speech\", \"text\": \"two\"}");
+            check(received(brain, "\"two\""), "restarted brain got the next message");
+        } finally {
+            communicator.shutdownExecutor();
+            brain.close();
+        }
+    }
+
+    // disconnect() + connect() before the old supervisor has wound down: still one connection, not two
+    private static void reconnectAfterDisconnectKeepsOneSupervisor() throws Exception {
+        FakeBrain brain = FakeBrain.start(0);
+        final Listener listener = new Listener(0);
+        BrainWifiCommunicator communicator = new BrainWifiCommunicator("127.0.0.1", brain.getPort(), listener);
+        try {
+            communicator.connect();
+            check(listener.connected.tryAcquire(3, TimeUnit.SECONDS), "connected");
+            for (int i = 0; i < 3; i++) {
+                communicator.disconnect();
+                communicator.connect();
+                check(listener.connected.tryAcquire(3, TimeUnit.SECONDS), "connected again after cycle " + i);
+            }
+            Thread.sleep(1000); // Time for a second supervisor, if there were one, to connect as well
+            check(brain.getConnectionCount() == 4, "one connection per connect(), got " + brain.getConnectionCount());
+            check(!communicator.isReconnecting(), "settled");
+            communicator.sendData("{\"type\": \"speech\", \"text\": \"after\"}");
+            check(received(brain, "\"after\""), "the live connection works");
+        } finally {
+            communicator.shutdownExecutor();
+            brain.close();
+        }
+    }
+
+    // A RuntimeException out of a connection attempt (here the listener) is one more failed attempt,
+    // not the end of the supervisor
+    private static void supervisorSurvivesAThrowingListener() throws Exception {
+        FakeBrain brain = FakeBrain.start(0);
+        final Listener listener = new Listener(1);
+        BrainWifiCommunicator communicator = new BrainWifiCommunicator("127.0.0.1", brain.getPort(), listener);
+        try {
+            communicator.connect();
+            check(listener.connected.tryAcquire(5, TimeUnit.SECONDS), "connected on the second attempt");
+            check(brain.getConnectionCount() == 2, "the failed attempt was retried, connections: " + brain.getConnectionCount());
+            check(listener.errors.get() >= 1, "the failure was reported");
+            check(communicator.is_connected() && !communicator.isReconnecting(), "up and no longer reconnecting");
+        } finally {
+            communicator.shutdownExecutor();
+            brain.close();
+        }
+    }
+
+    // Messages held back by the aggregation window when the link drops go out on the next connection
+    private static void unflushedMessagesSurviveALinkLoss() throws Exception {
+        FakeBrain brain = FakeBrain.start(0);
+        final int port = brain.getPort();
+        final Listener listener = new Listener(0);
+        BrainWifiCommunicator communicator = new BrainWifiCommunicator("127.0.0.1", port, listener);
+        try {
+            communicator.setAggregationWindow(100, 10_000_000L); // Nothing below control priority gets flushed
+            communicator.connect();
+            check(listener.connected.tryAcquire(3, TimeUnit.SECONDS), "connected");
+            for (int i = 0; i < 3; i++) {
+                communicator.sendData("{\"type\": \"note\", \"n\": " + i + "}", OutboundQueue.PRIORITY_VISION, null);
+            }
+            check(waitFor(() -> communicator.getOutboundQueueDepth() == 0, 2000), "written into the staging buffers");
+            check(communicator.getFlushedMessageCount() == 0, "but not flushed");
+
+            brain.close();
+            check(waitFor(communicator::isReconnecting, 3000), "link loss noticed");
+            check(waitFor(() -> communicator.getOutboundQueueDepth() == 3, 1000), "unflushed messages queued again, depth "
+                    + communicator.getOutboundQueueDepth()); // Once the writer has noticed
+            communicator.setAggregationWindow(1, 0);
+            brain = FakeBrain.start(port);
+            check(listener.connected.tryAcquire(5, TimeUnit.SECONDS), "reconnected");
+            for (int i = 0; i < 3; i++) check(received(brain, "\"n\": " + i), "message " + i + " delivered after the reconnect");
+        } finally {
+            communicator.shutdownExecutor();
+            brain.close();
+        }
+    }
+
+    // shutdownExecutor() with the brain still connected: the link is closed from our side (the writer used to
+    // spin on the closed queue for as long as the brain kept the socket open)
+    private static void shutdownClosesTheLinkWhileTheBrainStaysUp() throws Exception {
+        FakeBrain brain = FakeBrain.start(0);
+        final Listener listener = new Listener(0);
+        BrainWifiCommunicator communicator = new BrainWifiCommunicator("127.0.0.1", brain.getPort(), listener);
+        try {
+            communicator.connect();
+            check(listener.connected.tryAcquire(3, TimeUnit.SECONDS), "connected");
+            communicator.shutdownExecutor();
+            check(waitFor(() -> brain.getEndedCount() == 1, 2000), "the brain saw the connection end");
+            check(!communicator.is_connected(), "not connected after shutdown");
+        } finally {
+            communicator.shutdownExecutor();
+            brain.close();
+        }
+    }
+
+    // A 64-voxel cloud (10 cm) mapped in one place, then in another 10 m away: the brain is told to drop the
+    // first place's voxels
+    private static void evictedVoxelsReachTheBrainAsRemovals() throws Exception {
+        FakeBrain brain = FakeBrain.start(0);
+        final Listener listener = new Listener(0);
+        BrainWifiCommunicator communicator = new BrainWifiCommunicator("127.0.0.1", brain.getPort(), listener);
+        try {
+            communicator.connect();
+            check(listener.connected.tryAcquire(3, TimeUnit.SECONDS), "connected");
+            final VoxelCloud cloud = new VoxelCloud(0.1f, 64, 0.5f);
+            cloud.addPoints(voxelBlock(0f), 64, 0.2f, 0, 0);
+            communicator.sendPointCloud(1, cloud);
+            check(received(brain, "\"points\": [[0.05"), "first place sent");
+            cloud.addPoints(voxelBlock(10f), 64, 10.2f, 0, 0);
+            communicator.sendPointCloud(2, cloud);
+            check(received(brain, "\"removed\": [[0.05"), "first place removed");
+            check(waitFor(() -> !cloud.hasPendingChanges(), 2000) && cloud.getRemovalsDrained() == 64,
+                    "all 64 removals sent: " + cloud.getRemovalsDrained());
+        } finally {
+            communicator.shutdownExecutor();
+            brain.close();
+        }
+    }
+
+    // TYPE_VOXELS keeps its original layout for a brain that only accepted FEATURE_VOXELS
+    private static void voxelFramesCarryRemovalsOnlyWhenNegotiated() {
+        final VoxelCloud cloud = new VoxelCloud(0.1f, 64, 0.5f);
+        final VoxelCloud.Batch batch = new VoxelCloud.Batch(64);
+        cloud.addPoints(voxelBlock(0f), 64, 0.2f, 0, 0);
+        cloud.drainChanges(batch);
+        cloud.addPoints(voxelBlock(10f), 64, 10.2f, 0, 0);
+        cloud.drainChanges(batch);
+        check(batch.count == 64 && batch.removedCount == 64, "64 new voxels and 64 removals");
+
+        final BrainWireProtocol.Encoder encoder = new BrainWireProtocol.Encoder();
+        final VoxelCloud.Batch decoded = new VoxelCloud.Batch(64);
+        ByteBuffer frame = encoder.encodeVoxels(7, batch);
+        check(frame.remaining() == BrainWireProtocol.HEADER_BYTES + 16 + 64 * 11, "original layout: " + frame.remaining());
+        frame.position(BrainWireProtocol.HEADER_BYTES);
+        check(BrainWireProtocol.decodeVoxels(frame, decoded) == 7 && decoded.count == 64 && decoded.removedCount == 0,
+                "decodes without removals");
+
+        encoder.setVoxelRemovals(true);
+        frame = encoder.encodeVoxels(8, batch);
+        check(frame.remaining() == BrainWireProtocol.HEADER_BYTES + 16 + 64 * 11 + 5 + 64 * 6, "with the trailer");
+        frame.position(BrainWireProtocol.HEADER_BYTES);
+        check(BrainWireProtocol.decodeVoxels(frame, decoded) == 8 && decoded.count == 64 && !decoded.reset,
+                "voxels decoded");
+        check(decoded.removedCount == 64, "removals decoded: " + decoded.removedCount);
+        for (int i = 0; i < 64 * 3; i++) check(decoded.removedCoords[i] == batch.removedCoords[i], "removed voxel " + i / 3);
+
+        cloud.markAllChanged();
+        cloud.drainChanges(batch);
+        frame = encoder.encodeVoxels(9, batch);
+        frame.position(BrainWireProtocol.HEADER_BYTES);
+        BrainWireProtocol.decodeVoxels(frame, decoded);
+        check(decoded.reset && decoded.count == 64, "reset flag decoded");
+        check(BrainWireProtocol.formatVoxelsJson(9, batch).contains("\"reset\": true"), "and in JSON");
+    }
+
+    // One point per voxel of a 4 x 4 x 4 block of 10 cm voxels starting at x (metres)
+    private static FloatBuffer voxelBlock(float x) {
+        final FloatBuffer points = FloatBuffer.allocate(64 * 4);
+        for (int i = 0; i < 64; i++) {
+            points.put(x + ((i & 3) + 0.5f) * 0.1f).put(((i >> 2 & 3) + 0.5f) * 0.1f).put(((i >> 4) + 0.5f) * 0.1f).put(0.8f);
+        }
+        points.flip();
+        return points;
+    }
+
+    private static boolean received(FakeBrain brain, String fragment) throws InterruptedException {
+        final long deadline = System.nanoTime() + 3_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            String line = brain.lines.poll(100, TimeUnit.MILLISECONDS);
+            if (line != null && line.contains(fragment)) return true;
+        }
+        return false;
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private static boolean waitFor(Condition condition, long timeoutMs) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!condition.holds()) {
+            if (System.currentTimeMillis() > deadline) return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private static final class Listener implements BrainWifiCommunicator.CommunicationListener {
+        final Semaphore connected = new Semaphore(0);
+        final AtomicInteger errors = new AtomicInteger();
+        private final AtomicInteger failuresLeft;
+
+        Listener(int failures) {
+            failuresLeft = new AtomicInteger(failures);
+        }
+
+        @Override public void onDataReceived(String data) { }
+
+        @Override
+        public void onConnectionStatusChanged(boolean isConnected) {
+            if (!isConnected) return;
+            if (failuresLeft.getAndDecrement() > 0) throw new IllegalStateException("listener bug");
+            connected.release();
+        }
+
+        @Override public void onError(String errorMessage) { errors.incrementAndGet(); }
+    }
+
+    // Stand-in for the brain: answers the hello, then queues every line received
+    private static final class FakeBrain {
+        private final ServerSocket server;
+        private final List<Socket> clients = new ArrayList<>();
+        private final AtomicInteger connections = new AtomicInteger();
+        private final AtomicInteger ended = new AtomicInteger();
+        final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+
+        private FakeBrain(ServerSocket server) {
+            this.server = server;
+        }
+
+        static FakeBrain start(int port) throws IOException {
+            ServerSocket server = new ServerSocket();
+            server.setReuseAddress(true); // Restart on the port the previous instance just released
+            server.bind(new InetSocketAddress("127.0.0.1", port));
+            final FakeBrain brain = new FakeBrain(server);
+            Thread acceptor = new Thread(brain::acceptLoop, "FakeBrain accept");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            return brain;
+        }
+
+        int getPort() { return server.getLocalPort(); }
+        int getConnectionCount() { return connections.get(); }
+        int getEndedCount() { return ended.get(); } // Connections the communicator closed
+
+        private void acceptLoop() {
+            try {
+                while (true) {
+                    final Socket client = server.accept();
+                    connections.incrementAndGet();
+                    synchronized (clients) {
+                        if (server.isClosed()) { // close() ran between accept() and here
+                            client.close();
+                            return;
+                        }
+                        clients.add(client);
+                    }
+                    Thread reader = new Thread(() -> serve(client), "FakeBrain client");
+                    reader.setDaemon(true);
+                    reader.start();
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+
+        private void serve(Socket client) {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+                OutputStream out = client.getOutputStream();
+                String hello = in.readLine();
+                if (hello == null) return;
+                out.write("{\"type\": \"hello_ack\", \"protocol\": \"json-lines\"}\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                String line;
+                while ((line = in.readLine()) != null) lines.add(line);
+                ended.incrementAndGet();
+            } catch (IOException e) {
+                // Connection gone
+            }
+        }
+
+        // Kills the brain: listening socket and every connection
+        void close() throws IOException {
+            server.close();
+            synchronized (clients) {
+                for (Socket client : clients) client.close();
+                clients.clear();
+            }
+        }
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,141 @@
+package com/praxisapocalyptica/jamie.communication;
+
+// Plain-JVM benchmark (no JMH on this tree's classpath): java ...BrainWireProtocolBenchmark.
+// The two messages sent every frame, slam_update and vision_update (1, 5 and 20 detections, most with a 8 to 48
+// vertex polygon), as JSON lines (formatPoseJson / formatDetectionsJson + UTF-8) and as binary-v1 frames (f32 and
+// delta-coded polygons). Prints bytes per message on the wire and median / p95 nanoseconds per message to encode
+// and to decode. Binary decode is decodeFrames + decodePose / decodeDetections; JSON decode is the UTF-8 decode
+// plus parsing every number in the line, the least any JSON parser on the brain has to do.
+
+import com/praxisapocalyptica/jamie.perception.DetectedObject;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class BrainWireProtocolBenchmark {
+
+    private static final int BATCH = 50;    // Messages per timed sample (one message is too short to time)
+    private static final int WARMUP = 400;  // Samples
+    private static final int TIMED = 400;
+
+    private interface Codec {
+        int encode();           // Returns the bytes on the wire
+        long decode();          // Returns something derived from the result, so the work is kept
+    }
+
+    private static long sink = 0;
+
+    public static void main(String[] args) {
+        System.out.println("message           format        bytes/msg  encode ns (median / p95)  decode ns (median / p95)");
+        final float[] pose = new float[7];
+        run("slam_update", "json", jsonCodec(() -> BrainWireProtocol.formatPoseJson(123456789L, 1.25f, 0.5f, -3.75f,
+                0f, 0.3827f, 0f, 0.9239f)));
+        final BrainWireProtocol.Encoder poseEncoder = new BrainWireProtocol.Encoder();
+        run("slam_update", "binary", binaryCodec(() -> poseEncoder.encodePose(123456789L, 1.25f, 0.5f, -3.75f, 0f,
+                0.3827f, 0f, 0.9239f), (type, payload) -> sink += BrainWireProtocol.decodePose(payload, pose)));
+
+        for (int count : new int[] {1, 5, 20}) {
+            final List<DetectedObject> objects = BrainWireProtocolTest.detections(new Random(count), count);
+            final String label = "vision_update " + count;
+            run(label, "json", jsonCodec(() -> BrainWireProtocol.formatDetectionsJson(123456789L, objects)));
+            for (boolean deltas : new boolean[] {false, true}) {
+                final BrainWireProtocol.Encoder encoder = new BrainWireProtocol.Encoder();
+                encoder.setPolygonDeltas(deltas);
+                run(label, deltas ? "binary delta" : "binary f32", binaryCodec(
+                        () -> encoder.encodeDetections(123456789L, objects),
+                        (type, payload) -> sink += BrainWireProtocol.decodeDetections(payload, type).size()));
+            }
+        }
+        if (sink == 42) System.out.print(""); // Keeps the work from being dropped
+    }
+
+    private interface LineSource {
+        String format();
+    }
+
+    private interface FrameSource {
+        ByteBuffer encode();
+    }
+
+    // What the JSON-lines writer puts on the wire, and the least the brain does to read it back
+    private static Codec jsonCodec(LineSource source) {
+        final byte[] line = (source.format() + "\n").getBytes(StandardCharsets.UTF_8);
+        return new Codec() {
+            @Override public int encode() {
+                return (source.format() + "\n").getBytes(StandardCharsets.UTF_8).length;
+            }
+
+            @Override public long decode() {
+                return parseNumbers(new String(line, 0, line.length - 1, StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    private static Codec binaryCodec(FrameSource source, BrainWireProtocol.FrameHandler handler) {
+        final ByteBuffer frame = source.encode();
+        final byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        final ByteBuffer in = ByteBuffer.allocate(64 * 1024); // The reader's receive buffer
+        return new Codec() {
+            @Override public int encode() {
+                return source.encode().remaining();
+            }
+
+            @Override public long decode() {
+                in.put(bytes);
+                in.flip();
+                return BrainWireProtocol.decodeFrames(in, handler);
+            }
+        };
+    }
+
+    // Every number in the line through Float.parseFloat / Long.parseLong, as a JSON parser converts them
+    private static long parseNumbers(String json) {
+        long sum = 0;
+        for (int i = 0; i < json.length(); ) {
+            final char c = json.charAt(i);
+            if (c != '-' && (c < '0' || c > '9')) {
+                if (c == '"') i = json.indexOf('"', i + 1); // Skip strings (class names)
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            boolean integer = true;
+            while (end < json.length()) {
+                final char d = json.charAt(end);
+                if (d == '.' || d == 'E' || d == 'e') integer = false;
+                else if (d != '-' && (d < '0' || d > '9')) break;
+                end++;
+            }
+            final String number = json.substring(i, end);
+            sum += integer ? Long.parseLong(number) : (long) Float.parseFloat(number);
+            i = end;
+        }
+        return sum;
+    }
+
+    private static void run(String message, String format, Codec codec) {
+        final int bytes = codec.encode();
+        final long[] encode = new long[TIMED];
+        final long[] decode = new long[TIMED];
+        for (int s = 0; s < WARMUP + TIMED; s++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < BATCH; i++) sink += codec.encode();
+            final long encodeNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < BATCH; i++) sink += codec.decode();
+            final long decodeNanos = System.nanoTime() - start;
+            if (s >= WARMUP) {
+                encode[s - WARMUP] = encodeNanos / BATCH;
+                decode[s - WARMUP] = decodeNanos / BATCH;
+            }
+        }
+        Arrays.sort(encode);
+        Arrays.sort(decode);
+        System.out.printf("%-16s  %-12s  %9d  %14d / %-8d  %14d / %d%n", message, format, bytes,
+                encode[TIMED / 2], encode[TIMED * 95 / 100], decode[TIMED / 2], decode[TIMED * 95 / 100]);
+    }
+}
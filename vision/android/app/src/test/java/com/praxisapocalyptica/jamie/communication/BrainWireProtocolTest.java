@@ -0,0 +1,397 @@
+package com/praxisapocalyptica/jamie.communication;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...BrainWireProtocolTest, non-zero exit on failure.
+
+import com/praxisapocalyptica/jamie.perception.DetectedObject;
+import com/praxisapocalyptica/jamie.perception.OccupancyGrid;
+import com/praxisapocalyptica/jamie.perception.VoxelCloud;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Every binary-v1 frame type through Encoder -> decodeFrames -> decode*, the stream fed to decodeFrames in
+// arbitrary pieces the way reads split it, and corrupt payloads (counts and runs that don't fit the bytes left)
+// rejected with an IllegalStateException before anything is allocated or written for them.
+public class BrainWireProtocolTest {
+
+    public static void main(String[] args) {
+        poseRoundTrip();
+        detectionsRoundTrip();
+        detectionDiffRoundTrip();
+        voxelsRoundTrip();
+        gridRoundTrip();
+        framesSplitAcrossReads();
+        corruptPayloadsAreRejected();
+        System.out.println("BrainWireProtocolTest: OK");
+    }
+
+    // The one frame an encode* call returned, as (type, payload) through decodeFrames
+    private static ByteBuffer payloadOf(ByteBuffer frame, byte expectedType) {
+        final ByteBuffer in = ByteBuffer.allocate(frame.remaining());
+        in.put(frame.duplicate());
+        in.flip();
+        final ByteBuffer[] payload = new ByteBuffer[1];
+        final int frames = BrainWireProtocol.decodeFrames(in, (type, p) -> {
+            check(type == expectedType, "frame type " + type + ", expected " + expectedType);
+            payload[0] = ByteBuffer.allocate(p.remaining());
+            payload[0].put(p);
+            payload[0].flip();
+        });
+        check(frames == 1 && in.position() == 0, "exactly one whole frame");
+        return payload[0];
+    }
+
+    private static void poseRoundTrip() {
+        final BrainWireProtocol.Encoder encoder = new BrainWireProtocol.Encoder();
+        final ByteBuffer frame = encoder.encodePose(123456789012345L, 1.5f, -2.25f, 0.125f, 0f, 0.7071f, 0f, 0.7071f);
+        check(frame.remaining() == BrainWireProtocol.HEADER_BYTES + BrainWireProtocol.POSE_PAYLOAD_BYTES,
+                "pose frame size " + frame.remaining());
+        final float[] pose = new float[7];
+        final long timestampNs = BrainWireProtocol.decodePose(payloadOf(frame, BrainWireProtocol.TYPE_POSE), pose);
+        check(timestampNs == 123456789012345L, "pose timestamp");
+        check(Arrays.equals(pose, new float[] {1.5f, -2.25f, 0.125f, 0f, 0.7071f, 0f, 0.7071f}),
+                "pose " + Arrays.toString(pose));
+    }
+
+    static List<DetectedObject> detections(Random random, int count) {
+        final String[] classes = {"cup", "chair", "potted plant", "caf\u00e9 table", null};
+        final List<DetectedObject> objects = new ArrayList<>();
+        for (int n = 0; n < count; n++) {
+            final DetectedObject obj = new DetectedObject();
+            obj.objectClass = classes[n % classes.length];
+            obj.confidence = random.nextFloat();
+            obj.boundingBoxLeft = random.nextFloat() * 500;
+            obj.boundingBoxTop = random.nextFloat() * 350;
+            obj.boundingBoxRight = obj.boundingBoxLeft + 20 + random.nextFloat() * 120;
+            obj.boundingBoxBottom = obj.boundingBoxTop + 20 + random.nextFloat() * 120;
+            obj.poseX = random.nextFloat() * 4 - 2;
+            obj.poseY = random.nextFloat();
+            obj.poseZ = -random.nextFloat() * 3;
+            obj.poseQw = 1f;
+            if (n % 4 != 3) obj.polygon = polygon(random, obj, 8 + random.nextInt(40));
+            objects.add(obj);
+        }
+        return objects;
+    }
+
+    // A contour-like outline inside the box: a wobbly ellipse, neighbouring vertices a few pixels apart
+    static float[] polygon(Random random, DetectedObject obj, int vertices) {
+        final float cx = (obj.boundingBoxLeft + obj.boundingBoxRight) / 2, rx = (obj.boundingBoxRight - cx) * 0.9f;
+        final float cy = (obj.boundingBoxTop + obj.boundingBoxBottom) / 2, ry = (obj.boundingBoxBottom - cy) * 0.9f;
+        final float[] polygon = new float[vertices * 2];
+        for (int i = 0; i < vertices; i++) {
+            final double a = 2 * Math.PI * i / vertices, r = 1 + (random.nextDouble() - 0.5) * 0.1;
+            polygon[2 * i] = Math.round(cx + rx * r * Math.cos(a));
+            polygon[2 * i + 1] = Math.round(cy + ry * r * Math.sin(a));
+        }
+        return polygon;
+    }
+
+    // polygonTolerance 0: bit-exact (f32 layout); otherwise per coordinate (quantised deltas)
+    static void checkSame(DetectedObject expected, DetectedObject actual, float polygonTolerance, String what) {
+        check((expected.objectClass == null ? "" : expected.objectClass).equals(actual.objectClass),
+                what + ": class " + actual.objectClass);
+        check(expected.confidence == actual.confidence && expected.boundingBoxLeft == actual.boundingBoxLeft
+                && expected.boundingBoxTop == actual.boundingBoxTop
+                && expected.boundingBoxRight == actual.boundingBoxRight
+                && expected.boundingBoxBottom == actual.boundingBoxBottom, what + ": confidence and box");
+        check(expected.poseX == actual.poseX && expected.poseY == actual.poseY && expected.poseZ == actual.poseZ
+                && expected.poseQx == actual.poseQx && expected.poseQy == actual.poseQy
+                && expected.poseQz == actual.poseQz && expected.poseQw == actual.poseQw, what + ": pose");
+        if (expected.polygon == null) {
+            check(actual.polygon == null, what + ": no polygon");
+            return;
+        }
+        check(actual.polygon != null && actual.polygon.length == expected.polygon.length, what + ": vertex count");
+        for (int i = 0; i < expected.polygon.length; i++) {
+            check(Math.abs(actual.polygon[i] - expected.polygon[i]) <= polygonTolerance,
+                    what + ": coordinate " + i + " " + actual.polygon[i] + " vs " + expected.polygon[i]);
+        }
+    }
+
+    private static void detectionsRoundTrip() {
+        final List<DetectedObject> objects = detections(new Random(1), 12);
+        objects.get(0).polygon = new float[] {-3.6f, 1000.1f, 2.4f, -0.2f, 65000f, 7.125f}; // Negative, far, off-grid
+        final BrainWireProtocol.Encoder encoder = new BrainWireProtocol.Encoder();
+
+        final ByteBuffer plain = payloadOf(encoder.encodeDetections(42L, objects), BrainWireProtocol.TYPE_DETECTIONS);
+        final int plainBytes = plain.remaining();
+        List<DetectedObject> decoded = BrainWireProtocol.decodeDetections(plain, BrainWireProtocol.TYPE_DETECTIONS);
+        check(decoded.size() == objects.size() && !plain.hasRemaining(), "f32: every detection, every byte");
+        for (int n = 0; n < objects.size(); n++) checkSame(objects.get(n), decoded.get(n), 0f, "f32 " + n);
+
+        encoder.setPolygonDeltas(true);
+        final ByteBuffer delta = payloadOf(encoder.encodeDetections(43L, objects),
+                BrainWireProtocol.TYPE_DETECTIONS_DELTA);
+        check(delta.remaining() < plainBytes * 2 / 3, "delta coding shrinks the frame: " + delta.remaining()
+                + " vs " + plainBytes + " bytes");
+        decoded = BrainWireProtocol.decodeDetections(delta, BrainWireProtocol.TYPE_DETECTIONS_DELTA);
+        check(decoded.size() == objects.size() && !delta.hasRemaining(), "delta: every detection, every byte");
+        for (int n = 0; n < objects.size(); n++) {
+            checkSame(objects.get(n), decoded.get(n), BrainWireProtocol.POLYGON_QUANTUM / 2, "delta " + n);
+        }
+
+        check(BrainWireProtocol.decodeDetections(payloadOf(encoder.encodeDetections(44L, new ArrayList<>()),
+                BrainWireProtocol.TYPE_DETECTIONS_DELTA), BrainWireProtocol.TYPE_DETECTIONS_DELTA).isEmpty(), "empty");
+    }
+
+    private static void detectionDiffRoundTrip() {
+        final List<DetectedObject> objects = detections(new Random(2), 4);
+        for (int n = 0; n < objects.size(); n++) objects.get(n).trackId = 10 + n;
+        for (boolean deltas : new boolean[] {false, true}) {
+            final BrainWireProtocol.Encoder encoder = new BrainWireProtocol.Encoder();
+            encoder.setPolygonDeltas(deltas);
+            final DetectionDelta.Receiver receiver = new DetectionDelta.Receiver();
+            final float tolerance = deltas ? BrainWireProtocol.POLYGON_QUANTUM / 2 : 0f;
+
+            // Keyframe with all four, then a diff removing track 11 and replacing track 12
+            List<DetectedObject> list = receiver.apply(payloadOf(encoder.encodeDetectionDiff(1L, true, new int[0], 0,
+                    objects, new int[] {10, 11, 12, 13}), BrainWireProtocol.TYPE_DETECTION_DIFF));
+            check(receiver.isSynced() && receiver.getLastTimestampNs() == 1L && list.size() == 4, "keyframe");
+            for (int n = 0; n < 4; n++) {
+                check(list.get(n).trackId == 10 + n, "track ids in order");
+                checkSame(objects.get(n), list.get(n), tolerance, "keyframe " + n);
+            }
+            final DetectedObject moved = detections(new Random(3), 1).get(0);
+            final List<DetectedObject> upserts = new ArrayList<>();
+            upserts.add(moved);
+            list = receiver.apply(payloadOf(encoder.encodeDetectionDiff(2L, false, new int[] {11}, 1, upserts,
+                    new int[] {12}), BrainWireProtocol.TYPE_DETECTION_DIFF));
+            check(list.size() == 3 && list.get(0).trackId == 10 && list.get(1).trackId == 12
+                    && list.get(2).trackId == 13, "removal and replacement applied");
+            checkSame(moved, list.get(1), tolerance, "replaced");
+            checkSame(objects.get(3), list.get(2), tolerance, "untouched");
+        }
+    }
+
+    private static VoxelCloud.Batch voxels(Random random, int count, int removed) {
+        final VoxelCloud.Batch batch = new VoxelCloud.Batch(Math.max(count, removed));
+        batch.voxelSize = 0.05f;
+        batch.count = count;
+        for (int i = 0; i < count * 3; i++) {
+            batch.coords[i] = (short) (random.nextInt(65536) - 32768);
+            batch.offsets[i] = (byte) random.nextInt(256);
+        }
+        for (int i = 0; i < count; i++) {
+            batch.confidence[i] = (byte) random.nextInt(256);
+            batch.hits[i] = (byte) random.nextInt(256);
+        }
+        batch.reset = true;
+        batch.removedCount = removed;
+        for (int i = 0; i < removed * 3; i++) batch.removedCoords[i] = (short) (random.nextInt(2000) - 1000);
+        return batch;
+    }
+
+    private static void voxelsRoundTrip() {
+        final VoxelCloud.Batch sent = voxels(new Random(4), 300, 40);
+        for (boolean removals : new boolean[] {false, true}) {
+            final BrainWireProtocol.Encoder encoder = new BrainWireProtocol.Encoder();
+            encoder.setVoxelRemovals(removals);
+            final ByteBuffer payload = payloadOf(encoder.encodeVoxels(77L, sent), BrainWireProtocol.TYPE_VOXELS);
+            check(payload.remaining() == 16 + 300 * 11 + (removals ? 5 + 40 * 6 : 0), "voxel payload size");
+            final VoxelCloud.Batch received = new VoxelCloud.Batch(300);
+            received.reset = !removals; // Stale values from an earlier frame must be overwritten
+            received.removedCount = 7;
+            check(BrainWireProtocol.decodeVoxels(payload, received) == 77L, "voxel timestamp");
+            check(received.voxelSize == 0.05f && received.count == 300, "voxel size and count");
+            check(Arrays.equals(received.coords, sent.coords) && Arrays.equals(received.offsets, sent.offsets)
+                    && Arrays.equals(received.confidence, sent.confidence) && Arrays.equals(received.hits, sent.hits),
+                    "voxels");
+            if (removals) {
+                check(received.reset && received.removedCount == 40, "trailer: reset and 40 removals");
+                check(Arrays.equals(Arrays.copyOf(received.removedCoords, 120), Arrays.copyOf(sent.removedCoords, 120)),
+                        "removed voxels");
+            } else {
+                check(!received.reset && received.removedCount == 0, "no trailer: no reset, no removals");
+            }
+        }
+    }
+
+    private static void gridRoundTrip() {
+        final int cells = OccupancyGrid.TILE_SIZE * OccupancyGrid.TILE_SIZE;
+        final Random random = new Random(5);
+        final OccupancyGrid.TileBatch batch = new OccupancyGrid.TileBatch(3);
+        batch.resolution = 0.05f;
+        batch.count = 3;
+        final int[][] at = {{0, 0}, {-1, 2}, {Integer.MIN_VALUE >> 8, 12345}};
+        for (int t = 0; t < 3; t++) {
+            batch.tileX[t] = at[t][0];
+            batch.tileZ[t] = at[t][1];
+            batch.keyframe[t] = true;
+            Arrays.fill(batch.previous[t], (byte) 0);
+            for (int i = 0; i < cells; i++) {
+                // A wall, free space in front of it and unknown beyond, plus isolated speckles
+                final int x = i % OccupancyGrid.TILE_SIZE;
+                batch.cells[t][i] = (byte) (x < 20 ? -40 : x < 22 ? 56 : random.nextInt(50) == 0 ? 14 : 0);
+            }
+        }
+        final BrainWireProtocol.Encoder encoder = new BrainWireProtocol.Encoder();
+        final Map<Long, byte[]> tiles = new HashMap<>();
+        check(BrainWireProtocol.decodeGrid(payloadOf(encoder.encodeGrid(5L, batch), BrainWireProtocol.TYPE_GRID),
+                tiles) == 5L, "grid timestamp");
+        check(tiles.size() == 3, "three tiles");
+        for (int t = 0; t < 3; t++) {
+            check(Arrays.equals(tiles.get(OccupancyGrid.tileKey(at[t][0], at[t][1])), batch.cells[t]),
+                    "keyframe tile " + t);
+        }
+
+        // Delta: a few cells of tile 1 change against what was sent; tile 0 is sent again as a keyframe after the
+        // receiver's copy went stale
+        batch.count = 2;
+        final int[][] order = {{1, 0}, {0, 1}};
+        final byte[][] expected = new byte[2][];
+        for (int k = 0; k < 2; k++) {
+            final int t = order[k][0];
+            final boolean keyframe = order[k][1] == 1;
+            final byte[] current = batch.cells[t].clone();
+            batch.tileX[k] = at[t][0];
+            batch.tileZ[k] = at[t][1];
+            batch.keyframe[k] = keyframe;
+            System.arraycopy(keyframe ? new byte[cells] : current, 0, batch.previous[k], 0, cells);
+            for (int n = 0; n < 25; n++) current[random.nextInt(cells)] = (byte) (random.nextInt(113) - 56);
+            System.arraycopy(current, 0, batch.cells[k], 0, cells);
+            expected[k] = current;
+        }
+        tiles.get(OccupancyGrid.tileKey(0, 0))[100] = 99; // Stale: must be cleared by the keyframe
+        BrainWireProtocol.decodeGrid(payloadOf(encoder.encodeGrid(6L, batch), BrainWireProtocol.TYPE_GRID), tiles);
+        check(Arrays.equals(tiles.get(OccupancyGrid.tileKey(at[1][0], at[1][1])), expected[0]), "delta tile");
+        check(Arrays.equals(tiles.get(OccupancyGrid.tileKey(0, 0)), expected[1]), "keyframe over a stale tile");
+    }
+
+    // A stream of mixed frames arriving in pieces of 1 to 50 bytes: decodeFrames sees every frame once, whole,
+    // in order, however the reads split them
+    private static void framesSplitAcrossReads() {
+        final Random random = new Random(6);
+        final BrainWireProtocol.Encoder encoder = new BrainWireProtocol.Encoder();
+        final List<DetectedObject> objects = detections(random, 5);
+        final ByteBuffer stream = ByteBuffer.allocate(1 << 16);
+        for (int n = 0; n < 40; n++) {
+            final ByteBuffer frame;
+            switch (n % 3) {
+                case 0: frame = encoder.encodePose(n, n, 0, 0, 0, 0, 0, 1); break;
+                case 1: frame = encoder.encodeJson("{\"type\": \"log\", \"n\": " + n + "}"); break;
+                default: frame = encoder.encodeDetections(n, objects); break;
+            }
+            stream.put(frame);
+        }
+        stream.flip();
+
+        final int[] seen = {0};
+        final float[] pose = new float[7];
+        final BrainWireProtocol.FrameHandler handler = (type, payload) -> {
+            final int n = seen[0]++;
+            final int end = payload.limit();
+            switch (n % 3) {
+                case 0:
+                    check(type == BrainWireProtocol.TYPE_POSE && BrainWireProtocol.decodePose(payload, pose) == n
+                            && pose[0] == n, "pose frame " + n);
+                    break;
+                case 1:
+                    check(type == BrainWireProtocol.TYPE_JSON && BrainWireProtocol.decodeJson(payload)
+                            .equals("{\"type\": \"log\", \"n\": " + n + "}"), "json frame " + n);
+                    break;
+                default:
+                    check(type == BrainWireProtocol.TYPE_DETECTIONS, "detections frame " + n);
+                    final List<DetectedObject> decoded = BrainWireProtocol.decodeDetections(payload);
+                    check(decoded.size() == 5, "detections frame " + n + " has 5 detections");
+                    for (int i = 0; i < 5; i++) checkSame(objects.get(i), decoded.get(i), 0f, "frame " + n);
+                    break;
+            }
+            check(payload.position() == end, "frame " + n + " decoded to its end");
+        };
+        final ByteBuffer in = ByteBuffer.allocate(4096); // Write mode, like a socket read buffer
+        while (stream.hasRemaining()) {
+            final int piece = Math.min(1 + random.nextInt(50), stream.remaining());
+            final ByteBuffer chunk = stream.duplicate();
+            chunk.limit(chunk.position() + piece);
+            in.put(chunk);
+            stream.position(stream.position() + piece);
+            in.flip();
+            BrainWireProtocol.decodeFrames(in, handler);
+        }
+        check(seen[0] == 40, "all 40 frames, got " + seen[0]);
+        check(in.position() == 0, "nothing left over");
+    }
+
+    private static void corruptPayloadsAreRejected() {
+        final BrainWireProtocol.Encoder encoder = new BrainWireProtocol.Encoder();
+
+        // Detection count of 65535 in a frame holding two: rejected before a list is sized for it
+        final List<DetectedObject> two = detections(new Random(7), 2);
+        for (byte type : new byte[] {BrainWireProtocol.TYPE_DETECTIONS, BrainWireProtocol.TYPE_DETECTIONS_DELTA}) {
+            encoder.setPolygonDeltas(type == BrainWireProtocol.TYPE_DETECTIONS_DELTA);
+            final ByteBuffer payload = payloadOf(encoder.encodeDetections(1L, two), type);
+            payload.putShort(8, (short) 0xFFFF);
+            rejected(() -> BrainWireProtocol.decodeDetections(payload.duplicate(), type), "detections in",
+                    "corrupt detection count");
+            // Vertex count of the first detection (class "cup") far beyond the frame
+            final ByteBuffer vertices = payloadOf(encoder.encodeDetections(1L, two), type);
+            vertices.putShort(10 + 1 + 3 + 48, (short) 0xFFF0);
+            rejected(() -> BrainWireProtocol.decodeDetections(vertices.duplicate(), type), "polygon vertices in",
+                    "corrupt vertex count");
+            final ByteBuffer truncated = payloadOf(encoder.encodeDetections(1L, two), type);
+            truncated.limit(truncated.limit() - 3);
+            // Caught by the vertex check or as an underflow, depending on where the cut falls
+            rejected(() -> BrainWireProtocol.decodeDetections(truncated, type), "", "truncated detections");
+        }
+        final ByteBuffer pose = payloadOf(encoder.encodePose(1L, 0, 0, 0, 0, 0, 0, 1), BrainWireProtocol.TYPE_POSE);
+        pose.limit(20);
+        rejected(() -> BrainWireProtocol.decodePose(pose, new float[7]), "Truncated pose", "truncated pose");
+
+        // Grid: a tile count, a run count and run lengths that don't fit
+        rejected(() -> BrainWireProtocol.decodeGrid(grid(0xFFFF, 0, new int[0]), new HashMap<>()), "tiles in",
+                "corrupt tile count");
+        rejected(() -> BrainWireProtocol.decodeGrid(grid(1, 0xFFFF, new int[] {0, 1}), new HashMap<>()), "runs in",
+                "corrupt run count");
+        final int cells = OccupancyGrid.TILE_SIZE * OccupancyGrid.TILE_SIZE;
+        rejected(() -> BrainWireProtocol.decodeGrid(grid(1, 1, new int[] {cells, 1}), new HashMap<>()),
+                "outside the tile", "run starting past the tile");
+        rejected(() -> BrainWireProtocol.decodeGrid(grid(1, 1, new int[] {1, Integer.MAX_VALUE}), new HashMap<>()),
+                "outside the tile", "run length that overflows the cell index");
+        rejected(() -> BrainWireProtocol.decodeGrid(grid(1, 2, new int[] {10, 5, Integer.MAX_VALUE - 2, 1}),
+                new HashMap<>()), "outside the tile", "skip that overflows the cell index");
+        rejected(() -> BrainWireProtocol.decodeGrid(grid(1, 1, new int[] {-1, 1}), new HashMap<>()),
+                "outside the tile", "five-byte varint");
+
+        // A frame length beyond MAX_FRAME_BYTES
+        final ByteBuffer in = ByteBuffer.allocate(16);
+        in.putInt(BrainWireProtocol.MAX_FRAME_BYTES + 1).put(BrainWireProtocol.TYPE_JSON).flip();
+        rejected(() -> BrainWireProtocol.decodeFrames(in, (type, p) -> { }), "Invalid frame length", "frame length");
+    }
+
+    // A TYPE_GRID payload with the given tile count, one tile at (0, 0) claiming runCount runs, then the runs'
+    // varints as given (each run's cells are zeros, as many as its length if that is small)
+    private static ByteBuffer grid(int tileCount, int runCount, int[] runVarints) {
+        final ByteBuffer out = ByteBuffer.allocate(256).order(ByteOrder.BIG_ENDIAN);
+        out.putLong(1L).putFloat(0.05f).put((byte) OccupancyGrid.TILE_SHIFT).putShort((short) tileCount);
+        out.putInt(0).putInt(0).put((byte) 0).putShort((short) runCount);
+        for (int i = 0; i < runVarints.length; i++) {
+            BrainWireProtocol.putVarint(out, runVarints[i]);
+            if (i % 2 == 1 && runVarints[i] >= 0 && runVarints[i] < 64) out.put(new byte[runVarints[i]]);
+        }
+        out.flip();
+        return out;
+    }
+
+    private static void rejected(Runnable decode, String message, String what) {
+        try {
+            decode.run();
+        } catch (IllegalStateException expected) {
+            check(expected.getMessage().contains(message), what + ": " + expected.getMessage());
+            return;
+        } catch (RuntimeException e) {
+            throw new AssertionError(what + ": " + e + " instead of an IllegalStateException");
+        }
+        throw new AssertionError(what + " accepted");
+    }
+
+    static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
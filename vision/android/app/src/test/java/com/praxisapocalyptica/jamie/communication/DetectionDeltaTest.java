@@ -0,0 +1,235 @@
+package com/praxisapocalyptica/jamie.communication;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...DetectionDeltaTest, non-zero exit on failure.
+
+import com/praxisapocalyptica/jamie.perception.DetectedObject;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// A 20 s replay (600 vision_updates at 30 fps) of a room through DetectionDelta.Sender and Receiver: furniture
+// whose boxes, confidences and positions jitter from frame to frame (now and then by more than the thresholds),
+// a person walking across, a cup put down and taken away, a missed detection, two objects the tracker has no id
+// for, and a reconnect two thirds in. On every frame the receiver's list must match what the sender was given
+// within the diff thresholds, and the diff frames must be about an order of magnitude smaller than the full
+// TYPE_DETECTIONS frames for the same lists.
+public class DetectionDeltaTest {
+
+    private static final int FRAMES = 600;
+    private static final int RECONNECT_FRAME = 400;
+    private static final long FRAME_NS = 33_333_333L;
+    // The comparisons are on floats that went through subtractions: allow for the rounding
+    private static final float EPSILON = 1e-4f;
+
+    public static void main(String[] args) {
+        for (boolean deltas : new boolean[] {false, true}) replay(deltas);
+        diffsBeforeAKeyframeAreIgnored();
+        System.out.println("DetectionDeltaTest: OK");
+    }
+
+    private static void replay(boolean polygonDeltas) {
+        final String mode = polygonDeltas ? "delta polygons" : "f32 polygons";
+        final Room room = new Room(new Random(16));
+        final DetectionDelta.Sender sender = new DetectionDelta.Sender();
+        DetectionDelta.Receiver receiver = new DetectionDelta.Receiver();
+        final BrainWireProtocol.Encoder encoder = new BrainWireProtocol.Encoder();
+        encoder.setPolygonDeltas(polygonDeltas);
+        long fullBytes = 0, diffBytes = 0;
+        int keyframes = 0, expectedKeyframes = 0, sinceKeyframe = Integer.MAX_VALUE;
+
+        for (int n = 0; n < FRAMES; n++) {
+            final List<DetectedObject> objects = room.frame(n);
+            if (n == RECONNECT_FRAME) {
+                // New connection: the brain starts empty and the communicator resets its sender
+                receiver = new DetectionDelta.Receiver();
+                sender.reset();
+                sinceKeyframe = Integer.MAX_VALUE;
+            }
+            final long timestampNs = n * FRAME_NS;
+            fullBytes += encoder.encodeDetections(timestampNs, objects).remaining();
+            final ByteBuffer frame = sender.encode(encoder, timestampNs, objects);
+            diffBytes += frame.remaining();
+            check(frame.get(frame.position() + 4) == BrainWireProtocol.TYPE_DETECTION_DIFF, mode + ": frame type");
+            final ByteBuffer payload = frame.duplicate();
+            payload.position(payload.position() + BrainWireProtocol.HEADER_BYTES);
+            final boolean keyframe = (payload.get(payload.position() + 8) & BrainWireProtocol.DIFF_KEYFRAME) != 0;
+            if (keyframe) keyframes++;
+            final boolean keyframeDue = sinceKeyframe >= DetectionDelta.DEFAULT_KEYFRAME_INTERVAL;
+            check(keyframe == keyframeDue, mode + ", frame " + n + ": keyframe " + keyframe);
+            if (keyframeDue) {
+                expectedKeyframes++;
+                sinceKeyframe = 1;
+            } else {
+                sinceKeyframe++;
+            }
+
+            final List<DetectedObject> received = receiver.apply(payload);
+            check(receiver.isSynced() && receiver.getLastTimestampNs() == timestampNs, mode + ", frame " + n + ": synced");
+            checkMatches(objects, received, mode + ", frame " + n);
+        }
+
+        check(keyframes == expectedKeyframes && sender.getKeyframesEncoded() == keyframes, mode + ": " + keyframes
+                + " keyframes, " + expectedKeyframes + " expected");
+        check(expectedKeyframes == 21, mode + ": one every 30 frames from each connection's start");
+        check(sender.getFramesEncoded() == FRAMES, mode + ": frames counted");
+        final double ratio = fullBytes / (double) diffBytes;
+        System.out.printf("DetectionDeltaTest: %s, %d -> %d bytes per frame (%.1fx), %.0f%% of detections sent%n",
+                mode, fullBytes / FRAMES, diffBytes / FRAMES, ratio, 100 * sender.getSentFraction());
+        check(ratio >= 9, mode + ": only " + ratio + "x smaller");
+    }
+
+    // Every tracked object under its track id, every untracked one as some Sender-assigned id of the same class,
+    // each within the thresholds of what was sent
+    private static void checkMatches(List<DetectedObject> sent, List<DetectedObject> received, String what) {
+        check(received.size() == sent.size(), what + ": " + received.size() + " objects, " + sent.size() + " sent");
+        final Map<Integer, DetectedObject> byId = new HashMap<>();
+        for (DetectedObject obj : received) check(byId.put(obj.trackId, obj) == null, what + ": duplicate id");
+        for (DetectedObject obj : sent) if (obj.trackId >= 0) byId.remove(obj.trackId);
+        final List<DetectedObject> local = new ArrayList<>(byId.values()); // Ids the Sender assigned
+        for (DetectedObject obj : received) byId.put(obj.trackId, obj);
+        for (DetectedObject obj : sent) {
+            if (obj.trackId >= 0) {
+                final DetectedObject got = byId.get(obj.trackId);
+                check(got != null && within(obj, got), what + ": track " + obj.trackId);
+                continue;
+            }
+            DetectedObject match = null;
+            for (DetectedObject candidate : local) {
+                if (candidate.objectClass.equals(obj.objectClass) && within(obj, candidate)) match = candidate;
+            }
+            check(match != null, what + ": untracked " + obj.objectClass);
+            local.remove(match);
+        }
+    }
+
+    private static boolean within(DetectedObject sent, DetectedObject got) {
+        if (!sent.objectClass.equals(got.objectClass)) return false;
+        if (Math.abs(sent.confidence - got.confidence) > DetectionDelta.DEFAULT_CONFIDENCE_THRESHOLD + EPSILON) return false;
+        final float px = DetectionDelta.DEFAULT_BBOX_THRESHOLD_PX + EPSILON;
+        if (Math.abs(sent.boundingBoxLeft - got.boundingBoxLeft) > px
+                || Math.abs(sent.boundingBoxTop - got.boundingBoxTop) > px
+                || Math.abs(sent.boundingBoxRight - got.boundingBoxRight) > px
+                || Math.abs(sent.boundingBoxBottom - got.boundingBoxBottom) > px) return false;
+        final float dx = sent.poseX - got.poseX, dy = sent.poseY - got.poseY, dz = sent.poseZ - got.poseZ;
+        return Math.sqrt(dx * dx + dy * dy + dz * dz) <= DetectionDelta.DEFAULT_POSE_THRESHOLD_M + EPSILON
+                && got.polygon != null;
+    }
+
+    // A receiver that joins mid-stream (or lost its state) shows nothing until the next keyframe
+    private static void diffsBeforeAKeyframeAreIgnored() {
+        final Room room = new Room(new Random(7));
+        final DetectionDelta.Sender sender = new DetectionDelta.Sender();
+        final BrainWireProtocol.Encoder encoder = new BrainWireProtocol.Encoder();
+        final DetectionDelta.Receiver receiver = new DetectionDelta.Receiver();
+        for (int n = 0; n < 2 * DetectionDelta.DEFAULT_KEYFRAME_INTERVAL; n++) {
+            final List<DetectedObject> objects = room.frame(n);
+            final ByteBuffer frame = sender.encode(encoder, n, objects);
+            frame.position(frame.position() + BrainWireProtocol.HEADER_BYTES);
+            if (n < 5) continue; // Joins late
+            final List<DetectedObject> received = receiver.apply(frame);
+            if (n < DetectionDelta.DEFAULT_KEYFRAME_INTERVAL) {
+                check(!receiver.isSynced() && received.isEmpty(), "frame " + n + " before the keyframe: empty");
+            } else {
+                check(receiver.isSynced(), "frame " + n + ": synced by the keyframe");
+                checkMatches(objects, received, "late joiner, frame " + n);
+            }
+        }
+    }
+
+    // The scripted scene. Objects are new instances every frame, as the detector produces them.
+    private static final class Room {
+        private final Random random;
+        private final List<DetectedObject> furniture = new ArrayList<>();
+
+        Room(Random random) {
+            this.random = random;
+            final String[] classes = {"chair", "chair", "couch", "potted plant", "tv", "dining table", "caf\u00e9 table",
+                    "bookshelf", "lamp", "rug"};
+            for (int i = 0; i < classes.length; i++) {
+                final DetectedObject obj = new DetectedObject();
+                obj.objectClass = classes[i];
+                obj.trackId = i < 8 ? 1 + i : -1; // The tracker hasn't confirmed the lamp and the rug
+                obj.confidence = 0.6f + 0.3f * random.nextFloat();
+                obj.boundingBoxLeft = 20 + 60 * i;
+                obj.boundingBoxTop = 40 + 25 * (i % 4);
+                obj.boundingBoxRight = obj.boundingBoxLeft + 50 + random.nextInt(30);
+                obj.boundingBoxBottom = obj.boundingBoxTop + 60 + random.nextInt(80);
+                obj.poseX = -3 + 0.6f * i;
+                obj.poseY = 0.4f;
+                obj.poseZ = 2 + random.nextFloat() * 2;
+                obj.poseQw = 1;
+                furniture.add(obj);
+            }
+        }
+
+        List<DetectedObject> frame(int n) {
+            final List<DetectedObject> objects = new ArrayList<>();
+            for (int i = 0; i < furniture.size(); i++) {
+                if (i == 2 && n % 97 == 50) continue; // The couch is missed now and then
+                objects.add(jittered(furniture.get(i)));
+            }
+            // A person walks across the room, 1.5 px and 1.5 cm a frame
+            final DetectedObject person = new DetectedObject();
+            person.objectClass = "person";
+            person.trackId = 20;
+            person.confidence = 0.9f;
+            person.boundingBoxLeft = 10 + 1.5f * (n % 400);
+            person.boundingBoxTop = 30;
+            person.boundingBoxRight = person.boundingBoxLeft + 70;
+            person.boundingBoxBottom = 300;
+            person.poseX = -3 + 0.015f * (n % 400);
+            person.poseY = 0.9f;
+            person.poseZ = 2.5f;
+            person.poseQw = 1;
+            objects.add(jittered(person));
+            if (n >= 150 && n < 450) { // A cup put on the table, then taken away
+                final DetectedObject cup = new DetectedObject();
+                cup.objectClass = "cup";
+                cup.trackId = 21;
+                cup.confidence = 0.5f;
+                cup.boundingBoxLeft = 330;
+                cup.boundingBoxTop = 120;
+                cup.boundingBoxRight = 345;
+                cup.boundingBoxBottom = 140;
+                cup.poseX = 0.1f;
+                cup.poseY = 0.75f;
+                cup.poseZ = 3;
+                cup.poseQw = 1;
+                objects.add(jittered(cup));
+            }
+            return objects;
+        }
+
+        // A copy with detector noise (+-1.5 px, +-0.04, +-1 cm, all below the thresholds apart from 1% of frames
+        // where the box is off by 8 px) and a fresh contour
+        private DetectedObject jittered(DetectedObject base) {
+            final DetectedObject obj = new DetectedObject();
+            obj.objectClass = base.objectClass;
+            obj.trackId = base.trackId;
+            obj.confidence = base.confidence + (random.nextFloat() - 0.5f) * 0.08f;
+            final float outlier = random.nextInt(100) == 0 ? 8 : 0;
+            obj.boundingBoxLeft = base.boundingBoxLeft + noise(1.5f) - outlier;
+            obj.boundingBoxTop = base.boundingBoxTop + noise(1.5f);
+            obj.boundingBoxRight = base.boundingBoxRight + noise(1.5f);
+            obj.boundingBoxBottom = base.boundingBoxBottom + noise(1.5f);
+            obj.poseX = base.poseX + noise(0.01f);
+            obj.poseY = base.poseY + noise(0.01f);
+            obj.poseZ = base.poseZ + noise(0.01f);
+            obj.poseQw = base.poseQw;
+            obj.polygon = BrainWireProtocolTest.polygon(random, obj, 24);
+            return obj;
+        }
+
+        private float noise(float amplitude) {
+            return (random.nextFloat() * 2 - 1) * amplitude;
+        }
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,108 @@
+package com/praxisapocalyptica/jamie.communication;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...OutboundQueueTest, non-zero exit on failure.
+
+import com/praxisapocalyptica/jamie.perception.DetectedObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Priority order, coalescing and the capacity bound of the outbound queue, with no writer attached.
+public class OutboundQueueTest {
+
+    public static void main(String[] args) throws Exception {
+        controlOvertakesQueuedVision();
+        supersedingStreamsCoalesce();
+        fullQueueEvictsLowerClassesFirst();
+        controlMessagesAreNeverEvicted();
+        detectionListIsCopied();
+        unsentMessagesGoBackToTheFront();
+        System.out.println("OutboundQueueTest: OK");
+    }
+
+    private static void controlOvertakesQueuedVision() throws Exception {
+        OutboundQueue queue = new OutboundQueue(8);
+        queue.offerJson("{\"type\": \"vision_update\"}", OutboundQueue.PRIORITY_VISION, null);
+        queue.offerPose(1, 0, 0, 0, 0, 0, 0, 1);
+        queue.offerJson("{\"type\": \"speech\"}", OutboundQueue.PRIORITY_CONTROL, null);
+        check(queue.pollNanos(0).getPriority() == OutboundQueue.PRIORITY_CONTROL, "control first");
+        check(queue.pollNanos(0).kind == OutboundQueue.KIND_POSE, "then the pose");
+        check(queue.pollNanos(0).getPriority() == OutboundQueue.PRIORITY_VISION, "vision last");
+        check(queue.pollNanos(0) == null, "empty");
+    }
+
+    private static void supersedingStreamsCoalesce() throws Exception {
+        OutboundQueue queue = new OutboundQueue(8);
+        for (int n = 1; n <= 5; n++) queue.offerPose(n, n, 0, 0, 0, 0, 0, 1);
+        check(queue.getDepth() == 1 && queue.getCoalescedCount() == 4, "one pose queued");
+        OutboundQueue.Message m = queue.pollNanos(0);
+        check(m.timestampNs == 5 && m.pose[0] == 5, "the newest pose wins");
+        queue.offerPose(6, 6, 0, 0, 0, 0, 0, 1);
+        check(queue.getDepth() == 1 && m.timestampNs == 5, "a polled message is no longer coalesced into");
+    }
+
+    private static void fullQueueEvictsLowerClassesFirst() throws Exception {
+        OutboundQueue queue = new OutboundQueue(3);
+        queue.offerJson("v1", OutboundQueue.PRIORITY_VISION, null);
+        queue.offerJson("v2", OutboundQueue.PRIORITY_VISION, null);
+        queue.offerJson("p1", OutboundQueue.PRIORITY_POSE, null);
+        check(queue.offerJson("c1", OutboundQueue.PRIORITY_CONTROL, null), "control makes room");
+        check(queue.getDroppedCount(OutboundQueue.PRIORITY_VISION) == 1, "by dropping the oldest vision message");
+        check(queue.offerJson("p2", OutboundQueue.PRIORITY_POSE, null), "pose makes room");
+        check(!queue.offerJson("v3", OutboundQueue.PRIORITY_VISION, null), "vision loses against pose and control");
+        final String[] expected = {"c1", "p1", "p2"};
+        for (String json : expected) check(json.equals(queue.pollNanos(0).json), json + " survives");
+    }
+
+    private static void controlMessagesAreNeverEvicted() throws Exception {
+        OutboundQueue queue = new OutboundQueue(4);
+        for (int i = 0; i < 4; i++) {
+            check(queue.offerJson("c" + i, OutboundQueue.PRIORITY_CONTROL, null), "control " + i + " admitted");
+        }
+        check(!queue.offerJson("c4", OutboundQueue.PRIORITY_CONTROL, null), "a fifth control message is rejected");
+        check(!queue.offerPose(1, 0, 0, 0, 0, 0, 0, 1), "so is a pose");
+        check(queue.getDroppedCount(OutboundQueue.PRIORITY_CONTROL) == 1, "the rejected one counts as dropped");
+        for (int i = 0; i < 4; i++) check(("c" + i).equals(queue.pollNanos(0).json), "queued control " + i + " kept, in order");
+    }
+
+    private static void detectionListIsCopied() throws Exception {
+        OutboundQueue queue = new OutboundQueue(4);
+        List<DetectedObject> reused = new ArrayList<>();
+        DetectedObject chair = new DetectedObject();
+        reused.add(chair);
+        queue.offerDetections(1, reused);
+        reused.clear(); // The producer reuses its list for the next frame
+        OutboundQueue.Message m = queue.pollNanos(0);
+        check(m.objects != reused && m.objects.size() == 1 && m.objects.get(0) == chair, "the queued list is a copy");
+    }
+
+    private static void unsentMessagesGoBackToTheFront() throws Exception {
+        OutboundQueue queue = new OutboundQueue(8);
+        queue.offerJson("a", OutboundQueue.PRIORITY_VISION, null);
+        queue.offerPose(1, 1, 0, 0, 0, 0, 0, 1);
+        queue.offerJson("b", OutboundQueue.PRIORITY_VISION, null);
+        List<OutboundQueue.Message> taken = new ArrayList<>();
+        for (int i = 0; i < 3; i++) taken.add(queue.pollNanos(0)); // Written by the writer, then the link dropped
+        queue.offerJson("c", OutboundQueue.PRIORITY_VISION, null);
+        queue.requeueUnsent(taken);
+        check(queue.getDepth() == 4, "all taken messages are back");
+        check(queue.pollNanos(0).kind == OutboundQueue.KIND_POSE, "pose first");
+        for (String json : new String[] {"a", "b", "c"}) check(json.equals(queue.pollNanos(0).json), json + " in order");
+
+        queue.offerPose(2, 2, 0, 0, 0, 0, 0, 1);
+        OutboundQueue.Message stale = queue.pollNanos(0);
+        queue.offerPose(3, 3, 0, 0, 0, 0, 0, 1);
+        List<OutboundQueue.Message> unsent = new ArrayList<>();
+        unsent.add(stale);
+        queue.requeueUnsent(unsent);
+        check(queue.getDepth() == 1 && queue.pollNanos(0).timestampNs == 3, "a superseded pose is not requeued");
+        queue.offerPose(4, 4, 0, 0, 0, 0, 0, 1);
+        queue.requeueUnsent(java.util.Collections.singletonList(stale));
+        queue.offerPose(5, 5, 0, 0, 0, 0, 0, 1);
+        check(queue.getDepth() == 1 && queue.pollNanos(0).timestampNs == 5, "newer offers still coalesce");
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,74 @@
+package com/praxisapocalyptica/jamie.communication;
+
+// Plain-JVM benchmark (no JMH on this tree's classpath): java ...PayloadCompressorBenchmark.
+// Deflate with the preset dictionary on a synthetic detection set (BrainWireProtocolTest.detections: 5, 20 and 50
+// detections, three in four with an 8 to 47 vertex polygon) in the three layouts the communicator may send: binary f32,
+// binary delta-coded polygons and the JSON vision_update as a TYPE_JSON frame. Prints payload bytes before and
+// after, the ratio, median / p95 microseconds to compress and to decompress one frame, and the compress
+// throughput in MB of payload per second.
+
+import com/praxisapocalyptica/jamie.perception.DetectedObject;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class PayloadCompressorBenchmark {
+
+    private static final int WARMUP = 2000;
+    private static final int TIMED = 2000;
+
+    public static void main(String[] args) {
+        System.out.println("detections  layout  raw bytes  deflated  ratio  compress us (median / p95)  decompress us (median / p95)  MB/s");
+        final BrainWireProtocol.Encoder encoder = new BrainWireProtocol.Encoder();
+        for (int count : new int[] {5, 20, 50}) {
+            final List<DetectedObject> objects = BrainWireProtocolTest.detections(new Random(count), count);
+            encoder.setPolygonDeltas(false);
+            run(count, "f32", copy(encoder.encodeDetections(count, objects)));
+            encoder.setPolygonDeltas(true);
+            run(count, "delta", copy(encoder.encodeDetections(count, objects)));
+            run(count, "json", copy(encoder.encodeJson(BrainWireProtocol.formatDetectionsJson(count, objects))));
+        }
+    }
+
+    // The encoder's buffer is reused by the next encode
+    private static ByteBuffer copy(ByteBuffer frame) {
+        final ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+        copy.put(frame).flip();
+        return copy;
+    }
+
+    private static void run(int count, String layout, ByteBuffer frame) {
+        final PayloadCompressor sender = new PayloadCompressor(PayloadCompressor.DEFAULT_THRESHOLD_BYTES);
+        final PayloadCompressor receiver = new PayloadCompressor(PayloadCompressor.DEFAULT_THRESHOLD_BYTES);
+        final long[] compress = new long[TIMED];
+        final long[] decompress = new long[TIMED];
+        final int raw = frame.remaining() - BrainWireProtocol.HEADER_BYTES;
+        int deflated = raw;
+        long sink = 0;
+        for (int i = 0; i < WARMUP + TIMED; i++) {
+            long start = System.nanoTime();
+            final ByteBuffer compressed = sender.compressFrame(frame);
+            final long compressNanos = System.nanoTime() - start;
+            deflated = compressed.remaining() - BrainWireProtocol.HEADER_BYTES;
+            long decompressNanos = 0;
+            if (compressed != frame) {
+                compressed.position(compressed.position() + BrainWireProtocol.HEADER_BYTES);
+                start = System.nanoTime();
+                sink += receiver.decompress(compressed).remaining();
+                decompressNanos = System.nanoTime() - start;
+            }
+            if (i >= WARMUP) {
+                compress[i - WARMUP] = compressNanos;
+                decompress[i - WARMUP] = decompressNanos;
+            }
+        }
+        if (sink == 42) System.out.print(""); // Keeps the work from being dropped
+        Arrays.sort(compress);
+        Arrays.sort(decompress);
+        System.out.printf("%10d  %-6s  %9d  %8d  %5.2f  %14.1f / %-9.1f  %16.1f / %-9.1f  %5.0f%n", count, layout, raw,
+                deflated, deflated / (double) raw, compress[TIMED / 2] / 1e3, compress[TIMED * 95 / 100] / 1e3,
+                decompress[TIMED / 2] / 1e3, decompress[TIMED * 95 / 100] / 1e3, raw / (compress[TIMED / 2] / 1e3));
+    }
+}
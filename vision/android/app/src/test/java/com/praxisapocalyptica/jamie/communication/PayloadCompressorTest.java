@@ -0,0 +1,172 @@
+package com/praxisapocalyptica/jamie.communication;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...PayloadCompressorTest, non-zero exit on failure.
+
+import com/praxisapocalyptica/jamie.perception.DetectedObject;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// compressFrame / decompress round trips on the frames the communicator deflates (detections, long JSON), the
+// two passthrough cases (payload below the threshold, payload that doesn't shrink) returning the caller's frame
+// untouched, and corrupt TYPE_COMPRESSED payloads rejected with IllegalStateException.
+public class PayloadCompressorTest {
+
+    public static void main(String[] args) {
+        framesRoundTrip();
+        directFramesRoundTrip();
+        smallFramesPassThrough();
+        framesThatDontShrinkPassThrough();
+        corruptPayloadsAreRejected();
+        System.out.println("PayloadCompressorTest: OK");
+    }
+
+    private static void framesRoundTrip() {
+        final PayloadCompressor sender = new PayloadCompressor(PayloadCompressor.DEFAULT_THRESHOLD_BYTES);
+        final PayloadCompressor receiver = new PayloadCompressor(PayloadCompressor.DEFAULT_THRESHOLD_BYTES);
+        final BrainWireProtocol.Encoder encoder = new BrainWireProtocol.Encoder();
+        for (int count : new int[] {5, 20}) { // A single detection is under the threshold (a delta-coded one is)
+            final List<DetectedObject> objects = BrainWireProtocolTest.detections(new Random(count), count);
+            for (boolean deltas : new boolean[] {false, true}) {
+                encoder.setPolygonDeltas(deltas);
+                roundTrip(sender, receiver, encoder.encodeDetections(count, objects), count + " detections, "
+                        + (deltas ? "delta" : "f32"));
+            }
+            roundTrip(sender, receiver, encoder.encodeJson(BrainWireProtocol.formatDetectionsJson(count, objects)),
+                    count + " detections, JSON");
+        }
+        check(sender.getFramesCompressed() == 6 && sender.getFramesSkipped() == 0, "all 6 frames compressed");
+        check(sender.getCompressionRatio() < 0.8f, "they shrank: " + sender.getCompressionRatio());
+        check(sender.getCompressNanos() > 0, "time counted");
+    }
+
+    // Frames as they come off a direct read buffer (no backing array)
+    private static void directFramesRoundTrip() {
+        final PayloadCompressor sender = new PayloadCompressor(PayloadCompressor.DEFAULT_THRESHOLD_BYTES);
+        final PayloadCompressor receiver = new PayloadCompressor(PayloadCompressor.DEFAULT_THRESHOLD_BYTES);
+        final ByteBuffer frame = new BrainWireProtocol.Encoder().encodeDetections(7,
+                BrainWireProtocolTest.detections(new Random(7), 10));
+        final ByteBuffer direct = ByteBuffer.allocateDirect(frame.remaining() + 3);
+        direct.position(3); // Not at the start of its buffer
+        direct.put(frame.duplicate()).flip().position(3);
+        roundTrip(sender, receiver, direct, "direct frame");
+    }
+
+    // Compresses frame, checks the TYPE_COMPRESSED header, decompresses and compares with the original payload
+    private static void roundTrip(PayloadCompressor sender, PayloadCompressor receiver, ByteBuffer frame, String what) {
+        final byte type = frame.get(frame.position() + 4);
+        final byte[] payload = new byte[frame.remaining() - BrainWireProtocol.HEADER_BYTES];
+        final ByteBuffer original = frame.duplicate();
+        original.position(frame.position() + BrainWireProtocol.HEADER_BYTES);
+        original.get(payload);
+
+        final ByteBuffer compressed = sender.compressFrame(frame);
+        check(compressed != frame, what + ": compressed");
+        check(compressed.getInt(compressed.position()) == compressed.remaining() - 4, what + ": length field");
+        check(compressed.get(compressed.position() + 4) == BrainWireProtocol.TYPE_COMPRESSED, what + ": frame type");
+        check(compressed.remaining() < frame.remaining(), what + ": smaller, " + compressed.remaining() + " of "
+                + frame.remaining() + " bytes");
+
+        final ByteBuffer body = compressed.duplicate();
+        body.position(body.position() + BrainWireProtocol.HEADER_BYTES);
+        final ByteBuffer inflated = receiver.decompress(body);
+        check(receiver.getLastInnerType() == type, what + ": inner type " + receiver.getLastInnerType());
+        check(inflated.remaining() == payload.length, what + ": inflated length " + inflated.remaining());
+        for (int i = 0; i < payload.length; i++) check(inflated.get(i) == payload[i], what + ": byte " + i);
+    }
+
+    private static void smallFramesPassThrough() {
+        final PayloadCompressor compressor = new PayloadCompressor(PayloadCompressor.DEFAULT_THRESHOLD_BYTES);
+        final BrainWireProtocol.Encoder encoder = new BrainWireProtocol.Encoder();
+        final ByteBuffer pose = encoder.encodePose(1, 1, 2, 3, 0, 0, 0, 1);
+        checkUntouched(compressor, pose, "pose frame");
+        final StringBuilder json = new StringBuilder("{\"type\": \"speech\", \"text\": \"");
+        while (json.length() < PayloadCompressor.DEFAULT_THRESHOLD_BYTES - 3) json.append('a');
+        final ByteBuffer justBelow = encoder.encodeJson(json.append("\"}").toString());
+        check(justBelow.remaining() - BrainWireProtocol.HEADER_BYTES == PayloadCompressor.DEFAULT_THRESHOLD_BYTES - 1,
+                "payload one byte below the threshold");
+        checkUntouched(compressor, justBelow, "threshold - 1");
+        check(compressor.getFramesSkipped() == 2 && compressor.getFramesCompressed() == 0, "both skipped");
+        check(compressor.getCompressionRatio() == 1f, "ratio 1 before anything is compressed");
+
+        final ByteBuffer atThreshold = encoder.encodeJson(json.insert(json.length() - 2, 'a').toString());
+        check(compressor.compressFrame(atThreshold) != atThreshold, "payload at the threshold is compressed");
+        check(new PayloadCompressor(0).compressFrame(encoder.encodeJson(json.toString())) != null, "threshold 0");
+    }
+
+    // Random bytes don't deflate: the frame goes out as is
+    private static void framesThatDontShrinkPassThrough() {
+        final PayloadCompressor compressor = new PayloadCompressor(PayloadCompressor.DEFAULT_THRESHOLD_BYTES);
+        final Random random = new Random(3);
+        for (int size : new int[] {PayloadCompressor.DEFAULT_THRESHOLD_BYTES, 4096, 100_000}) {
+            final ByteBuffer frame = ByteBuffer.allocate(BrainWireProtocol.HEADER_BYTES + size).order(ByteOrder.BIG_ENDIAN);
+            frame.putInt(size + 1).put(BrainWireProtocol.TYPE_VOXELS);
+            final byte[] noise = new byte[size];
+            random.nextBytes(noise);
+            frame.put(noise).flip();
+            checkUntouched(compressor, frame, size + " random bytes");
+        }
+        check(compressor.getFramesSkipped() == 3 && compressor.getFramesCompressed() == 0, "all skipped");
+    }
+
+    private static void checkUntouched(PayloadCompressor compressor, ByteBuffer frame, String what) {
+        final ByteBuffer before = frame.duplicate();
+        final byte[] bytes = new byte[frame.remaining()];
+        before.duplicate().get(bytes);
+        final ByteBuffer result = compressor.compressFrame(frame);
+        check(result == frame, what + ": the caller's frame returned");
+        check(frame.position() == before.position() && frame.limit() == before.limit(), what + ": position and limit");
+        for (int i = 0; i < bytes.length; i++) check(frame.get(frame.position() + i) == bytes[i], what + ": byte " + i);
+    }
+
+    private static void corruptPayloadsAreRejected() {
+        final PayloadCompressor sender = new PayloadCompressor(PayloadCompressor.DEFAULT_THRESHOLD_BYTES);
+        final ByteBuffer frame = sender.compressFrame(new BrainWireProtocol.Encoder().encodeDetections(9,
+                BrainWireProtocolTest.detections(new Random(9), 8)));
+        final byte[] good = new byte[frame.remaining() - BrainWireProtocol.HEADER_BYTES];
+        frame.position(frame.position() + BrainWireProtocol.HEADER_BYTES);
+        frame.get(good);
+        final PayloadCompressor receiver = new PayloadCompressor(PayloadCompressor.DEFAULT_THRESHOLD_BYTES);
+        receiver.decompress(ByteBuffer.wrap(good)); // The uncorrupted payload is fine
+
+        byte[] bad = good.clone();
+        bad[0] = 2;
+        rejected(receiver, bad, "Unknown compression codec", "unknown codec");
+        bad = good.clone();
+        ByteBuffer.wrap(bad).putInt(2, -1);
+        rejected(receiver, bad, "Invalid uncompressed length", "negative length");
+        bad = good.clone();
+        ByteBuffer.wrap(bad).putInt(2, BrainWireProtocol.MAX_FRAME_BYTES + 1);
+        rejected(receiver, bad, "Invalid uncompressed length", "length over the frame limit");
+        bad = good.clone();
+        ByteBuffer.wrap(bad).putInt(2, ByteBuffer.wrap(good).getInt(2) + 1);
+        rejected(receiver, bad, "inflated to", "stream shorter than the length says");
+        rejected(receiver, Arrays.copyOf(good, good.length / 2), "inflated to", "truncated stream");
+        bad = good.clone();
+        for (int i = 6; i < bad.length; i++) bad[i] = (byte) 0xFF; // Block type 3 does not exist
+        rejected(receiver, bad, "Corrupt compressed frame", "garbage stream");
+        rejected(receiver, new byte[] {PayloadCompressor.CODEC_DEFLATE}, "Truncated compressed frame", "header cut off");
+
+        receiver.decompress(ByteBuffer.wrap(good)); // Still usable afterwards
+        check(receiver.getLastInnerType() == BrainWireProtocol.TYPE_DETECTIONS, "and decodes the next frame");
+    }
+
+    private static void rejected(PayloadCompressor receiver, byte[] payload, String message, String what) {
+        try {
+            receiver.decompress(ByteBuffer.wrap(payload));
+        } catch (IllegalStateException e) {
+            check(e.getMessage().contains(message), what + ": message " + e.getMessage());
+            return;
+        } catch (RuntimeException e) {
+            throw new AssertionError(what + ": " + e + " instead of IllegalStateException");
+        }
+        throw new AssertionError(what + ": accepted");
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
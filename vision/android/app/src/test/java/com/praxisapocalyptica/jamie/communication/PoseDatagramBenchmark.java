@@ -0,0 +1,195 @@
+package com/praxisapocalyptica/jamie.communication;
+
+// Plain-JVM benchmark (no JMH on this tree's classpath): java ...PoseDatagramBenchmark.
+// Pose latency, phone to brain, with the pose on the TCP link (BrainWifiCommunicator.sendPose, binary-v1 frame)
+// and on the UDP side channel (PoseDatagramStreamer). 60 Hz for 3 s over loopback, poses alone and with a
+// 20-detection vision_update per frame on the TCP link, once with the brain reading as fast as it can and once
+// reading at 200 KB/s (a congested Wi-Fi link; the stand-in's receive buffer is fixed at 64 KB so the backlog
+// builds on the phone side as it would on the air). The pose timestamp is System.nanoTime() at send, so the
+// latency is send() to the brain having the pose decoded. Prints poses received and median / p95 / max latency.
+
+import com/praxisapocalyptica/jamie.perception.DetectedObject;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class PoseDatagramBenchmark {
+
+    private static final int HZ = 60;
+    private static final int SECONDS = 3;
+    private static final long THROTTLED_BYTES_PER_SECOND = 200 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("pose via  load                link       poses  latency us (median / p95 / max)");
+        for (long rate : new long[] {0, THROTTLED_BYTES_PER_SECOND}) {
+            for (boolean detections : new boolean[] {false, true}) {
+                for (boolean udp : new boolean[] {false, true}) run(udp, detections, rate);
+            }
+        }
+    }
+
+    // Latencies of the poses the brain got, nanoseconds, in arrival order
+    private static final class Latencies {
+        final long[] nanos = new long[HZ * SECONDS];
+        int count = 0;
+
+        synchronized void add(long sentNanos) {
+            if (count < nanos.length) nanos[count++] = System.nanoTime() - sentNanos;
+        }
+
+        synchronized long[] sorted() {
+            final long[] copy = Arrays.copyOf(nanos, count);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+
+    private static void run(boolean udp, boolean detections, long bytesPerSecond) throws Exception {
+        final Latencies latencies = new Latencies();
+        final ServerSocket server = new ServerSocket();
+        server.setReceiveBufferSize(64 * 1024);
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        Thread brain = new Thread(() -> serve(server, bytesPerSecond, latencies), "Benchmark brain");
+        brain.setDaemon(true);
+        brain.start();
+
+        final DatagramChannel udpBrain = DatagramChannel.open();
+        udpBrain.bind(new InetSocketAddress("127.0.0.1", 0));
+        Thread udpReceiver = new Thread(() -> receive(udpBrain, latencies), "Benchmark UDP brain");
+        udpReceiver.setDaemon(true);
+        udpReceiver.start();
+        final PoseDatagramStreamer streamer = new PoseDatagramStreamer("127.0.0.1",
+                ((InetSocketAddress) udpBrain.getLocalAddress()).getPort());
+
+        final CountDownLatch connected = new CountDownLatch(1);
+        BrainWifiCommunicator communicator = new BrainWifiCommunicator("127.0.0.1", server.getLocalPort(),
+                new BrainWifiCommunicator.CommunicationListener() {
+                    @Override public void onDataReceived(String data) { }
+                    @Override public void onConnectionStatusChanged(boolean isConnected) {
+                        if (isConnected) connected.countDown();
+                    }
+                    @Override public void onError(String errorMessage) { }
+                });
+        communicator.connect();
+        if (!connected.await(3, TimeUnit.SECONDS)) throw new IllegalStateException("No connection");
+
+        final List<DetectedObject> objects = BrainWireProtocolTest.detections(new Random(20), 20);
+        final long period = 1_000_000_000L / HZ;
+        final long start = System.nanoTime();
+        for (int n = 0; n < HZ * SECONDS; n++) {
+            final long now = System.nanoTime();
+            if (udp) streamer.send(now, PoseDatagramStreamer.STATE_TRACKING, n * 0.01f, 0, 0, 0, 0, 0, 1);
+            else communicator.sendPose(now, n * 0.01f, 0, 0, 0, 0, 0, 1);
+            if (detections) communicator.sendDetections(now, objects);
+            LockSupport.parkNanos(start + (n + 1) * period - System.nanoTime());
+        }
+        Thread.sleep(500); // Stragglers
+
+        final long[] sorted = latencies.sorted();
+        final String load = detections ? "poses + 20 detections" : "poses";
+        final String link = bytesPerSecond == 0 ? "loopback" : bytesPerSecond / 1024 + " KB/s";
+        if (sorted.length == 0) {
+            System.out.printf("%-8s  %-21s  %-9s  %5d  -%n", udp ? "udp" : "tcp", load, link, 0);
+        } else {
+            System.out.printf("%-8s  %-21s  %-9s  %5d  %8.0f / %.0f / %.0f%n", udp ? "udp" : "tcp", load, link,
+                    sorted.length, sorted[sorted.length / 2] / 1e3, sorted[sorted.length * 95 / 100] / 1e3,
+                    sorted[sorted.length - 1] / 1e3);
+        }
+        communicator.disconnect();
+        communicator.shutdownExecutor();
+        streamer.close();
+        udpBrain.close();
+        server.close();
+    }
+
+    // TCP stand-in: answers the hello with binary-v1, then reads frames (at most bytesPerSecond if non-zero)
+    // and records the latency of every pose frame
+    private static void serve(ServerSocket server, long bytesPerSecond, Latencies latencies) {
+        try (Socket client = server.accept()) {
+            final InputStream raw = client.getInputStream();
+            final OutputStream out = client.getOutputStream();
+            int b;
+            while ((b = raw.read()) != -1 && b != '\n') { } // The hello line
+            out.write("{\"type\": \"hello_ack\", \"protocol\": \"binary-v1\"}\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            final DataInputStream in = new DataInputStream(bytesPerSecond == 0 ? raw
+                    : new ThrottledInputStream(raw, bytesPerSecond));
+            final float[] pose = new float[7];
+            byte[] payload = new byte[4096];
+            while (true) {
+                final int length = in.readInt();
+                final byte type = in.readByte();
+                if (payload.length < length - 1) payload = new byte[length - 1];
+                in.readFully(payload, 0, length - 1);
+                if (type == BrainWireProtocol.TYPE_POSE) {
+                    latencies.add(BrainWireProtocol.decodePose(ByteBuffer.wrap(payload, 0, length - 1), pose));
+                }
+            }
+        } catch (IOException e) {
+            // Benchmark over
+        }
+    }
+
+    private static void receive(DatagramChannel channel, Latencies latencies) {
+        final ByteBuffer in = ByteBuffer.allocate(256);
+        final long[] header = new long[3];
+        final float[] pose = new float[7];
+        long newest = -1;
+        try {
+            while (true) {
+                in.clear();
+                channel.receive(in);
+                in.flip();
+                if (!PoseDatagramStreamer.decode(in, header, pose)) continue;
+                if (newest >= 0 && !PoseDatagramStreamer.isNewer(header[1], newest)) continue;
+                newest = header[1];
+                latencies.add(header[0]);
+            }
+        } catch (IOException e) {
+            // Benchmark over
+        }
+    }
+
+    // Hands out at most bytesPerSecond on average, like a link that slow
+    private static final class ThrottledInputStream extends InputStream {
+        private final InputStream in;
+        private final long bytesPerSecond;
+        private final long start = System.nanoTime();
+        private long delivered = 0;
+
+        ThrottledInputStream(InputStream in, long bytesPerSecond) {
+            this.in = in;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = in.read(b, off, Math.min(len, 1024));
+            if (n > 0) {
+                delivered += n;
+                LockSupport.parkNanos(start + delivered * 1_000_000_000L / bytesPerSecond - System.nanoTime());
+            }
+            return n;
+        }
+    }
+}
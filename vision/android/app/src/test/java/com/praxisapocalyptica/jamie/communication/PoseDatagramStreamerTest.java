@@ -0,0 +1,269 @@
+package com/praxisapocalyptica/jamie.communication;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...PoseDatagramStreamerTest, non-zero exit on failure.
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.Set;
+
+// Pose packets over a loopback DatagramChannel: what the streamer sends decodes to the same pose, malformed
+// packets are rejected, a receiver using isNewer keeps the newest pose across the u32 sequence wrap and through
+// reordering, and a full send buffer (or an unreachable brain) costs a packet, never an exception or a stall.
+public class PoseDatagramStreamerTest {
+
+    public static void main(String[] args) throws Exception {
+        sentPacketsDecodeToTheSamePose();
+        malformedPacketsAreRejected();
+        newestPoseWinsAcrossTheSequenceWrap();
+        fullSendBufferDropsThePacket();
+        unreachableBrainDoesNotStopTheStream();
+        System.out.println("PoseDatagramStreamerTest: OK");
+    }
+
+    private static void sentPacketsDecodeToTheSamePose() throws Exception {
+        final DatagramChannel brain = receiver();
+        final PoseDatagramStreamer streamer = new PoseDatagramStreamer("127.0.0.1", port(brain));
+        try {
+            final long[] header = new long[3];
+            final float[] pose = new float[7];
+            final ByteBuffer in = ByteBuffer.allocate(256);
+            for (int i = 0; i < 3; i++) {
+                final byte state = i == 2 ? PoseDatagramStreamer.STATE_PAUSED : PoseDatagramStreamer.STATE_TRACKING;
+                check(streamer.send(1000L + i, state, i, -2.5f, 3.75f, 0f, 0.3827f, 0f, 0.9239f), "packet " + i + " sent");
+                check(receive(brain, in), "packet " + i + " received");
+                check(in.remaining() == PoseDatagramStreamer.PACKET_BYTES, "fixed size: " + in.remaining());
+                check(PoseDatagramStreamer.decode(in, header, pose), "packet " + i + " decodes");
+                check(header[0] == 1000L + i && header[1] == i && header[2] == state, "header " + i);
+                check(pose[0] == i && pose[1] == -2.5f && pose[2] == 3.75f && pose[3] == 0f && pose[4] == 0.3827f
+                        && pose[5] == 0f && pose[6] == 0.9239f, "pose " + i);
+            }
+            check(streamer.getPacketsSent() == 3 && streamer.getPacketsFailed() == 0, "counted as sent");
+        } finally {
+            streamer.close();
+            brain.close();
+        }
+    }
+
+    private static void malformedPacketsAreRejected() {
+        final long[] header = new long[3];
+        final float[] pose = new float[7];
+        check(PoseDatagramStreamer.decode(packet(7, 1), header, pose), "the reference packet decodes");
+        final ByteBuffer shortPacket = packet(7, 1);
+        shortPacket.limit(PoseDatagramStreamer.PACKET_BYTES - 1);
+        check(!PoseDatagramStreamer.decode(shortPacket, header, pose), "truncated");
+        final ByteBuffer longPacket = ByteBuffer.allocate(PoseDatagramStreamer.PACKET_BYTES + 1);
+        longPacket.put(packet(7, 1)).put((byte) 0).flip();
+        check(!PoseDatagramStreamer.decode(longPacket, header, pose), "trailing byte");
+        final ByteBuffer badMagic = packet(7, 1);
+        badMagic.put(0, (byte) 'X');
+        check(!PoseDatagramStreamer.decode(badMagic, header, pose), "wrong magic");
+        final ByteBuffer badVersion = packet(7, 1);
+        badVersion.put(2, (byte) (PoseDatagramStreamer.VERSION + 1));
+        check(!PoseDatagramStreamer.decode(badVersion, header, pose), "unknown version");
+    }
+
+    // Sequences 0xFFFFFFFC .. 3 arriving out of order (and one duplicate): the receiver ends on sequence 3 and
+    // never goes back to a pre-wrap pose once a post-wrap one was applied
+    private static void newestPoseWinsAcrossTheSequenceWrap() {
+        check(PoseDatagramStreamer.isNewer(0, 0xFFFFFFFFL), "0 follows 0xFFFFFFFF");
+        check(!PoseDatagramStreamer.isNewer(0xFFFFFFFFL, 0), "0xFFFFFFFF is before 0");
+        check(!PoseDatagramStreamer.isNewer(5, 5), "not newer than itself");
+        check(PoseDatagramStreamer.isNewer(0x7FFFFFFFL, 0), "up to half the range ahead is newer");
+        check(!PoseDatagramStreamer.isNewer(0x80000001L, 0), "more than half ahead is older");
+
+        final long[] arrivals = {0xFFFFFFFCL, 0xFFFFFFFEL, 0xFFFFFFFDL, 1, 0xFFFFFFFFL, 0, 3, 2, 3};
+        final long[] header = new long[3];
+        final float[] pose = new float[7];
+        long newest = -1;
+        float appliedX = Float.NaN;
+        boolean wrapped = false;
+        for (long seq : arrivals) {
+            check(PoseDatagramStreamer.decode(packet(seq, seq), header, pose) && header[1] == seq, "decodes " + seq);
+            if (newest >= 0 && !PoseDatagramStreamer.isNewer(header[1], newest)) continue;
+            check(!wrapped || header[1] <= 3, "pre-wrap sequence " + header[1] + " applied after the wrap");
+            wrapped |= header[1] <= 3;
+            newest = header[1];
+            appliedX = pose[0];
+        }
+        check(newest == 3 && appliedX == 3f, "ends on the newest pose, got sequence " + newest);
+    }
+
+    // A non-blocking channel whose socket buffer is full takes nothing: send() reports it and carries on
+    private static void fullSendBufferDropsThePacket() throws Exception {
+        final DatagramChannel brain = receiver();
+        final FullableChannel channel = new FullableChannel(port(brain));
+        final PoseDatagramStreamer streamer = new PoseDatagramStreamer(channel);
+        try {
+            final long[] header = new long[3];
+            final float[] pose = new float[7];
+            final ByteBuffer in = ByteBuffer.allocate(256);
+            check(streamer.send(1, PoseDatagramStreamer.STATE_TRACKING, 1, 0, 0, 0, 0, 0, 1), "sent");
+            channel.full = true;
+            for (int i = 2; i <= 4; i++) {
+                final long start = System.nanoTime();
+                check(!streamer.send(i, PoseDatagramStreamer.STATE_TRACKING, i, 0, 0, 0, 0, 0, 1), "pose " + i + " dropped");
+                check(System.nanoTime() - start < 50_000_000L, "without blocking");
+            }
+            channel.full = false;
+            check(streamer.send(5, PoseDatagramStreamer.STATE_TRACKING, 5, 0, 0, 0, 0, 0, 1), "sent again");
+            check(streamer.getPacketsSent() == 2 && streamer.getPacketsFailed() == 3,
+                    "2 sent, 3 failed: " + streamer.getPacketsSent() + ", " + streamer.getPacketsFailed());
+            check(receive(brain, in) && PoseDatagramStreamer.decode(in, header, pose) && header[1] == 0, "first packet");
+            check(receive(brain, in) && PoseDatagramStreamer.decode(in, header, pose), "next packet");
+            check(header[1] == 4 && header[0] == 5 && pose[0] == 5f, "the dropped sequences are a gap, not a stall: "
+                    + header[1]);
+        } finally {
+            streamer.close();
+            brain.close();
+        }
+    }
+
+    // Nobody listening: the ICMP port-unreachable surfaces as an IOException on a later write, counted as a
+    // failed packet; the stream keeps going and reaches the brain once it listens
+    private static void unreachableBrainDoesNotStopTheStream() throws Exception {
+        DatagramChannel brain = receiver();
+        final int port = port(brain);
+        brain.close();
+        final PoseDatagramStreamer streamer = new PoseDatagramStreamer("127.0.0.1", port);
+        try {
+            for (int i = 0; i < 20; i++) {
+                streamer.send(i, PoseDatagramStreamer.STATE_TRACKING, i, 0, 0, 0, 0, 0, 1);
+                Thread.sleep(2);
+            }
+            check(streamer.getPacketsFailed() > 0, "unreachable reported as failed sends");
+            brain = DatagramChannel.open();
+            brain.bind(new InetSocketAddress("127.0.0.1", port));
+            brain.configureBlocking(false);
+            final ByteBuffer in = ByteBuffer.allocate(256);
+            final long[] header = new long[3];
+            final float[] pose = new float[7];
+            check(streamer.send(99, PoseDatagramStreamer.STATE_TRACKING, 99, 0, 0, 0, 0, 0, 1), "sends once it listens");
+            check(receive(brain, in) && PoseDatagramStreamer.decode(in, header, pose) && header[0] == 99, "received");
+        } finally {
+            streamer.close();
+            brain.close();
+        }
+    }
+
+    // One packet as PoseDatagramStreamer.send writes it, with pose x = x
+    private static ByteBuffer packet(long sequence, float x) {
+        final ByteBuffer packet = ByteBuffer.allocate(PoseDatagramStreamer.PACKET_BYTES).order(ByteOrder.BIG_ENDIAN);
+        packet.putShort(PoseDatagramStreamer.MAGIC).put(PoseDatagramStreamer.VERSION)
+                .put(PoseDatagramStreamer.STATE_TRACKING);
+        packet.putInt((int) sequence).putLong(123456789L);
+        packet.putFloat(x).putFloat(0).putFloat(0).putFloat(0).putFloat(0).putFloat(0).putFloat(1);
+        packet.flip();
+        return packet;
+    }
+
+    private static DatagramChannel receiver() throws IOException {
+        final DatagramChannel channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress("127.0.0.1", 0));
+        channel.configureBlocking(false);
+        return channel;
+    }
+
+    private static int port(DatagramChannel channel) throws IOException {
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    // Waits up to a second for a datagram; in is left flipped over it
+    private static boolean receive(DatagramChannel channel, ByteBuffer in) throws Exception {
+        in.clear();
+        final long deadline = System.nanoTime() + 1_000_000_000L;
+        while (channel.receive(in) == null) {
+            if (System.nanoTime() > deadline) return false;
+            Thread.sleep(1);
+        }
+        in.flip();
+        return true;
+    }
+
+    // A connected non-blocking DatagramChannel whose socket buffer can be made full: write() then takes nothing
+    // and returns 0, as a real one does while the Wi-Fi driver is backed up (loopback never backs up)
+    private static final class FullableChannel extends DatagramChannel {
+        private final DatagramChannel delegate;
+        volatile boolean full = false;
+
+        FullableChannel(int port) throws IOException {
+            super(SelectorProvider.provider());
+            delegate = DatagramChannel.open();
+            delegate.configureBlocking(false);
+            delegate.connect(new InetSocketAddress("127.0.0.1", port));
+        }
+
+        @Override public int write(ByteBuffer src) throws IOException {
+            return full ? 0 : delegate.write(src);
+        }
+
+        @Override public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return full ? 0 : delegate.write(srcs, offset, length);
+        }
+
+        @Override public DatagramChannel bind(SocketAddress local) throws IOException {
+            delegate.bind(local);
+            return this;
+        }
+
+        @Override public <T> DatagramChannel setOption(SocketOption<T> name, T value) throws IOException {
+            delegate.setOption(name, value);
+            return this;
+        }
+
+        @Override public <T> T getOption(SocketOption<T> name) throws IOException { return delegate.getOption(name); }
+        @Override public Set<SocketOption<?>> supportedOptions() { return delegate.supportedOptions(); }
+        @Override public DatagramSocket socket() { return delegate.socket(); }
+        @Override public boolean isConnected() { return delegate.isConnected(); }
+
+        @Override public DatagramChannel connect(SocketAddress remote) throws IOException {
+            delegate.connect(remote);
+            return this;
+        }
+
+        @Override public DatagramChannel disconnect() throws IOException {
+            delegate.disconnect();
+            return this;
+        }
+
+        @Override public SocketAddress getRemoteAddress() throws IOException { return delegate.getRemoteAddress(); }
+        @Override public SocketAddress receive(ByteBuffer dst) throws IOException { return delegate.receive(dst); }
+
+        @Override public int send(ByteBuffer src, SocketAddress target) throws IOException {
+            return full ? 0 : delegate.send(src, target);
+        }
+
+        @Override public int read(ByteBuffer dst) throws IOException { return delegate.read(dst); }
+
+        @Override public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return delegate.read(dsts, offset, length);
+        }
+
+        @Override public SocketAddress getLocalAddress() throws IOException { return delegate.getLocalAddress(); }
+
+        @Override public MembershipKey join(InetAddress group, NetworkInterface interf) throws IOException {
+            return delegate.join(group, interf);
+        }
+
+        @Override public MembershipKey join(InetAddress group, NetworkInterface interf, InetAddress source)
+                throws IOException {
+            return delegate.join(group, interf, source);
+        }
+
+        @Override protected void implCloseSelectableChannel() throws IOException { delegate.close(); }
+        @Override protected void implConfigureBlocking(boolean block) throws IOException { delegate.configureBlocking(block); }
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
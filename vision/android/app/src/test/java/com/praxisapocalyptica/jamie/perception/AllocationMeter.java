@@ -0,0 +1,36 @@
+package com/praxisapocalyptica/jamie.perception;
+
+import java.lang.management.ManagementFactory;
+
+// Heap bytes allocated by the calling thread, for "nothing allocates per frame" checks on a plain JVM
+// (HotSpot's com.sun.management.ThreadMXBean; ART has no equivalent, so this only runs in JVM tests).
+final class AllocationMeter {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final long threadId = Thread.currentThread().getId();
+    private final long overhead;
+    private long start;
+
+    AllocationMeter() {
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+        // What two back-to-back readings cost by themselves
+        long minimum = Long.MAX_VALUE;
+        for (int i = 0; i < 16; i++) {
+            final long a = THREADS.getThreadAllocatedBytes(threadId);
+            final long b = THREADS.getThreadAllocatedBytes(threadId);
+            minimum = Math.min(minimum, b - a);
+        }
+        overhead = minimum;
+    }
+
+    void start() {
+        start = THREADS.getThreadAllocatedBytes(threadId);
+    }
+
+    // Bytes allocated by this thread since start()
+    long stop() {
+        return Math.max(0, THREADS.getThreadAllocatedBytes(threadId) - start - overhead);
+    }
+}
@@ -0,0 +1,194 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...BackendAutoTunerTest, non-zero exit on failure.
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Backend selection and the inference worker's use of a backend, with FakeInferenceBackend standing in for TFLite.
+public class BackendAutoTunerTest {
+
+    private static final int[] INPUT_SHAPE = {1, 64, 64, 3};
+    private static final int CLASSES = 2;
+    private static final int ANCHORS = 16;
+    private static final int[][] OUTPUT_SHAPES = {{1, 4 + CLASSES, ANCHORS}};
+
+    public static void main(String[] args) throws Exception {
+        picksTheFastestAndClosesTheRest();
+        returnsNullWhenNothingRuns();
+        rememberedBackendSkipsTuning();
+        rememberedBackendThatFailsIsTunedAgain();
+        workerPathRunsOnTheFakeBackend();
+        stoppingThePipelineClosesTheBackendAfterItsLastRun();
+        System.out.println("BackendAutoTunerTest: OK");
+    }
+
+    private static FakeInferenceBackend fake(String name, long latencyMillis) {
+        FakeInferenceBackend backend = new FakeInferenceBackend(name, INPUT_SHAPE, false, OUTPUT_SHAPES);
+        backend.setLatencyNanos(latencyMillis * 1_000_000L);
+        return backend;
+    }
+
+    private static void picksTheFastestAndClosesTheRest() {
+        final FakeInferenceBackend slow = fake("cpu x4", 4);
+        final FakeInferenceBackend fast = fake("xnnpack x4", 1);
+        final FakeInferenceBackend broken = fake("gpu", 0);
+        broken.setFailure(new IllegalStateException("delegate rejected the model"));
+        List<BackendAutoTuner.BackendFactory> candidates = new ArrayList<>();
+        candidates.add(() -> slow);
+        candidates.add(() -> fast);
+        candidates.add(() -> { throw new UnsupportedOperationException("NNAPI is not available"); });
+        candidates.add(() -> broken);
+
+        BackendAutoTuner tuner = new BackendAutoTuner(2, 5);
+        InferenceBackend best = tuner.selectFastest(candidates);
+        check(best == fast, "fastest backend wins, got " + (best != null ? best.getName() : null));
+        check(!fast.isClosed(), "the winner stays open");
+        check(slow.isClosed() && broken.isClosed(), "the losers and the failing one are closed");
+        check(fast.getRunCount() == 7 && slow.getRunCount() == 7, "2 warm-up + 5 timed runs each");
+        final String report = tuner.getReport();
+        check(report.contains("xnnpack x4: ") && report.contains("cpu x4: "), "timings reported: " + report);
+        check(report.contains("candidate: unavailable (NNAPI is not available)"), "unavailable reported: " + report);
+        check(report.contains("gpu: unavailable (delegate rejected the model)"), "failed run reported: " + report);
+    }
+
+    private static void returnsNullWhenNothingRuns() {
+        List<BackendAutoTuner.BackendFactory> candidates = new ArrayList<>();
+        candidates.add(() -> { throw new UnsupportedOperationException("no"); });
+        check(new BackendAutoTuner(0, 1).selectFastest(candidates) == null, "no backend at all");
+    }
+
+    // VisionProcessor keeps the selected index per device and model: the next start only runs that one once
+    private static void rememberedBackendSkipsTuning() {
+        final FakeInferenceBackend slow = fake("cpu x4", 4);
+        final FakeInferenceBackend fast = fake("xnnpack x4", 1);
+        final AtomicInteger created = new AtomicInteger();
+        List<BackendAutoTuner.BackendFactory> candidates = new ArrayList<>();
+        candidates.add(() -> { created.incrementAndGet(); return slow; });
+        candidates.add(() -> { created.incrementAndGet(); return fast; });
+
+        BackendAutoTuner tuner = new BackendAutoTuner(2, 5);
+        check(tuner.selectFastest(candidates) == fast && tuner.getSelectedIndex() == 1, "tuned: index 1");
+        final FakeInferenceBackend again = fake("xnnpack x4", 1);
+        candidates.set(1, () -> { created.incrementAndGet(); return again; });
+        created.set(0);
+        check(tuner.selectPreferred(candidates, 1) == again && tuner.getSelectedIndex() == 1, "remembered one used");
+        check(created.get() == 1 && again.getRunCount() == 1, "only it is created, and run once: " + created.get()
+                + " created, " + again.getRunCount() + " runs");
+        check(tuner.getReport().contains("xnnpack x4: ") && tuner.getReport().contains("(remembered)"),
+                "reported: " + tuner.getReport());
+        check(new BackendAutoTuner(0, 1).selectPreferred(candidates, 7) != null, "out of range: tuned as usual");
+    }
+
+    // A driver update can break the remembered backend (NNAPI rejecting the model): tune the others as usual
+    private static void rememberedBackendThatFailsIsTunedAgain() {
+        final FakeInferenceBackend cpu = fake("cpu x4", 2);
+        final FakeInferenceBackend nnapi = fake("nnapi", 0);
+        nnapi.setFailure(new IllegalStateException("model no longer compiles"));
+        List<BackendAutoTuner.BackendFactory> candidates = new ArrayList<>();
+        candidates.add(() -> cpu);
+        candidates.add(() -> nnapi);
+
+        BackendAutoTuner tuner = new BackendAutoTuner(1, 3);
+        check(tuner.selectPreferred(candidates, 1) == cpu && tuner.getSelectedIndex() == 0, "fell back to tuning");
+        check(nnapi.isClosed() && !cpu.isClosed(), "the failing one is closed");
+        check(tuner.getReport().contains("nnapi: remembered, unavailable (model no longer compiles)")
+                && tuner.getReport().contains("cpu x4: "), "both in the report: " + tuner.getReport());
+
+        final List<BackendAutoTuner.BackendFactory> none = new ArrayList<>();
+        none.add(() -> { throw new UnsupportedOperationException("no"); });
+        check(tuner.selectPreferred(none, 0) == null && tuner.getSelectedIndex() == -1, "nothing runs: null, -1");
+    }
+
+    // What VisionProcessor's worker does per frame (convert, run, post-process) on frames from a synthetic camera
+    private static void workerPathRunsOnTheFakeBackend() throws Exception {
+        final FakeInferenceBackend backend = fake("fake", 5);
+        final float[] head = new float[(4 + CLASSES) * ANCHORS];
+        head[3] = 32;                       // Anchor 3: 20 x 10 box at (32, 24), class 1 at 0.8
+        head[ANCHORS + 3] = 24;
+        head[2 * ANCHORS + 3] = 20;
+        head[3 * ANCHORS + 3] = 10;
+        head[5 * ANCHORS + 3] = 0.8f;
+        backend.setOutput(0, head);
+
+        final YuvToTensorConverter converter = new YuvToTensorConverter(64, 64, YuvToTensorConverter.OutputType.FLOAT32);
+        final TensorPool pool = new TensorPool(OUTPUT_SHAPES, new int[] {backend.getOutputNumBytes(0)}, 1, 1);
+        final YoloSegPostProcessor post = new YoloSegPostProcessor(CLASSES, 0, ANCHORS, 0.25f, 0.45f, 10);
+        final AtomicInteger frames = new AtomicInteger();
+        final float[] box = new float[4];
+        final Semaphore done = new Semaphore(0);
+        FramePipeline pipeline = new FramePipeline(3, frame -> {
+            TensorPool.Slot slot = pool.acquire();
+            try {
+                slot.inputs[0] = converter.convert(frame.yPlane, frame.uPlane, frame.vPlane, frame.yRowStride,
+                        frame.yPixelStride, frame.uvRowStride, frame.uvPixelStride, frame.width, frame.height);
+                backend.run(slot.inputs, slot.outputMap);
+                FloatBuffer detections = slot.outputFloats[0];
+                detections.rewind();
+                if (post.process(detections) == 1 && post.getClassId(0) == 1) {
+                    post.rescaleBoxes(converter.getOffsetX(), converter.getOffsetY(), converter.getScale(),
+                            converter.getSourceWidth(), converter.getSourceHeight());
+                    box[0] = post.getLeft(0);
+                    box[1] = post.getTop(0);
+                    box[2] = post.getRight(0);
+                    box[3] = post.getBottom(0);
+                    frames.incrementAndGet();
+                }
+            } finally {
+                pool.release(slot);
+            }
+            done.release();
+        });
+        pipeline.start();
+        for (int n = 0; n < 3; n++) {
+            // 128 x 96 camera into 64 x 64: scale 0.5, 8 px of padding above and below
+            ByteBuffer y = ByteBuffer.allocateDirect(128 * 96);
+            ByteBuffer uv = ByteBuffer.allocateDirect(128 * 48 - 1);
+            pipeline.capture(y, uv, uv.duplicate(), 128, 1, 128, 2, 128, 96,
+                    new float[3], new float[] {0, 0, 0, 1}, n);
+            done.tryAcquire(1, TimeUnit.SECONDS); // One at a time, so none is dropped
+        }
+        pipeline.stop(backend::close);
+        check(frames.get() == 3, "every frame produced the canned detection, got " + frames.get());
+        check(Arrays.equals(box, new float[] {44, 22, 84, 42}), "box mapped back to camera pixels: " + Arrays.toString(box));
+        check(backend.isClosed() && !backend.wasClosedWhileRunning(), "closed once the worker was done");
+    }
+
+    // VisionProcessor.destroy(): a run longer than stop()'s wait must finish before the backend is closed
+    private static void stoppingThePipelineClosesTheBackendAfterItsLastRun() throws Exception {
+        final FakeInferenceBackend backend = fake("slow first run", 1500);
+        final Object[] inputs = {ByteBuffer.allocateDirect(backend.getInputNumBytes(0))};
+        final Map<Integer, Object> outputs = new HashMap<>();
+        outputs.put(0, ByteBuffer.allocateDirect(backend.getOutputNumBytes(0)));
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        FramePipeline pipeline = new FramePipeline(3, frame -> {
+            started.countDown();
+            backend.run(inputs, outputs);
+        });
+        pipeline.start();
+        pipeline.capture(ByteBuffer.allocateDirect(16), ByteBuffer.allocateDirect(8), ByteBuffer.allocateDirect(8),
+                4, 1, 4, 2, 4, 4, new float[3], new float[] {0, 0, 0, 1}, 1);
+        check(started.await(1, TimeUnit.SECONDS), "inference started");
+        pipeline.stop(() -> {
+            backend.close();
+            closed.countDown();
+        });
+        check(!backend.isClosed(), "stop() returned while the run is still going, backend still open");
+        check(closed.await(2, TimeUnit.SECONDS), "backend closed after the run");
+        check(!backend.wasClosedWhileRunning() && backend.getRunCount() == 1, "the run completed first");
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
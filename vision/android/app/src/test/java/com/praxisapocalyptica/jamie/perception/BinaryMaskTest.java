@@ -0,0 +1,219 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...BinaryMaskTest, non-zero exit on failure.
+
+import java.util.Arrays;
+import java.util.Random;
+
+// RLE against pycocotools' encoding (reference strings worked out with maskApi.c's rleEncode and rleToString,
+// ported line by line), corrupt counts and strings, and the packed-word geometry (IoU of masks with different
+// origins, tight bounds across word boundaries) against per-pixel references.
+public class BinaryMaskTest {
+
+    public static void main(String[] args) {
+        rleMatchesPycocotools();
+        rleRoundTripsRandomMasks();
+        corruptRleIsRejected();
+        iouAcrossDifferentOrigins();
+        tightBoundsMatchTheSetPixels();
+        packedSizeIsAThirtySecondOfFloats();
+        System.out.println("BinaryMaskTest: OK");
+    }
+
+    interface Shape {
+        boolean contains(int x, int y);
+    }
+
+    private static BinaryMask mask(int originX, int originY, int width, int height, Shape shape) {
+        final BinaryMask mask = new BinaryMask(originX, originY, width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) mask.set(x, y, shape.contains(x, y));
+        }
+        return mask;
+    }
+
+    private static void checkPixels(BinaryMask mask, Shape shape, String what) {
+        for (int y = 0; y < mask.getHeight(); y++) {
+            for (int x = 0; x < mask.getWidth(); x++) {
+                check(mask.get(x, y) == shape.contains(x, y), what + ": pixel " + x + "," + y);
+            }
+        }
+    }
+
+    private static void rleMatchesPycocotools() {
+        // 4 x 3, rows 0110 / 0111 / 0010; column-major counts 3 2 1 3 1 1 1, the sixth delta coded to -2 ('N')
+        final String[] small = {"0110", "0111", "0010"};
+        final Shape drawn = (x, y) -> small[y].charAt(x) == '1';
+        final BinaryMask mask = mask(0, 0, 4, 3, drawn);
+        check(Arrays.equals(mask.toRleCounts(), new int[] {3, 2, 1, 3, 1, 1, 1}), "counts");
+        check(mask.toRleString().equals("32110N0"), "small string: " + mask.toRleString());
+        checkPixels(BinaryMask.fromRleString(0, 0, 4, 3, "32110N0"), drawn, "small decoded");
+
+        // 100 x 80 with a 40 x 40 box at (20, 10): multi-group counts, then 39 zero deltas
+        final Shape box = (x, y) -> x >= 20 && x < 60 && y >= 10 && y < 50;
+        final String boxRle = "Zb1X1X1" + repeat('0', 77) + "fS3";
+        check(mask(0, 0, 100, 80, box).toRleString().equals(boxRle), "box string");
+        checkPixels(BinaryMask.fromRleString(0, 0, 100, 80, boxRle), box, "box decoded");
+
+        // 90 x 70 ring (radius 12 to 30 around (45, 35)): negative multi-group deltas
+        final Shape ring = (x, y) -> {
+            final int d = (x - 45) * (x - 45) + (y - 35) * (y - 35);
+            return d > 12 * 12 && d <= 30 * 30;
+        };
+        final String ringRle = "mQ11n1>F6J6L2M4L4M2N2N2N2N2N2O0O2O0O2N2OTOB0>LJ05OO00O20NO40K070HO:0F0:0FO<0D0<0D0"
+                + "<0D0<0C0?0A0=0D0<0D0<0D0<0D1:0F0:0F180I050L120N10011K064B0>l01N2N101N101N2N2N2N2N2N3L4L3N4J6J:Bhm0";
+        final BinaryMask ringMask = mask(0, 0, 90, 70, ring);
+        check(ringMask.toRleString().equals(ringRle), "ring string: " + ringMask.toRleString());
+        check(ringMask.toRleCounts().length == 173 && ringMask.area() == 2380, "ring counts and area");
+        checkPixels(BinaryMask.fromRleString(0, 0, 90, 70, ringRle), ring, "ring decoded");
+
+        // All empty and all full: a single run of zeros, and an empty run of zeros before the ones
+        check(new BinaryMask(0, 0, 2, 2).toRleString().equals("4"), "empty");
+        check(mask(0, 0, 2, 2, (x, y) -> true).toRleString().equals("04"), "full");
+    }
+
+    private static void rleRoundTripsRandomMasks() {
+        final Random random = new Random(1);
+        for (int trial = 0; trial < 200; trial++) {
+            final int width = 1 + random.nextInt(150), height = 1 + random.nextInt(150);
+            final int cx = random.nextInt(width), cy = random.nextInt(height), r = 1 + random.nextInt(60);
+            final double noise = random.nextDouble() * 0.1;
+            final BinaryMask mask = new BinaryMask(random.nextInt(500), random.nextInt(500), width, height);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    final boolean inside = (x - cx) * (x - cx) + (y - cy) * (y - cy) <= r * r;
+                    mask.set(x, y, inside != random.nextDouble() < noise);
+                }
+            }
+            final Shape original = mask::get;
+            checkPixels(BinaryMask.fromRleCounts(0, 0, width, height, mask.toRleCounts()), original, "counts " + trial);
+            checkPixels(BinaryMask.fromRleString(0, 0, width, height, mask.toRleString()), original, "string " + trial);
+        }
+    }
+
+    private static void corruptRleIsRejected() {
+        final int[][] corrupt = {
+                {3, -2, 5},             // Negative run
+                {3, 2, 1, 3, 1, 1, 2},  // One pixel past the end
+                {3, 2, 1, 3},           // Short of the area
+                {Integer.MAX_VALUE, 4}, // Would wrap the running total
+                {0, 12, 0, Integer.MIN_VALUE},
+        };
+        for (int[] counts : corrupt) {
+            rejected(() -> BinaryMask.fromRleCounts(0, 0, 4, 3, counts), Arrays.toString(counts));
+        }
+        // A run of ones past the end of a one-word mask used to be written out of the array before the total
+        // was checked (and a huge one to spin for seconds)
+        rejected(() -> BinaryMask.fromRleCounts(0, 0, 64, 1, new int[] {0, 200}), "ones past the end");
+        rejected(() -> BinaryMask.fromRleCounts(0, 0, 64, 1, new int[] {10, Integer.MAX_VALUE}), "huge run of ones");
+        rejected(() -> BinaryMask.fromRleString(0, 0, 4, 3, "32110N"), "short string");
+        rejected(() -> BinaryMask.fromRleString(0, 0, 4, 3, "32110N0e"), "cut off in a count");
+        rejected(() -> BinaryMask.fromRleString(0, 0, 4, 3, "ooooooooo0"), "count too long");
+        rejected(() -> BinaryMask.fromRleString(0, 0, 4, 3, "ooooooA"), "count beyond an int");
+    }
+
+    private static void rejected(Runnable decode, String what) {
+        try {
+            decode.run();
+        } catch (IllegalArgumentException expected) {
+            return;
+        }
+        throw new AssertionError(what + " accepted");
+    }
+
+    private static void iouAcrossDifferentOrigins() {
+        final Random random = new Random(2);
+        for (int trial = 0; trial < 300; trial++) {
+            final BinaryMask a = randomBlob(random), b = randomBlob(random);
+            // Per-pixel reference over the union of both windows, in image coordinates
+            final int x0 = Math.min(a.getOriginX(), b.getOriginX()), y0 = Math.min(a.getOriginY(), b.getOriginY());
+            final int x1 = Math.max(a.getOriginX() + a.getWidth(), b.getOriginX() + b.getWidth());
+            final int y1 = Math.max(a.getOriginY() + a.getHeight(), b.getOriginY() + b.getHeight());
+            int inter = 0, union = 0;
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    final boolean inA = at(a, x, y), inB = at(b, x, y);
+                    if (inA && inB) inter++;
+                    if (inA || inB) union++;
+                }
+            }
+            check(a.intersectionArea(b) == inter && b.intersectionArea(a) == inter, "intersection " + trial);
+            final float expected = union == 0 ? 0f : inter / (float) union;
+            check(Math.abs(a.iou(b) - expected) < 1e-6f, "IoU " + trial + ": " + a.iou(b) + " vs " + expected);
+        }
+        final BinaryMask square = mask(10, 10, 20, 20, (x, y) -> true);
+        check(square.iou(mask(200, 10, 20, 20, (x, y) -> true)) == 0f, "disjoint windows");
+        check(Math.abs(square.iou(mask(20, 10, 20, 20, (x, y) -> true)) - 1 / 3f) < 1e-6f, "half overlap: 1/3");
+    }
+
+    private static boolean at(BinaryMask mask, int x, int y) {
+        final int lx = x - mask.getOriginX(), ly = y - mask.getOriginY();
+        return lx >= 0 && ly >= 0 && lx < mask.getWidth() && ly < mask.getHeight() && mask.get(lx, ly);
+    }
+
+    // A noisy disc in a window of 1 to 150 px (spanning several words per row) somewhere in a 300 px image
+    private static BinaryMask randomBlob(Random random) {
+        final int width = 1 + random.nextInt(150), height = 1 + random.nextInt(150);
+        final int cx = random.nextInt(width), cy = random.nextInt(height), r = random.nextInt(80);
+        final BinaryMask mask = new BinaryMask(random.nextInt(150), random.nextInt(150), width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                mask.set(x, y, (x - cx) * (x - cx) + (y - cy) * (y - cy) <= r * r && random.nextInt(10) > 0);
+            }
+        }
+        return mask;
+    }
+
+    private static void tightBoundsMatchTheSetPixels() {
+        final Random random = new Random(3);
+        final int[] bounds = new int[4];
+        for (int trial = 0; trial < 300; trial++) {
+            final BinaryMask mask = randomBlob(random);
+            int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+            int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+            for (int y = 0; y < mask.getHeight(); y++) {
+                for (int x = 0; x < mask.getWidth(); x++) {
+                    if (!mask.get(x, y)) continue;
+                    left = Math.min(left, mask.getOriginX() + x);
+                    top = Math.min(top, mask.getOriginY() + y);
+                    right = Math.max(right, mask.getOriginX() + x + 1);
+                    bottom = Math.max(bottom, mask.getOriginY() + y + 1);
+                }
+            }
+            final boolean found = mask.getTightBounds(bounds);
+            check(found == (mask.area() > 0), "empty iff no bounds " + trial);
+            if (!found) continue;
+            check(bounds[0] == left && bounds[1] == top && bounds[2] == right && bounds[3] == bottom,
+                    "bounds " + trial + ": " + Arrays.toString(bounds));
+            final BinaryMask cropped = mask.cropToTightBounds();
+            check(cropped.getOriginX() == left && cropped.getWidth() == right - left && cropped.area() == mask.area()
+                    && cropped.iou(mask) == 1f, "crop " + trial);
+        }
+        // A single pixel in the last column of a 130 px row: the third word of the row, split across two longs
+        final BinaryMask edge = new BinaryMask(7, 9, 130, 3);
+        edge.set(129, 1, true);
+        check(edge.getTightBounds(bounds) && bounds[0] == 136 && bounds[1] == 10 && bounds[2] == 137
+                && bounds[3] == 11, "last column: " + Arrays.toString(bounds));
+    }
+
+    private static void packedSizeIsAThirtySecondOfFloats() {
+        for (int[] size : new int[][] {{64, 64}, {200, 150}, {640, 480}, {33, 17}}) {
+            final BinaryMask mask = new BinaryMask(0, 0, size[0], size[1]);
+            final long pixels = (long) size[0] * size[1];
+            final long floatBytes = pixels * 4;
+            check(mask.getPackedSizeBytes() == ((pixels + 63) / 64) * 8, "one bit per pixel, whole longs");
+            check(floatBytes >= 30L * mask.getPackedSizeBytes(), size[0] + "x" + size[1] + ": "
+                    + mask.getPackedSizeBytes() + " bytes vs " + floatBytes + " as float[]");
+        }
+    }
+
+    private static String repeat(char c, int n) {
+        final StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) sb.append(c);
+        return sb.toString();
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,64 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM benchmark (no JMH on this tree's classpath): java ...ContourTracerBenchmark.
+// Mask -> polygon per detection for masks the size of 40, 120 and 300 px boxes: a smooth blob (an ellipse) and
+// a ragged one (an ellipse with a wobbling radius and pixel noise on its edge, as a thresholded 160 x 160
+// prototype upsampled to camera pixels looks), at Douglas-Peucker epsilons of 1, 2 (VisionProcessor's) and 4 px.
+// Prints the raw contour length, vertices kept, median / p95 microseconds per mask for trace + simplify and heap
+// bytes allocated per mask (the returned polygon only, once the scratch arrays have grown).
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class ContourTracerBenchmark {
+
+    private static final int WARMUP = 2000;
+    private static final int TIMED = 3000;
+
+    public static void main(String[] args) {
+        System.out.println("box px  shape   epsilon  raw points  vertices  us/mask (median / p95)  bytes/mask");
+        for (int size : new int[] {40, 120, 300}) {
+            for (boolean ragged : new boolean[] {false, true}) {
+                final BinaryMask mask = blob(size, ragged, new Random(size));
+                for (float epsilon : new float[] {1f, 2f, 4f}) run(size, ragged, mask, epsilon);
+            }
+        }
+    }
+
+    // An ellipse filling most of a size x (3/4 size) box
+    private static BinaryMask blob(int size, boolean ragged, Random random) {
+        final int width = size, height = size * 3 / 4;
+        final BinaryMask mask = new BinaryMask(100, 80, width, height);
+        final double cx = width / 2.0, cy = height / 2.0, rx = width * 0.45, ry = height * 0.45;
+        final double phase = random.nextDouble() * Math.PI;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final double dx = (x + 0.5 - cx) / rx, dy = (y + 0.5 - cy) / ry;
+                double limit = 1;
+                if (ragged) {
+                    limit += 0.08 * Math.sin(7 * Math.atan2(dy, dx) + phase) + (random.nextDouble() - 0.5) * 0.06;
+                }
+                mask.set(x, y, dx * dx + dy * dy <= limit * limit);
+            }
+        }
+        return mask;
+    }
+
+    private static void run(int size, boolean ragged, BinaryMask mask, float epsilon) {
+        final ContourTracer tracer = new ContourTracer();
+        final long[] nanos = new long[TIMED];
+        final AllocationMeter meter = new AllocationMeter();
+        int vertices = 0;
+        for (int i = 0; i < WARMUP + TIMED; i++) {
+            if (i == WARMUP) meter.start();
+            final long start = System.nanoTime();
+            vertices = tracer.toPolygon(mask, epsilon).length / 2;
+            if (i >= WARMUP) nanos[i - WARMUP] = System.nanoTime() - start;
+        }
+        final long allocated = meter.stop();
+        Arrays.sort(nanos);
+        System.out.printf("%6d  %-6s  %7.0f  %10d  %8d  %14.1f / %.1f  %10d%n", size, ragged ? "ragged" : "smooth",
+                epsilon, tracer.getContourPoints(), vertices, nanos[TIMED / 2] / 1e3, nanos[TIMED * 95 / 100] / 1e3,
+                allocated / TIMED);
+    }
+}
@@ -0,0 +1,205 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...ContourTracerTest, non-zero exit on failure.
+
+import java.util.HashSet;
+
+// Border following and simplification on drawn masks. Raw contours are checked for what a Moore trace must give
+// (a closed 8-connected ring of set border pixels, each visited once); simplified polygons for their vertex
+// counts and for every raw point staying within epsilon of the polygon.
+public class ContourTracerTest {
+
+    public static void main(String[] args) {
+        squareBecomesFourCorners();
+        ringKeepsTheOuterBorderOnly();
+        largestBlobWins();
+        onePixelMask();
+        maskTouchingTheRoiBorder();
+        vertexCountsFallWithEpsilon();
+        System.out.println("ContourTracerTest: OK");
+    }
+
+    interface Shape {
+        boolean contains(int x, int y);
+    }
+
+    private static BinaryMask mask(int originX, int originY, int width, int height, Shape shape) {
+        final BinaryMask mask = new BinaryMask(originX, originY, width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) mask.set(x, y, shape.contains(x, y));
+        }
+        return mask;
+    }
+
+    private static Shape disc(int cx, int cy, int r) {
+        return (x, y) -> (x - cx) * (x - cx) + (y - cy) * (y - cy) <= r * r;
+    }
+
+    // The raw contour of the last trace: set border pixels (image coordinates), no repeats, each 8-adjacent to
+    // the next and the last to the first
+    private static void checkRawContour(ContourTracer tracer, BinaryMask mask, String what) {
+        final int n = tracer.getContourPoints();
+        final HashSet<Long> seen = new HashSet<>();
+        for (int i = 0; i < n; i++) {
+            final int x = tracer.getContourX(i) - mask.getOriginX(), y = tracer.getContourY(i) - mask.getOriginY();
+            check(x >= 0 && y >= 0 && x < mask.getWidth() && y < mask.getHeight() && mask.get(x, y),
+                    what + ": point " + i + " is a set pixel");
+            check(isBorder(mask, x, y), what + ": point " + i + " is on the border");
+            check(seen.add((long) x << 32 | y), what + ": point " + i + " repeated"); // No 1 px wide parts here
+            final int j = (i + 1) % n;
+            final int dx = Math.abs(tracer.getContourX(j) - tracer.getContourX(i));
+            final int dy = Math.abs(tracer.getContourY(j) - tracer.getContourY(i));
+            check(n == 1 || (dx <= 1 && dy <= 1 && dx + dy > 0), what + ": points " + i + " and " + j + " adjacent");
+        }
+    }
+
+    // A set pixel with a 4-neighbour that is background or outside the mask
+    private static boolean isBorder(BinaryMask mask, int x, int y) {
+        return x == 0 || y == 0 || x == mask.getWidth() - 1 || y == mask.getHeight() - 1
+                || !mask.get(x - 1, y) || !mask.get(x + 1, y) || !mask.get(x, y - 1) || !mask.get(x, y + 1);
+    }
+
+    // Largest distance from a raw contour point to the closed polygon
+    private static double maxDeviation(ContourTracer tracer, float[] polygon) {
+        final int vertices = polygon.length / 2;
+        double worst = 0;
+        for (int i = 0; i < tracer.getContourPoints(); i++) {
+            final float px = tracer.getContourX(i), py = tracer.getContourY(i);
+            double nearest = Double.MAX_VALUE;
+            for (int v = 0; v < vertices; v++) {
+                final int w = (v + 1) % vertices;
+                nearest = Math.min(nearest, segmentDistance(px, py, polygon[2 * v], polygon[2 * v + 1],
+                        polygon[2 * w], polygon[2 * w + 1]));
+            }
+            worst = Math.max(worst, nearest);
+        }
+        return worst;
+    }
+
+    private static double segmentDistance(double px, double py, double ax, double ay, double bx, double by) {
+        final double vx = bx - ax, vy = by - ay, len2 = vx * vx + vy * vy;
+        final double t = len2 == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * vx + (py - ay) * vy) / len2));
+        final double dx = px - (ax + t * vx), dy = py - (ay + t * vy);
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private static boolean hasVertex(float[] polygon, float x, float y) {
+        for (int v = 0; v < polygon.length; v += 2) {
+            if (polygon[v] == x && polygon[v + 1] == y) return true;
+        }
+        return false;
+    }
+
+    private static void squareBecomesFourCorners() {
+        final ContourTracer tracer = new ContourTracer();
+        final BinaryMask mask = mask(100, 50, 20, 20, (x, y) -> x >= 5 && x < 15 && y >= 5 && y < 15);
+        check(tracer.trace(mask) == 36, "10 x 10 square: 36 border pixels, got " + tracer.getContourPoints());
+        checkRawContour(tracer, mask, "square");
+        for (float epsilon : new float[] {0.1f, 0.5f, 1f, 2f}) {
+            final float[] polygon = tracer.simplify(epsilon);
+            check(polygon.length == 8 && hasVertex(polygon, 105, 55) && hasVertex(polygon, 114, 55)
+                    && hasVertex(polygon, 114, 64) && hasVertex(polygon, 105, 64), "square corners at " + epsilon);
+        }
+        // A diamond's sides are diagonal runs of pixel centres, exactly collinear
+        final BinaryMask diamond = mask(0, 0, 41, 41, (x, y) -> Math.abs(x - 20) + Math.abs(y - 20) <= 15);
+        check(tracer.toPolygon(diamond, 0.1f).length == 8, "diamond: 4 vertices");
+    }
+
+    private static void ringKeepsTheOuterBorderOnly() {
+        final ContourTracer tracer = new ContourTracer();
+        final Shape outer = disc(30, 30, 20), hole = disc(30, 30, 8);
+        final BinaryMask ring = mask(200, 300, 61, 61, (x, y) -> outer.contains(x, y) && !hole.contains(x, y));
+        tracer.trace(ring);
+        checkRawContour(tracer, ring, "ring");
+        for (int i = 0; i < tracer.getContourPoints(); i++) {
+            final double r = Math.hypot(tracer.getContourX(i) - 230, tracer.getContourY(i) - 330);
+            check(r > 18 && r <= 20, "point " + i + " at radius " + r + " is on the outer border");
+        }
+        // Polygon area ~ pi r^2 with r a little under 20 (pixel centres), the hole not subtracted
+        final float[] polygon = tracer.simplify(0.5f);
+        final double area = Math.abs(area(polygon));
+        check(area > Math.PI * 18.5 * 18.5 && area < Math.PI * 20 * 20, "outer area " + area);
+    }
+
+    private static double area(float[] polygon) {
+        double sum = 0;
+        final int n = polygon.length / 2;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            sum += polygon[2 * j] * polygon[2 * i + 1] - polygon[2 * i] * polygon[2 * j + 1];
+        }
+        return sum / 2;
+    }
+
+    private static void largestBlobWins() {
+        final ContourTracer tracer = new ContourTracer();
+        final Shape small = disc(10, 10, 6), large = disc(45, 30, 12);
+        final BinaryMask mask = mask(0, 0, 60, 45, (x, y) -> small.contains(x, y) || large.contains(x, y));
+        tracer.trace(mask);
+        checkRawContour(tracer, mask, "two blobs");
+        for (int i = 0; i < tracer.getContourPoints(); i++) check(tracer.getContourX(i) > 30, "the large blob");
+    }
+
+    private static void onePixelMask() {
+        final ContourTracer tracer = new ContourTracer();
+        final BinaryMask mask = mask(40, 60, 5, 5, (x, y) -> x == 2 && y == 3);
+        check(tracer.trace(mask) == 1, "one point");
+        final float[] polygon = tracer.simplify(1f);
+        check(polygon.length == 2 && polygon[0] == 42 && polygon[1] == 63, "the pixel in image coordinates");
+        check(tracer.toPolygon(new BinaryMask(0, 0, 8, 8), 1f).length == 0, "empty mask: no polygon");
+        check(tracer.toPolygon(new BinaryMask(0, 0, 0, 0), 1f).length == 0, "0 x 0 mask: no polygon");
+        // A two-pixel diagonal: both points, no closing repeat
+        check(tracer.toPolygon(mask(0, 0, 2, 2, (x, y) -> x == y), 1f).length == 4, "two pixels");
+    }
+
+    // Masks are cropped to the detection box, so the object often fills it to the edges
+    private static void maskTouchingTheRoiBorder() {
+        final ContourTracer tracer = new ContourTracer();
+        final BinaryMask full = mask(10, 20, 12, 8, (x, y) -> true);
+        check(tracer.trace(full) == 2 * (12 + 8) - 4, "full window: its edge pixels, got " + tracer.getContourPoints());
+        checkRawContour(tracer, full, "full window");
+        final float[] corners = tracer.simplify(0.5f);
+        check(corners.length == 8 && hasVertex(corners, 10, 20) && hasVertex(corners, 21, 20)
+                && hasVertex(corners, 21, 27) && hasVertex(corners, 10, 27), "window corners");
+
+        // A disc cut by the left and top edges of its box
+        final BinaryMask cut = mask(0, 0, 30, 30, disc(5, 8, 15));
+        tracer.trace(cut);
+        checkRawContour(tracer, cut, "cut disc");
+        boolean onLeft = false, onTop = false;
+        for (int i = 0; i < tracer.getContourPoints(); i++) {
+            onLeft |= tracer.getContourX(i) == 0;
+            onTop |= tracer.getContourY(i) == 0;
+        }
+        check(onLeft && onTop, "the contour runs along the box edges");
+        final float[] polygon = tracer.simplify(1f);
+        check(maxDeviation(tracer, polygon) <= 1.001, "within epsilon: " + maxDeviation(tracer, polygon));
+    }
+
+    // Disc of radius 40: Douglas-Peucker on a circle needs about pi / acos(1 - epsilon / r) vertices. Below a pixel
+    // the staircase of the raster adds its own corners; at 4 px the split at the far point leaves 12 vertices
+    // whose chords all deviate less than 2 px, so nothing more is dropped.
+    private static void vertexCountsFallWithEpsilon() {
+        final ContourTracer tracer = new ContourTracer();
+        final BinaryMask mask = mask(0, 0, 90, 90, disc(45, 45, 40));
+        check(tracer.trace(mask) == 224, "raw contour of a radius 40 disc: " + tracer.getContourPoints() + " points");
+        checkRawContour(tracer, mask, "disc");
+        final float[] epsilons = {0.5f, 1f, 2f, 4f};
+        final int[] expected = {60, 20, 12, 12};
+        for (int e = 0; e < epsilons.length; e++) {
+            final float[] polygon = tracer.simplify(epsilons[e]);
+            final int vertices = polygon.length / 2;
+            check(vertices == expected[e], "epsilon " + epsilons[e] + ": " + vertices + " vertices");
+            if (epsilons[e] >= 1f) {
+                final double ideal = Math.PI / Math.acos(1 - epsilons[e] / 40.0);
+                check(vertices >= ideal && vertices <= 2 * ideal, "epsilon " + epsilons[e] + ": " + vertices
+                        + " vertices for an ideal " + Math.round(ideal));
+            }
+            check(maxDeviation(tracer, polygon) <= epsilons[e] + 1e-3, "epsilon " + epsilons[e] + " deviation "
+                    + maxDeviation(tracer, polygon));
+        }
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
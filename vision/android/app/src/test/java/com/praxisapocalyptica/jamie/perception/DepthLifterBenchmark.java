@@ -0,0 +1,65 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM benchmark (no JMH on this tree's classpath): java ...DepthLifterBenchmark.
+// Cost of one lift() against detection size and depth resolution: a 640 x 480 camera (f = 500 px), a board in
+// front of a wall at 4 m (see DepthScene) sized to fill about 40, 120 and 300 px of the image, lifted from the
+// central half of its box and from an instance mask 4 px too large (so the MAD band has background to reject).
+// Masks are resolved beforehand, as the polygon tracing does on the worker, so only the lookups are timed.
+// Prints median / p95 microseconds per detection, depth pixels looked at and heap bytes allocated per lift.
+
+import java.util.Arrays;
+
+public class DepthLifterBenchmark {
+
+    private static final SyntheticCamera CAMERA = new SyntheticCamera(500, 640, 480);
+    private static final float[] ORIGIN = {0, 0, 0};
+    private static final float[] LEVEL = {0, 0, 0, 1};
+    private static final int WARMUP = 2000;
+    private static final int TIMED = 5000;
+
+    public static void main(String[] args) {
+        System.out.println("depth      box px  source  us/detection (median / p95)  depth px  bytes/lift");
+        for (int[] resolution : new int[][] {{160, 120}, {320, 240}}) {
+            for (int size : new int[] {40, 120, 300}) {
+                run(resolution[0], resolution[1], size, false);
+                run(resolution[0], resolution[1], size, true);
+            }
+        }
+    }
+
+    private static void run(int depthWidth, int depthHeight, int sizePx, boolean masked) {
+        final float side = sizePx * 2f / CAMERA.fx; // At 2 m
+        final DepthScene scene = new DepthScene(CAMERA, -4f, new float[] {0.1f, -0.05f, -2f, 0, side, side});
+        final short[] depth = new short[depthWidth * depthHeight];
+        scene.render(ORIGIN, LEVEL, depth, depthWidth, depthHeight);
+        final DepthLifter lifter = new DepthLifter();
+        lifter.setIntrinsics(CAMERA.fx, CAMERA.fy, CAMERA.cx, CAMERA.cy, CAMERA.width, CAMERA.height);
+        lifter.setDepth(depth, depthWidth, depthHeight);
+        final DetectedObject obj = new DetectedObject();
+        scene.detect(0, ORIGIN, LEVEL, obj);
+        if (masked) {
+            obj.mask = scene.mask(0, ORIGIN, LEVEL, 4, obj);
+            obj.mask.resolve();
+        }
+        final long[] nanos = new long[TIMED];
+        final AllocationMeter meter = new AllocationMeter();
+        boolean lifted = true;
+        for (int i = 0; i < WARMUP + TIMED; i++) {
+            if (i == WARMUP) meter.start();
+            final long start = System.nanoTime();
+            lifted &= lifter.lift(obj, ORIGIN, LEVEL);
+            if (i >= WARMUP) nanos[i - WARMUP] = System.nanoTime() - start;
+        }
+        final long allocated = meter.stop();
+        if (!lifted) throw new AssertionError("lift failed at " + sizePx + " px");
+        Arrays.sort(nanos);
+        // Depth pixels a lift looks at: those of the box (its central half - a quarter of the area - without a mask)
+        final float pixelsPerDepthX = CAMERA.width / (float) depthWidth, pixelsPerDepthY = CAMERA.height / (float) depthHeight;
+        final float boxWidth = (obj.boundingBoxRight - obj.boundingBoxLeft) / pixelsPerDepthX;
+        final float boxHeight = (obj.boundingBoxBottom - obj.boundingBoxTop) / pixelsPerDepthY;
+        final int samples = Math.round(boxWidth * boxHeight * (masked ? 1 : 0.25f));
+        System.out.printf("%3d x %-3d  %6d  %-6s  %16.1f / %.1f  %8d  %10d%n", depthWidth, depthHeight, sizePx,
+                masked ? "mask" : "box", nanos[TIMED / 2] / 1000.0, nanos[TIMED * 95 / 100] / 1000.0, samples,
+                allocated / TIMED);
+    }
+}
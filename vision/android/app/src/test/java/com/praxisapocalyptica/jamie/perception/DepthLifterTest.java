@@ -0,0 +1,198 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...DepthLifterTest, non-zero exit on failure.
+
+// Lifting on synthetic depth maps (see DepthScene): a 640 x 480 camera (f = 500 px) with a 160 x 120 depth
+// image, upright boards in front of a wall at 4 m. The lifted pose, yaw and extent must match the board the
+// depth was rendered from, from any camera pose, and background or holes inside the mask must not move it.
+public class DepthLifterTest {
+
+    private static final SyntheticCamera CAMERA = new SyntheticCamera(500, 640, 480);
+    private static final int DEPTH_WIDTH = 160;
+    private static final int DEPTH_HEIGHT = 120;
+    private static final float[] ORIGIN = {0, 0, 0};
+    private static final float[] LEVEL = {0, 0, 0, 1};
+
+    public static void main(String[] args) {
+        boardFacingTheCameraIsLiftedWhereItIs();
+        movedCameraGivesTheSameWorldPose();
+        obliqueBoardGivesItsYaw();
+        backgroundInsideTheMaskIsRejected();
+        holesLowerTheConfidence();
+        tooLittleDepthLeavesTheObjectAlone();
+        misuseIsRefused();
+        System.out.println("DepthLifterTest: OK");
+    }
+
+    private static DepthLifter lifter(DepthScene scene, float[] translation, float[] rotation) {
+        final short[] depth = new short[DEPTH_WIDTH * DEPTH_HEIGHT];
+        scene.render(translation, rotation, depth, DEPTH_WIDTH, DEPTH_HEIGHT);
+        final DepthLifter lifter = new DepthLifter();
+        lifter.setIntrinsics(CAMERA.fx, CAMERA.fy, CAMERA.cx, CAMERA.cy, CAMERA.width, CAMERA.height);
+        lifter.setDepth(depth, DEPTH_WIDTH, DEPTH_HEIGHT);
+        return lifter;
+    }
+
+    // 0.6 x 0.4 m at 2 m: without a mask only the central half of the box is sampled, with one all of it
+    private static void boardFacingTheCameraIsLiftedWhereItIs() {
+        final DepthScene scene = new DepthScene(CAMERA, -4f, new float[] {0.3f, 0.1f, -2f, 0, 0.6f, 0.4f});
+        final DepthLifter lifter = lifter(scene, ORIGIN, LEVEL);
+
+        final DetectedObject boxOnly = new DetectedObject();
+        scene.detect(0, ORIGIN, LEVEL, boxOnly);
+        check(lifter.lift(boxOnly, ORIGIN, LEVEL), "lifted from the box");
+        checkPose(boxOnly, 0.3f, 0.1f, -2f, 0.02f, "box only");
+        checkNear(boxOnly.extentX, 0.3f, 0.04f, "half the width from the central half of the box");
+        checkNear(boxOnly.extentY, 0.2f, 0.04f, "half the height");
+        check(boxOnly.extentZ < 0.01f, "flat: " + boxOnly.extentZ);
+
+        final DetectedObject masked = new DetectedObject();
+        scene.detect(0, ORIGIN, LEVEL, masked);
+        masked.mask = scene.mask(0, ORIGIN, LEVEL, 0, masked);
+        check(lifter.lift(masked, ORIGIN, LEVEL), "lifted from the mask");
+        checkPose(masked, 0.3f, 0.1f, -2f, 0.02f, "masked");
+        checkNear(masked.extentX, 0.6f, 0.04f, "the whole width");
+        checkNear(masked.extentY, 0.4f, 0.04f, "the whole height");
+        checkYaw(masked, 0, 0.05f, "facing the camera");
+        check(masked.poseConfidence > 0.95f, "full, consistent depth: " + masked.poseConfidence);
+        check(lifter.getObjectsLifted() == 2 && lifter.getObjectsSkipped() == 0, "counters");
+    }
+
+    // Camera 1 m to the right, raised and turned 0.4 rad left, board 2 m in front of it and facing it
+    private static void movedCameraGivesTheSameWorldPose() {
+        final float[] translation = {1f, 0.2f, 0.5f};
+        final float turn = 0.4f;
+        final float[] rotation = SyntheticCamera.yaw(turn);
+        final float x = translation[0] - 2 * (float) Math.sin(turn), z = translation[2] - 2 * (float) Math.cos(turn);
+        final DepthScene scene = new DepthScene(CAMERA, -4f, new float[] {x, 0.4f, z, -turn, 0.5f, 0.5f});
+        final DepthLifter lifter = lifter(scene, translation, rotation);
+        final DetectedObject obj = new DetectedObject();
+        scene.detect(0, translation, rotation, obj);
+        obj.mask = scene.mask(0, translation, rotation, 0, obj);
+        check(lifter.lift(obj, translation, rotation), "lifted");
+        checkPose(obj, x, 0.4f, z, 0.02f, "world pose");
+        checkYaw(obj, -turn, 0.05f, "turned with the camera");
+        checkNear(obj.extentX, 0.5f, 0.04f, "width");
+        checkNear(obj.extentY, 0.5f, 0.04f, "height");
+    }
+
+    // Turned 0.6 rad away from the camera: the depth runs across it, the yaw comes from that slope
+    private static void obliqueBoardGivesItsYaw() {
+        final DepthScene scene = new DepthScene(CAMERA, -4f, new float[] {-0.2f, 0, -2.2f, 0.6f, 0.8f, 0.5f});
+        final DepthLifter lifter = lifter(scene, ORIGIN, LEVEL);
+        final DetectedObject obj = new DetectedObject();
+        scene.detect(0, ORIGIN, LEVEL, obj);
+        obj.mask = scene.mask(0, ORIGIN, LEVEL, 0, obj);
+        check(lifter.lift(obj, ORIGIN, LEVEL), "lifted");
+        checkPose(obj, -0.2f, 0, -2.2f, 0.03f, "centre");
+        checkYaw(obj, 0.6f, 0.05f, "yaw of the board");
+        checkNear(obj.extentX, 0.8f, 0.05f, "width along the board");
+        check(obj.extentZ < 0.03f, "thin across the board: " + obj.extentZ);
+    }
+
+    // A mask 12 px too large on every side takes in about a third of wall pixels 2 m behind the board
+    private static void backgroundInsideTheMaskIsRejected() {
+        final DepthScene scene = new DepthScene(CAMERA, -4f, new float[] {0, 0, -2f, 0, 0.6f, 0.4f});
+        final DepthLifter lifter = lifter(scene, ORIGIN, LEVEL);
+        final DetectedObject tight = new DetectedObject();
+        scene.detect(0, ORIGIN, LEVEL, tight);
+        tight.mask = scene.mask(0, ORIGIN, LEVEL, 0, tight);
+        final DetectedObject spilled = new DetectedObject();
+        scene.detect(0, ORIGIN, LEVEL, spilled);
+        spilled.mask = scene.mask(0, ORIGIN, LEVEL, 12, spilled);
+        check(lifter.lift(tight, ORIGIN, LEVEL) && lifter.lift(spilled, ORIGIN, LEVEL), "both lifted");
+        checkPose(spilled, 0, 0, -2f, 0.02f, "on the board, not between it and the wall");
+        checkNear(spilled.extentX, 0.6f, 0.04f, "board width, not the mask's");
+        checkNear(spilled.extentY, 0.4f, 0.04f, "board height");
+        check(spilled.extentZ < 0.01f, "the wall is not part of it: " + spilled.extentZ);
+        check(spilled.poseConfidence < tight.poseConfidence - 0.15f && spilled.poseConfidence > 0.5f,
+                "outliers lower the confidence: " + spilled.poseConfidence + " vs " + tight.poseConfidence);
+    }
+
+    private static void holesLowerTheConfidence() {
+        final DepthScene scene = new DepthScene(CAMERA, -4f, new float[] {0, 0, -2f, 0, 0.6f, 0.4f});
+        final short[] depth = new short[DEPTH_WIDTH * DEPTH_HEIGHT];
+        scene.render(ORIGIN, LEVEL, depth, DEPTH_WIDTH, DEPTH_HEIGHT);
+        for (int i = 0; i < depth.length; i += 2) depth[i] = 0; // Every other column
+        final DepthLifter lifter = new DepthLifter();
+        lifter.setIntrinsics(CAMERA.fx, CAMERA.fy, CAMERA.cx, CAMERA.cy, CAMERA.width, CAMERA.height);
+        lifter.setDepth(depth, DEPTH_WIDTH, DEPTH_HEIGHT);
+        final DetectedObject obj = new DetectedObject();
+        scene.detect(0, ORIGIN, LEVEL, obj);
+        obj.mask = scene.mask(0, ORIGIN, LEVEL, 0, obj);
+        check(lifter.lift(obj, ORIGIN, LEVEL), "lifted from what is left");
+        checkPose(obj, 0, 0, -2f, 0.02f, "holes don't move it");
+        checkNear(obj.poseConfidence, 0.5f, 0.05f, "half the mask has depth");
+    }
+
+    private static void tooLittleDepthLeavesTheObjectAlone() {
+        // No depth at all on the board
+        final DepthScene scene = new DepthScene(CAMERA, -4f, new float[] {0, 0, -2f, 0, 0.6f, 0.4f});
+        final DepthLifter lifter = lifter(scene, ORIGIN, LEVEL);
+        lifter.setDepth(new short[DEPTH_WIDTH * DEPTH_HEIGHT], DEPTH_WIDTH, DEPTH_HEIGHT);
+        final DetectedObject obj = new DetectedObject();
+        scene.detect(0, ORIGIN, LEVEL, obj);
+        obj.poseX = 42f;
+        obj.poseConfidence = 0.7f;
+        check(!lifter.lift(obj, ORIGIN, LEVEL), "nothing to lift");
+        check(obj.poseX == 42f && obj.poseConfidence == 0.7f, "object untouched");
+
+        // Beyond the depth range
+        final DepthScene far = new DepthScene(CAMERA, Float.NaN, new float[] {0, 0, -9f, 0, 3f, 2f});
+        final DepthLifter farLifter = lifter(far, ORIGIN, LEVEL);
+        far.detect(0, ORIGIN, LEVEL, obj);
+        check(!farLifter.lift(obj, ORIGIN, LEVEL), "further than depth can be trusted");
+
+        // A box smaller than a depth pixel
+        obj.boundingBoxLeft = 320.5f;
+        obj.boundingBoxTop = 240.5f;
+        obj.boundingBoxRight = 321.5f;
+        obj.boundingBoxBottom = 241.5f;
+        check(!lifter.lift(obj, ORIGIN, LEVEL), "too few samples");
+        check(lifter.getObjectsSkipped() == 2 && lifter.getObjectsLifted() == 0, "counted as skipped");
+    }
+
+    private static void misuseIsRefused() {
+        final DepthLifter lifter = new DepthLifter();
+        check(!lifter.isReady(), "not ready before intrinsics and depth");
+        try {
+            lifter.lift(new DetectedObject(), ORIGIN, LEVEL);
+            check(false, "lift without depth must throw");
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            lifter.setIntrinsics(0, 500, 320, 240, 640, 480);
+            check(false, "zero focal length must throw");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            lifter.setDepth(new short[10], DEPTH_WIDTH, DEPTH_HEIGHT);
+            check(false, "short depth buffer must throw");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static void checkPose(DetectedObject obj, float x, float y, float z, float tolerance, String what) {
+        check(Math.abs(obj.poseX - x) <= tolerance && Math.abs(obj.poseY - y) <= tolerance
+                && Math.abs(obj.poseZ - z) <= tolerance, what + ": (" + obj.poseX + ", " + obj.poseY + ", " + obj.poseZ
+                + "), expected (" + x + ", " + y + ", " + z + ")");
+    }
+
+    // The lifted yaw (rotation -yaw about world y) against the board's, modulo pi (an axis has no direction)
+    private static void checkYaw(DetectedObject obj, float yaw, float tolerance, String what) {
+        check(obj.poseQx == 0 && obj.poseQz == 0, what + ": rotation about y only");
+        final double lifted = -2 * Math.atan2(obj.poseQy, obj.poseQw);
+        double difference = (lifted - yaw) % Math.PI;
+        if (difference > Math.PI / 2) difference -= Math.PI;
+        if (difference < -Math.PI / 2) difference += Math.PI;
+        check(Math.abs(difference) <= tolerance, what + ": yaw " + lifted + ", expected " + yaw);
+    }
+
+    private static void checkNear(float value, float expected, float tolerance, String what) {
+        check(Math.abs(value - expected) <= tolerance, what + ": " + value + ", expected " + expected);
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,121 @@
+package com/praxisapocalyptica/jamie.perception;
+
+import java.nio.FloatBuffer;
+
+// Synthetic depth scene for the DepthLifter tests and benchmark: upright rectangular boards in front of an
+// optional back wall, rendered by ray casting into an ARCore-style DEPTH16 image (millimetres along the
+// camera's -z axis, 0 = no depth), plus the detection box and instance mask a model would report for a board.
+final class DepthScene {
+
+    final SyntheticCamera camera;
+    final float wallZ;           // World z of a wall facing +z, or NaN for none
+    final float[][] boards;      // centre x, y, z, yaw (axis (cos, 0, sin) in x-z), width, height
+
+    DepthScene(SyntheticCamera camera, float wallZ, float[]... boards) {
+        this.camera = camera;
+        this.wallZ = wallZ;
+        this.boards = boards;
+    }
+
+    // Depth image of depthWidth x depthHeight over the camera's field of view
+    void render(float[] translation, float[] rotation, short[] depthMm, int depthWidth, int depthHeight) {
+        final float[] ray = new float[3];
+        final float toImageX = camera.width / (float) depthWidth, toImageY = camera.height / (float) depthHeight;
+        for (int y = 0; y < depthHeight; y++) {
+            for (int x = 0; x < depthWidth; x++) {
+                ray(translation, rotation, (x + 0.5f) * toImageX, (y + 0.5f) * toImageY, ray);
+                float nearest = Float.MAX_VALUE;
+                for (int b = 0; b < boards.length; b++) nearest = Math.min(nearest, hitBoard(b, translation, ray));
+                if (!Float.isNaN(wallZ) && ray[2] < -1e-6f) {
+                    final float s = (wallZ - translation[2]) / ray[2];
+                    if (s > 0) nearest = Math.min(nearest, s);
+                }
+                // The ray has camera z = -1, so the ray parameter is the depth
+                depthMm[y * depthWidth + x] = nearest == Float.MAX_VALUE ? 0 : (short) Math.min(65535, Math.round(nearest * 1000));
+            }
+        }
+    }
+
+    // Box of board b as the camera sees it, written into obj (class, confidence and box fields)
+    void detect(int b, float[] translation, float[] rotation, DetectedObject obj) {
+        final float[] board = boards[b];
+        final float ax = (float) Math.cos(board[3]) * board[4] / 2, az = (float) Math.sin(board[3]) * board[4] / 2;
+        final float[] p = new float[2];
+        float left = Float.MAX_VALUE, top = Float.MAX_VALUE, right = -Float.MAX_VALUE, bottom = -Float.MAX_VALUE;
+        for (int corner = 0; corner < 4; corner++) {
+            final float side = (corner & 1) == 0 ? -1 : 1;
+            final float up = (corner & 2) == 0 ? board[5] / 2 : -board[5] / 2;
+            camera.project(board[0] + side * ax, board[1] + up, board[2] + side * az, translation, rotation, p);
+            left = Math.min(left, p[0]);
+            right = Math.max(right, p[0]);
+            top = Math.min(top, p[1]);
+            bottom = Math.max(bottom, p[1]);
+        }
+        obj.objectClass = "board";
+        obj.confidence = 0.9f;
+        obj.boundingBoxLeft = Math.max(0, left);
+        obj.boundingBoxTop = Math.max(0, top);
+        obj.boundingBoxRight = Math.min(camera.width, right);
+        obj.boundingBoxBottom = Math.min(camera.height, bottom);
+    }
+
+    // Instance mask of board b over obj's box (call detect() first), one prototype pixel per camera pixel,
+    // grown by dilatePx on every side the way a coarse mask spills onto the background (obj's box grows with it)
+    LazyInstanceMask mask(int b, float[] translation, float[] rotation, int dilatePx, DetectedObject obj) {
+        final int w = camera.width, h = camera.height;
+        final boolean[] hit = new boolean[w * h];
+        final float[] ray = new float[3];
+        final int x0 = Math.max(0, (int) obj.boundingBoxLeft - 1), x1 = Math.min(w, (int) obj.boundingBoxRight + 1);
+        final int y0 = Math.max(0, (int) obj.boundingBoxTop - 1), y1 = Math.min(h, (int) obj.boundingBoxBottom + 1);
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                ray(translation, rotation, x + 0.5f, y + 0.5f, ray);
+                hit[y * w + x] = hitBoard(b, translation, ray) != Float.MAX_VALUE;
+            }
+        }
+        final FloatBuffer logits = FloatBuffer.allocate(w * h);
+        for (int i = 0; i < w * h; i++) logits.put(i, -8f);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                if (!hit[y * w + x]) continue;
+                for (int yy = Math.max(0, y - dilatePx); yy <= Math.min(h - 1, y + dilatePx); yy++) {
+                    for (int xx = Math.max(0, x - dilatePx); xx <= Math.min(w - 1, x + dilatePx); xx++) {
+                        logits.put(yy * w + xx, 8f);
+                    }
+                }
+            }
+        }
+        final LazyInstanceMask.Prototypes prototypes = new LazyInstanceMask.Prototypes(logits, w, h, 1, true, w, h,
+                1f, 0f, 0f, null);
+        obj.boundingBoxLeft = Math.max(0, obj.boundingBoxLeft - dilatePx);
+        obj.boundingBoxTop = Math.max(0, obj.boundingBoxTop - dilatePx);
+        obj.boundingBoxRight = Math.min(w, obj.boundingBoxRight + dilatePx);
+        obj.boundingBoxBottom = Math.min(h, obj.boundingBoxBottom + dilatePx);
+        return new LazyInstanceMask(prototypes, new float[] {1f}, obj.boundingBoxLeft, obj.boundingBoxTop,
+                obj.boundingBoxRight, obj.boundingBoxBottom);
+    }
+
+    // World direction of the ray through image pixel (u, v), scaled so its camera z is -1
+    private void ray(float[] translation, float[] rotation, float u, float v, float[] out) {
+        final float qx = rotation[0], qy = rotation[1], qz = rotation[2], qw = rotation[3];
+        final float px = (u - camera.cx) / camera.fx, py = -(v - camera.cy) / camera.fy, pz = -1;
+        out[0] = (1 - 2 * (qy * qy + qz * qz)) * px + 2 * (qx * qy - qz * qw) * py + 2 * (qx * qz + qy * qw) * pz;
+        out[1] = 2 * (qx * qy + qz * qw) * px + (1 - 2 * (qx * qx + qz * qz)) * py + 2 * (qy * qz - qx * qw) * pz;
+        out[2] = 2 * (qx * qz - qy * qw) * px + 2 * (qy * qz + qx * qw) * py + (1 - 2 * (qx * qx + qy * qy)) * pz;
+    }
+
+    // Ray parameter where the ray from translation hits board b, or Float.MAX_VALUE
+    private float hitBoard(int b, float[] translation, float[] ray) {
+        final float[] board = boards[b];
+        final float ax = (float) Math.cos(board[3]), az = (float) Math.sin(board[3]);
+        final float nx = -az, nz = ax; // Board normal, horizontal
+        final float denominator = nx * ray[0] + nz * ray[2];
+        if (Math.abs(denominator) < 1e-6f) return Float.MAX_VALUE;
+        final float s = (nx * (board[0] - translation[0]) + nz * (board[2] - translation[2])) / denominator;
+        if (s <= 0) return Float.MAX_VALUE;
+        final float dx = translation[0] + s * ray[0] - board[0];
+        final float dy = translation[1] + s * ray[1] - board[1];
+        final float dz = translation[2] + s * ray[2] - board[2];
+        return Math.abs(dx * ax + dz * az) <= board[4] / 2 && Math.abs(dy) <= board[5] / 2 ? s : Float.MAX_VALUE;
+    }
+}
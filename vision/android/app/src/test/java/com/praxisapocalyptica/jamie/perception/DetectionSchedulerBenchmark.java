@@ -0,0 +1,119 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM benchmark (no JMH on this tree's classpath): java ...DetectionSchedulerBenchmark.
+// Synthetic 30 fps camera (640 x 480, f = 500 px) panning and strafing in front of 20 static objects at
+// 1.5 - 4 m for 20 s; the "model" returns the visible boxes with 1.5 px noise. Compares running it on every
+// frame with detection-skipping at a few interval ranges: model runs and detection lists per second of camera
+// time, objects delivered per second, drift of the delivered boxes against what the camera sees (mean IoU,
+// mean / p95 centre error) and the cost of propagate().
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class DetectionSchedulerBenchmark {
+
+    private static final SyntheticCamera CAMERA = new SyntheticCamera(500, 640, 480);
+    private static final int FPS = 30;
+    private static final int FRAMES = 20 * FPS;
+    private static final int OBJECTS = 20;
+
+    public static void main(String[] args) {
+        System.out.println("mode          model runs/s  lists/s  objects/s  IoU vs seen  centre err mean / p95 (px)"
+                + "  propagate us");
+        for (int pass = 0; pass < 2; pass++) { // First pass warms up
+            final boolean print = pass == 1;
+            run("every frame", 0, 0, print);
+            run("2..8", 2, 8, print);
+            run("3..15", 3, 15, print);
+            run("5..30", 5, 30, print);
+        }
+    }
+
+    private static void run(String label, int minInterval, int maxInterval, boolean print) {
+        final Random random = new Random(5);
+        final float[][] objects = new float[OBJECTS][3];
+        for (int i = 0; i < OBJECTS; i++) {
+            final float depth = 1.5f + random.nextFloat() * 2.5f;
+            objects[i][0] = (random.nextFloat() - 0.5f) * 2.4f * depth;
+            objects[i][1] = (random.nextFloat() - 0.5f) * 0.8f * depth;
+            objects[i][2] = -depth;
+        }
+        DetectionScheduler scheduler = null;
+        if (minInterval > 0) {
+            scheduler = new DetectionScheduler(minInterval, maxInterval);
+            CAMERA.applyTo(scheduler);
+        }
+        final float[] translation = new float[3];
+        final DetectedObject truth = new DetectedObject();
+        final List<Float> centreErrors = new ArrayList<>();
+        double iouSum = 0;
+        long modelRuns = 0, lists = 0, delivered = 0, propagateNanos = 0, propagations = 0;
+        for (int n = 0; n < FRAMES; n++) {
+            final float t = n / (float) FPS;
+            final float[] rotation = SyntheticCamera.yaw(0.35f * (float) Math.sin(2 * Math.PI * t / 5));
+            translation[0] = 0.25f * (float) Math.sin(2 * Math.PI * t / 7);
+            translation[2] = 0.1f * (float) Math.sin(2 * Math.PI * t / 11);
+            List<DetectedObject> out;
+            if (scheduler == null || scheduler.isKeyframeDue(translation, rotation)) {
+                out = detect(objects, translation, rotation, random);
+                modelRuns++;
+                if (scheduler != null) {
+                    scheduler.onKeyframeSubmitted(translation, rotation);
+                    scheduler.onInferenceResult(out, translation, rotation);
+                }
+            } else {
+                final long start = System.nanoTime();
+                out = scheduler.propagate(translation, rotation);
+                propagateNanos += System.nanoTime() - start;
+                propagations++;
+            }
+            lists++;
+            for (DetectedObject obj : out) {
+                delivered++;
+                final float[] o = objects[obj.trackId];
+                if (!CAMERA.box(o[0], o[1], o[2], 0.2f, translation, rotation, truth)) continue; // Carried out of view
+                iouSum += DetectionScheduler.iou(obj, truth);
+                final float dx = (obj.boundingBoxLeft + obj.boundingBoxRight - truth.boundingBoxLeft - truth.boundingBoxRight) / 2;
+                final float dy = (obj.boundingBoxTop + obj.boundingBoxBottom - truth.boundingBoxTop - truth.boundingBoxBottom) / 2;
+                centreErrors.add((float) Math.sqrt(dx * dx + dy * dy));
+            }
+        }
+        if (!print) return;
+        final float seconds = FRAMES / (float) FPS;
+        final float[] errors = new float[centreErrors.size()];
+        double errorSum = 0;
+        for (int i = 0; i < errors.length; i++) {
+            errors[i] = centreErrors.get(i);
+            errorSum += errors[i];
+        }
+        Arrays.sort(errors);
+        System.out.printf("%-12s  %12.1f  %7.1f  %9.1f  %11.3f  %10.2f / %.2f  %19s%n", label, modelRuns / seconds,
+                lists / seconds, delivered / seconds, iouSum / errors.length, errorSum / errors.length,
+                errors[errors.length * 95 / 100],
+                propagations == 0 ? "-" : String.format("%.1f", propagateNanos / 1000.0 / propagations));
+    }
+
+    // What the model reports: every object in view with its world pose (as the depth lifter fills it in)
+    private static List<DetectedObject> detect(float[][] objects, float[] translation, float[] rotation, Random random) {
+        List<DetectedObject> out = new ArrayList<>();
+        for (int i = 0; i < objects.length; i++) {
+            DetectedObject obj = new DetectedObject();
+            if (!CAMERA.box(objects[i][0], objects[i][1], objects[i][2], 0.2f, translation, rotation, obj)) continue;
+            obj.trackId = i;
+            obj.objectClass = "object";
+            obj.confidence = 0.9f;
+            obj.boundingBoxLeft += (float) random.nextGaussian() * 1.5f;
+            obj.boundingBoxTop += (float) random.nextGaussian() * 1.5f;
+            obj.boundingBoxRight += (float) random.nextGaussian() * 1.5f;
+            obj.boundingBoxBottom += (float) random.nextGaussian() * 1.5f;
+            obj.poseX = objects[i][0];
+            obj.poseY = objects[i][1];
+            obj.poseZ = objects[i][2];
+            obj.poseQw = 1;
+            out.add(obj);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,158 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...DetectionSchedulerTest, non-zero exit on failure.
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Keyframe choice and camera-motion propagation against a synthetic pinhole camera (640 x 480, f = 500 px)
+// looking at static squares: carried-forward boxes are compared with the boxes the camera actually sees.
+public class DetectionSchedulerTest {
+
+    private static final SyntheticCamera CAMERA = new SyntheticCamera(500, 640, 480);
+    private static final float[] ORIGIN = {0, 0, 0};
+
+    public static void main(String[] args) {
+        nothingToCarryBeforeTheFirstResult();
+        farObjectsFollowTheRotation();
+        objectsWithAPoseFollowTheTranslation();
+        resultsAreCopied();
+        intervalGrowsWhileStillAndMotionForcesAKeyframe();
+        objectsLeavingTheImageAreDropped();
+        System.out.println("DetectionSchedulerTest: OK");
+    }
+
+    private static DetectionScheduler scheduler(int minInterval, int maxInterval) {
+        DetectionScheduler scheduler = new DetectionScheduler(minInterval, maxInterval);
+        CAMERA.applyTo(scheduler);
+        return scheduler;
+    }
+
+    // Square of half size 0.2 m at (x, y, z) as detected from the given camera pose; the world pose is set
+    // only if withPose (otherwise the scheduler treats it as far away)
+    private static DetectedObject seen(int trackId, float x, float y, float z, float[] translation, float[] rotation,
+                                       boolean withPose) {
+        DetectedObject obj = new DetectedObject();
+        obj.trackId = trackId;
+        obj.objectClass = "box";
+        obj.confidence = 0.9f;
+        check(CAMERA.box(x, y, z, 0.2f, translation, rotation, obj), "object " + trackId + " in view");
+        if (withPose) {
+            obj.poseX = x;
+            obj.poseY = y;
+            obj.poseZ = z;
+            obj.poseQw = 1;
+        }
+        return obj;
+    }
+
+    private static List<DetectedObject> list(DetectedObject... objects) {
+        List<DetectedObject> list = new ArrayList<>();
+        for (DetectedObject obj : objects) list.add(obj);
+        return list;
+    }
+
+    private static void nothingToCarryBeforeTheFirstResult() {
+        DetectionScheduler scheduler = scheduler(2, 8);
+        check(!scheduler.hasResults(), "no results yet");
+        check(scheduler.isKeyframeDue(ORIGIN, SyntheticCamera.yaw(0)), "first frame is a keyframe");
+        check(scheduler.propagate(ORIGIN, SyntheticCamera.yaw(0)).isEmpty(), "nothing to propagate");
+    }
+
+    // Pure rotation: a box far away (no pose) is warped onto where the camera sees it
+    private static void farObjectsFollowTheRotation() {
+        DetectionScheduler scheduler = scheduler(2, 8);
+        final float[] q0 = SyntheticCamera.yaw(0), q1 = SyntheticCamera.yaw(0.08f);
+        scheduler.onInferenceResult(list(seen(1, 5, 2, -100, ORIGIN, q0, false)), ORIGIN, q0);
+        List<DetectedObject> carried = scheduler.propagate(ORIGIN, q1);
+        DetectedObject truth = seen(1, 5, 2, -100, ORIGIN, q1, false);
+        check(carried.size() == 1, "carried forward");
+        checkBox(carried.get(0), truth, 0.5f, "rotation only");
+        check(truth.boundingBoxLeft - seen(1, 5, 2, -100, ORIGIN, q0, false).boundingBoxLeft > 30, "by a real amount");
+    }
+
+    // Rotation and translation: a box with a world position is moved as a plane at its depth
+    private static void objectsWithAPoseFollowTheTranslation() {
+        DetectionScheduler scheduler = scheduler(2, 8);
+        final float[] q0 = SyntheticCamera.yaw(0), q1 = SyntheticCamera.yaw(-0.05f);
+        final float[] t1 = {0.1f, 0.02f, -0.05f};
+        scheduler.onInferenceResult(list(seen(1, 0.3f, 0, -2, ORIGIN, q0, true),
+                seen(2, -0.5f, 0.2f, -3.5f, ORIGIN, q0, true)), ORIGIN, q0);
+        List<DetectedObject> carried = scheduler.propagate(t1, q1);
+        check(carried.size() == 2, "both carried forward");
+        checkBox(carried.get(0), seen(1, 0.3f, 0, -2, t1, q1, true), 1f, "near object");
+        checkBox(carried.get(1), seen(2, -0.5f, 0.2f, -3.5f, t1, q1, true), 1f, "far object");
+    }
+
+    // The scheduler keeps its own copy: the listener may change or reuse the objects it was handed
+    private static void resultsAreCopied() {
+        DetectionScheduler scheduler = scheduler(2, 8);
+        final float[] q0 = SyntheticCamera.yaw(0);
+        DetectedObject obj = seen(7, 0, 0, -2, ORIGIN, q0, true);
+        final float left = obj.boundingBoxLeft;
+        obj.polygon = new float[] {obj.boundingBoxLeft, obj.boundingBoxTop, obj.boundingBoxRight, obj.boundingBoxBottom};
+        obj.extentX = 0.4f;
+        scheduler.onInferenceResult(list(obj), ORIGIN, q0);
+        obj.boundingBoxLeft = -500;
+        obj.polygon[0] = -500;
+        obj.trackId = 99;
+
+        List<DetectedObject> first = scheduler.propagate(ORIGIN, q0);
+        List<DetectedObject> second = scheduler.propagate(ORIGIN, q0);
+        DetectedObject carried = first.get(0);
+        check(carried != obj && carried != second.get(0), "new objects on every call");
+        check(carried.trackId == 7 && Math.abs(carried.boundingBoxLeft - left) < 1e-3f, "box as it was passed in");
+        check(carried.polygon != obj.polygon && Math.abs(carried.polygon[0] - left) < 1e-3f, "polygon as it was passed in");
+        check(carried.extentX == 0.4f, "extent carried");
+        carried.boundingBoxLeft = 1000;
+        check(Math.abs(second.get(0).boundingBoxLeft - left) < 1e-3f, "handed-out objects are independent");
+    }
+
+    private static void intervalGrowsWhileStillAndMotionForcesAKeyframe() {
+        DetectionScheduler scheduler = scheduler(2, 6);
+        final float[] q0 = SyntheticCamera.yaw(0);
+        int keyframes = 0;
+        for (int n = 0; n < 60; n++) {
+            if (scheduler.isKeyframeDue(ORIGIN, q0)) {
+                scheduler.onKeyframeSubmitted(ORIGIN, q0);
+                scheduler.onInferenceResult(list(seen(1, 0, 0, -2, ORIGIN, q0, true)), ORIGIN, q0);
+                keyframes++;
+            } else {
+                scheduler.propagate(ORIGIN, q0);
+            }
+        }
+        check(scheduler.getInterval() == 6, "interval at its maximum, got " + scheduler.getInterval());
+        check(keyframes < 20, "fewer keyframes than frames: " + keyframes);
+
+        scheduler.onKeyframeSubmitted(ORIGIN, q0);
+        scheduler.propagate(ORIGIN, q0);
+        check(!scheduler.isKeyframeDue(ORIGIN, SyntheticCamera.yaw(0.05f)), "small turn: carried forward");
+        check(scheduler.isKeyframeDue(ORIGIN, SyntheticCamera.yaw(0.3f)), "large turn: keyframe");
+        check(scheduler.isKeyframeDue(new float[] {0.3f, 0, 0}, q0), "large move: keyframe");
+    }
+
+    private static void objectsLeavingTheImageAreDropped() {
+        DetectionScheduler scheduler = scheduler(2, 8);
+        final float[] q0 = SyntheticCamera.yaw(0);
+        scheduler.onInferenceResult(list(seen(1, 0.8f, 0, -2, ORIGIN, q0, true)), ORIGIN, q0);
+        check(scheduler.propagate(ORIGIN, SyntheticCamera.yaw(0.9f)).isEmpty(), "turned away from it");
+        check(scheduler.getObjectsDropped() == 1, "counted as dropped");
+    }
+
+    private static void checkBox(DetectedObject actual, DetectedObject expected, float tolerance, String what) {
+        check(Math.abs(actual.boundingBoxLeft - expected.boundingBoxLeft) < tolerance
+                && Math.abs(actual.boundingBoxTop - expected.boundingBoxTop) < tolerance
+                && Math.abs(actual.boundingBoxRight - expected.boundingBoxRight) < tolerance
+                && Math.abs(actual.boundingBoxBottom - expected.boundingBoxBottom) < tolerance,
+                what + ": carried " + box(actual) + ", seen " + box(expected));
+    }
+
+    private static String box(DetectedObject obj) {
+        return "[" + obj.boundingBoxLeft + ", " + obj.boundingBoxTop + ", " + obj.boundingBoxRight + ", "
+                + obj.boundingBoxBottom + "]";
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,121 @@
+package com/praxisapocalyptica/jamie.perception;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// InferenceBackend for plain-JVM tests: fixed float32 output tensors filled from canned values on every run,
+// an optional simulated inference time, and a hard failure where the native interpreter would crash instead
+// (run after close, close during a run).
+public class FakeInferenceBackend implements InferenceBackend {
+
+    private final String name;
+    private final int[] inputShape;
+    private final boolean inputUint8;
+    private final int[][] outputShapes;
+    private final float[][] outputValues; // Canned values per output tensor, zeros until set
+    private volatile long latencyNanos = 0;
+    private volatile RuntimeException failure;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private volatile boolean closed = false;
+    private volatile boolean closedWhileRunning = false;
+    private final AtomicInteger runs = new AtomicInteger();
+
+    public FakeInferenceBackend(String name, int[] inputShape, boolean inputUint8, int[][] outputShapes) {
+        this.name = name;
+        this.inputShape = inputShape.clone();
+        this.inputUint8 = inputUint8;
+        this.outputShapes = new int[outputShapes.length][];
+        this.outputValues = new float[outputShapes.length][];
+        for (int i = 0; i < outputShapes.length; i++) {
+            this.outputShapes[i] = outputShapes[i].clone();
+            this.outputValues[i] = new float[elements(outputShapes[i])];
+        }
+    }
+
+    // What run() writes into output tensor index (copied, length must match the tensor)
+    public void setOutput(int index, float[] values) {
+        if (values.length != outputValues[index].length) {
+            throw new IllegalArgumentException("Invalid output size for tensor " + index + ": " + values.length);
+        }
+        outputValues[index] = values.clone();
+    }
+
+    // Time every run() takes, like a real interpreter (spent sleeping, not interruptible, like native code)
+    public void setLatencyNanos(long latencyNanos) {
+        this.latencyNanos = latencyNanos;
+    }
+
+    // Makes every following run() throw this
+    public void setFailure(RuntimeException failure) {
+        this.failure = failure;
+    }
+
+    @Override public String getName() { return name; }
+
+    @Override public int getInputTensorCount() { return 1; }
+    @Override public int[] getInputShape(int index) { return inputShape.clone(); }
+    @Override public int getInputNumBytes(int index) { return elements(inputShape) * (inputUint8 ? 1 : 4); }
+    @Override public boolean isInputUint8(int index) { return inputUint8; }
+
+    @Override public int getOutputTensorCount() { return outputShapes.length; }
+    @Override public int[] getOutputShape(int index) { return outputShapes[index].clone(); }
+    @Override public int getOutputNumBytes(int index) { return elements(outputShapes[index]) * 4; }
+
+    @Override
+    public void run(Object[] inputs, Map<Integer, Object> outputs) {
+        if (closed) throw new IllegalStateException(name + ": run after close");
+        running.incrementAndGet();
+        try {
+            final RuntimeException f = failure;
+            if (f != null) throw f;
+            if (inputs.length != 1 || !(inputs[0] instanceof ByteBuffer)
+                    || ((ByteBuffer) inputs[0]).capacity() < getInputNumBytes(0)) {
+                throw new IllegalArgumentException(name + ": input does not match the input tensor");
+            }
+            sleepUninterruptibly(latencyNanos);
+            for (int i = 0; i < outputShapes.length; i++) {
+                final ByteBuffer out = ((ByteBuffer) outputs.get(i)).duplicate().order(ByteOrder.nativeOrder());
+                out.clear();
+                out.asFloatBuffer().put(outputValues[i]);
+            }
+            runs.incrementAndGet();
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (running.get() > 0) {
+            closedWhileRunning = true;
+            throw new IllegalStateException(name + ": closed during a run");
+        }
+        closed = true;
+    }
+
+    public boolean isClosed() { return closed; }
+    public boolean wasClosedWhileRunning() { return closedWhileRunning; }
+    public int getRunCount() { return runs.get(); }
+
+    private static int elements(int[] shape) {
+        int n = 1;
+        for (int d : shape) n *= d;
+        return n;
+    }
+
+    private static void sleepUninterruptibly(long nanos) {
+        final long end = System.nanoTime() + nanos;
+        boolean interrupted = false;
+        for (long left = nanos; left > 0; left = end - System.nanoTime()) {
+            try {
+                Thread.sleep(left / 1_000_000, (int) (left % 1_000_000));
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,180 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...FrameGovernorTest, non-zero exit on failure.
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// The control loop against scripted devices: each one has a latency per ladder level (with some jitter), and
+// the governor's level decides which one the next frame gets, as it would on the phone. Checks the step down
+// on latency and on dropped frames, that a level inside the hysteresis band is held instead of oscillating,
+// the growing wait after failed step ups, the thermal headroom input and the frame-rate gate.
+public class FrameGovernorTest {
+
+    private static final long SLO_NANOS = 100_000_000L;
+    private static final int EVAL_PERIOD = 15; // FrameGovernor.EVAL_PERIOD
+
+    public static void main(String[] args) {
+        rejectsBadSlo();
+        stepsDownTheLadderWhileOverTheSlo();
+        stepsDownOnDroppedFrames();
+        settlesInsideTheHysteresisBand();
+        failedStepUpsWaitLonger();
+        thermalHeadroomStepsDownAndHolds();
+        admitFollowsTheTargetFps();
+        System.out.println("FrameGovernorTest: OK");
+    }
+
+    private static void rejectsBadSlo() {
+        for (long slo : new long[] {0, -1}) {
+            try {
+                new FrameGovernor(slo);
+                throw new AssertionError("SLO " + slo + " accepted");
+            } catch (IllegalArgumentException expected) {
+                // Fine
+            }
+        }
+    }
+
+    // A device that can't make the SLO at any level: one step per evaluation, frame rate first, then stride,
+    // and it stays at the bottom
+    private static void stepsDownTheLadderWhileOverTheSlo() {
+        final FrameGovernor governor = new FrameGovernor(SLO_NANOS);
+        final int[] fps = {30, 24, 20, 15, 15, 10, 10, 5};
+        final int[] stride = {1, 1, 1, 1, 2, 2, 3, 3};
+        for (int level = 0; level < fps.length; level++) {
+            check(governor.getLevel() == level, "level " + level + " after " + level + " evaluations");
+            check(governor.getTargetFps() == fps[level] && governor.getInputStride() == stride[level],
+                    "level " + level + ": " + governor.getTargetFps() + " fps, stride " + governor.getInputStride());
+            for (int i = 0; i < EVAL_PERIOD - 1; i++) governor.record(200_000_000L, 0);
+            check(governor.getLevel() == level, "no decision before the evaluation");
+            governor.record(200_000_000L, 0);
+        }
+        check(governor.getLevel() == fps.length - 1 && governor.getLevelChanges() == fps.length - 1, "at the bottom");
+        check(governor.getP50Nanos() == 200_000_000L && governor.getP95Nanos() == 200_000_000L, "percentiles");
+        check(governor.getThermalStepDowns() == 0, "none of it thermal");
+    }
+
+    // Fast enough, but the camera delivers frames inference can't take: more than a quarter dropped steps down,
+    // a few dropped only keeps it from stepping back up
+    private static void stepsDownOnDroppedFrames() {
+        final FrameGovernor governor = new FrameGovernor(SLO_NANOS);
+        for (int i = 0; i < EVAL_PERIOD; i++) governor.record(20_000_000L, 1);
+        check(governor.getLevel() == 1, "half the frames dropped: step down");
+        for (int n = 0; n < 20; n++) {
+            for (int i = 0; i < EVAL_PERIOD; i++) governor.record(20_000_000L, i % 5 == 0 ? 1 : 0);
+        }
+        check(governor.getLevel() == 1, "3 of 18 dropped: held");
+        for (int n = 0; n < 3; n++) {
+            for (int i = 0; i < EVAL_PERIOD; i++) governor.record(20_000_000L, 0);
+        }
+        check(governor.getLevel() == 0, "nothing dropped for 3 evaluations: back up");
+    }
+
+    // Levels 0-2 over the SLO, level 3 between UPGRADE_RATIO * SLO and the SLO: it goes to 3 and stays there
+    private static void settlesInsideTheHysteresisBand() {
+        final FrameGovernor governor = new FrameGovernor(SLO_NANOS);
+        final Device device = new Device(new long[] {180, 140, 110, 80, 50, 40, 30, 20}, 8, new Random(19));
+        device.run(governor, 3 * EVAL_PERIOD);
+        check(governor.getLevel() == 3, "level 3 after 3 evaluations: " + governor.getLevel());
+        device.run(governor, 3000);
+        check(governor.getLevel() == 3 && governor.getLevelChanges() == 3, "held for 100 s: "
+                + governor.getLevelChanges() + " changes");
+        check(governor.getP95Nanos() > SLO_NANOS * 6 / 10 && governor.getP95Nanos() <= SLO_NANOS, "p95 in the band");
+    }
+
+    // Level 2 over the SLO, level 3 well under: every step up to 2 fails, and the wait before the next attempt
+    // goes 3, 6, 8, 8 evaluations (doubling, capped)
+    private static void failedStepUpsWaitLonger() {
+        final FrameGovernor governor = new FrameGovernor(SLO_NANOS);
+        final Device device = new Device(new long[] {200, 200, 200, 40, 40, 40, 40, 40}, 0, new Random(23));
+        final List<Integer> upgrades = new ArrayList<>();
+        for (int evaluation = 1; evaluation <= 40; evaluation++) {
+            final int before = governor.getLevel();
+            device.run(governor, EVAL_PERIOD);
+            if (governor.getLevel() < before) upgrades.add(evaluation);
+            if (evaluation > 3) check(governor.getLevel() == 2 || governor.getLevel() == 3, "between 2 and 3");
+        }
+        // Down to 3 by evaluation 3; each failed attempt costs one evaluation back at 2
+        check(upgrades.toString().equals("[6, 13, 22, 31, 40]"), "step ups at evaluations " + upgrades);
+    }
+
+    // A device fast enough at every level that runs hot: a step down every THERMAL_SETTLE_EVALUATIONS, no step
+    // up while warm, and back up once it has cooled
+    private static void thermalHeadroomStepsDownAndHolds() {
+        final FrameGovernor governor = new FrameGovernor(SLO_NANOS);
+        final Device device = new Device(new long[] {40, 35, 30, 25, 20, 15, 10, 5}, 0, new Random(29));
+        check(Float.isNaN(governor.getThermalHeadroom()), "no reading to start with");
+        device.run(governor, 10 * EVAL_PERIOD);
+        check(governor.getLevel() == 0, "no reading: latency alone decides");
+
+        governor.setThermalHeadroom(0.95f);
+        device.run(governor, EVAL_PERIOD);
+        check(governor.getLevel() == 1, "hot: step down at the next evaluation");
+        device.run(governor, 3 * EVAL_PERIOD);
+        check(governor.getLevel() == 1, "the temperature gets a few evaluations to respond");
+        device.run(governor, EVAL_PERIOD);
+        check(governor.getLevel() == 2, "still hot: step down again");
+        device.run(governor, 4 * EVAL_PERIOD);
+        check(governor.getLevel() == 3 && governor.getThermalStepDowns() == 3, "3 steps in 9 evaluations");
+
+        governor.setThermalHeadroom(0.8f);
+        device.run(governor, 30 * EVAL_PERIOD);
+        check(governor.getLevel() == 3, "warm: held although latency is far under the SLO");
+        governor.setThermalHeadroom(Float.NaN);
+        device.run(governor, 10 * EVAL_PERIOD);
+        check(governor.getLevel() == 3 && governor.getThermalHeadroom() == 0.8f, "NaN keeps the last reading");
+
+        governor.setThermalHeadroom(0.5f);
+        device.run(governor, 3 * EVAL_PERIOD);
+        check(governor.getLevel() == 2, "cooled down: step up after 3 good evaluations");
+        device.run(governor, 6 * EVAL_PERIOD);
+        check(governor.getLevel() == 0 && governor.getThermalStepDowns() == 3, "and back to full quality");
+    }
+
+    // 30 fps camera with +-2 ms of timestamp jitter through the frame-rate gate at every frame rate on the ladder
+    private static void admitFollowsTheTargetFps() {
+        final FrameGovernor governor = new FrameGovernor(SLO_NANOS);
+        final Random random = new Random(31);
+        final long period = 1_000_000_000L / 30;
+        long time = 0;
+        int frames = 0;
+        for (int level : new int[] {0, 1, 2, 3, 5, 7}) {
+            while (governor.getLevel() < level) governor.record(200_000_000L, 0);
+            int admitted = 0;
+            for (int frame = 0; frame < 90; frame++) { // 3 s
+                time += period;
+                if (governor.admit(time + (random.nextInt(4_000_001) - 2_000_000))) admitted++;
+            }
+            frames += 90;
+            check(Math.abs(admitted - 3 * governor.getTargetFps()) <= 1, "level " + level + ": " + admitted
+                    + " of 90 admitted, target " + governor.getTargetFps() + " fps");
+        }
+        check(governor.getFramesAdmitted() + governor.getFramesThrottled() == frames, "every frame counted");
+    }
+
+    // Simulated device: frame latency is a function of the governor's level, plus uniform jitter
+    private static final class Device {
+        private final long[] latencyMs;
+        private final int jitterMs;
+        private final Random random;
+
+        Device(long[] latencyMs, int jitterMs, Random random) {
+            this.latencyMs = latencyMs;
+            this.jitterMs = jitterMs;
+            this.random = random;
+        }
+
+        void run(FrameGovernor governor, int frames) {
+            for (int i = 0; i < frames; i++) {
+                final long jitter = jitterMs == 0 ? 0 : random.nextInt(2 * jitterMs + 1) - jitterMs;
+                governor.record((latencyMs[governor.getLevel()] + jitter) * 1_000_000L, 0);
+            }
+        }
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
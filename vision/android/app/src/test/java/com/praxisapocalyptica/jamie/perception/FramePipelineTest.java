@@ -0,0 +1,163 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...FramePipelineTest, non-zero exit on failure.
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Drives FramePipeline with a synthetic 30 fps camera (every plane byte and the pose carry the frame number)
+// and consumers slower than the camera.
+public class FramePipelineTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    public static void main(String[] args) throws Exception {
+        latestFrameWinsUnderSlowConsumer();
+        stopWaitsForTheWorkerBeforeReleasing();
+        stopWithoutWorkerRunsActionRightAway();
+        framesWithoutAPoseSaySo();
+        System.out.println("FramePipelineTest: OK");
+    }
+
+    private static void latestFrameWinsUnderSlowConsumer() throws Exception {
+        final AtomicLong lastSeen = new AtomicLong(-1);
+        final AtomicBoolean torn = new AtomicBoolean(false);
+        final AtomicBoolean outOfOrder = new AtomicBoolean(false);
+        FramePipeline pipeline = new FramePipeline(3, frame -> {
+            final long n = frame.timestampNs;
+            final byte expected = (byte) n;
+            if (frame.yPlane.get(0) != expected || frame.yPlane.get(frame.yPlane.limit() - 1) != expected
+                    || frame.uPlane.get(0) != expected || frame.translation[0] != n || frame.depth[0] != (short) n) {
+                torn.set(true);
+            }
+            if (n <= lastSeen.getAndSet(n)) outOfOrder.set(true);
+            sleep(50); // Inference at 20 fps against a 30 fps camera
+        });
+        pipeline.start();
+        final int frames = 90;
+        for (int n = 0; n < frames; n++) {
+            check(capture(pipeline, n), "frame " + n + " captured");
+            sleep(33);
+        }
+        Thread.sleep(200);
+        pipeline.stop();
+
+        check(!torn.get(), "the consumer never sees a frame half overwritten by a newer one");
+        check(!outOfOrder.get(), "frames reach the consumer in capture order");
+        check(lastSeen.get() == frames - 1, "the newest frame is always processed, last was " + lastSeen.get());
+        check(pipeline.getFramesCaptured() == frames, "every frame is counted as captured");
+        check(pipeline.getFramesSkipped() == 0, "three slots always leave one free to write");
+        check(pipeline.getFramesDropped() > 0, "a slower consumer drops frames");
+        check(pipeline.getFramesProcessed() + pipeline.getFramesDropped() == frames,
+                "every frame is processed or dropped: " + pipeline.getFramesProcessed() + " + " + pipeline.getFramesDropped());
+        check(pipeline.getMaxLatencyNanos() >= 50_000_000L, "latency covers the consumer's time");
+        check(pipeline.getAverageLatencyNanos() < 150_000_000L, "latest-wins keeps latency near one inference, got "
+                + pipeline.getAverageLatencyNanos() / 1_000_000 + " ms");
+    }
+
+    // A consumer stuck for longer than stop() waits: what the consumer uses (VisionProcessor's backend) may only
+    // be released once it has returned.
+    private static void stopWaitsForTheWorkerBeforeReleasing() throws Exception {
+        final CountDownLatch inside = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean consumerDone = new AtomicBoolean(false);
+        final AtomicBoolean releasedEarly = new AtomicBoolean(false);
+        final CountDownLatch stopped = new CountDownLatch(1);
+        FramePipeline pipeline = new FramePipeline(3, frame -> {
+            inside.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // stop() interrupts; a native inference wouldn't notice, so keep going like one
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                    // Give up
+                }
+            }
+            consumerDone.set(true);
+        });
+        pipeline.start();
+        capture(pipeline, 1);
+        check(inside.await(1, TimeUnit.SECONDS), "consumer started");
+
+        final long start = System.nanoTime();
+        pipeline.stop(() -> {
+            if (!consumerDone.get()) releasedEarly.set(true);
+            stopped.countDown();
+        });
+        check(System.nanoTime() - start < 2_000_000_000L, "stop() returns even though the consumer is stuck");
+        check(stopped.getCount() == 1, "the stop action waits for the stuck consumer");
+        check(!capture(pipeline, 2), "a stopped pipeline takes no frames");
+        release.countDown();
+        check(stopped.await(1, TimeUnit.SECONDS), "the stop action runs once the consumer returns");
+        check(!releasedEarly.get(), "the stop action never runs while the consumer is inside");
+    }
+
+    private static void stopWithoutWorkerRunsActionRightAway() {
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        new FramePipeline(3, frame -> { }).stop(() -> ran.set(true));
+        check(ran.get(), "nothing to wait for");
+    }
+
+    // VisionProcessor.processFrame(Frame, Pose) may have no pose for a frame; a slot that last held a posed frame
+    // must not hand its stale pose to the consumer as this frame's.
+    private static void framesWithoutAPoseSaySo() throws Exception {
+        final int frames = 12;
+        final CountDownLatch done = new CountDownLatch(frames);
+        final AtomicBoolean wrong = new AtomicBoolean(false);
+        FramePipeline pipeline = new FramePipeline(3, frame -> {
+            final int n = (int) frame.timestampNs;
+            final boolean posed = n % 3 != 2;
+            if (frame.hasPose != posed || (posed && frame.translation[0] != n)) wrong.set(true);
+            done.countDown();
+        });
+        pipeline.start();
+        for (int n = 0; n < frames; n++) {
+            check(capture(pipeline, n, n % 3 != 2), "frame " + n + " captured");
+            sleep(20); // Slower than the consumer: every frame is processed
+        }
+        check(done.await(2, TimeUnit.SECONDS), "every frame processed");
+        pipeline.stop();
+        check(!wrong.get(), "hasPose and the pose follow the frame, not the slot");
+    }
+
+    private static boolean capture(FramePipeline pipeline, int n) {
+        return capture(pipeline, n, true);
+    }
+
+    // Synthetic camera frame n: every Y/U/V byte is (byte) n, pose x = n (or no pose), depth = n, timestamp = n
+    private static boolean capture(FramePipeline pipeline, int n, boolean posed) {
+        ByteBuffer y = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        ByteBuffer u = ByteBuffer.allocateDirect(WIDTH * HEIGHT / 2 - 1);
+        ByteBuffer v = ByteBuffer.allocateDirect(WIDTH * HEIGHT / 2 - 1);
+        ByteBuffer depth = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 2).order(java.nio.ByteOrder.nativeOrder());
+        while (y.hasRemaining()) y.put((byte) n);
+        while (u.hasRemaining()) u.put((byte) n);
+        while (v.hasRemaining()) v.put((byte) n);
+        while (depth.hasRemaining()) depth.putShort((short) n);
+        y.flip();
+        u.flip();
+        v.flip();
+        depth.flip();
+        return pipeline.capture(y, u, v, WIDTH, 1, WIDTH, 2, WIDTH, HEIGHT,
+                posed ? new float[] {n, 0, 0} : null, posed ? new float[] {0, 0, 0, 1} : null, n, depth, WIDTH, HEIGHT,
+                WIDTH * 2);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,124 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM benchmark (no JMH on this tree's classpath): java ...KeyframeStoreBenchmark.
+// Relocalization cost against 50 and 200 keyframes of distinct places (TexturedScene), all resident or all but
+// the newest spilled to a temporary directory (read from the page cache here; a phone's flash is slower).
+// Queries are views of stored places moved by 20 px with noise. Prints median milliseconds for extract() (the
+// GL-thread part) and findBestMatch(), the match rate and heap bytes allocated per findBestMatch(). Then the
+// time add() (the GL thread) spends blocked on the store's lock over 40 adds while another thread matches back
+// to back, against a matcher holding the lock for a whole match (spill reads included), as findBestMatch() did
+// when it was synchronized. Blocked time rather than wall time, so that it doesn't depend on the core count.
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class KeyframeStoreBenchmark {
+
+    private static final int QUERIES = 60;
+    private static final int ADDS = 40;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        THREADS.setThreadContentionMonitoringEnabled(true);
+        System.out.println("keyframes  storage   extract ms  match ms  matched  bytes/match"
+                + "  add blocked ms (whole match locked / now)");
+        for (int keyframes : new int[] {50, 200}) {
+            run(keyframes, false);
+            run(keyframes, true);
+        }
+    }
+
+    private static ByteBuffer view(long seed, int dx, int dy, int noise, Random random) {
+        return new TexturedScene(seed).view(TexturedScene.WIDTH / 2 + dx, TexturedScene.HEIGHT / 2 + dy, 10, noise,
+                random);
+    }
+
+    private static void add(KeyframeStore store, ByteBuffer view, int place) {
+        store.add(place, new float[] {place, 0, 0}, new float[] {0, 0, 0, 1}, view, TexturedScene.WIDTH, 1,
+                TexturedScene.WIDTH, TexturedScene.HEIGHT);
+    }
+
+    private static void run(int keyframes, boolean spilled) throws Exception {
+        final File directory = Files.createTempDirectory("keyframes").toFile();
+        final KeyframeStore store = new KeyframeStore(spilled ? 40_000 : 1L << 30, keyframes);
+        if (spilled) store.setSpillDirectory(directory);
+        for (int i = 0; i < keyframes; i++) add(store, view(i, 0, 0, 0, null), i);
+
+        final Random random = new Random(keyframes);
+        final ByteBuffer[] views = new ByteBuffer[QUERIES];
+        for (int q = 0; q < QUERIES; q++) views[q] = view(random.nextInt(keyframes), 20, -20, 4, random);
+        final KeyframeStore.Query query = new KeyframeStore.Query();
+        final KeyframeStore.Match match = new KeyframeStore.Match();
+        final long[] extractNanos = new long[QUERIES], matchNanos = new long[QUERIES];
+        final AllocationMeter meter = new AllocationMeter();
+        long allocated = 0;
+        int matched = 0;
+        for (int pass = 0; pass < 2; pass++) { // The first pass warms up
+            matched = 0;
+            allocated = 0;
+            for (int q = 0; q < QUERIES; q++) {
+                long start = System.nanoTime();
+                store.extract(views[q], TexturedScene.WIDTH, 1, TexturedScene.WIDTH, TexturedScene.HEIGHT, query);
+                extractNanos[q] = System.nanoTime() - start;
+                meter.start();
+                start = System.nanoTime();
+                if (store.findBestMatch(query, match)) matched++;
+                matchNanos[q] = System.nanoTime() - start;
+                allocated += meter.stop();
+            }
+        }
+        Arrays.sort(extractNanos);
+        Arrays.sort(matchNanos);
+
+        // add() with a thread matching back to back (keyframes beyond the bound are dropped)
+        final ByteBuffer[] newViews = new ByteBuffer[ADDS];
+        for (int i = 0; i < ADDS; i++) newViews[i] = view(10_000 + i, 0, 0, 0, null);
+        final long wholeMatchLocked = blockedAdding(store, newViews, keyframes, views[0], true);
+        final long now = blockedAdding(store, newViews, keyframes + ADDS, views[0], false);
+        store.clear();
+        directory.delete();
+
+        System.out.printf("%9d  %-8s  %10.2f  %8.2f  %4d/%-3d  %11d  %15.1f / %.1f%n", keyframes,
+                spilled ? "spilled" : "resident", extractNanos[QUERIES / 2] / 1e6, matchNanos[QUERIES / 2] / 1e6,
+                matched, QUERIES, allocated / QUERIES, wholeMatchLocked / 1e6, now / 1e6);
+    }
+
+    // Nanoseconds this thread spent blocked on a lock while adding views, with a matcher running (millisecond
+    // resolution)
+    private static long blockedAdding(KeyframeStore store, ByteBuffer[] views, int firstPlace, ByteBuffer queryView,
+                                      boolean lockWholeMatch) throws InterruptedException {
+        final AtomicBoolean done = new AtomicBoolean();
+        final Thread matcher = new Thread(() -> {
+            final KeyframeStore.Query q = new KeyframeStore.Query();
+            final KeyframeStore.Match m = new KeyframeStore.Match();
+            queryView.rewind();
+            store.extract(queryView, TexturedScene.WIDTH, 1, TexturedScene.WIDTH, TexturedScene.HEIGHT, q);
+            while (!done.get()) {
+                if (lockWholeMatch) {
+                    synchronized (store) {
+                        store.findBestMatch(q, m);
+                    }
+                } else {
+                    store.findBestMatch(q, m);
+                }
+            }
+        });
+        matcher.start();
+        final long id = Thread.currentThread().getId();
+        final long before = THREADS.getThreadInfo(id).getBlockedTime();
+        for (int i = 0; i < views.length; i++) {
+            views[i].rewind();
+            add(store, views[i], firstPlace + i);
+        }
+        final long blocked = THREADS.getThreadInfo(id).getBlockedTime() - before;
+        done.set(true);
+        matcher.join();
+        return blocked * 1_000_000L;
+    }
+}
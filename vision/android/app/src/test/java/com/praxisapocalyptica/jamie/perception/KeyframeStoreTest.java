@@ -0,0 +1,167 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...KeyframeStoreTest, non-zero exit on failure.
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Keyframe matching on TexturedScene views: one keyframe per place, queried from a window moved by tens of
+// pixels with a brightness change and noise, as the camera would be after a tracking loss. Covers spilled
+// keyframes, spill files an earlier run left behind, and matching on another thread while keyframes are added.
+public class KeyframeStoreTest {
+
+    private static final int PLACES = 8;
+    private static final long RESIDENT_KEYFRAME_BYTES = 40_000; // A little over one keyframe's features
+
+    public static void main(String[] args) throws Exception {
+        final File directory = Files.createTempDirectory("keyframes").toFile();
+        try {
+            matchesThePlaceTheCameraIsIn();
+            spilledKeyframesStillMatch(new File(directory, "spilled"));
+            filesOfEarlierRunsAreDeleted(new File(directory, "restart"));
+            matchesWhileKeyframesAreAdded(new File(directory, "concurrent"));
+        } finally {
+            deleteRecursively(directory);
+        }
+        System.out.println("KeyframeStoreTest: OK");
+    }
+
+    private static void add(KeyframeStore store, TexturedScene scene, int place) {
+        final float[] translation = {place, 0, 0};
+        final float[] rotation = {0, 0, 0, 1};
+        final ByteBuffer view = scene.view(TexturedScene.WIDTH / 2, TexturedScene.HEIGHT / 2, 0, 0, null);
+        check(store.add(place * 1_000_000L, translation, rotation, view, TexturedScene.WIDTH, 1,
+                TexturedScene.WIDTH, TexturedScene.HEIGHT) != null, "place " + place + " has texture");
+    }
+
+    // Best match for the view of scene moved by (dx, dy) pixels from where its keyframe was taken
+    private static boolean match(KeyframeStore store, TexturedScene scene, int dx, int dy, Random random,
+                                 KeyframeStore.Query query, KeyframeStore.Match match) {
+        final ByteBuffer view = scene.view(TexturedScene.WIDTH / 2 + dx, TexturedScene.HEIGHT / 2 + dy, 15, 4,
+                random);
+        store.extract(view, TexturedScene.WIDTH, 1, TexturedScene.WIDTH, TexturedScene.HEIGHT, query);
+        return store.findBestMatch(query, match);
+    }
+
+    private static TexturedScene[] places() {
+        final TexturedScene[] scenes = new TexturedScene[PLACES];
+        for (int i = 0; i < PLACES; i++) scenes[i] = new TexturedScene(100 + i);
+        return scenes;
+    }
+
+    private static void matchesThePlaceTheCameraIsIn() {
+        final TexturedScene[] scenes = places();
+        final KeyframeStore store = new KeyframeStore(64L << 20, 100);
+        for (int i = 0; i < PLACES; i++) add(store, scenes[i], i);
+        final Random random = new Random(1);
+        final KeyframeStore.Query query = new KeyframeStore.Query();
+        final KeyframeStore.Match match = new KeyframeStore.Match();
+        for (int i = 0; i < PLACES; i++) {
+            check(match(store, scenes[i], 22, -14, random, query, match), "place " + i + " matched, "
+                    + query.getFeatureCount() + " features");
+            check(match.keyframeId == i + 1 && match.pose[0] == i, "place " + i + ", got keyframe " + match.keyframeId);
+            check(match.matches >= 15 && match.similarity > 0.3f, "matches " + match.matches + ", similarity "
+                    + match.similarity);
+        }
+        check(!match(store, new TexturedScene(999), 0, 0, random, query, match), "a place never seen: no match");
+    }
+
+    private static void spilledKeyframesStillMatch(File directory) {
+        final TexturedScene[] scenes = places();
+        final KeyframeStore store = new KeyframeStore(RESIDENT_KEYFRAME_BYTES, 100);
+        store.setSpillDirectory(directory);
+        for (int i = 0; i < PLACES; i++) add(store, scenes[i], i);
+        check(store.getKeyframesSpilled() == PLACES - 1 && store.getResidentBytes() <= RESIDENT_KEYFRAME_BYTES,
+                "all but the newest spilled: " + store.getKeyframesSpilled());
+        check(spillFiles(directory).length == PLACES - 1, "one file each");
+        final Random random = new Random(2);
+        final KeyframeStore.Query query = new KeyframeStore.Query();
+        final KeyframeStore.Match match = new KeyframeStore.Match();
+        for (int i = 0; i < PLACES; i++) {
+            check(match(store, scenes[i], -18, 10, random, query, match) && match.keyframeId == i + 1,
+                    "place " + i + " (spilled: " + (i < PLACES - 1) + ")");
+        }
+        check(store.getSpillReadFailures() == 0, "spill files read back");
+        store.clear();
+        check(spillFiles(directory).length == 0, "clear() deletes the files");
+    }
+
+    // The app was killed with keyframes spilled: the next run's store starts at id 1 again in the same directory
+    private static void filesOfEarlierRunsAreDeleted(File directory) throws IOException {
+        final TexturedScene[] scenes = places();
+        final KeyframeStore earlier = new KeyframeStore(RESIDENT_KEYFRAME_BYTES, 100);
+        earlier.setSpillDirectory(directory);
+        for (int i = 0; i < PLACES; i++) add(earlier, scenes[i], i);
+        final File other = new File(directory, "notes.txt");
+        check(other.createNewFile(), "unrelated file created");
+
+        final KeyframeStore store = new KeyframeStore(RESIDENT_KEYFRAME_BYTES, 100);
+        store.setSpillDirectory(directory);
+        check(store.getStaleSpillFilesDeleted() == PLACES - 1 && spillFiles(directory).length == 0,
+                "earlier run's files deleted: " + store.getStaleSpillFilesDeleted());
+        check(other.exists(), "other files left alone");
+        // Same ids, other places: each must match its own keyframe, not a file of the earlier run
+        for (int i = 0; i < PLACES; i++) add(store, scenes[PLACES - 1 - i], i);
+        final KeyframeStore.Query query = new KeyframeStore.Query();
+        final KeyframeStore.Match match = new KeyframeStore.Match();
+        check(match(store, scenes[PLACES - 1], 10, 10, new Random(3), query, match) && match.keyframeId == 1,
+                "keyframe 1 of this run: " + match.keyframeId);
+        check(store.getSpillReadFailures() == 0, "no stale or foreign file read");
+        store.clear();
+    }
+
+    // A matcher thread keeps querying while the GL thread adds keyframes past maxKeyframes, dropping (and
+    // deleting the files of) keyframes the matcher may have picked as candidates
+    private static void matchesWhileKeyframesAreAdded(File directory) throws Exception {
+        final TexturedScene[] scenes = places();
+        final KeyframeStore store = new KeyframeStore(RESIDENT_KEYFRAME_BYTES, 6);
+        store.setSpillDirectory(directory);
+        for (int i = 0; i < PLACES; i++) add(store, scenes[i], i);
+        final TexturedScene target = scenes[PLACES - 1]; // Re-added every round, so at times not in the store
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final long[] matched = new long[1];
+        final Thread matcher = new Thread(() -> {
+            final Random random = new Random(4);
+            final KeyframeStore.Query query = new KeyframeStore.Query();
+            final KeyframeStore.Match match = new KeyframeStore.Match();
+            try {
+                for (int n = 0; n < 40; n++) {
+                    if (match(store, target, 12, 6, random, query, match)) {
+                        matched[0]++;
+                        if (match.pose[0] % PLACES != PLACES - 1) failure.set("matched place " + match.pose[0]);
+                    }
+                }
+            } catch (RuntimeException e) {
+                failure.set(e.toString());
+            }
+        });
+        matcher.start();
+        for (int round = 1; round <= 5; round++) {
+            for (int i = 0; i < PLACES; i++) add(store, scenes[i], round * PLACES + i);
+        }
+        matcher.join();
+        check(failure.get() == null, "matcher: " + failure.get());
+        check(matched[0] > 0, "the target matched");
+        check(store.getKeyframeCount() == 6 && spillFiles(directory).length <= 5, "bounds held");
+        store.clear();
+    }
+
+    private static File[] spillFiles(File directory) {
+        final File[] files = directory.listFiles((dir, name) -> name.startsWith("keyframe-"));
+        return files != null ? files : new File[0];
+    }
+
+    private static void deleteRecursively(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) for (File child : children) deleteRecursively(child);
+        file.delete();
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
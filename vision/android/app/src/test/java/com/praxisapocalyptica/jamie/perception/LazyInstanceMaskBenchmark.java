@@ -0,0 +1,106 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM benchmark (no JMH on this tree's classpath): java ...LazyInstanceMaskBenchmark.
+// Mask decoding per frame for 1 to 50 detections over synthetic 32 x 160 x 160 prototypes (a 640 x 480 camera
+// frame letterboxed into a 640 x 640 input), boxes of 40 to 240 px. Eager is the usual YOLOv8-seg decode: the
+// coefficient / prototype product and sigmoid over the whole prototype image for every detection, upsampled to
+// the camera frame and thresholded. Lazy is LazyInstanceMask as the pipeline uses it: only constructed (nobody
+// asks for the mask), resolved (the ROI product, what depth lifting and tracking need) and packed into a
+// BinaryMask (what the wire needs). Prints median / p95 microseconds per frame and heap bytes allocated per frame.
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class LazyInstanceMaskBenchmark {
+
+    private static final int COEFFICIENTS = 32;
+    private static final int PROTO = 160;
+    private static final int INPUT = 640;
+    private static final int CAMERA_WIDTH = 640;
+    private static final int CAMERA_HEIGHT = 480;
+    private static final float PAD_Y = (INPUT - CAMERA_HEIGHT) / 2f;
+    private static final int WARMUP = 40;
+    private static final int TIMED = 100;
+
+    public static void main(String[] args) {
+        final Random random = new Random(1);
+        final FloatBuffer buffer = LazyInstanceMaskTest.prototypes(random);
+        final LazyInstanceMask.Prototypes prototypes = new LazyInstanceMask.Prototypes(buffer, PROTO, PROTO,
+                COEFFICIENTS, true, INPUT, INPUT, 1f, 0f, PAD_Y, null);
+        System.out.println("detections  decode              us/frame (median / p95)  bytes/frame");
+        for (int detections : new int[] {1, 5, 20, 50}) {
+            final float[][] boxes = new float[detections][];
+            final float[][] coefficients = new float[detections][];
+            for (int d = 0; d < detections; d++) {
+                final float w = 40 + random.nextInt(200), h = 40 + random.nextInt(200);
+                final float left = random.nextFloat() * (CAMERA_WIDTH - w);
+                final float top = random.nextFloat() * (CAMERA_HEIGHT - h);
+                boxes[d] = new float[] {left, top, left + w, top + h};
+                coefficients[d] = LazyInstanceMaskTest.coefficients(random);
+            }
+            for (String mode : new String[] {"eager", "lazy, unused", "lazy, resolved", "lazy, BinaryMask"}) {
+                run(detections, mode, buffer, prototypes, boxes, coefficients);
+            }
+        }
+    }
+
+    private static void run(int detections, String mode, FloatBuffer buffer, LazyInstanceMask.Prototypes prototypes,
+                            float[][] boxes, float[][] coefficients) {
+        final long[] nanos = new long[TIMED];
+        final AllocationMeter meter = new AllocationMeter();
+        long sink = 0;
+        for (int i = 0; i < WARMUP + TIMED; i++) {
+            if (i == WARMUP) meter.start();
+            final long start = System.nanoTime();
+            for (int d = 0; d < detections; d++) {
+                if ("eager".equals(mode)) {
+                    sink += eager(buffer, coefficients[d])[CAMERA_WIDTH * CAMERA_HEIGHT / 2];
+                    continue;
+                }
+                final float[] box = boxes[d];
+                final LazyInstanceMask mask = new LazyInstanceMask(prototypes, coefficients[d], box[0], box[1],
+                        box[2], box[3]);
+                if ("lazy, resolved".equals(mode)) {
+                    mask.resolve();
+                } else if ("lazy, BinaryMask".equals(mode)) {
+                    sink += mask.toBinaryMask(0.5f).getWidth();
+                }
+                sink += mask.getRoiWidth();
+            }
+            if (i >= WARMUP) nanos[i - WARMUP] = System.nanoTime() - start;
+        }
+        final long allocated = meter.stop();
+        if (sink == 42) System.out.print(""); // Keeps the work from being dropped
+        Arrays.sort(nanos);
+        System.out.printf("%10d  %-16s  %16.1f / %.1f  %11d%n", detections, mode, nanos[TIMED / 2] / 1e3,
+                nanos[TIMED * 95 / 100] / 1e3, allocated / TIMED);
+    }
+
+    // Whole-image mask of one detection: product and sigmoid at prototype resolution, bilinear to camera pixels
+    private static byte[] eager(FloatBuffer buffer, float[] coefficients) {
+        final float[] probabilities = new float[PROTO * PROTO];
+        for (int p = 0; p < probabilities.length; p++) {
+            float acc = 0f;
+            final int base = p * COEFFICIENTS;
+            for (int c = 0; c < COEFFICIENTS; c++) acc += coefficients[c] * buffer.get(base + c);
+            probabilities[p] = (float) (1.0 / (1.0 + Math.exp(-acc)));
+        }
+        final byte[] mask = new byte[CAMERA_WIDTH * CAMERA_HEIGHT];
+        final float toProto = PROTO / (float) INPUT;
+        for (int y = 0; y < CAMERA_HEIGHT; y++) {
+            final float py = Math.max(0, Math.min(PROTO - 1, (y + 0.5f + PAD_Y) * toProto - 0.5f));
+            final int iy = (int) py, iy1 = Math.min(iy + 1, PROTO - 1);
+            final float fy = py - iy;
+            for (int x = 0; x < CAMERA_WIDTH; x++) {
+                final float px = Math.max(0, Math.min(PROTO - 1, (x + 0.5f) * toProto - 0.5f));
+                final int ix = (int) px, ix1 = Math.min(ix + 1, PROTO - 1);
+                final float fx = px - ix;
+                final float upper = probabilities[iy * PROTO + ix] * (1 - fx) + probabilities[iy * PROTO + ix1] * fx;
+                final float lower = probabilities[iy1 * PROTO + ix] * (1 - fx) + probabilities[iy1 * PROTO + ix1] * fx;
+                mask[y * CAMERA_WIDTH + x] = upper * (1 - fy) + lower * fy > 0.5f ? (byte) 1 : (byte) 0;
+            }
+        }
+        return mask;
+    }
+}
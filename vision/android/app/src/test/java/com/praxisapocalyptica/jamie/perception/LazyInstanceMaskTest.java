@@ -0,0 +1,171 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...LazyInstanceMaskTest, non-zero exit on failure.
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// The ROI product against the whole-mask product it stands in for, in both prototype layouts, and resolving
+// masks on another thread while the worker recycles their slot: every resolve must either fail or see one
+// frame's prototypes from start to end.
+public class LazyInstanceMaskTest {
+
+    private static final int COEFFICIENTS = 32;
+    private static final int PROTO = 160;
+    private static final int INPUT = 640;
+
+    public static void main(String[] args) throws Exception {
+        roiLogitsMatchTheFullProduct(true);
+        roiLogitsMatchTheFullProduct(false);
+        recycledPrototypesAreRejected();
+        pinnedSlotIsNotHandedOut();
+        resolvesNeverMixTwoFrames();
+        System.out.println("LazyInstanceMaskTest: OK");
+    }
+
+    // 32 x 160 x 160 random prototypes (i.i.d., so the same buffer serves either layout)
+    static FloatBuffer prototypes(Random random) {
+        final FloatBuffer buffer = FloatBuffer.allocate(COEFFICIENTS * PROTO * PROTO);
+        while (buffer.hasRemaining()) buffer.put((float) random.nextGaussian());
+        buffer.rewind();
+        return buffer;
+    }
+
+    static float[] coefficients(Random random) {
+        final float[] coefficients = new float[COEFFICIENTS];
+        for (int c = 0; c < COEFFICIENTS; c++) coefficients[c] = (float) random.nextGaussian() * 0.3f;
+        return coefficients;
+    }
+
+    // coefficients . prototypes at prototype pixel (x, y), as the eager decode computes it for the whole mask
+    static float fullLogit(FloatBuffer buffer, boolean channelsLast, float[] coefficients, int x, int y) {
+        float acc = 0f;
+        for (int c = 0; c < COEFFICIENTS; c++) {
+            final int index = channelsLast ? (y * PROTO + x) * COEFFICIENTS + c : (c * PROTO + y) * PROTO + x;
+            acc += coefficients[c] * buffer.get(index);
+        }
+        return acc;
+    }
+
+    private static void roiLogitsMatchTheFullProduct(boolean channelsLast) {
+        final Random random = new Random(channelsLast ? 1 : 2);
+        final FloatBuffer buffer = prototypes(random);
+        // A 640 x 480 camera frame letterboxed into 640 x 640: scale 1, 80 px bars above and below
+        final LazyInstanceMask.Prototypes prototypes = new LazyInstanceMask.Prototypes(buffer, PROTO, PROTO,
+                COEFFICIENTS, channelsLast, INPUT, INPUT, 1f, 0f, 80f, null);
+        final float[] coefficients = coefficients(random);
+        final LazyInstanceMask mask = new LazyInstanceMask(prototypes, coefficients, 101.5f, 37f, 260f, 199.2f);
+        check(!mask.isResolved(), "nothing evaluated on construction");
+        // Camera x 101.5 -> proto 25.375, y 37 -> (37 + 80) / 4 = 29.25; right 260 -> 65, bottom 199.2 -> 69.8
+        check(mask.getRoiLeft() == 25 && mask.getRoiTop() == 29 && mask.getRoiWidth() == 40
+                && mask.getRoiHeight() == 41, "ROI " + mask.getRoiLeft() + "," + mask.getRoiTop() + " "
+                + mask.getRoiWidth() + "x" + mask.getRoiHeight());
+        final float[] logits = mask.getRoiLogits();
+        check(mask.isResolved() && logits.length == 40 * 41, "resolved by the accessor");
+        for (int y = 0; y < mask.getRoiHeight(); y++) {
+            for (int x = 0; x < mask.getRoiWidth(); x++) {
+                final float expected = fullLogit(buffer, channelsLast, coefficients, mask.getRoiLeft() + x,
+                        mask.getRoiTop() + y);
+                check(Math.abs(logits[y * 40 + x] - expected) < 1e-4f, "logit at " + x + "," + y);
+            }
+        }
+        // At a prototype pixel centre the probability is the sigmoid of that pixel's logit; outside the box 0
+        final float camX = (40 + 0.5f) * 4, camY = (50 + 0.5f) * 4 - 80; // Proto pixel (40, 50)
+        final double expected = 1 / (1 + Math.exp(-fullLogit(buffer, channelsLast, coefficients, 40, 50)));
+        check(Math.abs(mask.probabilityAt(camX, camY) - expected) < 1e-5, "probability at a pixel centre");
+        check(mask.probabilityAt(100f, 100f) == 0f && !mask.isInside(300f, 100f, 0f), "outside the box");
+    }
+
+    private static void recycledPrototypesAreRejected() {
+        final TensorPool pool = new TensorPool(new int[][] {{1, PROTO, PROTO, COEFFICIENTS}},
+                new int[] {PROTO * PROTO * COEFFICIENTS * 4}, 1, 1);
+        TensorPool.Slot slot = pool.acquire();
+        final LazyInstanceMask mask = mask(slot);
+        pool.release(slot);
+        check(pool.acquire() == slot, "slot reused");
+        try {
+            mask.resolve();
+            throw new AssertionError("resolved against another frame's prototypes");
+        } catch (IllegalStateException expected) {
+            // Rejected
+        }
+    }
+
+    private static void pinnedSlotIsNotHandedOut() {
+        final TensorPool pool = new TensorPool(new int[][] {{1, 4}}, new int[] {16}, 1, 1);
+        final TensorPool.Slot slot = pool.acquire();
+        final long generation = slot.getGeneration();
+        pool.release(slot);
+        check(slot.pin(generation), "pinned while it holds that generation");
+        check(pool.acquire() == null && pool.getExhaustedCount() == 1, "not acquired while pinned");
+        slot.unpin();
+        check(pool.acquire() == slot && !slot.pin(generation), "acquired once unpinned; old generation refused");
+    }
+
+    // A mask over the whole prototype image with coefficient 1 on channel 0 only
+    private static LazyInstanceMask mask(TensorPool.Slot slot) {
+        final LazyInstanceMask.Prototypes prototypes = new LazyInstanceMask.Prototypes(slot.outputFloats[0], PROTO,
+                PROTO, COEFFICIENTS, true, INPUT, INPUT, 1f, 0f, 0f, slot);
+        final float[] coefficients = new float[COEFFICIENTS];
+        coefficients[0] = 1f;
+        return new LazyInstanceMask(prototypes, coefficients, 0, 0, INPUT, INPUT);
+    }
+
+    // The worker infers frame n into the only slot (every prototype value n), hands the mask to a consumer
+    // thread and releases the slot at once, as a listener that queues detections for later would let it. The
+    // consumer resolves late; each resolve must fail or give logits that all equal the mask's frame number.
+    private static void resolvesNeverMixTwoFrames() throws Exception {
+        final TensorPool pool = new TensorPool(new int[][] {{1, PROTO, PROTO, COEFFICIENTS}},
+                new int[] {PROTO * PROTO * COEFFICIENTS * 4}, 1, 1);
+        final BlockingQueue<Object[]> queue = new ArrayBlockingQueue<>(4);
+        final int frames = 400;
+        final String[] failure = new String[1];
+        final int[] resolved = new int[1];
+        final Thread consumer = new Thread(() -> {
+            try {
+                for (int n = 0; n < frames; n++) {
+                    final Object[] item = queue.poll(10, TimeUnit.SECONDS);
+                    if (item == null) break;
+                    final LazyInstanceMask mask = (LazyInstanceMask) item[0];
+                    final float frame = (Float) item[1];
+                    try {
+                        boolean whole = true;
+                        for (float logit : mask.getRoiLogits()) {
+                            if (logit != frame) {
+                                failure[0] = "frame " + frame + " mask has a logit of " + logit;
+                                whole = false;
+                                break; // Keep draining, so the worker doesn't block on a full queue
+                            }
+                        }
+                        if (whole) resolved[0]++;
+                    } catch (IllegalStateException recycled) {
+                        // Too late: fine, as long as it is reported
+                    }
+                }
+            } catch (InterruptedException e) {
+                failure[0] = e.toString();
+            }
+        });
+        consumer.start();
+        for (int n = 1; n <= frames; n++) {
+            TensorPool.Slot slot;
+            while ((slot = pool.acquire()) == null) Thread.yield(); // Pinned: the worker would drop the frame
+            final FloatBuffer outputs = slot.outputFloats[0];
+            for (int i = 0; i < outputs.capacity(); i++) outputs.put(i, n); // "Inference"
+            final LazyInstanceMask mask = mask(slot);
+            queue.put(new Object[] {mask, (float) n});
+            pool.release(slot);
+            if (n % 8 == 0) Thread.sleep(1); // Now and then let the consumer catch up, so some resolves succeed
+        }
+        consumer.join();
+        check(failure[0] == null, failure[0]);
+        check(resolved[0] > 0, "some masks resolved in time");
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,171 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...ObjectTrackerTest, non-zero exit on failure.
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Association over synthetic sequences: objects moving at constant velocity with box noise, weak (occluded)
+// frames, misses and overlapping objects of different classes, at 30 fps.
+public class ObjectTrackerTest {
+
+    private static final long FRAME_NS = 33_333_333L;
+
+    public static void main(String[] args) {
+        tentativeUntilMinHits();
+        idsPersistAndBoxesAreSmoothed();
+        weakDetectionsKeepTheTrack();
+        overlappingClassesStayApart();
+        lostTracksCoastThenDie();
+        polygonFollowsTheSmoothedBox();
+        System.out.println("ObjectTrackerTest: OK");
+    }
+
+    private static DetectedObject detection(String cls, float confidence, float cx, float cy, float w, float h) {
+        DetectedObject obj = new DetectedObject();
+        obj.objectClass = cls;
+        obj.confidence = confidence;
+        obj.boundingBoxLeft = cx - w / 2;
+        obj.boundingBoxTop = cy - h / 2;
+        obj.boundingBoxRight = cx + w / 2;
+        obj.boundingBoxBottom = cy + h / 2;
+        return obj;
+    }
+
+    private static List<DetectedObject> frame(DetectedObject... objects) {
+        List<DetectedObject> list = new ArrayList<>();
+        for (DetectedObject obj : objects) list.add(obj);
+        return list;
+    }
+
+    private static void tentativeUntilMinHits() {
+        ObjectTracker tracker = new ObjectTracker(16);
+        for (int n = 0; n < 3; n++) {
+            DetectedObject cup = detection("cup", 0.9f, 100 + n, 100, 40, 40);
+            check(tracker.update(frame(cup), n * FRAME_NS) == (n < 2 ? 0 : 1), "confirmed count at frame " + n);
+            check((cup.trackId >= 0) == (n == 2), "id stamped only once confirmed, frame " + n);
+            if (n == 2) check(cup.trackAge == 2, "age counts frames since birth, got " + cup.trackAge);
+        }
+    }
+
+    // Three objects crossing the image with 2 px noise: one id each for the whole sequence, and the
+    // stamped boxes closer to the truth than the measurements
+    private static void idsPersistAndBoxesAreSmoothed() {
+        ObjectTracker tracker = new ObjectTracker(16);
+        Random random = new Random(17);
+        final float[][] objects = { // cx, cy, vx, vy (px per frame), w, h
+                {100, 100, 3, 1, 60, 80}, {400, 300, -2, 0.5f, 80, 60}, {300, 100, 0, 2, 50, 50}};
+        final int[] ids = {-1, -1, -1};
+        double rawError = 0, smoothedError = 0;
+        int measured = 0;
+        for (int n = 0; n < 120; n++) {
+            List<DetectedObject> detections = new ArrayList<>();
+            for (float[] o : objects) {
+                detections.add(detection("box", 0.9f, o[0] + o[2] * n + (float) random.nextGaussian() * 2,
+                        o[1] + o[3] * n + (float) random.nextGaussian() * 2, o[4], o[5]));
+            }
+            final float[] rawLeft = new float[3];
+            for (int i = 0; i < 3; i++) rawLeft[i] = detections.get(i).boundingBoxLeft;
+            tracker.update(detections, n * FRAME_NS);
+            for (int i = 0; i < 3; i++) {
+                final DetectedObject obj = detections.get(i);
+                if (n < 2) continue;
+                check(obj.trackId >= 0, "object " + i + " tracked at frame " + n);
+                if (ids[i] < 0) ids[i] = obj.trackId;
+                check(obj.trackId == ids[i], "object " + i + " keeps its id at frame " + n);
+                if (n >= 20) {
+                    final float truth = objects[i][0] + objects[i][2] * n - objects[i][4] / 2;
+                    rawError += Math.abs(rawLeft[i] - truth);
+                    smoothedError += Math.abs(obj.boundingBoxLeft - truth);
+                    measured++;
+                }
+            }
+        }
+        check(ids[0] != ids[1] && ids[1] != ids[2] && ids[0] != ids[2], "distinct ids");
+        check(tracker.getTracksCreated() == 3, "no re-births, created " + tracker.getTracksCreated());
+        check(smoothedError < rawError * 0.8, "smoothed box error " + smoothedError / measured
+                + " px vs raw " + rawError / measured + " px");
+    }
+
+    // Partly occluded for a few frames (confidence below the high threshold): the second round keeps the id
+    private static void weakDetectionsKeepTheTrack() {
+        ObjectTracker tracker = new ObjectTracker(16);
+        int id = -1;
+        for (int n = 0; n < 20; n++) {
+            final float confidence = n >= 8 && n < 14 ? 0.3f : 0.9f;
+            DetectedObject chair = detection("chair", confidence, 200 + 2 * n, 150, 80, 120);
+            tracker.update(frame(chair), n * FRAME_NS);
+            if (n == 2) id = chair.trackId;
+            if (n >= 2) check(chair.trackId == id, "same id through the weak frames, frame " + n);
+        }
+        check(tracker.getTracksCreated() == 1, "one track");
+
+        // A weak detection never starts a track on its own
+        ObjectTracker fresh = new ObjectTracker(16);
+        fresh.update(frame(detection("chair", 0.3f, 200, 150, 80, 120)), 0);
+        check(fresh.getTrackCount() == 0, "no track from a weak detection");
+    }
+
+    private static void overlappingClassesStayApart() {
+        ObjectTracker tracker = new ObjectTracker(16);
+        for (int n = 0; n < 10; n++) {
+            DetectedObject person = detection("person", 0.9f, 200, 200, 100, 200);
+            DetectedObject bag = detection("bag", 0.8f, 205, 205, 90, 190); // IoU ~0.85 with the person
+            List<DetectedObject> detections = n % 2 == 0 ? frame(person, bag) : frame(bag, person);
+            tracker.update(detections, n * FRAME_NS);
+            if (n >= 2) check(person.trackId >= 0 && bag.trackId >= 0 && person.trackId != bag.trackId, "two tracks");
+        }
+        check(tracker.getTracksCreated() == 2, "class-aware association");
+    }
+
+    private static void lostTracksCoastThenDie() {
+        ObjectTracker tracker = new ObjectTracker(16, 16, 0.5f, 0.1f, 0.3f, 3, 5);
+        int id = -1;
+        for (int n = 0; n < 3; n++) {
+            DetectedObject ball = detection("ball", 0.9f, 100 + 5 * n, 100, 30, 30);
+            tracker.update(frame(ball), n * FRAME_NS);
+            id = ball.trackId;
+        }
+        for (int n = 3; n < 8; n++) tracker.update(frame(), n * FRAME_NS);
+        check(tracker.getTrackCount() == 1 && tracker.getTrackMisses(0) == 5, "coasting for maxMisses frames");
+        final float[] box = new float[4];
+        tracker.getTrackBox(0, box);
+        check(box[0] > 105 && box[0] < 130, "coasting on the predicted motion (last seen at 95), left at " + box[0]);
+        DetectedObject back = detection("ball", 0.9f, 100 + 5 * 8, 100, 30, 30);
+        tracker.update(frame(back), 8 * FRAME_NS);
+        check(back.trackId == id, "picked up again within maxMisses");
+
+        for (int n = 9; n < 15; n++) tracker.update(frame(), n * FRAME_NS);
+        check(tracker.getTrackCount() == 0 && tracker.getTracksDeleted() == 1, "deleted after maxMisses");
+    }
+
+    // The tracker moves the box; a polygon traced from the mask (laid out in the measured box) follows it
+    private static void polygonFollowsTheSmoothedBox() {
+        LazyInstanceMask.Prototypes prototypes = new LazyInstanceMask.Prototypes(FloatBuffer.allocate(16 * 16),
+                16, 16, 1, true, 64, 64, 1f, 0f, 0f, null);
+        DetectedObject obj = detection("cup", 0.9f, 30, 20, 40, 20); // Measured box 10, 10 .. 50, 30
+        obj.mask = new LazyInstanceMask(prototypes, new float[] {1f}, 10, 10, 50, 30);
+        obj.boundingBoxLeft = 12;  // As if stamp() had smoothed it
+        obj.boundingBoxTop = 11;
+        obj.boundingBoxRight = 56;
+        obj.boundingBoxBottom = 33;
+        obj.polygon = new float[] {10, 10, 50, 10, 50, 30, 30, 20};
+        ObjectTracker.alignPolygonToBox(obj);
+        final float[] expected = {12, 11, 56, 11, 56, 33, 34, 22};
+        for (int i = 0; i < expected.length; i++) {
+            check(Math.abs(obj.polygon[i] - expected[i]) < 1e-4f, "vertex coordinate " + i + ": " + obj.polygon[i]);
+        }
+
+        DetectedObject untracked = detection("cup", 0.9f, 30, 20, 40, 20);
+        untracked.mask = obj.mask;
+        untracked.polygon = new float[] {10, 10, 50, 30};
+        ObjectTracker.alignPolygonToBox(untracked);
+        check(untracked.polygon[0] == 10 && untracked.polygon[3] == 30, "unchanged when the box wasn't moved");
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
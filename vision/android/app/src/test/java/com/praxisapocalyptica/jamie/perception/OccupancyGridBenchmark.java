@@ -0,0 +1,167 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM benchmark (no JMH on this tree's classpath): java ...OccupancyGridBenchmark.
+// integrate() on 160 x 120 depth images (640 x 480 camera, f = 500 px, 20 degrees below level, 1.3 m up) ray-cast
+// from two synthetic scenes: a 6 x 6 m room with a box and a table top overhang, the camera circling the middle
+// and turning 45 degrees a second for 10 s, and a 2 x 30 m corridor walked end to end at 1 m/s (29 s). 30 fps,
+// 5 cm cells, obstacle band 5 cm .. 1 m, 4 m range, dirty tiles drained every 6 frames (5 Hz) in batches of 8
+// (BrainWifiCommunicator's message size). Prints median / p95 milliseconds per integrate() at pixel strides 1,
+// 2 (SlamManager's default) and 4, median microseconds per drainDirty(), and memory: tiles, getTileBytes(), heap
+// allocated by integrate() over the run (tiles plus hash and scratch growth), that per square metre of mapped
+// floor (cells not unknown) and per square metre the tiles cover, and bytes allocated per frame over the second
+// half of the run, once the map has stopped growing in the room.
+
+import java.util.Arrays;
+
+public class OccupancyGridBenchmark {
+
+    private static final int DEPTH_WIDTH = 160, DEPTH_HEIGHT = 120;
+    private static final float F = 500, CX = 320, CY = 240;
+    private static final int FRAMES_PER_DRAIN = 6;
+    private static final float RESOLUTION = 0.05f;
+    private static final float PITCH = (float) Math.toRadians(-20);
+
+    public static void main(String[] args) {
+        final Scene room = new Scene(6, 2.5f, 6, new float[][] {
+                {3.8f, 0, 3.8f, 4.4f, 0.5f, 4.4f},         // Box on the floor
+                {1.0f, 0.70f, 1.0f, 2.2f, 0.75f, 1.8f}});  // Table top: the robot passes under it
+        final Scene corridor = new Scene(2, 2.5f, 30, new float[0][]);
+        for (int i = 0; i < 3; i++) run(room, true, 2, 300, false); // Warm-up
+        System.out.println("scene     stride  ms/frame (median / p95)  us/drain  tiles  tile KB  allocated KB"
+                + "  B/m2 mapped  B/m2 tiled  B/frame");
+        for (int stride : new int[] {1, 2, 4}) run(room, true, stride, 300, true);
+        for (int stride : new int[] {1, 2, 4}) run(corridor, false, stride, 870, true);
+    }
+
+    private static void run(Scene scene, boolean circling, int stride, int frames, boolean print) {
+        final OccupancyGrid grid = new OccupancyGrid(RESOLUTION);
+        grid.setIntrinsics(F, F, CX, CY, 640, 480);
+        grid.setHeightBand(0f, 0.05f, 1.0f);
+        grid.setSampling(4f, stride);
+        final OccupancyGrid.TileBatch batch = new OccupancyGrid.TileBatch(8);
+        final short[] depth = new short[DEPTH_WIDTH * DEPTH_HEIGHT];
+        final float[] translation = new float[3], rotation = new float[4];
+        final long[] integrateNanos = new long[frames];
+        final long[] drainNanos = new long[frames * 64];
+        int drains = 0;
+        final AllocationMeter meter = new AllocationMeter();
+        long allocated = 0, allocatedLate = 0;
+        for (int n = 0; n < frames; n++) {
+            final float seconds = n / 30f;
+            final float yaw;
+            if (circling) {
+                final float around = seconds * 0.3f; // 0.3 m/s on a 1 m circle
+                translation[0] = 3 + (float) Math.cos(around);
+                translation[2] = 3 + (float) Math.sin(around);
+                yaw = (float) Math.toRadians(45) * seconds;
+            } else {
+                translation[0] = 1;
+                translation[2] = scene.depth - 0.5f - seconds; // 1 m/s down -z, the way it looks
+                yaw = (float) Math.toRadians(10) * (float) Math.sin(seconds); // Looking around a little
+            }
+            translation[1] = 1.3f;
+            orientation(yaw, PITCH, rotation);
+            scene.render(translation, rotation, depth);
+
+            meter.start();
+            long start = System.nanoTime();
+            grid.integrate(depth, DEPTH_WIDTH, DEPTH_HEIGHT, translation, rotation);
+            integrateNanos[n] = System.nanoTime() - start;
+            final long bytes = meter.stop();
+            allocated += bytes;
+            if (n >= frames / 2) allocatedLate += bytes;
+            if (n % FRAMES_PER_DRAIN != FRAMES_PER_DRAIN - 1) continue;
+            while (grid.getDirtyTileCount() > 0 && drains < drainNanos.length) {
+                start = System.nanoTime();
+                grid.drainDirty(batch);
+                drainNanos[drains++] = System.nanoTime() - start;
+            }
+        }
+        if (!print) return;
+
+        // Mapped floor: cells that are no longer unknown, over the scene's extent
+        long mapped = 0;
+        for (float x = RESOLUTION / 2; x < scene.width; x += RESOLUTION) {
+            for (float z = RESOLUTION / 2; z < scene.depth; z += RESOLUTION) {
+                if (grid.getLogOdds(x, z) != 0) mapped++;
+            }
+        }
+        final double mappedM2 = mapped * RESOLUTION * RESOLUTION;
+        final double tileM2 = grid.getTileCount() * Math.pow(OccupancyGrid.TILE_SIZE * RESOLUTION, 2);
+        Arrays.sort(integrateNanos);
+        Arrays.sort(drainNanos, 0, drains);
+        System.out.printf("%-8s  %6d  %12.2f / %-8.2f  %8.1f  %5d  %7d  %12d  %11.0f  %10.0f  %9.0f%n",
+                circling ? "room" : "corridor", stride, integrateNanos[frames / 2] / 1e6,
+                integrateNanos[frames * 95 / 100] / 1e6, drains == 0 ? 0 : drainNanos[drains / 2] / 1e3,
+                grid.getTileCount(), grid.getTileBytes() / 1024, allocated / 1024, allocated / mappedM2,
+                allocated / tileM2, allocatedLate / (double) (frames - frames / 2));
+    }
+
+    // Yaw about world y, then pitch about the camera's x (camera.getPose() axes: looking down -z)
+    private static void orientation(float yaw, float pitch, float[] q) {
+        final float sy = (float) Math.sin(yaw / 2), cy = (float) Math.cos(yaw / 2);
+        final float sx = (float) Math.sin(pitch / 2), cx = (float) Math.cos(pitch / 2);
+        q[0] = cy * sx;
+        q[1] = sy * cx;
+        q[2] = -sy * sx;
+        q[3] = cy * cx;
+    }
+
+    // Inside of a box room (floor at y = 0) with axis-aligned boxes in it, rendered as DEPTH16 by ray casting
+    private static final class Scene {
+        final float width, height, depth;
+        final float[][] boxes; // min x, y, z, max x, y, z
+
+        Scene(float width, float height, float depth, float[][] boxes) {
+            this.width = width;
+            this.height = height;
+            this.depth = depth;
+            this.boxes = boxes;
+        }
+
+        void render(float[] translation, float[] q, short[] depthMm) {
+            final float qx = q[0], qy = q[1], qz = q[2], qw = q[3];
+            final float[] o = translation;
+            final float[] d = new float[3];
+            final float[] high = {width, height, depth};
+            for (int v = 0; v < DEPTH_HEIGHT; v++) {
+                for (int u = 0; u < DEPTH_WIDTH; u++) {
+                    // Ray with camera z = -1, so the ray parameter is the depth
+                    final float px = ((u + 0.5f) * 4 - CX) / F, py = -((v + 0.5f) * 4 - CY) / F, pz = -1;
+                    d[0] = (1 - 2 * (qy * qy + qz * qz)) * px + 2 * (qx * qy - qz * qw) * py + 2 * (qx * qz + qy * qw) * pz;
+                    d[1] = 2 * (qx * qy + qz * qw) * px + (1 - 2 * (qx * qx + qz * qz)) * py + 2 * (qy * qz - qx * qw) * pz;
+                    d[2] = 2 * (qx * qz - qy * qw) * px + 2 * (qy * qz + qx * qw) * py + (1 - 2 * (qx * qx + qy * qy)) * pz;
+                    // Leaving the room through a wall, the floor or the ceiling
+                    float t = Float.MAX_VALUE;
+                    for (int a = 0; a < 3; a++) {
+                        if (d[a] > 1e-6f) t = Math.min(t, (high[a] - o[a]) / d[a]);
+                        else if (d[a] < -1e-6f) t = Math.min(t, -o[a] / d[a]);
+                    }
+                    for (float[] box : boxes) t = Math.min(t, enter(box, o, d));
+                    depthMm[v * DEPTH_WIDTH + u] = (short) Math.min(65535, Math.round(t * 1000));
+                }
+            }
+        }
+
+        // Ray parameter where the ray enters box, or Float.MAX_VALUE (slab method)
+        private static float enter(float[] box, float[] o, float[] d) {
+            float near = 0, far = Float.MAX_VALUE;
+            for (int a = 0; a < 3; a++) {
+                if (Math.abs(d[a]) < 1e-6f) {
+                    if (o[a] < box[a] || o[a] > box[a + 3]) return Float.MAX_VALUE;
+                    continue;
+                }
+                float t0 = (box[a] - o[a]) / d[a], t1 = (box[a + 3] - o[a]) / d[a];
+                if (t0 > t1) {
+                    final float swap = t0;
+                    t0 = t1;
+                    t1 = swap;
+                }
+                near = Math.max(near, t0);
+                far = Math.min(far, t1);
+                if (near > far) return Float.MAX_VALUE;
+            }
+            return near;
+        }
+    }
+}
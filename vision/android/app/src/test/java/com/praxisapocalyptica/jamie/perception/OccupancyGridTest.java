@@ -0,0 +1,98 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...OccupancyGridTest, non-zero exit on failure.
+
+import java.util.Arrays;
+
+// Ray casting into 5 cm cells from a level camera 1 m above the floor, looking down -z (640 x 480, f = 500 px)
+// at a 32 x 24 depth image: a wall at 2 m (lower half of the image inside the obstacle band, upper half
+// above it), or no depth at all. Runs past 256 integrate() calls, where a per-call stamp of one byte wrapped.
+public class OccupancyGridTest {
+
+    private static final int DEPTH_WIDTH = 32;
+    private static final int DEPTH_HEIGHT = 24;
+    private static final float[] LEVEL = {0, 0, 0, 1};
+    private static final int HIT = 14; // One hit, in log-odds units
+
+    public static void main(String[] args) {
+        wallIsAnObstacleAndTheWayToItFree();
+        cellsUpdateEvery256Calls();
+        freshTilesUpdateOnCall256();
+        updatesStayOncePerCall();
+        System.out.println("OccupancyGridTest: OK");
+    }
+
+    private static OccupancyGrid grid() {
+        final OccupancyGrid grid = new OccupancyGrid(0.05f);
+        grid.setIntrinsics(500, 500, 320, 240, 640, 480);
+        grid.setHeightBand(-1f, 0.05f, 1.0f);
+        grid.setSampling(4f, 1);
+        return grid;
+    }
+
+    private static short[] wall(int millimetres) {
+        final short[] depth = new short[DEPTH_WIDTH * DEPTH_HEIGHT];
+        Arrays.fill(depth, (short) millimetres);
+        return depth;
+    }
+
+    private static void integrate(OccupancyGrid grid, short[] depth, float cameraX) {
+        grid.integrate(depth, DEPTH_WIDTH, DEPTH_HEIGHT, new float[] {cameraX, 0, 0}, LEVEL);
+    }
+
+    private static void wallIsAnObstacleAndTheWayToItFree() {
+        final OccupancyGrid grid = grid();
+        integrate(grid, wall(2000), 0);
+        check(grid.getLogOdds(0.01f, -1.99f) == HIT, "wall cell hit once: " + grid.getLogOdds(0.01f, -1.99f));
+        check(grid.getLogOdds(0.01f, -1.0f) < 0, "between camera and wall free");
+        check(grid.getLogOdds(0.01f, -2.5f) == 0, "behind the wall unknown");
+    }
+
+    // A cell updated on call 1 and next on call 257 gets both updates
+    private static void cellsUpdateEvery256Calls() {
+        final OccupancyGrid grid = grid();
+        final short[] nothing = new short[DEPTH_WIDTH * DEPTH_HEIGHT];
+        integrate(grid, wall(2000), 0);
+        for (int call = 2; call <= 256; call++) integrate(grid, nothing, 0);
+        integrate(grid, wall(2000), 0);
+        check(grid.getLogOdds(0.01f, -1.99f) == 2 * HIT, "two hits 256 calls apart: " + grid.getLogOdds(0.01f, -1.99f));
+        // And over many more calls the wall keeps counting until the clamp
+        for (int call = 0; call < 600; call++) integrate(grid, wall(2000), 0);
+        check(grid.getLogOdds(0.01f, -1.99f) == 56, "clamped: " + grid.getLogOdds(0.01f, -1.99f));
+    }
+
+    // Tiles allocated during call 256 (and 512, ...) start with stamp 0
+    private static void freshTilesUpdateOnCall256() {
+        final OccupancyGrid grid = grid();
+        final short[] nothing = new short[DEPTH_WIDTH * DEPTH_HEIGHT];
+        for (int call = 1; call < 256; call++) integrate(grid, nothing, 0);
+        check(grid.getTileCount() == 0, "nothing seen yet");
+        integrate(grid, wall(2000), 0);
+        check(grid.getLogOdds(0.01f, -1.99f) == HIT, "wall seen on call 256: " + grid.getLogOdds(0.01f, -1.99f));
+        check(grid.getLogOdds(0.01f, -1.0f) < 0, "free space seen on call 256");
+        // The camera walks 22 m along x, one new stretch of wall per call, well past 512 calls
+        long unseen = 0;
+        for (int call = 257; call <= 700; call++) {
+            final float x = (call - 256) * 0.05f;
+            integrate(grid, wall(2000), x);
+            if (grid.getLogOdds(x + 0.01f, -1.99f) <= 0) unseen++;
+        }
+        check(unseen == 0, "every call marks the wall in front of the camera, missed " + unseen);
+    }
+
+    private static void updatesStayOncePerCall() {
+        final OccupancyGrid grid = grid();
+        // Dozens of rays cross the cells next to the camera on every call: still one miss per call
+        for (int call = 0; call < 300; call++) {
+            integrate(grid, wall(2000), 0);
+            final int expected = Math.max(-56, -6 * (call + 1));
+            if (grid.getLogOdds(0.01f, -0.3f) != expected) {
+                check(false, "call " + call + ": " + grid.getLogOdds(0.01f, -0.3f) + ", expected " + expected);
+            }
+        }
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
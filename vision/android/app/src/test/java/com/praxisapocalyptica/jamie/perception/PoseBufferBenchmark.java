@@ -0,0 +1,80 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM benchmark (no JMH on this tree's classpath): java ...PoseBufferBenchmark.
+// getPose() on SlamManager's history (256 poses, 30 fps, rotating 90 degrees a second so SLERP is taken) for
+// times spread over the history, times past the newest pose and times it no longer holds. Runs with the
+// writer idle and with a writer thread adding flat out (thousands of times the GL thread's rate), which is
+// what makes readers retry. Prints median / p95 nanoseconds per query over batches of 1000, retries per
+// 1000 queries and heap bytes allocated per query.
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class PoseBufferBenchmark {
+
+    private static final long FRAME_NS = 33_333_333L;
+    private static final int CAPACITY = 256;
+    private static final int BATCH = 1000;
+    private static final int WARMUP_BATCHES = 500;
+    private static final int TIMED_BATCHES = 2000;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("writer  query    ns/query (median / p95)  retries/1000  bytes/query");
+        for (boolean busy : new boolean[] {false, true}) {
+            for (String query : new String[] {"inside", "newest", "gone"}) run(busy, query);
+        }
+    }
+
+    private static void add(PoseBuffer buffer, long frame) {
+        final double half = frame * (Math.PI / 2 / 30) / 2;
+        buffer.add(frame * FRAME_NS, frame * 0.01f, 0, frame * -0.02f,
+                0, (float) Math.sin(half), 0, (float) Math.cos(half));
+    }
+
+    private static void run(boolean busy, String query) throws Exception {
+        final PoseBuffer buffer = new PoseBuffer(CAPACITY, 200_000_000L);
+        for (long frame = 0; frame < CAPACITY; frame++) add(buffer, frame);
+        final AtomicBoolean done = new AtomicBoolean();
+        final Thread writer = new Thread(() -> {
+            long frame = CAPACITY;
+            while (!done.get()) add(buffer, frame++);
+        });
+        if (busy) writer.start();
+
+        final Random random = new Random(1);
+        final long[] times = new long[BATCH]; // Precomputed offsets from the newest pose, so the loop is all queries
+        for (int i = 0; i < BATCH; i++) {
+            final double back = "inside".equals(query) ? random.nextDouble() * (CAPACITY - 2)
+                    : "newest".equals(query) ? -random.nextDouble() * 3 : CAPACITY + 10 + random.nextDouble() * 100;
+            times[i] = (long) (back * FRAME_NS);
+        }
+        final float[] pose = new float[7];
+        final long[] nanos = new long[TIMED_BATCHES];
+        final AllocationMeter meter = new AllocationMeter();
+        long retries = 0, found = 0;
+        for (int b = 0; b < WARMUP_BATCHES + TIMED_BATCHES; b++) {
+            if (b == WARMUP_BATCHES) {
+                meter.start();
+                retries = buffer.getQueryRetries();
+                found = 0;
+            }
+            final long newest = (buffer.getWrittenCount() - 1) * FRAME_NS;
+            final long start = System.nanoTime();
+            for (int i = 0; i < BATCH; i++) {
+                if (buffer.getPose(newest - times[i], pose)) found++;
+            }
+            if (b >= WARMUP_BATCHES) nanos[b - WARMUP_BATCHES] = System.nanoTime() - start;
+        }
+        final long allocated = meter.stop();
+        retries = buffer.getQueryRetries() - retries;
+        done.set(true);
+        if (busy) writer.join();
+        final long queries = (long) TIMED_BATCHES * BATCH;
+        if (!"gone".equals(query) && found < queries / 2) throw new AssertionError(query + ": found " + found);
+        Arrays.sort(nanos);
+        System.out.printf("%-6s  %-6s  %14.1f / %.1f  %12.2f  %11.2f%n", busy ? "busy" : "idle", query,
+                nanos[TIMED_BATCHES / 2] / (double) BATCH, nanos[TIMED_BATCHES * 95 / 100] / (double) BATCH,
+                retries * 1000.0 / queries, allocated / (double) queries);
+    }
+}
@@ -0,0 +1,138 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...PoseBufferTest, non-zero exit on failure.
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Interpolation, gaps and the one-writer / many-readers protocol. Poses are derived from their timestamp
+// (translation x = t in ms, y = -x, z = 2x, a rotation about z by ANGLE_PER_MS per ms), so any pose a reader
+// gets can be checked against the time it asked for: a pose torn between two writes can't pass.
+public class PoseBufferTest {
+
+    private static final long MS = 1_000_000L;
+    private static final double ANGLE_PER_MS = 0.001;
+
+    public static void main(String[] args) throws Exception {
+        interpolatesBetweenSamples();
+        gapsAndEndsAreNotInterpolated();
+        repeatedTimestampsAreIgnored();
+        frameClockRunsOnFromTheNewestPose();
+        readersNeverSeeATornPose();
+        System.out.println("PoseBufferTest: OK");
+    }
+
+    private static void add(PoseBuffer buffer, long ms) {
+        final double half = ms * ANGLE_PER_MS / 2;
+        buffer.add(ms * MS, ms, -ms, 2 * ms, 0, 0, (float) Math.sin(half), (float) Math.cos(half));
+    }
+
+    // Null if pose is the one of time t, otherwise what is wrong with it
+    private static String mismatch(float[] pose, long t) {
+        final double ms = t / (double) MS;
+        final double tolerance = Math.max(1e-4, ms * 1e-6); // Float rounding of x
+        if (Math.abs(pose[0] - ms) > tolerance) return "x " + pose[0] + " at " + ms + " ms";
+        if (pose[1] != -pose[0] || pose[2] != 2 * pose[0]) { // Exact: the writer's y and z are exactly -x and 2x
+            return "translation " + pose[0] + ", " + pose[1] + ", " + pose[2];
+        }
+        if (pose[3] != 0 || pose[4] != 0) return "rotation off the z axis";
+        final double angle = 2 * Math.atan2(pose[5], pose[6]), expected = ms * ANGLE_PER_MS;
+        final double error = Math.abs(Math.IEEEremainder(angle - expected, 2 * Math.PI));
+        return error > 1e-3 ? "angle " + angle + ", expected " + expected : null;
+    }
+
+    private static void interpolatesBetweenSamples() {
+        final PoseBuffer buffer = new PoseBuffer(16, 100 * MS);
+        final float[] pose = new float[7];
+        add(buffer, 1000);
+        add(buffer, 1040);
+        check(buffer.getPose(1040 * MS, pose) && mismatch(pose, 1040 * MS) == null, "exact sample");
+        check(buffer.getPose(1013 * MS, pose) && mismatch(pose, 1013 * MS) == null, "between samples");
+        // A quarter turn between two samples takes the SLERP branch
+        final PoseBuffer turning = new PoseBuffer(16, 100 * MS);
+        turning.add(0, 0, 0, 0, 0, 0, 0, 1);
+        turning.add(10 * MS, 0, 0, 0, 0, 0, (float) Math.sin(Math.PI / 4), (float) Math.cos(Math.PI / 4));
+        check(turning.getPose(5 * MS, pose), "halfway found");
+        check(Math.abs(2 * Math.atan2(pose[5], pose[6]) - Math.PI / 4) < 1e-5, "halfway through a quarter turn");
+    }
+
+    private static void gapsAndEndsAreNotInterpolated() {
+        final PoseBuffer buffer = new PoseBuffer(4, 100 * MS);
+        final float[] pose = new float[7];
+        check(!buffer.getPose(0, pose) && buffer.getLatest(pose) == -1, "empty");
+        add(buffer, 1000);
+        add(buffer, 1300); // Tracking lost for 300 ms
+        check(!buffer.getPose(1150 * MS, pose), "not across a gap");
+        check(buffer.getPose(1350 * MS, pose) && mismatch(pose, 1300 * MS) == null, "slightly newer: the newest pose");
+        check(!buffer.getPose(1401 * MS, pose), "too new");
+        for (long ms = 1310; ms <= 1340; ms += 10) add(buffer, ms); // Capacity 4: 1000 and 1300 are gone
+        check(!buffer.getPose(1305 * MS, pose), "older than the history");
+        check(buffer.getPose(1315 * MS, pose) && mismatch(pose, 1315 * MS) == null, "inside the history");
+    }
+
+    private static void repeatedTimestampsAreIgnored() {
+        final PoseBuffer buffer = new PoseBuffer(4, 100 * MS);
+        final float[] pose = new float[7];
+        add(buffer, 1000);
+        check(!buffer.add(1000 * MS, 9, 9, 9, 0, 0, 0, 1) && !buffer.add(999 * MS, 9, 9, 9, 0, 0, 0, 1), "rejected");
+        check(buffer.getWrittenCount() == 1 && buffer.getLatest(pose) == 1000 * MS && pose[0] == 1000, "first kept");
+    }
+
+    private static void frameClockRunsOnFromTheNewestPose() throws Exception {
+        final PoseBuffer buffer = new PoseBuffer(4, 100 * MS);
+        check(buffer.getFrameClockNanos() == -1, "no clock before the first pose");
+        final long before = System.nanoTime();
+        add(buffer, 5000);
+        Thread.sleep(20);
+        final long now = buffer.getFrameClockNanos();
+        final long elapsed = System.nanoTime() - before;
+        check(now >= 5020 * MS && now <= 5000 * MS + elapsed, "frame clock " + (now - 5000 * MS) / MS + " ms on");
+    }
+
+    // One writer adding as fast as it can into a 16-slot ring (every slot overwritten every 16 adds, far more
+    // often than the GL thread would), readers asking for times across the ring and at its ends
+    private static void readersNeverSeeATornPose() throws Exception {
+        final PoseBuffer buffer = new PoseBuffer(16, 10 * MS);
+        final int readers = 3;
+        final long adds = 2_000_000;
+        final AtomicBoolean done = new AtomicBoolean();
+        final String[] failures = new String[readers];
+        final long[] found = new long[readers];
+        final Thread[] threads = new Thread[readers];
+        add(buffer, 1);
+        for (int r = 0; r < readers; r++) {
+            final int reader = r;
+            threads[r] = new Thread(() -> {
+                final Random random = new Random(reader);
+                final float[] pose = new float[7];
+                while (!done.get() && failures[reader] == null) {
+                    final long latest = buffer.getLatest(pose);
+                    if (latest >= 0 && mismatch(pose, latest) != null) {
+                        failures[reader] = "getLatest: " + mismatch(pose, latest);
+                    }
+                    // Anywhere from 20 ms back (older than the ring) to 2 ms ahead of the newest pose
+                    final long t = Math.max(0, latest - 20 * MS + (long) (random.nextDouble() * 22 * MS));
+                    if (buffer.getPose(t, pose)) {
+                        found[reader]++;
+                        // Past the newest pose seen above, the answer may be whichever pose was newest by then
+                        final long at = t <= latest ? t : Math.min(t, (long) ((double) pose[0] * MS));
+                        if (mismatch(pose, at) != null) failures[reader] = "getPose: " + mismatch(pose, at);
+                    }
+                }
+            });
+            threads[r].start();
+        }
+        for (long ms = 2; ms <= adds; ms++) add(buffer, ms);
+        done.set(true);
+        for (Thread thread : threads) thread.join();
+        for (int r = 0; r < readers; r++) {
+            check(failures[r] == null, "reader " + r + ": " + failures[r]);
+            check(found[r] > 1000, "reader " + r + " found only " + found[r] + " poses");
+        }
+        check(buffer.getWrittenCount() == adds, "every pose added");
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
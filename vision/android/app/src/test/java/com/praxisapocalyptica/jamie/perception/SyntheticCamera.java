@@ -0,0 +1,66 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Pinhole camera for the plain-JVM tests and benchmarks: ARCore conventions (+x right, +y up, looking down -z,
+// quaternions x, y, z, w, camera-to-world), pixels with v growing downwards.
+final class SyntheticCamera {
+
+    final float fx, fy, cx, cy;
+    final int width, height;
+
+    SyntheticCamera(float focal, int width, int height) {
+        this.fx = focal;
+        this.fy = focal;
+        this.cx = width / 2f;
+        this.cy = height / 2f;
+        this.width = width;
+        this.height = height;
+    }
+
+    void applyTo(DetectionScheduler scheduler) {
+        scheduler.setIntrinsics(fx, fy, cx, cy, width, height);
+    }
+
+    // Rotation by angle (rad) about the world y axis (yaw; positive turns the camera to the left)
+    static float[] yaw(float angle) {
+        return new float[] {0, (float) Math.sin(angle / 2), 0, (float) Math.cos(angle / 2)};
+    }
+
+    // World point into pixel coordinates (out[0], out[1]) for a camera at translation / rotation.
+    // False if the point is behind the camera.
+    boolean project(float x, float y, float z, float[] translation, float[] rotation, float[] out) {
+        final float qx = rotation[0], qy = rotation[1], qz = rotation[2], qw = rotation[3];
+        final float dx = x - translation[0], dy = y - translation[1], dz = z - translation[2];
+        // Into camera coordinates: transpose of the camera-to-world rotation matrix applied to the offset
+        final float m0 = 1 - 2 * (qy * qy + qz * qz), m1 = 2 * (qx * qy - qz * qw), m2 = 2 * (qx * qz + qy * qw);
+        final float m3 = 2 * (qx * qy + qz * qw), m4 = 1 - 2 * (qx * qx + qz * qz), m5 = 2 * (qy * qz - qx * qw);
+        final float m6 = 2 * (qx * qz - qy * qw), m7 = 2 * (qy * qz + qx * qw), m8 = 1 - 2 * (qx * qx + qy * qy);
+        final float px = m0 * dx + m3 * dy + m6 * dz;
+        final float py = m1 * dx + m4 * dy + m7 * dz;
+        final float pz = m2 * dx + m5 * dy + m8 * dz;
+        if (pz >= -1e-3f) return false;
+        out[0] = cx + fx * px / -pz;
+        out[1] = cy - fy * py / -pz;
+        return true;
+    }
+
+    // Box of a square of the given half size centred on (x, y, z), facing +z, as seen from the camera:
+    // written into obj's box fields. False if any corner is behind the camera or the box misses the image.
+    boolean box(float x, float y, float z, float halfSize, float[] translation, float[] rotation, DetectedObject obj) {
+        final float[] p = new float[2];
+        float left = Float.MAX_VALUE, top = Float.MAX_VALUE, right = -Float.MAX_VALUE, bottom = -Float.MAX_VALUE;
+        for (int corner = 0; corner < 4; corner++) {
+            final float wx = x + ((corner & 1) == 0 ? -halfSize : halfSize);
+            final float wy = y + ((corner & 2) == 0 ? halfSize : -halfSize);
+            if (!project(wx, wy, z, translation, rotation, p)) return false;
+            left = Math.min(left, p[0]);
+            right = Math.max(right, p[0]);
+            top = Math.min(top, p[1]);
+            bottom = Math.max(bottom, p[1]);
+        }
+        obj.boundingBoxLeft = left;
+        obj.boundingBoxTop = top;
+        obj.boundingBoxRight = right;
+        obj.boundingBoxBottom = bottom;
+        return right > 0 && bottom > 0 && left < width && top < height;
+    }
+}
@@ -0,0 +1,100 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...TensorPoolTest, non-zero exit on failure.
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+public class TensorPoolTest {
+
+    private static final int INPUT = 320;
+    private static final int CLASSES = 80;
+    private static final int COEFFICIENTS = 32;
+    private static final int ANCHORS = 2100;
+    private static final int CHANNELS = 4 + CLASSES + COEFFICIENTS;
+
+    public static void main(String[] args) {
+        exhaustedPoolReturnsNull();
+        steadyStateFrameDoesNotAllocate();
+        System.out.println("TensorPoolTest: OK");
+    }
+
+    private static void exhaustedPoolReturnsNull() {
+        TensorPool pool = new TensorPool(new int[][] {{1, CHANNELS, ANCHORS}}, new int[] {CHANNELS * ANCHORS * 4}, 1, 1);
+        TensorPool.Slot slot = pool.acquire();
+        check(slot != null, "first acquire gets the slot");
+        final long generation = slot.getGeneration();
+        slot.inputs[0] = ByteBuffer.allocate(1);
+        check(pool.acquire() == null, "second acquire finds no free slot");
+        check(pool.getExhaustedCount() == 1, "exhausted acquire is counted");
+        pool.release(slot);
+        check(slot.inputs[0] == null, "release drops the input reference");
+        TensorPool.Slot again = pool.acquire();
+        check(again == slot, "released slot is reused");
+        check(again.getGeneration() == generation + 1, "reuse bumps the generation (recycled prototypes detectable)");
+    }
+
+    // The per-frame tensor path: convert -> (inference writes the outputs) -> filter / NMS / rescale -> masks'
+    // coefficients -> release. After warm-up none of it may touch the heap.
+    private static void steadyStateFrameDoesNotAllocate() {
+        final int width = 640, height = 480;
+        ByteBuffer y = ByteBuffer.allocateDirect(width * height);
+        ByteBuffer u = ByteBuffer.allocateDirect(width * height / 2);
+        ByteBuffer v = ByteBuffer.allocateDirect(width * height / 2);
+        for (int i = 0; i < width * height; i++) y.put(i, (byte) (i * 7));
+        YuvToTensorConverter converter = new YuvToTensorConverter(INPUT, INPUT, YuvToTensorConverter.OutputType.FLOAT32);
+        TensorPool pool = new TensorPool(new int[][] {{1, CHANNELS, ANCHORS}}, new int[] {CHANNELS * ANCHORS * 4}, 1, 1);
+        YoloSegPostProcessor post = new YoloSegPostProcessor(CLASSES, COEFFICIENTS, ANCHORS, 0.25f, 0.45f, 100);
+        ByteBuffer modelOutput = syntheticDetections();
+        float[] coefficients = new float[COEFFICIENTS];
+
+        AllocationMeter meter = new AllocationMeter();
+        int kept = 0;
+        for (int round = 0; round < 2; round++) {
+            // Round 0 warms up (lazy tables, JIT); round 1 is measured
+            meter.start();
+            for (int frame = 0; frame < 200; frame++) {
+                TensorPool.Slot slot = pool.acquire();
+                slot.inputs[0] = converter.convert(y, u, v, width, 1, width, 2, width, height);
+                slot.outputs[0].clear();
+                modelOutput.rewind();
+                slot.outputs[0].put(modelOutput); // Stands in for the interpreter writing its outputs
+                FloatBuffer detections = slot.outputFloats[0];
+                detections.rewind();
+                kept = post.process(detections);
+                post.rescaleBoxes(converter.getOffsetX(), converter.getOffsetY(), converter.getScale(), width, height);
+                for (int i = 0; i < kept; i++) post.copyMaskCoefficients(detections, i, coefficients);
+                pool.release(slot);
+            }
+            final long bytes = meter.stop();
+            if (round == 1) {
+                check(kept == 40, "synthetic tensor keeps 40 detections, got " + kept);
+                check(bytes == 0, "steady-state frames allocated " + bytes + " bytes");
+            }
+        }
+    }
+
+    // 50 well separated boxes above threshold (10 of them duplicated for NMS to drop), background below it
+    private static ByteBuffer syntheticDetections() {
+        ByteBuffer bytes = ByteBuffer.allocateDirect(CHANNELS * ANCHORS * 4).order(ByteOrder.nativeOrder());
+        FloatBuffer t = bytes.asFloatBuffer();
+        for (int a = 0; a < ANCHORS; a++) {
+            for (int c = 0; c < CLASSES; c++) t.put((4 + c) * ANCHORS + a, 0.01f);
+        }
+        for (int k = 0; k < 50; k++) {
+            final int a = k * 37;
+            final int box = k % 40;
+            t.put(a, 20 + (box % 8) * 38);
+            t.put(ANCHORS + a, 20 + (box / 8) * 60);
+            t.put(2 * ANCHORS + a, 30);
+            t.put(3 * ANCHORS + a, 40);
+            t.put((4 + k % 5) * ANCHORS + a, 0.9f - k * 0.01f);
+        }
+        return bytes;
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
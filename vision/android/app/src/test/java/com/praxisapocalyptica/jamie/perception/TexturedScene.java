@@ -0,0 +1,47 @@
+package com/praxisapocalyptica/jamie.perception;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+// Synthetic camera views for the KeyframeStore tests and benchmark: a flat "wall" of random rectangles of
+// random grey (corners for FAST, texture for BRIEF), seen as 640 x 480 Y planes through a window that moves
+// across it, with a brightness change and pixel noise per view. Different seeds are different places.
+final class TexturedScene {
+
+    static final int WIDTH = 640;
+    static final int HEIGHT = 480;
+
+    final int worldWidth, worldHeight;
+    private final byte[] world;
+
+    TexturedScene(long seed) {
+        worldWidth = 2 * WIDTH;
+        worldHeight = 2 * HEIGHT;
+        world = new byte[worldWidth * worldHeight];
+        final Random random = new Random(seed);
+        Arrays.fill(world, (byte) (60 + random.nextInt(80)));
+        for (int r = 0; r < 900; r++) {
+            final int w = 12 + random.nextInt(60), h = 12 + random.nextInt(60);
+            final int x0 = random.nextInt(worldWidth - w), y0 = random.nextInt(worldHeight - h);
+            final byte grey = (byte) random.nextInt(256);
+            for (int y = y0; y < y0 + h; y++) {
+                for (int x = x0; x < x0 + w; x++) world[y * worldWidth + x] = grey;
+            }
+        }
+    }
+
+    // The window whose top left corner is (left, top), brightness added and +-noise uniform noise per pixel
+    ByteBuffer view(int left, int top, int brightness, int noise, Random random) {
+        final ByteBuffer plane = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int v = (world[(top + y) * worldWidth + left + x] & 0xFF) + brightness;
+                if (noise > 0) v += random.nextInt(2 * noise + 1) - noise;
+                plane.put((byte) Math.max(0, Math.min(255, v)));
+            }
+        }
+        plane.flip();
+        return plane;
+    }
+}
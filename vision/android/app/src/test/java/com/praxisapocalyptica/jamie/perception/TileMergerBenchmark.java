@@ -0,0 +1,119 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM benchmark (no JMH on this tree's classpath): java ...TileMergerBenchmark.
+// Tiling mode cost per frame against tiles per frame on a 1280 x 720 camera image, 3 x 2 grid with 20% overlap,
+// 640 x 640 float32 model input: the measured CPU side (YUV conversion of every pass, TilePlanner, TileMerger,
+// ObjectTracker) and the frame latency once each pass's inference is added at 15 and 40 ms. The "model" is a
+// static synthetic scene (see TiledScene), so it also prints how many of the small objects, which the
+// full-frame pass misses, each frame finds whole and were found within the last second, and how many merged
+// detections per frame are second copies of an object. (A small object cut by a tile edge stays a piece until the neighbouring tile runs too.)
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class TileMergerBenchmark {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int INPUT = 640;
+    private static final int WARMUP_FRAMES = 50;
+    private static final int TIMED_FRAMES = 200;
+    private static final long FRAME_NS = 33_333_333L;
+
+    public static void main(String[] args) {
+        System.out.println("tiles/frame  passes  CPU ms/frame (median / p95)  of which merge us  latency @15 / @40 ms"
+                + "  small found/frame  small found in 1 s  duplicates/frame");
+        for (int tiles : new int[] {0, 1, 2, 3, 6}) run(tiles);
+    }
+
+    private static void run(int tilesPerFrame) {
+        final ByteBuffer y = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        final ByteBuffer u = ByteBuffer.allocateDirect(WIDTH * HEIGHT / 2);
+        final ByteBuffer v = ByteBuffer.allocateDirect(WIDTH * HEIGHT / 2);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) y.put(i, (byte) (i * 7));
+        final YuvToTensorConverter converter = new YuvToTensorConverter(INPUT, INPUT, YuvToTensorConverter.OutputType.FLOAT32);
+        final TilePlanner planner = new TilePlanner(3, 2, 0.2f, tilesPerFrame);
+        final TileMerger merger = new TileMerger(100 * (1 + planner.getMaxTilesPerFrame()), 0.45f);
+        final ObjectTracker tracker = new ObjectTracker(ObjectTracker.DEFAULT_MAX_TRACKS);
+        final TiledScene scene = new TiledScene(WIDTH, HEIGHT, 8, 5, new Random(20)); // Same scene every run
+        final Random random = new Random(tilesPerFrame);
+        int small = 0;
+        for (float[] o : scene.objects) if (TiledScene.isSmall(o)) small++;
+        final boolean[] found = new boolean[scene.objects.length];
+
+        final long[] cpu = new long[TIMED_FRAMES];
+        long mergeNanos = 0;
+        long smallFound = 0, smallRecent = 0;
+        final int[] lastFound = new int[scene.objects.length];
+        Arrays.fill(lastFound, Integer.MIN_VALUE / 2);
+        long duplicates = 0;
+        for (int n = 0; n < WARMUP_FRAMES + TIMED_FRAMES; n++) {
+            final long start = System.nanoTime();
+            merger.reset(WIDTH, HEIGHT);
+            converter.clearSourceRegion();
+            converter.convert(y, u, v, WIDTH, 1, WIDTH, 2, WIDTH, HEIGHT);
+            scene.detect(0, 0, WIDTH, HEIGHT, random, merger);
+            final int tiles = planner.plan(WIDTH, HEIGHT, tracker);
+            for (int i = 0; i < tiles; i++) {
+                final int left = planner.getTileLeft(i), top = planner.getTileTop(i);
+                final int right = planner.getTileRight(i), bottom = planner.getTileBottom(i);
+                converter.setSourceRegion(left, top, right - left, bottom - top);
+                converter.convert(y, u, v, WIDTH, 1, WIDTH, 2, WIDTH, HEIGHT);
+                scene.detect(left, top, right, bottom, random, merger);
+            }
+            final long mergeStart = System.nanoTime();
+            final List<DetectedObject> merged = merger.merge();
+            final long mergeEnd = System.nanoTime();
+            // Accuracy of the merged boxes, before the tracker smooths them (not timed)
+            scene.countFound(merged, 0.01f, found);
+            final int copies = secondCopies(scene, merged);
+            final long trackStart = System.nanoTime();
+            tracker.update(merged, n * FRAME_NS);
+            final long end = System.nanoTime();
+            if (n < WARMUP_FRAMES) continue;
+            cpu[n - WARMUP_FRAMES] = (mergeEnd - start) + (end - trackStart);
+            mergeNanos += mergeEnd - mergeStart;
+            for (int i = 0; i < found.length; i++) {
+                if (!TiledScene.isSmall(scene.objects[i])) continue;
+                if (found[i]) {
+                    smallFound++;
+                    lastFound[i] = n;
+                }
+                if (n - lastFound[i] < 30) smallRecent++;
+            }
+            duplicates += copies;
+        }
+        Arrays.sort(cpu);
+        final double median = cpu[TIMED_FRAMES / 2] / 1e6;
+        final int passes = 1 + tilesPerFrame;
+        System.out.printf("%11d  %6d  %16.2f / %.2f  %16.1f  %9.0f / %.0f  %11.1f of %d  %18.1f  %16.2f%n", tilesPerFrame,
+                passes, median, cpu[TIMED_FRAMES * 95 / 100] / 1e6, mergeNanos / 1000.0 / TIMED_FRAMES,
+                median + passes * 15, median + passes * 40, smallFound / (double) TIMED_FRAMES, small,
+                smallRecent / (double) TIMED_FRAMES, duplicates / (double) TIMED_FRAMES);
+    }
+
+    // Merged detections beyond the first on the same scene object (the one each overlaps most)
+    private static int secondCopies(TiledScene scene, List<DetectedObject> merged) {
+        final boolean[] seen = new boolean[scene.objects.length];
+        int copies = 0;
+        for (DetectedObject obj : merged) {
+            int best = -1;
+            float bestOverlap = 0;
+            for (int i = 0; i < scene.objects.length; i++) {
+                final float[] o = scene.objects[i];
+                final float w = Math.min(o[2], obj.boundingBoxRight) - Math.max(o[0], obj.boundingBoxLeft);
+                final float h = Math.min(o[3], obj.boundingBoxBottom) - Math.max(o[1], obj.boundingBoxTop);
+                if (w > 0 && h > 0 && w * h > bestOverlap) {
+                    bestOverlap = w * h;
+                    best = i;
+                }
+            }
+            if (best < 0) continue;
+            if (seen[best]) copies++;
+            seen[best] = true;
+        }
+        return copies;
+    }
+}
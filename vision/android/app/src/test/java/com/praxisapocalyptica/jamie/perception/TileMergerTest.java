@@ -0,0 +1,153 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...TileMergerTest, non-zero exit on failure.
+
+import java.util.List;
+import java.util.Random;
+
+// Boundary merging on a 1280 x 720 frame: hand-placed pieces at tile edges, then random scenes over the
+// TilePlanner grid where every object must come out exactly once with its whole box.
+public class TileMergerTest {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    public static void main(String[] args) {
+        piecesAcrossAColumnEdgeAreJoined();
+        piecesAcrossARowEdgeAreJoined();
+        objectOverThreeTilesIsJoined();
+        copiesInTheOverlapAreOne();
+        neighboursStayApart();
+        capacityIsBounded();
+        randomScenesComeOutWhole();
+        System.out.println("TileMergerTest: OK");
+    }
+
+    private static DetectedObject detection(String cls, float confidence, float left, float top, float right, float bottom) {
+        DetectedObject obj = new DetectedObject();
+        obj.objectClass = cls;
+        obj.confidence = confidence;
+        obj.boundingBoxLeft = left;
+        obj.boundingBoxTop = top;
+        obj.boundingBoxRight = right;
+        obj.boundingBoxBottom = bottom;
+        return obj;
+    }
+
+    private static TileMerger merger() {
+        TileMerger merger = new TileMerger(64, 0.45f);
+        merger.reset(WIDTH, HEIGHT);
+        return merger;
+    }
+
+    // Two tiles [0, 700) and [500, 1280): the object [400, 800) is cut by both tiles, each seeing a piece
+    private static void piecesAcrossAColumnEdgeAreJoined() {
+        TileMerger merger = merger();
+        merger.add(detection("chair", 0.8f, 400, 200, 700, 400), 0, 0, 700, HEIGHT);
+        merger.add(detection("chair", 0.7f, 500, 201, 800, 399), 500, 0, WIDTH, HEIGHT);
+        List<DetectedObject> out = merger.merge();
+        check(out.size() == 1, "one chair, got " + out.size());
+        checkBox(out.get(0), 400, 200, 800, 400, "union of the pieces");
+        check(out.get(0).confidence == 0.8f, "the higher-scoring piece survives");
+        check(merger.getFragmentsJoined() == 1, "counted as a join");
+    }
+
+    private static void piecesAcrossARowEdgeAreJoined() {
+        TileMerger merger = merger();
+        merger.add(detection("door", 0.6f, 100, 150, 300, 400), 0, 0, WIDTH, 400);
+        merger.add(detection("door", 0.9f, 102, 300, 298, 650), 0, 300, WIDTH, HEIGHT);
+        List<DetectedObject> out = merger.merge();
+        check(out.size() == 1, "one door, got " + out.size());
+        checkBox(out.get(0), 100, 150, 300, 650, "union of the pieces");
+    }
+
+    // Three columns [0, 500), [400, 900), [800, 1280): a table from 300 to 1000 comes in three pieces, the
+    // middle one cut on both sides
+    private static void objectOverThreeTilesIsJoined() {
+        TileMerger merger = merger();
+        merger.add(detection("table", 0.6f, 300, 400, 500, 600), 0, 0, 500, HEIGHT);
+        merger.add(detection("table", 0.9f, 400, 400, 900, 600), 400, 0, 900, HEIGHT);
+        merger.add(detection("table", 0.7f, 800, 400, 1000, 600), 800, 0, WIDTH, HEIGHT);
+        List<DetectedObject> out = merger.merge();
+        check(out.size() == 1, "one table, got " + out.size());
+        checkBox(out.get(0), 300, 400, 1000, 600, "all three pieces");
+    }
+
+    // A small object in the overlap is whole in both tiles, and a large one also comes from the full-frame pass
+    private static void copiesInTheOverlapAreOne() {
+        TileMerger merger = merger();
+        DetectedObject best = detection("key", 0.9f, 550, 300, 570, 315);
+        merger.add(detection("key", 0.7f, 551, 300, 571, 316), 0, 0, 700, HEIGHT);
+        merger.add(best, 500, 0, WIDTH, HEIGHT);
+        merger.add(detection("cup", 0.5f, 100, 100, 180, 200), 0, 0, WIDTH, HEIGHT);
+        merger.add(detection("cup", 0.8f, 102, 98, 181, 203), 0, 0, 700, HEIGHT);
+        List<DetectedObject> out = merger.merge();
+        check(out.size() == 2, "one key and one cup, got " + out.size());
+        check(out.get(0) == best, "highest score first, and it is the detection kept");
+        checkBox(out.get(1), 102, 98, 181, 203, "the cup from its best pass");
+        check(merger.getDuplicatesRemoved() == 2 && merger.getFragmentsJoined() == 0, "two duplicates, no joins");
+    }
+
+    private static void neighboursStayApart() {
+        TileMerger merger = merger();
+        // Same class, both cut on the facing sides and touching, but not lined up along the edge: two objects
+        merger.add(detection("book", 0.8f, 600, 100, 700, 160), 0, 0, 700, HEIGHT);
+        merger.add(detection("book", 0.8f, 690, 200, 800, 260), 690, 0, WIDTH, HEIGHT);
+        // Touching and lined up, but in the full-frame pass: nothing is cut, so two objects
+        merger.add(detection("box", 0.8f, 100, 500, 200, 600), 0, 0, WIDTH, HEIGHT);
+        merger.add(detection("box", 0.8f, 200, 500, 300, 600), 0, 0, WIDTH, HEIGHT);
+        // Pieces that would join, if they were the same class
+        merger.add(detection("bag", 0.8f, 400, 400, 700, 500), 0, 0, 700, HEIGHT);
+        merger.add(detection("person", 0.8f, 500, 400, 800, 500), 500, 0, WIDTH, HEIGHT);
+        check(merger.merge().size() == 6, "nothing merged");
+        check(merger.getFragmentsJoined() == 0 && merger.getDuplicatesRemoved() == 0, "no joins or duplicates");
+    }
+
+    private static void capacityIsBounded() {
+        TileMerger merger = new TileMerger(2, 0.45f);
+        merger.reset(WIDTH, HEIGHT);
+        check(merger.add(detection("a", 0.5f, 0, 0, 10, 10), 0, 0, WIDTH, HEIGHT), "first fits");
+        check(merger.add(detection("b", 0.5f, 20, 0, 30, 10), 0, 0, WIDTH, HEIGHT), "second fits");
+        check(!merger.add(detection("c", 0.5f, 40, 0, 50, 10), 0, 0, WIDTH, HEIGHT), "third is refused");
+        check(merger.merge().size() == 2, "the first two come out");
+        merger.reset(WIDTH, HEIGHT);
+        check(merger.getCount() == 0 && merger.merge().isEmpty(), "reset empties it");
+    }
+
+    // Every tile of a 3 x 2 grid with 20% overlap (about 100 x 80 px) over random 8 x 5 and 4 x 3 scenes, with
+    // the full-frame pass in every other scene (without it, objects wider than the overlap are only seen in pieces)
+    private static void randomScenesComeOutWhole() {
+        final TilePlanner planner = new TilePlanner(3, 2, 0.2f, 6);
+        final TileMerger merger = new TileMerger(400, 0.45f);
+        final Random random = new Random(20);
+        long joined = 0;
+        for (int scene = 0; scene < 200; scene++) {
+            final TiledScene s = scene % 4 < 2 ? new TiledScene(WIDTH, HEIGHT, 8, 5, random)
+                    : new TiledScene(WIDTH, HEIGHT, 4, 3, random); // Objects up to 256 x 192, wider than the overlap
+            merger.reset(WIDTH, HEIGHT);
+            if (scene % 2 == 0) s.detect(0, 0, WIDTH, HEIGHT, random, merger); // Else only the tile pieces
+            final int tiles = planner.plan(WIDTH, HEIGHT, null);
+            check(tiles == 6, "all tiles planned");
+            for (int i = 0; i < tiles; i++) {
+                s.detect(planner.getTileLeft(i), planner.getTileTop(i), planner.getTileRight(i), planner.getTileBottom(i),
+                        random, merger);
+            }
+            final List<DetectedObject> out = merger.merge();
+            final int found = s.countFound(out, 0.01f, new boolean[s.objects.length]);
+            check(found == s.objects.length && out.size() == s.objects.length, "scene " + scene + ": " + found
+                    + " of " + s.objects.length + " objects whole, " + out.size() + " detections");
+            joined = merger.getFragmentsJoined();
+        }
+        check(joined > 100, "the scenes exercised boundary joins: " + joined);
+    }
+
+    private static void checkBox(DetectedObject obj, float left, float top, float right, float bottom, String what) {
+        check(obj.boundingBoxLeft == left && obj.boundingBoxTop == top && obj.boundingBoxRight == right
+                && obj.boundingBoxBottom == bottom, what + ": [" + obj.boundingBoxLeft + ", " + obj.boundingBoxTop
+                + ", " + obj.boundingBoxRight + ", " + obj.boundingBoxBottom + "]");
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,99 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...TilePlannerTest, non-zero exit on failure.
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Tile layout and per-frame selection on a 1280 x 720 frame with a 3 x 2 grid.
+public class TilePlannerTest {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    public static void main(String[] args) {
+        tilesOverlapAndSpanTheImage();
+        tilesTakeTurnsWithoutTracks();
+        smallTrackedObjectsGoFirstButNoTileStarves();
+        System.out.println("TilePlannerTest: OK");
+    }
+
+    private static void tilesOverlapAndSpanTheImage() {
+        TilePlanner planner = new TilePlanner(3, 2, 0.2f, 6);
+        check(planner.plan(WIDTH, HEIGHT, null) == 6, "all tiles");
+        int maxRight = 0, maxBottom = 0;
+        for (int i = 0; i < 6; i++) {
+            final int t = planner.getTileIndex(i);
+            final int left = planner.getTileLeft(i), top = planner.getTileTop(i);
+            if (t % 3 == 0) check(left == 0, "first column at the border");
+            if (t / 3 == 0) check(top == 0, "first row at the border");
+            maxRight = Math.max(maxRight, planner.getTileRight(i));
+            maxBottom = Math.max(maxBottom, planner.getTileBottom(i));
+            if (t % 3 > 0) check(left < tileRight(planner, t - 1) - 90, "columns overlap by about 20% of a tile");
+            if (t / 3 > 0) check(top < tileBottom(planner, t - 3) - 70, "rows overlap by about 20% of a tile");
+        }
+        check(maxRight == WIDTH && maxBottom == HEIGHT, "the last column / row ends at the border");
+    }
+
+    private static void tilesTakeTurnsWithoutTracks() {
+        TilePlanner planner = new TilePlanner(3, 2, 0.2f, 2);
+        final int[] runs = new int[6];
+        for (int n = 0; n < 30; n++) {
+            check(planner.plan(WIDTH, HEIGHT, null) == 2, "two tiles per frame");
+            runs[planner.getTileIndex(0)]++;
+            runs[planner.getTileIndex(1)]++;
+        }
+        for (int t = 0; t < 6; t++) check(runs[t] == 10, "tile " + t + " ran every third frame, " + runs[t] + " times");
+    }
+
+    // A small object tracked in tile 0: that tile runs more often than the others, but none waits more than
+    // about two grids' worth of plans
+    private static void smallTrackedObjectsGoFirstButNoTileStarves() {
+        ObjectTracker tracker = new ObjectTracker(16);
+        for (int n = 0; n < 3; n++) {
+            DetectedObject key = new DetectedObject();
+            key.objectClass = "key";
+            key.confidence = 0.9f;
+            key.boundingBoxLeft = 100;
+            key.boundingBoxTop = 100;
+            key.boundingBoxRight = 120;
+            key.boundingBoxBottom = 112;
+            List<DetectedObject> frame = new ArrayList<>();
+            frame.add(key);
+            tracker.update(frame, n * 33_333_333L);
+        }
+        TilePlanner planner = new TilePlanner(3, 2, 0.2f, 1);
+        final int[] lastRun = new int[6];
+        int trackedRuns = 0;
+        for (int n = 1; n <= 60; n++) {
+            check(planner.plan(WIDTH, HEIGHT, tracker) == 1, "one tile per frame");
+            final int t = planner.getTileIndex(0);
+            if (t == 0) trackedRuns++;
+            lastRun[t] = n;
+            if (n > 12) {
+                for (int other = 0; other < 6; other++) {
+                    check(n - lastRun[other] <= 12, "tile " + other + " waited " + (n - lastRun[other]) + " plans");
+                }
+            }
+        }
+        check(trackedRuns >= 15, "the tile with the tracked object ran more than its share: " + trackedRuns + " of 60");
+    }
+
+    // Edges of a tile from the last plan, which selected every tile
+    private static int tileRight(TilePlanner planner, int tile) {
+        return planner.getTileRight(position(planner, tile));
+    }
+
+    private static int tileBottom(TilePlanner planner, int tile) {
+        return planner.getTileBottom(position(planner, tile));
+    }
+
+    private static int position(TilePlanner planner, int tile) {
+        for (int i = 0; i < 6; i++) if (planner.getTileIndex(i) == tile) return i;
+        throw new AssertionError("tile " + tile + " not in the plan");
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
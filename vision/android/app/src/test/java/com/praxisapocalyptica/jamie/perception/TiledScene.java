@@ -0,0 +1,89 @@
+package com/praxisapocalyptica/jamie.perception;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Synthetic scene for the tiling tests and benchmarks: same-class objects, one per cell of a columns x rows
+// grid (never overlapping; with a finer grid than the tiles', many cross tile edges), and what a model would
+// report for each pass: every object with enough of it inside the pass region, clipped to that region.
+// Small objects are missed by the full-frame pass (the downscale loses them) and found in tiles.
+final class TiledScene {
+
+    static final int MIN_VISIBLE_PX = 8;  // Smaller visible pieces go unreported
+    static final int SMALL_PX = 24;       // Below this (largest side) only tiles see an object
+
+    final int width, height;
+    final float[][] objects; // left, top, right, bottom
+
+    TiledScene(int width, int height, int columns, int rows, Random random) {
+        this.width = width;
+        this.height = height;
+        objects = new float[columns * rows][];
+        final float cellWidth = width / (float) columns, cellHeight = height / (float) rows;
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                // A third small (12 - 22 px), the rest from 40 px to most of the cell, anywhere inside the cell
+                final boolean small = random.nextInt(3) == 0;
+                final float w = small ? 12 + random.nextFloat() * 10 : 40 + random.nextFloat() * (cellWidth * 0.8f - 40);
+                final float h = small ? 12 + random.nextFloat() * 10 : 40 + random.nextFloat() * (cellHeight * 0.8f - 40);
+                final float left = c * cellWidth + 2 + random.nextFloat() * (cellWidth - w - 4);
+                final float top = r * cellHeight + 2 + random.nextFloat() * (cellHeight - h - 4);
+                objects[r * columns + c] = new float[] {left, top, left + w, top + h};
+            }
+        }
+    }
+
+    static boolean isSmall(float[] o) {
+        return Math.max(o[2] - o[0], o[3] - o[1]) < SMALL_PX;
+    }
+
+    // Detections of one pass over [left, top, right, bottom) into merger; scores are random in 0.5 .. 0.9,
+    // the full-frame pass is recognised by covering the whole image. Returns the number added.
+    int detect(int left, int top, int right, int bottom, Random random, TileMerger merger) {
+        final boolean fullFrame = left == 0 && top == 0 && right == width && bottom == height;
+        int added = 0;
+        for (float[] o : objects) {
+            if (fullFrame && isSmall(o)) continue;
+            final float l = Math.max(o[0], left), t = Math.max(o[1], top);
+            final float r = Math.min(o[2], right), b = Math.min(o[3], bottom);
+            if (r - l < MIN_VISIBLE_PX || b - t < MIN_VISIBLE_PX) continue;
+            DetectedObject obj = new DetectedObject();
+            obj.objectClass = "object";
+            obj.confidence = 0.5f + random.nextFloat() * 0.4f;
+            obj.boundingBoxLeft = l;
+            obj.boundingBoxTop = t;
+            obj.boundingBoxRight = r;
+            obj.boundingBoxBottom = b;
+            if (merger.add(obj, left, top, right, bottom)) added++;
+        }
+        return added;
+    }
+
+    // Index of the scene object whose box matches obj within tolerance px on every side, or -1
+    int match(DetectedObject obj, float tolerance) {
+        for (int i = 0; i < objects.length; i++) {
+            final float[] o = objects[i];
+            if (Math.abs(obj.boundingBoxLeft - o[0]) <= tolerance && Math.abs(obj.boundingBoxTop - o[1]) <= tolerance
+                    && Math.abs(obj.boundingBoxRight - o[2]) <= tolerance
+                    && Math.abs(obj.boundingBoxBottom - o[3]) <= tolerance) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Scene objects that a merged list found exactly (one detection each, box within tolerance)
+    int countFound(List<DetectedObject> merged, float tolerance, boolean[] scratch) {
+        Arrays.fill(scratch, false);
+        int found = 0;
+        for (DetectedObject obj : merged) {
+            final int i = match(obj, tolerance);
+            if (i >= 0 && !scratch[i]) {
+                scratch[i] = true;
+                found++;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,125 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM benchmark (no JMH on this tree's classpath): java ...VoxelCloudBenchmark.
+// addPoints() and drainChanges() on what ARCore hands SlamManager walking a corridor: 40 m x 3 m x 2.5 m with
+// 50k persistent landmarks on the walls, floor and ceiling, the camera going up and down it at 1 m/s and 30 fps
+// and seeing 500 of the landmarks within 4 m ahead each frame, with 1 cm of noise. 5 cm voxels, drained at 5 Hz
+// into 4096-voxel batches (BrainWifiCommunicator's message size) until nothing is pending. 100k and 1M points
+// with room for every voxel, and 1M points capped at 20k voxels so eviction runs all the time.
+// Prints voxels held and evicted, median / p95 nanoseconds per point over a frame's addPoints(), median / p95
+// microseconds per drainChanges(), what was streamed (TYPE_VOXELS: 11 bytes per voxel, 6 per removal) against
+// the raw points (16 bytes each), and heap bytes allocated per point across both.
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class VoxelCloudBenchmark {
+
+    private static final float VOXEL = 0.05f;
+    private static final int LANDMARKS = 50_000;
+    private static final float LENGTH = 40f, WIDTH = 3f, HEIGHT = 2.5f, VIEW = 4f;
+    private static final int POINTS_PER_FRAME = 500;
+    private static final int FRAMES_PER_DRAIN = 6; // 5 Hz at 30 fps
+    private static final int BATCH = 4096;
+
+    public static void main(String[] args) {
+        final Corridor corridor = new Corridor(new Random(22));
+        run(corridor, 1_000_000, 200_000, false); // Warm-up
+        System.out.println("points     max voxels  voxels  evicted  ns/point (median / p95)  us/drain (median / p95)"
+                + "  streamed KB  raw KB   bytes/point");
+        run(corridor, 100_000, 200_000, true);
+        run(corridor, 1_000_000, 200_000, true);
+        run(corridor, 1_000_000, 20_000, true);
+    }
+
+    private static void run(Corridor corridor, int points, int maxVoxels, boolean print) {
+        final VoxelCloud cloud = new VoxelCloud(VOXEL, maxVoxels, 2 * VIEW);
+        final VoxelCloud.Batch batch = new VoxelCloud.Batch(BATCH);
+        final FloatBuffer frame = FloatBuffer.allocate(POINTS_PER_FRAME * 4);
+        final Random random = new Random(points + maxVoxels);
+        final int frames = points / POINTS_PER_FRAME;
+        final long[] insertNanos = new long[frames];
+        final long[] drainNanos = new long[frames + 1024];
+        int drains = 0;
+        long streamedBytes = 0;
+        final float[] camera = new float[3];
+        final AllocationMeter meter = new AllocationMeter();
+        meter.start();
+        for (int n = 0; n < frames; n++) {
+            corridor.frame(n, random, frame, camera);
+            long start = System.nanoTime();
+            cloud.addPoints(frame, POINTS_PER_FRAME, camera[0], camera[1], camera[2]);
+            insertNanos[n] = System.nanoTime() - start;
+            if (n % FRAMES_PER_DRAIN != FRAMES_PER_DRAIN - 1) continue;
+            do {
+                start = System.nanoTime();
+                cloud.drainChanges(batch);
+                if (drains < drainNanos.length) drainNanos[drains++] = System.nanoTime() - start;
+                streamedBytes += 11L * batch.count + 6L * batch.removedCount;
+            } while (cloud.hasPendingChanges());
+        }
+        final long allocated = meter.stop();
+        if (!print) return;
+        Arrays.sort(insertNanos);
+        Arrays.sort(drainNanos, 0, drains);
+        System.out.printf("%9d  %10d  %6d  %7d  %14.1f / %-7.1f  %14.1f / %-7.1f  %11d  %6d   %11.3f%n", points,
+                maxVoxels, cloud.getVoxelCount(), cloud.getVoxelsEvicted(),
+                insertNanos[frames / 2] / (double) POINTS_PER_FRAME,
+                insertNanos[frames * 95 / 100] / (double) POINTS_PER_FRAME,
+                drainNanos[drains / 2] / 1e3, drainNanos[drains * 95 / 100] / 1e3, streamedBytes / 1024,
+                16L * points / 1024, allocated / (double) points);
+    }
+
+    // Landmarks sorted by position along the corridor, so a frame's view is a range of indices
+    private static final class Corridor {
+        final float[] x = new float[LANDMARKS], y = new float[LANDMARKS], z = new float[LANDMARKS];
+        final float[] confidence = new float[LANDMARKS];
+
+        Corridor(Random random) {
+            final float[] along = new float[LANDMARKS];
+            for (int i = 0; i < LANDMARKS; i++) along[i] = random.nextFloat() * LENGTH;
+            Arrays.sort(along);
+            for (int i = 0; i < LANDMARKS; i++) {
+                x[i] = along[i];
+                switch (random.nextInt(4)) { // Left wall, right wall, floor, ceiling
+                    case 0: y[i] = random.nextFloat() * HEIGHT; z[i] = 0; break;
+                    case 1: y[i] = random.nextFloat() * HEIGHT; z[i] = WIDTH; break;
+                    case 2: y[i] = 0; z[i] = random.nextFloat() * WIDTH; break;
+                    default: y[i] = HEIGHT; z[i] = random.nextFloat() * WIDTH; break;
+                }
+                confidence[i] = 0.3f + 0.7f * random.nextFloat();
+            }
+        }
+
+        // Frame n's observations into out (x, y, z, confidence) and the camera position into camera
+        void frame(int n, Random random, FloatBuffer out, float[] camera) {
+            final float walked = (n / 30f) % (2 * (LENGTH - VIEW)); // 1 m/s, turning at the ends
+            final float cx = walked < LENGTH - VIEW ? walked : 2 * (LENGTH - VIEW) - walked;
+            camera[0] = cx;
+            camera[1] = 1.5f;
+            camera[2] = WIDTH / 2;
+            final int from = lowerBound(cx), to = lowerBound(cx + VIEW);
+            out.clear();
+            for (int p = 0; p < POINTS_PER_FRAME; p++) {
+                final int i = from + random.nextInt(to - from);
+                out.put(x[i] + noise(random)).put(y[i] + noise(random)).put(z[i] + noise(random)).put(confidence[i]);
+            }
+            out.flip();
+        }
+
+        private static float noise(Random random) {
+            return (float) random.nextGaussian() * 0.01f;
+        }
+
+        private int lowerBound(float value) {
+            int lo = 0, hi = LANDMARKS;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (x[mid] < value) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...VoxelCloudTest, non-zero exit on failure.
+
+import java.nio.FloatBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+// Change tracking, eviction and removals with 10 cm voxels. Points come in 4 x 4 x 4 blocks of voxels
+// ("regions", one point per voxel centre), so a cloud of 64 voxels holds exactly one region.
+public class VoxelCloudTest {
+
+    private static final float VOXEL = 0.1f;
+
+    public static void main(String[] args) {
+        changedVoxelsDrainOnce();
+        undrainedMapFollowsTheCamera();
+        evictedVoxelsTheBrainHasAreRemoved();
+        removalsGoOutBeforeChanges();
+        markAllChangedAndClearReset();
+        System.out.println("VoxelCloudTest: OK");
+    }
+
+    // One point at the centre of each voxel of the 4 x 4 x 4 block whose lowest corner is voxel (vx, 0, 0)
+    private static FloatBuffer region(int vx) {
+        final FloatBuffer points = FloatBuffer.allocate(64 * 4);
+        for (int i = 0; i < 64; i++) {
+            points.put((vx + (i & 3) + 0.5f) * VOXEL).put(((i >> 2 & 3) + 0.5f) * VOXEL).put(((i >> 4) + 0.5f) * VOXEL)
+                    .put(0.8f);
+        }
+        points.flip();
+        return points;
+    }
+
+    private static void add(VoxelCloud cloud, FloatBuffer points, float cameraX) {
+        cloud.addPoints(points, points.remaining() / 4, cameraX, 0, 0);
+    }
+
+    // Packed voxel coordinates of the changed voxels (or the removals) in a batch
+    private static Set<Long> keys(VoxelCloud.Batch batch, boolean removed) {
+        final Set<Long> keys = new HashSet<>();
+        final short[] coords = removed ? batch.removedCoords : batch.coords;
+        final int n = removed ? batch.removedCount : batch.count;
+        for (int i = 0; i < n; i++) {
+            keys.add(((long) coords[i * 3] << 32) ^ ((long) (coords[i * 3 + 1] & 0xFFFF) << 16) ^ (coords[i * 3 + 2] & 0xFFFF));
+        }
+        return keys;
+    }
+
+    private static Set<Long> regionKeys(int vx) {
+        final VoxelCloud cloud = new VoxelCloud(VOXEL, 64, 1f);
+        add(cloud, region(vx), 0);
+        final VoxelCloud.Batch batch = new VoxelCloud.Batch(64);
+        cloud.drainChanges(batch);
+        return keys(batch, false);
+    }
+
+    private static void changedVoxelsDrainOnce() {
+        final VoxelCloud cloud = new VoxelCloud(VOXEL, 64, 1f);
+        final VoxelCloud.Batch batch = new VoxelCloud.Batch(64);
+        add(cloud, region(0), 0);
+        add(cloud, region(0), 0);
+        check(cloud.getVoxelCount() == 64 && cloud.getChangedCount() == 64, "64 voxels, each changed once");
+        check(cloud.drainChanges(batch) == 64 && batch.removedCount == 0 && !batch.reset, "all drained");
+        check(!cloud.hasPendingChanges() && cloud.drainChanges(batch) == 0 && batch.isEmpty(), "nothing left");
+        final float[] position = new float[3];
+        final FloatBuffer moved = FloatBuffer.wrap(new float[] {0.09f, 0.01f, 0.01f, 0.8f, 0.09f, 0.01f, 0.01f, 0.8f,
+                0.09f, 0.01f, 0.01f, 0.8f, 0.09f, 0.01f, 0.01f, 0.8f});
+        add(cloud, moved, 0);
+        check(cloud.drainChanges(batch) == 1, "a centroid that moved is changed again");
+        batch.getPosition(0, position);
+        check(position[0] > 0.06f && position[0] < 0.1f, "towards the new points: " + position[0]);
+    }
+
+    // The link is down: nothing drains while the camera walks 30 m. The voxels where it stands must be in the
+    // map, not the first 256 it saw.
+    private static void undrainedMapFollowsTheCamera() {
+        final VoxelCloud cloud = new VoxelCloud(VOXEL, 256, 1f);
+        for (int step = 0; step < 75; step++) add(cloud, region(step * 4), step * 0.4f + 0.2f);
+        check(cloud.getPointsDropped() == 0, "no point dropped: " + cloud.getPointsDropped());
+        check(cloud.getVoxelsEvicted() == 75 * 64 - cloud.getVoxelCount(), "the rest evicted");
+        final VoxelCloud.Batch batch = new VoxelCloud.Batch(256);
+        cloud.drainChanges(batch);
+        check(batch.count == cloud.getVoxelCount() && batch.removedCount == 0, "every voxel held is changed, none"
+                + " was ever sent, so nothing to remove: " + batch.count + " / " + batch.removedCount);
+        check(keys(batch, false).containsAll(regionKeys(74 * 4)), "the region at the camera is in the map");
+    }
+
+    private static void evictedVoxelsTheBrainHasAreRemoved() {
+        final VoxelCloud cloud = new VoxelCloud(VOXEL, 64, 0.5f);
+        final VoxelCloud.Batch batch = new VoxelCloud.Batch(128);
+        add(cloud, region(0), 0.2f);
+        cloud.drainChanges(batch);
+        add(cloud, region(100), 10.2f); // Evicts every voxel of region 0, which the brain has
+        check(cloud.getRemovedCount() == 64, "64 removals pending: " + cloud.getRemovedCount());
+        cloud.drainChanges(batch);
+        check(keys(batch, true).equals(regionKeys(0)), "region 0 removed");
+        check(keys(batch, false).equals(regionKeys(100)), "region 100 added");
+        add(cloud, region(200), 20.2f);                  // Region 100 removed again
+        add(cloud, region(300), 30.2f);                  // Region 200, never drained, just evicted
+        cloud.drainChanges(batch);
+        check(keys(batch, true).equals(regionKeys(100)), "only what the brain had is removed: " + batch.removedCount);
+        check(keys(batch, false).equals(regionKeys(300)), "region 300 added");
+        check(cloud.getRemovalsDrained() == 128, "removal counter");
+
+        float[] position = new float[3];
+        batch.getRemovedPosition(0, position);
+        check(position[0] > 10 && position[0] < 10.4f, "removed voxel centre in region 100: " + position[0]);
+    }
+
+    // A voxel evicted and seen again must not be removed after its new state went out
+    private static void removalsGoOutBeforeChanges() {
+        final VoxelCloud cloud = new VoxelCloud(VOXEL, 64, 0.5f);
+        final VoxelCloud.Batch small = new VoxelCloud.Batch(16);
+        add(cloud, region(0), 0.2f);
+        while (cloud.drainChanges(small) > 0) { }
+        add(cloud, region(100), 10.2f);
+        add(cloud, region(0), 0.2f); // Region 0 back: its removals are still pending
+        for (int i = 0; i < 3; i++) {
+            check(cloud.drainChanges(small) == 0 && small.removedCount == 16, "batch " + i + ": removals only");
+        }
+        // The last removals fit, so changes may follow them in the same batch (applied after them)
+        check(cloud.drainChanges(small) == 16 && small.removedCount == 16, "last removals, then the new state");
+        check(cloud.getRemovedCount() == 0 && cloud.getRemovalsDrained() == 64, "every removal sent once");
+    }
+
+    private static void markAllChangedAndClearReset() {
+        final VoxelCloud cloud = new VoxelCloud(VOXEL, 64, 0.5f);
+        final VoxelCloud.Batch batch = new VoxelCloud.Batch(64);
+        add(cloud, region(0), 0.2f);
+        cloud.drainChanges(batch);
+        add(cloud, region(100), 10.2f);
+        cloud.markAllChanged(); // Reconnected: the removals are superseded by the reset
+        check(cloud.getRemovedCount() == 0 && cloud.hasPendingChanges(), "reset pending instead of removals");
+        cloud.drainChanges(batch);
+        check(batch.reset && batch.removedCount == 0 && batch.count == 64, "reset, then the whole map");
+        cloud.drainChanges(batch);
+        check(batch.isEmpty(), "reset sent once");
+        cloud.clear();
+        check(cloud.hasPendingChanges() && cloud.getVoxelCount() == 0, "clear leaves a reset to send");
+        cloud.drainChanges(batch);
+        check(batch.reset && batch.count == 0 && !batch.isEmpty() && !cloud.hasPendingChanges(), "reset only");
+        check(cloud.getResets() == 2, "two resets: " + cloud.getResets());
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
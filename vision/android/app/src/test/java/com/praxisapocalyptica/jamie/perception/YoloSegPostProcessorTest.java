@@ -0,0 +1,121 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...YoloSegPostProcessorTest, non-zero exit on failure.
+
+import java.nio.FloatBuffer;
+
+// Golden tests over a hand-built [1, 4 + 3 + 2, 8] head: 3 classes, 2 mask coefficients, 8 anchors.
+public class YoloSegPostProcessorTest {
+
+    private static final int CLASSES = 3;
+    private static final int COEFFICIENTS = 2;
+    private static final int ANCHORS = 8;
+    private static final int INPUT = 320;
+
+    public static void main(String[] args) {
+        filtersArgmaxAndClassAwareNms();
+        capsAtMaxDetections();
+        rescalesThroughTheLetterbox();
+        detectsNormalizedBoxes();
+        keepsPixelBoxesInAutoMode();
+        emptyFrameKeepsNothing();
+        System.out.println("YoloSegPostProcessorTest: OK");
+    }
+
+    // anchor: cx, cy, w, h, class scores..., mask coefficients
+    private static FloatBuffer golden(float boxDivisor) {
+        final float[][] anchors = {
+                {50, 50, 20, 20, 0.9f, 0.5f, 0f},     // 0: class 0, kept
+                {52, 50, 20, 20, 0.8f, 0f, 0f},       // 1: class 0, IoU 0.82 with 0 -> suppressed
+                {52, 50, 20, 20, 0f, 0.7f, 0f},       // 2: class 1 on top of 0 -> kept (class-aware)
+                {10, 10, 5, 5, 0.2f, 0.2f, 0.2f},     // 3: below threshold everywhere
+                {200, 100, 40, 10, 0f, 0f, 0.6f},     // 4: class 2, kept
+                {100, 200, 10, 10, 0.3f, 0f, 0f},     // 5: class 0, just above threshold
+                {300, 300, 10, 10, 0f, 0.95f, 0f},    // 6: class 1, best score
+                {0, 0, 0, 0, 0.25f, 0f, 0f},          // 7: exactly at threshold -> dropped
+        };
+        final int channels = 4 + CLASSES + COEFFICIENTS;
+        final float[] tensor = new float[channels * ANCHORS];
+        for (int a = 0; a < ANCHORS; a++) {
+            for (int c = 0; c < 4 + CLASSES; c++) {
+                tensor[c * ANCHORS + a] = c < 4 ? anchors[a][c] / boxDivisor : anchors[a][c];
+            }
+            for (int m = 0; m < COEFFICIENTS; m++) tensor[(4 + CLASSES + m) * ANCHORS + a] = a * 10 + m;
+        }
+        return FloatBuffer.wrap(tensor);
+    }
+
+    private static YoloSegPostProcessor processor(int maxDetections, YoloSegPostProcessor.BoxCoordinates coordinates) {
+        return new YoloSegPostProcessor(CLASSES, COEFFICIENTS, ANCHORS, 0.25f, 0.45f, maxDetections,
+                INPUT, INPUT, coordinates);
+    }
+
+    private static void filtersArgmaxAndClassAwareNms() {
+        YoloSegPostProcessor post = processor(100, YoloSegPostProcessor.BoxCoordinates.PIXELS);
+        FloatBuffer tensor = golden(1f);
+        check(post.process(tensor) == 5, "five detections survive, got " + post.getCount());
+        final int[] anchors = {6, 0, 2, 4, 5};
+        final int[] classes = {1, 0, 1, 2, 0};
+        final float[] scores = {0.95f, 0.9f, 0.7f, 0.6f, 0.3f};
+        for (int i = 0; i < 5; i++) {
+            check(post.getAnchorIndex(i) == anchors[i], "detection " + i + " is anchor " + anchors[i]);
+            check(post.getClassId(i) == classes[i], "detection " + i + " has class " + classes[i]);
+            check(post.getScore(i) == scores[i], "detection " + i + " has score " + scores[i]);
+        }
+        checkBox(post, 1, 40, 40, 60, 60);
+        checkBox(post, 3, 180, 95, 220, 105);
+        float[] coefficients = new float[COEFFICIENTS];
+        post.copyMaskCoefficients(tensor, 3, coefficients);
+        check(coefficients[0] == 40 && coefficients[1] == 41, "mask coefficients come from anchor 4's column");
+    }
+
+    private static void capsAtMaxDetections() {
+        YoloSegPostProcessor post = processor(2, YoloSegPostProcessor.BoxCoordinates.PIXELS);
+        check(post.process(golden(1f)) == 2, "stops at maxDetections");
+        check(post.getAnchorIndex(0) == 6 && post.getAnchorIndex(1) == 0, "keeps the two best");
+    }
+
+    private static void rescalesThroughTheLetterbox() {
+        // 640x480 camera into 320x320: scale 0.5, 40 px of padding above and below
+        YoloSegPostProcessor post = processor(100, YoloSegPostProcessor.BoxCoordinates.PIXELS);
+        post.process(golden(1f));
+        post.rescaleBoxes(0f, 40f, 0.5f, 640, 480);
+        checkBox(post, 1, 80, 0, 120, 40);     // y 40..60 in the model is 0..20 of content -> 0..40
+        checkBox(post, 0, 590, 480, 610, 480); // Clamped to the image
+    }
+
+    private static void detectsNormalizedBoxes() {
+        YoloSegPostProcessor post = processor(100, YoloSegPostProcessor.BoxCoordinates.AUTO);
+        check(post.process(golden(INPUT)) == 5, "normalized tensor keeps the same five detections");
+        check(post.getBoxCoordinates() == YoloSegPostProcessor.BoxCoordinates.NORMALIZED, "detected as normalized");
+        checkBox(post, 1, 40, 40, 60, 60);
+        // The decision sticks: a later frame is scaled the same way
+        post.process(golden(INPUT));
+        checkBox(post, 3, 180, 95, 220, 105);
+    }
+
+    private static void keepsPixelBoxesInAutoMode() {
+        YoloSegPostProcessor post = processor(100, YoloSegPostProcessor.BoxCoordinates.AUTO);
+        post.process(golden(1f));
+        check(post.getBoxCoordinates() == YoloSegPostProcessor.BoxCoordinates.PIXELS, "detected as pixels");
+        checkBox(post, 1, 40, 40, 60, 60);
+    }
+
+    private static void emptyFrameKeepsNothing() {
+        YoloSegPostProcessor post = processor(100, YoloSegPostProcessor.BoxCoordinates.AUTO);
+        check(post.process(FloatBuffer.wrap(new float[(4 + CLASSES + COEFFICIENTS) * ANCHORS])) == 0, "no candidates");
+        check(post.getBoxCoordinates() == YoloSegPostProcessor.BoxCoordinates.AUTO, "undecided without candidates");
+    }
+
+    private static void checkBox(YoloSegPostProcessor post, int i, float left, float top, float right, float bottom) {
+        final float e = 1e-3f;
+        check(Math.abs(post.getLeft(i) - left) < e && Math.abs(post.getTop(i) - top) < e
+                        && Math.abs(post.getRight(i) - right) < e && Math.abs(post.getBottom(i) - bottom) < e,
+                "box " + i + " is [" + left + "," + top + "," + right + "," + bottom + "], got ["
+                        + post.getLeft(i) + "," + post.getTop(i) + "," + post.getRight(i) + "," + post.getBottom(i) + "]");
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,96 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM benchmark (no JMH on this tree's classpath): java ...YuvToTensorConverterBenchmark.
+// convert() of 640 x 480 and 1920 x 1080 camera frames (random planes, NV21 semi-planar and I420 planar layouts
+// from YuvToTensorConverterTest) into a 640 x 640 float and uint8 model input, at sample stride 1 and 2. For
+// comparison, the path it replaced: a full-frame ARGB int[] per frame (the Bitmap), converted pixel by pixel with
+// the same fixed point arithmetic, scaled into a second int[] (the ResizeOp) and normalized into the tensor.
+// Prints median / p95 milliseconds per frame and heap bytes allocated per frame.
+
+import com/praxisapocalyptica/jamie.perception.YuvToTensorConverterTest.Frame;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+public class YuvToTensorConverterBenchmark {
+
+    private static final int INPUT = 640;
+    private static final int WARMUP = 30;
+    private static final int TIMED = 60;
+
+    public static void main(String[] args) {
+        System.out.println("source     layout        output   stride  ms/frame (median / p95)  bytes/frame");
+        for (int[] size : new int[][] {{640, 480}, {1920, 1080}}) {
+            final Frame nv21 = new Frame(size[0], size[1], true, 0, 1);
+            final Frame i420 = new Frame(size[0], size[1], false, 0, 2);
+            for (YuvToTensorConverter.OutputType type : YuvToTensorConverter.OutputType.values()) {
+                for (int stride : new int[] {1, 2}) run(nv21, "semi-planar", type, stride);
+            }
+            run(i420, "planar", YuvToTensorConverter.OutputType.FLOAT32, 1);
+            runBitmapPath(nv21);
+        }
+    }
+
+    private static void run(Frame frame, String layout, YuvToTensorConverter.OutputType type,
+                            int stride) {
+        final YuvToTensorConverter converter = new YuvToTensorConverter(INPUT, INPUT, type);
+        converter.setSampleStride(stride);
+        final long[] nanos = new long[TIMED];
+        final AllocationMeter meter = new AllocationMeter();
+        for (int i = 0; i < WARMUP + TIMED; i++) {
+            if (i == WARMUP) meter.start();
+            final long start = System.nanoTime();
+            frame.convert(converter);
+            if (i >= WARMUP) nanos[i - WARMUP] = System.nanoTime() - start;
+        }
+        print(frame, layout, type.toString(), Integer.toString(stride), nanos, meter.stop());
+    }
+
+    // Bitmap.createBitmap + TensorImage.load + ResizeOp + NormalizeOp, modelled on plain arrays
+    private static void runBitmapPath(Frame frame) {
+        final ByteBuffer tensor = ByteBuffer.allocateDirect(INPUT * INPUT * 3 * 4).order(ByteOrder.nativeOrder());
+        final long[] nanos = new long[TIMED];
+        final AllocationMeter meter = new AllocationMeter();
+        long checksum = 0;
+        for (int i = 0; i < WARMUP + TIMED; i++) {
+            if (i == WARMUP) meter.start();
+            final long start = System.nanoTime();
+            final int[] argb = new int[frame.width * frame.height];
+            for (int y = 0; y < frame.height; y++) {
+                for (int x = 0; x < frame.width; x++) {
+                    final int luma = frame.y.get(y * frame.yRowStride + x) & 0xFF;
+                    final int chroma = (y >> 1) * frame.uvRowStride + (x >> 1) * frame.uvPixelStride;
+                    final int u = (frame.u.get(chroma) & 0xFF) - 128, v = (frame.v.get(chroma) & 0xFF) - 128;
+                    final int r = Math.max(0, Math.min(255, luma + ((1436 * v) >> 10)));
+                    final int g = Math.max(0, Math.min(255, luma - ((352 * u + 731 * v) >> 10)));
+                    final int b = Math.max(0, Math.min(255, luma + ((1815 * u) >> 10)));
+                    argb[y * frame.width + x] = 0xFF000000 | r << 16 | g << 8 | b;
+                }
+            }
+            final int[] resized = new int[INPUT * INPUT];
+            for (int y = 0; y < INPUT; y++) {
+                final int sy = y * frame.height / INPUT;
+                for (int x = 0; x < INPUT; x++) {
+                    resized[y * INPUT + x] = argb[sy * frame.width + x * frame.width / INPUT];
+                }
+            }
+            for (int p = 0; p < resized.length; p++) {
+                tensor.putFloat(p * 12, ((resized[p] >> 16) & 0xFF) / 255f);
+                tensor.putFloat(p * 12 + 4, ((resized[p] >> 8) & 0xFF) / 255f);
+                tensor.putFloat(p * 12 + 8, (resized[p] & 0xFF) / 255f);
+            }
+            checksum += resized[i % resized.length];
+            if (i >= WARMUP) nanos[i - WARMUP] = System.nanoTime() - start;
+        }
+        if (checksum == 42) System.out.print(""); // Keeps the loop from being dropped
+        print(frame, "semi-planar", "Bitmap", "-", nanos, meter.stop());
+    }
+
+    private static void print(Frame frame, String layout, String output, String stride,
+                              long[] nanos, long allocated) {
+        Arrays.sort(nanos);
+        System.out.printf("%-9s  %-12s  %-7s  %6s  %15.2f / %.2f  %11d%n", frame.width + "x" + frame.height, layout,
+                output, stride, nanos[TIMED / 2] / 1e6, nanos[TIMED * 95 / 100] / 1e6, allocated / TIMED);
+    }
+}
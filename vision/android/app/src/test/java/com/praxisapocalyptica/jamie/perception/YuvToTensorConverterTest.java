@@ -0,0 +1,253 @@
+package com/praxisapocalyptica/jamie.perception;
+
+// Plain-JVM test (this tree has no JUnit on its classpath): java -ea ...YuvToTensorConverterTest, non-zero exit on failure.
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+// Every tensor value against a per-pixel reference that works out, for each model input pixel on its own, whether
+// it is letterbox padding or which source pixel it samples, and converts that pixel with the floating point BT.601
+// formulas (the converter's 10-bit fixed point may be off by a couple of levels). Frames are random noise in all
+// three planes, so a wrong row, column or chroma sample shows up as a mismatch, laid out as Camera2 delivers them:
+// semi-planar (NV21: U and V interleaved, pixel stride 2) and planar (I420: pixel stride 1), with padded rows.
+public class YuvToTensorConverterTest {
+
+    private static final int PAD = 114;
+    private static final int TOLERANCE = 2; // Fixed point vs float, in 0..255 levels
+
+    public static void main(String[] args) {
+        letterboxesWideAndTallFrames();
+        semiPlanarAndPlanarChromaAgree();
+        sampleStrideRepeatsTheBlockAnchor();
+        sourceRegionsAreLetterboxedLikeFrames();
+        boxesMapBackToTheSource();
+        System.out.println("YuvToTensorConverterTest: OK");
+    }
+
+    // A YUV_420_888 image as the Image planes hand it over: three buffers and their strides
+    static final class Frame {
+        final int width, height;
+        final ByteBuffer y, u, v;
+        final int yRowStride, yPixelStride, uvRowStride, uvPixelStride;
+        final byte[] luma, blue, red; // Tightly packed planes, for the reference
+
+        Frame(int width, int height, boolean semiPlanar, int rowPadding, long seed) {
+            this.width = width;
+            this.height = height;
+            final int chromaWidth = (width + 1) / 2, chromaHeight = (height + 1) / 2;
+            final Random random = new Random(seed);
+            luma = new byte[width * height];
+            blue = new byte[chromaWidth * chromaHeight];
+            red = new byte[chromaWidth * chromaHeight];
+            random.nextBytes(luma);
+            random.nextBytes(blue);
+            random.nextBytes(red);
+
+            yRowStride = width + rowPadding;
+            yPixelStride = 1;
+            y = ByteBuffer.allocateDirect(yRowStride * height);
+            for (int row = 0; row < height; row++) {
+                y.position(row * yRowStride);
+                y.put(luma, row * width, width);
+            }
+            y.clear();
+            if (semiPlanar) {
+                // NV21: V U V U ..., the V plane starts on the first byte and the U plane one byte later
+                uvPixelStride = 2;
+                uvRowStride = 2 * chromaWidth + rowPadding;
+                final ByteBuffer vu = ByteBuffer.allocateDirect(uvRowStride * chromaHeight);
+                for (int row = 0; row < chromaHeight; row++) {
+                    for (int col = 0; col < chromaWidth; col++) {
+                        vu.put(row * uvRowStride + 2 * col, red[row * chromaWidth + col]);
+                        vu.put(row * uvRowStride + 2 * col + 1, blue[row * chromaWidth + col]);
+                    }
+                }
+                v = vu.duplicate();
+                vu.position(1);
+                u = vu.slice();
+            } else {
+                uvPixelStride = 1;
+                uvRowStride = chromaWidth + rowPadding;
+                u = ByteBuffer.allocateDirect(uvRowStride * chromaHeight);
+                v = ByteBuffer.allocateDirect(uvRowStride * chromaHeight);
+                for (int row = 0; row < chromaHeight; row++) {
+                    for (int col = 0; col < chromaWidth; col++) {
+                        u.put(row * uvRowStride + col, blue[row * chromaWidth + col]);
+                        v.put(row * uvRowStride + col, red[row * chromaWidth + col]);
+                    }
+                }
+            }
+        }
+
+        ByteBuffer convert(YuvToTensorConverter converter) {
+            return converter.convert(y, u, v, yRowStride, yPixelStride, uvRowStride, uvPixelStride, width, height);
+        }
+
+        // RGB of source pixel (x, y), floating point BT.601 full range
+        int[] rgb(int x, int y) {
+            final double luminance = luma[y * width + x] & 0xFF;
+            final int chroma = (y / 2) * ((width + 1) / 2) + x / 2;
+            final double cb = (blue[chroma] & 0xFF) - 128, cr = (red[chroma] & 0xFF) - 128;
+            return new int[] {clamp(luminance + 1.402 * cr), clamp(luminance - 0.344136 * cb - 0.714136 * cr),
+                    clamp(luminance + 1.772 * cb)};
+        }
+
+        private static int clamp(double value) {
+            return (int) Math.max(0, Math.min(255, Math.round(value)));
+        }
+    }
+
+    // Expected RGB of every model input pixel for the given region (width 0: the whole frame) and sample stride
+    private static int[] reference(Frame frame, int outWidth, int outHeight, int regionX, int regionY,
+                                   int regionWidth, int regionHeight, int stride) {
+        int x0 = 0, y0 = 0, areaWidth = frame.width, areaHeight = frame.height;
+        if (regionWidth > 0) {
+            x0 = Math.max(0, Math.min(regionX, frame.width - 1));
+            y0 = Math.max(0, Math.min(regionY, frame.height - 1));
+            areaWidth = Math.min(regionWidth, frame.width - x0);
+            areaHeight = Math.min(regionHeight, frame.height - y0);
+        }
+        final float scale = Math.min(outWidth / (float) areaWidth, outHeight / (float) areaHeight);
+        final int contentWidth = Math.min(outWidth, Math.round(areaWidth * scale));
+        final int contentHeight = Math.min(outHeight, Math.round(areaHeight * scale));
+        final int padX = (outWidth - contentWidth) / 2, padY = (outHeight - contentHeight) / 2;
+
+        final int[] expected = new int[outWidth * outHeight * 3];
+        for (int oy = 0; oy < outHeight; oy++) {
+            for (int ox = 0; ox < outWidth; ox++) {
+                final int i = (oy * outWidth + ox) * 3;
+                int dx = ox - padX, dy = oy - padY;
+                if (dx < 0 || dy < 0 || dx >= contentWidth || dy >= contentHeight) {
+                    expected[i] = expected[i + 1] = expected[i + 2] = PAD;
+                    continue;
+                }
+                dx -= dx % stride; // The block's top left pixel is the one converted
+                dy -= dy % stride;
+                final int sx = x0 + Math.min(areaWidth - 1, (int) ((dx + 0.5f) / scale));
+                final int sy = y0 + Math.min(areaHeight - 1, (int) ((dy + 0.5f) / scale));
+                System.arraycopy(frame.rgb(sx, sy), 0, expected, i, 3);
+            }
+        }
+        return expected;
+    }
+
+    private static void checkTensor(ByteBuffer tensor, YuvToTensorConverter converter, int[] expected, String what) {
+        check(tensor.position() == 0 && tensor.order() == ByteOrder.nativeOrder(), what + ": rewound, native order");
+        final boolean asFloat = converter.getOutputType() == YuvToTensorConverter.OutputType.FLOAT32;
+        for (int i = 0; i < expected.length; i++) {
+            final int actual = asFloat ? Math.round(tensor.getFloat(i * 4) * 255f) : tensor.get(i) & 0xFF;
+            if (Math.abs(actual - expected[i]) > TOLERANCE) {
+                final int pixel = i / 3, width = converter.getOutputWidth();
+                throw new AssertionError(what + ": pixel (" + pixel % width + ", " + pixel / width + ") channel "
+                        + i % 3 + " is " + actual + ", expected " + expected[i]);
+            }
+        }
+    }
+
+    private static void letterboxesWideAndTallFrames() {
+        for (YuvToTensorConverter.OutputType type : YuvToTensorConverter.OutputType.values()) {
+            final YuvToTensorConverter converter = new YuvToTensorConverter(320, 320, type);
+            final Frame wide = new Frame(640, 480, true, 0, 1);
+            checkTensor(wide.convert(converter), converter, reference(wide, 320, 320, 0, 0, 0, 0, 1), type + " 4:3");
+            check(converter.getPadX() == 0 && converter.getPadY() == 40, "bars above and below");
+            // Narrower content next: the bars move to the sides and the old content must not show through
+            final Frame tall = new Frame(360, 640, true, 0, 2);
+            checkTensor(tall.convert(converter), converter, reference(tall, 320, 320, 0, 0, 0, 0, 1), type + " 9:16");
+            check(converter.getPadX() == 70 && converter.getPadY() == 0, "bars left and right");
+            // Upscaled, and a model input that isn't square
+            final YuvToTensorConverter small = new YuvToTensorConverter(256, 192, type);
+            final Frame tiny = new Frame(64, 64, false, 0, 3);
+            checkTensor(tiny.convert(small), small, reference(tiny, 256, 192, 0, 0, 0, 0, 1), type + " upscaled");
+        }
+    }
+
+    private static void semiPlanarAndPlanarChromaAgree() {
+        final YuvToTensorConverter converter = new YuvToTensorConverter(320, 320,
+                YuvToTensorConverter.OutputType.UINT8);
+        for (boolean semiPlanar : new boolean[] {true, false}) {
+            for (int padding : new int[] {0, 48}) { // 48: rows padded out to an alignment, as many HALs do
+                final Frame frame = new Frame(640, 480, semiPlanar, padding, 10 + padding);
+                checkTensor(frame.convert(converter), converter, reference(frame, 320, 320, 0, 0, 0, 0, 1),
+                        (semiPlanar ? "semi-planar" : "planar") + ", row padding " + padding);
+            }
+        }
+        // Odd sizes: the last column and row share the chroma sample of the pair they would belong to
+        final Frame odd = new Frame(331, 247, true, 5, 20);
+        checkTensor(odd.convert(converter), converter, reference(odd, 320, 320, 0, 0, 0, 0, 1), "odd size");
+    }
+
+    private static void sampleStrideRepeatsTheBlockAnchor() {
+        final Frame frame = new Frame(640, 480, true, 16, 30);
+        for (YuvToTensorConverter.OutputType type : YuvToTensorConverter.OutputType.values()) {
+            final YuvToTensorConverter converter = new YuvToTensorConverter(320, 320, type);
+            for (int stride : new int[] {2, 3, 1}) { // 3 doesn't divide the content: partial blocks at the edges
+                converter.setSampleStride(stride);
+                checkTensor(frame.convert(converter), converter, reference(frame, 320, 320, 0, 0, 0, 0, stride),
+                        type + " stride " + stride);
+            }
+        }
+        final YuvToTensorConverter converter = new YuvToTensorConverter(320, 320,
+                YuvToTensorConverter.OutputType.UINT8);
+        for (int invalid : new int[] {0, 9}) {
+            try {
+                converter.setSampleStride(invalid);
+                throw new AssertionError("stride " + invalid + " accepted");
+            } catch (IllegalArgumentException expected) {
+                // Rejected
+            }
+        }
+    }
+
+    private static void sourceRegionsAreLetterboxedLikeFrames() {
+        final Frame frame = new Frame(1280, 720, true, 0, 40);
+        final YuvToTensorConverter converter = new YuvToTensorConverter(320, 320,
+                YuvToTensorConverter.OutputType.FLOAT32);
+        final int[][] regions = {
+                {0, 0, 640, 640},     // Square tile: no bars
+                {640, 80, 640, 640},  // Same size elsewhere: only the lookup tables change
+                {100, 200, 600, 300}, // Wide tile: bars above and below
+                {1000, 500, 600, 600} // Past the bottom right corner: clipped to 280 x 220
+        };
+        for (int[] r : regions) {
+            converter.setSourceRegion(r[0], r[1], r[2], r[3]);
+            checkTensor(frame.convert(converter), converter, reference(frame, 320, 320, r[0], r[1], r[2], r[3], 1),
+                    "region " + r[0] + "," + r[1] + " " + r[2] + "x" + r[3]);
+        }
+        converter.setSampleStride(2);
+        converter.setSourceRegion(300, 100, 500, 400);
+        checkTensor(frame.convert(converter), converter, reference(frame, 320, 320, 300, 100, 500, 400, 2),
+                "region with stride 2");
+        converter.setSampleStride(1);
+        converter.clearSourceRegion();
+        checkTensor(frame.convert(converter), converter, reference(frame, 320, 320, 0, 0, 0, 0, 1), "cleared");
+        try {
+            converter.setSourceRegion(0, 0, 0, 100);
+            throw new AssertionError("empty region accepted");
+        } catch (IllegalArgumentException expected) {
+            // Rejected
+        }
+    }
+
+    // A box found in the model input maps back through getScale() / getOffsetX() / getOffsetY() onto the source
+    // pixels it was sampled from, with or without a region
+    private static void boxesMapBackToTheSource() {
+        final Frame frame = new Frame(1280, 720, true, 0, 50);
+        final YuvToTensorConverter converter = new YuvToTensorConverter(320, 320,
+                YuvToTensorConverter.OutputType.UINT8);
+        frame.convert(converter);
+        check(Math.abs(converter.toSourceX(160) - 640) < 1 && Math.abs(converter.toSourceY(160) - 360) < 1,
+                "centre maps to the centre");
+        converter.setSourceRegion(400, 100, 400, 400);
+        frame.convert(converter);
+        check(Math.abs(converter.toSourceX(0) - 400) < 1e-3 && Math.abs(converter.toSourceY(320) - 500) < 1e-3,
+                "region corners: " + converter.toSourceX(0) + ", " + converter.toSourceY(320));
+        final float modelX = 123.5f;
+        check(Math.abs(converter.toSourceX(modelX) * converter.getScale() + converter.getOffsetX() - modelX) < 1e-3,
+                "toSourceX inverts the offset and scale");
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}